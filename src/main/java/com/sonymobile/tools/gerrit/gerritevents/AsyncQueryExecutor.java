@@ -0,0 +1,354 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Runs queries in the background for the async variants of the query handlers.
+ * <p>
+ * At most a set number of queries run at the same time against each server. The rest wait in a queue of their
+ * server without holding a thread, and are started in order as running ones finish. A query that is cancelled,
+ * or not done within the timeout, is told to stop: it is taken out of the queue if it hasn't started, and
+ * otherwise its thread is interrupted and the query stops at the next row, closing the channel to the server.
+ * <p>
+ * The {@link #getInstance() shared instance} reads its limits from the system properties
+ * {@code gerritevents.AsyncQueryExecutor.MAX_PER_SERVER} and {@code gerritevents.AsyncQueryExecutor.TIMEOUT},
+ * in ms with 0 or less for none.
+ */
+public final class AsyncQueryExecutor {
+
+    /**
+     * The default number of queries run at the same time against one server.
+     */
+    public static final int DEFAULT_MAX_PER_SERVER =
+            Integer.getInteger("gerritevents.AsyncQueryExecutor.MAX_PER_SERVER", 8);
+    /**
+     * The default time a query may take, queueing included, in ms. 0 or less for no limit.
+     */
+    public static final long DEFAULT_TIMEOUT = Long.getLong("gerritevents.AsyncQueryExecutor.TIMEOUT", 0);
+    private static final AsyncQueryExecutor INSTANCE = new AsyncQueryExecutor(DEFAULT_MAX_PER_SERVER, DEFAULT_TIMEOUT);
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(
+            new NamedDaemonThreadFactory(AsyncQueryExecutor.class.getName()));
+    private static final ScheduledExecutorService TIMER = createTimer();
+
+    /**
+     * A query to run.
+     *
+     * @param <T> the type of the result.
+     */
+    public interface Query<T> {
+
+        //CS IGNORE RedundantThrows FOR NEXT 12 LINES. REASON: Informative.
+
+        /**
+         * Runs the query.
+         *
+         * @param future the future of the query, the query should stop as soon as it is done.
+         * @return the result.
+         * @throws IOException          if so.
+         * @throws GerritQueryException if so.
+         */
+        T run(Future<T> future) throws IOException, GerritQueryException;
+    }
+
+    /**
+     * A query waiting for or holding a slot of its server.
+     *
+     * @param <T> the type of the result.
+     */
+    private static final class Task<T> implements Runnable {
+        private final Query<T> query;
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+        private final ServerQueue queue;
+        private Thread runner;
+
+        /**
+         * Constructor.
+         *
+         * @param query the query.
+         * @param queue the queue of the server.
+         */
+        private Task(Query<T> query, ServerQueue queue) {
+            this.query = query;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (start()) {
+                    try {
+                        future.complete(query.run(future));
+                    } catch (IOException | GerritQueryException | RuntimeException | Error e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        finish();
+                    }
+                }
+            } finally {
+                queue.finished();
+            }
+        }
+
+        /**
+         * Marks the query as running on the current thread, unless it is already done.
+         *
+         * @return true if it should run.
+         */
+        private synchronized boolean start() {
+            if (future.isDone()) {
+                return false;
+            }
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * Marks the query as no longer running, clearing an interrupt meant for it.
+         */
+        private synchronized void finish() {
+            runner = null;
+            Thread.interrupted();
+        }
+
+        /**
+         * Interrupts the query if it is running.
+         */
+        private synchronized void interrupt() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    /**
+     * The queries of one server.
+     */
+    private final class ServerQueue {
+        private final Deque<Task<?>> waiting = new ArrayDeque<Task<?>>();
+        private int running = 0;
+
+        /**
+         * Queues a query and starts it if there is a free slot.
+         *
+         * @param task the query.
+         */
+        private void submit(Task<?> task) {
+            synchronized (this) {
+                waiting.addLast(task);
+            }
+            dispatch();
+        }
+
+        /**
+         * Frees the slot of a query and starts the next one.
+         */
+        private void finished() {
+            synchronized (this) {
+                running--;
+            }
+            dispatch();
+        }
+
+        /**
+         * Starts queued queries while there are free slots. Queries already done are dropped.
+         */
+        private void dispatch() {
+            while (true) {
+                Task<?> next;
+                synchronized (this) {
+                    next = waiting.pollFirst();
+                    while (next != null && next.future.isDone()) {
+                        next = waiting.pollFirst();
+                    }
+                    if (next == null) {
+                        return;
+                    }
+                    if (running >= maxPerServer) {
+                        waiting.addFirst(next);
+                        return;
+                    }
+                    running++;
+                }
+                try {
+                    WORKERS.execute(next);
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        running--;
+                    }
+                    next.future.completeExceptionally(e);
+                }
+            }
+        }
+
+        /**
+         * Drops the queries already done from the queue.
+         */
+        private synchronized void purge() {
+            waiting.removeIf(new Predicate<Task<?>>() {
+                @Override
+                public boolean test(Task<?> task) {
+                    return task.future.isDone();
+                }
+            });
+        }
+    }
+
+    private final int maxPerServer;
+    private final long timeout;
+    private final ConcurrentMap<String, ServerQueue> servers = new ConcurrentHashMap<String, ServerQueue>();
+
+    /**
+     * Constructor.
+     *
+     * @param maxPerServer the number of queries run at the same time against one server.
+     * @param timeout      the time a query may take, queueing included, in ms. 0 or less for no limit.
+     */
+    public AsyncQueryExecutor(int maxPerServer, long timeout) {
+        this.maxPerServer = Math.max(1, maxPerServer);
+        this.timeout = timeout;
+    }
+
+    /**
+     * The executor shared by the query handlers of the process.
+     *
+     * @return the instance.
+     */
+    public static AsyncQueryExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the timer of the timeouts.
+     *
+     * @return the timer.
+     */
+    private static ScheduledExecutorService createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                new NamedDaemonThreadFactory(AsyncQueryExecutor.class.getName() + ".timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Queues a query of a server.
+     * Cancelling the returned future stops the query, and so does the timeout, completing it with a
+     * {@link TimeoutException}.
+     *
+     * @param server the server, as told apart by the handlers.
+     * @param query  the query.
+     * @param <T>    the type of the result.
+     * @return the future result.
+     */
+    public <T> CompletableFuture<T> submit(String server, Query<T> query) {
+        ServerQueue queue = servers.get(server);
+        if (queue == null) {
+            ServerQueue created = new ServerQueue();
+            queue = servers.putIfAbsent(server, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        final Task<T> task = new Task<T>(query, queue);
+        final ServerQueue taskQueue = queue;
+        final Future<?> timer = scheduleTimeout(task.future);
+        task.future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable failure) {
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                if (failure != null) {
+                    task.interrupt();
+                    taskQueue.purge();
+                }
+            }
+        });
+        queue.submit(task);
+        return task.future;
+    }
+
+    /**
+     * Completes the future with a {@link TimeoutException} if it isn't done in time.
+     *
+     * @param future the future.
+     * @return the scheduled timeout, or null if there is no timeout.
+     */
+    private Future<?> scheduleTimeout(final CompletableFuture<?> future) {
+        if (timeout <= 0) {
+            return null;
+        }
+        return TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.completeExceptionally(new TimeoutException("The query took longer than " + timeout + " ms"));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The number of queries of a server running.
+     *
+     * @param server the server.
+     * @return the count.
+     */
+    public int getRunning(String server) {
+        ServerQueue queue = servers.get(server);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.running;
+        }
+    }
+
+    /**
+     * The number of queries of a server waiting for a slot.
+     *
+     * @param server the server.
+     * @return the count.
+     */
+    public int getQueued(String server) {
+        ServerQueue queue = servers.get(server);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.waiting.size();
+        }
+    }
+
+    /**
+     * The number of queries run at the same time against one server.
+     *
+     * @return the count.
+     */
+    public int getMaxPerServer() {
+        return maxPerServer;
+    }
+
+    /**
+     * The time a query may take, queueing included.
+     *
+     * @return the time in ms, 0 or less for no limit.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
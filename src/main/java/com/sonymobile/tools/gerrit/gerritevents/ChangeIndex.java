@@ -0,0 +1,764 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritChangeStatus;
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritEvent;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Account;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeAbandoned;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeBasedEvent;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeMerged;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeRestored;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.HashtagsChanged;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.PatchsetCreated;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.TopicChanged;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Keeps the open changes of a server in memory, so that simple queries about them can be answered without asking
+ * the server.
+ * <p>
+ * The index is filled by {@link #warm(GerritQueryHandler)} with one query for all open changes, and then kept up
+ * to date by adding it as a listener to the {@link GerritHandler} receiving the events of the same server:
+ * new and restored changes are added, merged and abandoned ones are taken out, and what other events tell about a
+ * change is merged into the indexed one, keeping what an event leaves out. Events
+ * can be missed while the stream is down, so the index stops answering when it is added as a
+ * {@link ConnectionListener} and told the connection is down, until it is warmed again.
+ * <p>
+ * A query is answered if it is a conjunction of {@code status:open} (or {@code is:open}) with the operators
+ * {@code project}, {@code branch}, {@code topic}, {@code owner} (username, email or full name), {@code hashtag},
+ * {@code change} (Change-Id or a prefix of it) and {@code limit}. Like on the server at most {@link #DEFAULT_LIMIT}
+ * changes are answered when no smaller limit is asked for. Other queries, also {@code change} with a change number,
+ * are not answered and should be sent to the server. The changes only hold the attributes the events tell, without
+ * patch sets or comments, and are ordered newest first like Gerrit orders them. Each caller gets copies of its own.
+ */
+public class ChangeIndex implements GerritEventListener, ConnectionListener {
+
+    /**
+     * The query that fills the index.
+     */
+    public static final String WARM_QUERY = "status:open";
+    /**
+     * The most changes answered to a query, the default query limit of Gerrit.
+     */
+    public static final int DEFAULT_LIMIT = Integer.getInteger("gerritevents.ChangeIndex.DEFAULT_LIMIT", 500);
+
+    static final String PROJECT = "project";
+    static final String BRANCH = "branch";
+    static final String TOPIC = "topic";
+    static final String OWNER = "owner";
+    static final String HASHTAG = "hashtag";
+    static final String CHANGE = "change";
+    private static final String STATUS = "status";
+    private static final String IS = "is";
+    private static final String LIMIT = "limit";
+    private static final String AND = "AND";
+    private static final String OPEN = "open";
+    private static final String BRANCH_PREFIX = "refs/heads/";
+    private static final char CHANGE_ID_PREFIX = 'I';
+    private static final char KEY_SEPARATOR = '~';
+    private static final Set<String> OPEN_STATUSES = new HashSet<String>(
+            Arrays.asList(OPEN, "new", "pending"));
+    private static final Set<String> OPERATORS = new HashSet<String>(
+            Arrays.asList(PROJECT, BRANCH, TOPIC, OWNER, HASHTAG, CHANGE));
+
+    /**
+     * An indexed change.
+     */
+    private static final class Entry {
+        private final String key;
+        private final Change change;
+        private final long updated;
+
+        /**
+         * Constructor.
+         *
+         * @param key     the key of the change, see {@link #key(Change)}.
+         * @param change  a copy of the change that only the index holds.
+         * @param updated when it was last updated, in ms.
+         */
+        private Entry(String key, Change change, long updated) {
+            this.key = key;
+            this.change = change;
+            this.updated = updated;
+        }
+    }
+
+    /**
+     * Orders changes newest first.
+     */
+    private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Long.compare(b.updated, a.updated);
+        }
+    };
+
+    /**
+     * A parsed query the index can answer.
+     */
+    static final class Query {
+        private final List<String[]> terms = new ArrayList<String[]>();
+        private int limit = DEFAULT_LIMIT;
+        private boolean open = false;
+
+        /**
+         * The operator and value pairs of the query, besides the status and limit.
+         *
+         * @return the terms.
+         */
+        List<String[]> getTerms() {
+            return terms;
+        }
+
+        /**
+         * The most changes to answer with.
+         *
+         * @return the limit.
+         */
+        int getLimit() {
+            return limit;
+        }
+    }
+
+    private final Map<String, Entry> changes = new HashMap<String, Entry>();
+    private final Map<String, SortedMap<String, Set<String>>> postings =
+            new HashMap<String, SortedMap<String, Set<String>>>();
+    private final Set<String> closedWhileWarming = new HashSet<String>();
+    private boolean ready = false;
+    private boolean warming = false;
+    private boolean down = false;
+    private long hits = 0;
+    private long misses = 0;
+
+    //CS IGNORE RedundantThrows FOR NEXT 47 LINES. REASON: Informative.
+
+    /**
+     * Fills the index anew with the open changes of the server and makes it answer queries.
+     * Events handled while it runs are kept, and a change read from the server doesn't replace a newer one from
+     * an event. If the connection goes down while it runs, the index doesn't answer until it is warmed again.
+     *
+     * @param handler the handler of the server the events come from.
+     * @throws GerritQueryException if Gerrit reports an error with the query.
+     * @throws IOException          for some other IO problem, the index then doesn't answer queries.
+     */
+    public void warm(GerritQueryHandler handler) throws IOException, GerritQueryException {
+        synchronized (this) {
+            changes.clear();
+            postings.clear();
+            ready = false;
+            warming = true;
+            down = false;
+            closedWhileWarming.clear();
+        }
+        try {
+            handler.queryAll(WARM_QUERY, false, false, false, false, false, new QueryVisitor() {
+                @Override
+                public boolean visit(JSONObject row) {
+                    addWarmed(new Change(row));
+                    return true;
+                }
+            });
+            synchronized (this) {
+                ready = !down;
+            }
+        } finally {
+            synchronized (this) {
+                warming = false;
+                closedWhileWarming.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds a change read from the server, unless an event already told something newer about it.
+     *
+     * @param change the change.
+     */
+    private synchronized void addWarmed(Change change) {
+        String key = key(change);
+        if (key == null || closedWhileWarming.contains(key)) {
+            return;
+        }
+        long updated = millis(change);
+        Entry existing = changes.get(key);
+        if (existing == null || existing.updated < updated) {
+            put(new Entry(key, change, updated));
+        }
+    }
+
+    /**
+     * Answers a query from the index.
+     *
+     * @param queryString the query.
+     * @return copies of the changes, newest first, or null if the index can't answer the query.
+     */
+    public synchronized List<Change> query(String queryString) {
+        Query query = null;
+        if (ready) {
+            query = parse(queryString);
+        }
+        if (query == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        Set<String> keys;
+        if (query.terms.isEmpty()) {
+            keys = changes.keySet();
+        } else {
+            List<Set<String>> lists = new ArrayList<Set<String>>(query.terms.size());
+            for (String[] term : query.terms) {
+                Set<String> list = getPosting(term[0], term[1]);
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(list);
+            }
+            Collections.sort(lists, new Comparator<Set<String>>() {
+                @Override
+                public int compare(Set<String> a, Set<String> b) {
+                    return Integer.compare(a.size(), b.size());
+                }
+            });
+            keys = new HashSet<String>(lists.get(0));
+            for (int i = 1; i < lists.size() && !keys.isEmpty(); i++) {
+                keys.retainAll(lists.get(i));
+            }
+        }
+        List<Entry> found = new ArrayList<Entry>(keys.size());
+        for (String key : keys) {
+            found.add(changes.get(key));
+        }
+        Collections.sort(found, NEWEST_FIRST);
+        List<Change> result = new ArrayList<Change>(Math.min(found.size(), query.limit));
+        for (int i = 0; i < found.size() && i < query.limit; i++) {
+            result.add(copy(found.get(i).change));
+        }
+        return result;
+    }
+
+    /**
+     * Parses a query the index can answer.
+     *
+     * @param queryString the query.
+     * @return the query, or null if it isn't a conjunction of supported operators restricted to open changes,
+     *         or a value can only be matched by the server.
+     */
+    static Query parse(String queryString) {
+        List<String> tokens = tokenize(queryString);
+        if (tokens == null) {
+            return null;
+        }
+        Query query = new Query();
+        for (String token : tokens) {
+            if (AND.equals(token)) {
+                continue;
+            }
+            int colon = token.indexOf(':');
+            if (colon <= 0 || colon == token.length() - 1) {
+                return null;
+            }
+            String operator = token.substring(0, colon);
+            String value = unquote(token.substring(colon + 1));
+            if (STATUS.equals(operator) || IS.equals(operator)) {
+                if (!OPEN_STATUSES.contains(value.toLowerCase(Locale.ENGLISH))) {
+                    return null;
+                }
+                query.open = true;
+            } else if (LIMIT.equals(operator)) {
+                int limit;
+                try {
+                    limit = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (limit <= 0) {
+                    return null;
+                }
+                query.limit = Math.min(query.limit, limit);
+            } else if (OPERATORS.contains(operator) && !value.isEmpty() && !value.startsWith("^")
+                    && !(OWNER.equals(operator) && "self".equals(value))
+                    && !(CHANGE.equals(operator) && Character.toUpperCase(value.charAt(0)) != CHANGE_ID_PREFIX)) {
+                query.terms.add(new String[]{operator, normalize(operator, value)});
+            } else {
+                return null;
+            }
+        }
+        if (!query.open) {
+            return null;
+        }
+        return query;
+    }
+
+    /**
+     * Splits a query into its terms, keeping quoted values together.
+     *
+     * @param queryString the query.
+     * @return the terms, or null if the query has negations, alternatives or groups.
+     */
+    private static List<String> tokenize(String queryString) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        char quote = 0;
+        for (int i = 0; i < queryString.length(); i++) {
+            char c = queryString.charAt(i);
+            if (quote != 0) {
+                token.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"') {
+                token.append(c);
+                quote = '"';
+            } else if (c == '{') {
+                token.append(c);
+                quote = '}';
+            } else if (Character.isWhitespace(c)) {
+                addToken(tokens, token);
+            } else if (c == '(' || c == ')' || (c == '-' && token.length() == 0)) {
+                return null;
+            } else {
+                token.append(c);
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        addToken(tokens, token);
+        if (tokens.contains("OR") || tokens.contains("NOT")) {
+            return null;
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds a term, if there is one.
+     *
+     * @param tokens the terms.
+     * @param token  the term read, emptied.
+     */
+    private static void addToken(List<String> tokens, StringBuilder token) {
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+            token.setLength(0);
+        }
+    }
+
+    /**
+     * Takes the quotes off a value.
+     *
+     * @param value the value.
+     * @return the value without quotes.
+     */
+    private static String unquote(String value) {
+        if (value.length() >= 2 && ((value.startsWith("\"") && value.endsWith("\""))
+                || (value.startsWith("{") && value.endsWith("}")))) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Turns a value into the form it is indexed with.
+     *
+     * @param operator the operator.
+     * @param value    the value.
+     * @return the indexed form.
+     */
+    private static String normalize(String operator, String value) {
+        if (BRANCH.equals(operator) && value.startsWith(BRANCH_PREFIX)) {
+            return value.substring(BRANCH_PREFIX.length());
+        }
+        if (OWNER.equals(operator) || HASHTAG.equals(operator)) {
+            return value.toLowerCase(Locale.ENGLISH);
+        }
+        if (CHANGE.equals(operator)) {
+            return CHANGE_ID_PREFIX + value.substring(1);
+        }
+        return value;
+    }
+
+    @Override
+    public void gerritEvent(GerritEvent event) {
+        if (!(event instanceof ChangeBasedEvent)) {
+            return;
+        }
+        ChangeBasedEvent changeEvent = (ChangeBasedEvent)event;
+        Change change = changeEvent.getChange();
+        if (change == null) {
+            return;
+        }
+        String key = key(change);
+        if (key == null) {
+            return;
+        }
+        GerritChangeStatus status = change.getStatus();
+        synchronized (this) {
+            if (event instanceof ChangeMerged || event instanceof ChangeAbandoned
+                    || (status != null && status != GerritChangeStatus.NEW && status != GerritChangeStatus.UNKNOWN)) {
+                remove(key);
+                if (warming) {
+                    closedWhileWarming.add(key);
+                }
+                return;
+            }
+            boolean open = status == GerritChangeStatus.NEW
+                    || event instanceof PatchsetCreated || event instanceof ChangeRestored;
+            if (!open && !changes.containsKey(key)) {
+                return;
+            }
+            closedWhileWarming.remove(key);
+            long updated = millis(change);
+            if (changeEvent.getEventCreatedOn() != null) {
+                updated = Math.max(updated, changeEvent.getEventCreatedOn().getTime());
+            }
+            Entry existing = changes.get(key);
+            if (existing == null) {
+                put(new Entry(key, merge(null, changeEvent), updated));
+            } else {
+                put(new Entry(key, merge(existing.change, changeEvent), updated));
+            }
+        }
+    }
+
+    @Override
+    public void connectionEstablished() {
+        // The events missed while down are only caught up by warming again.
+    }
+
+    @Override
+    public synchronized void connectionDown() {
+        down = true;
+        ready = false;
+    }
+
+    /**
+     * If the index answers queries.
+     *
+     * @return true if it is warm and hasn't missed events since.
+     */
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * The number of open changes in the index.
+     *
+     * @return the count.
+     */
+    public synchronized int size() {
+        return changes.size();
+    }
+
+    /**
+     * The number of queries answered.
+     *
+     * @return the count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of queries the index couldn't answer.
+     *
+     * @return the count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Forgets everything, and stops answering queries until warmed again.
+     */
+    public synchronized void clear() {
+        changes.clear();
+        postings.clear();
+        ready = false;
+    }
+
+    /**
+     * Adds or replaces a change.
+     *
+     * @param entry the change.
+     */
+    private void put(Entry entry) {
+        remove(entry.key);
+        changes.put(entry.key, entry);
+        for (String[] term : terms(entry.change)) {
+            SortedMap<String, Set<String>> values = postings.get(term[0]);
+            if (values == null) {
+                values = new TreeMap<String, Set<String>>();
+                postings.put(term[0], values);
+            }
+            Set<String> list = values.get(term[1]);
+            if (list == null) {
+                list = new HashSet<String>();
+                values.put(term[1], list);
+            }
+            list.add(entry.key);
+        }
+    }
+
+    /**
+     * Takes a change out.
+     *
+     * @param key the key of the change.
+     */
+    private void remove(String key) {
+        Entry entry = changes.remove(key);
+        if (entry == null) {
+            return;
+        }
+        for (String[] term : terms(entry.change)) {
+            Map<String, Set<String>> values = postings.get(term[0]);
+            if (values != null) {
+                Set<String> list = values.get(term[1]);
+                if (list != null) {
+                    list.remove(key);
+                    if (list.isEmpty()) {
+                        values.remove(term[1]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The changes with a value of an operator.
+     *
+     * @param operator the operator.
+     * @param value    the indexed form of the value.
+     * @return the keys of the changes, or null if none.
+     */
+    private Set<String> getPosting(String operator, String value) {
+        SortedMap<String, Set<String>> values = postings.get(operator);
+        if (values == null) {
+            return null;
+        }
+        if (!CHANGE.equals(operator)) {
+            return values.get(value);
+        }
+        SortedMap<String, Set<String>> prefixed = values.subMap(value, value + Character.MAX_VALUE);
+        if (prefixed.isEmpty()) {
+            return null;
+        }
+        if (prefixed.size() == 1) {
+            return prefixed.values().iterator().next();
+        }
+        Set<String> union = new HashSet<String>();
+        for (Set<String> list : prefixed.values()) {
+            union.addAll(list);
+        }
+        return union;
+    }
+
+    /**
+     * The operator and value pairs a change is found by.
+     *
+     * @param change the change.
+     * @return the terms.
+     */
+    private static List<String[]> terms(Change change) {
+        List<String[]> terms = new ArrayList<String[]>();
+        addTerm(terms, PROJECT, change.getProject());
+        addTerm(terms, BRANCH, change.getBranch());
+        addTerm(terms, TOPIC, change.getTopic());
+        addTerm(terms, CHANGE, change.getId());
+        Account owner = change.getOwner();
+        if (owner != null) {
+            addTerm(terms, OWNER, owner.getUsername());
+            addTerm(terms, OWNER, owner.getEmail());
+            addTerm(terms, OWNER, owner.getName());
+        }
+        if (change.getHashtags() != null) {
+            for (String hashtag : change.getHashtags()) {
+                addTerm(terms, HASHTAG, hashtag);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Adds a term, if there is a value.
+     *
+     * @param terms    the terms.
+     * @param operator the operator.
+     * @param value    the value, or null.
+     */
+    private static void addTerm(List<String[]> terms, String operator, String value) {
+        if (value != null && !value.isEmpty()) {
+            terms.add(new String[]{operator, normalize(operator, value)});
+        }
+    }
+
+    /**
+     * What a change is indexed by, its project, branch and Change-Id like Gerrit identifies it.
+     *
+     * @param change the change.
+     * @return the key, or null if the change doesn't tell its Change-Id.
+     */
+    private static String key(Change change) {
+        if (change.getId() == null || change.getId().isEmpty()) {
+            return null;
+        }
+        return change.getProject() + KEY_SEPARATOR + change.getBranch() + KEY_SEPARATOR + change.getId();
+    }
+
+    /**
+     * Copies the attributes of a change the index holds, so that neither the listeners sharing an event nor the
+     * callers of {@link #query(String)} can change what the index holds.
+     *
+     * @param change the change.
+     * @return the copy.
+     */
+    @SuppressWarnings("deprecation")
+    private static Change copy(Change change) {
+        Change copy = new Change();
+        copy.setProject(change.getProject());
+        copy.setBranch(change.getBranch());
+        copy.setId(change.getId());
+        //The number is deprecated in the API, but still what many callers show.
+        copy.setNumber(change.getNumber());
+        copy.setSubject(change.getSubject());
+        copy.setUrl(change.getUrl());
+        copy.setStatus(change.getStatus());
+        copy.setWip(change.isWip());
+        copy.setPrivate(change.isPrivate());
+        if (change.getTopic() != null) {
+            copy.setTopic(change.getTopic());
+        }
+        if (change.getHashtags() != null) {
+            copy.setHashtags(new ArrayList<String>(change.getHashtags()));
+        }
+        Account owner = change.getOwner();
+        if (owner != null) {
+            Account ownerCopy = new Account(owner.getName(), owner.getEmail());
+            ownerCopy.setUsername(owner.getUsername());
+            copy.setOwner(ownerCopy);
+        }
+        if (change.getCreatedOn() != null) {
+            copy.setCreatedOn(new Date(change.getCreatedOn().getTime()));
+        }
+        if (change.getLastUpdated() != null) {
+            copy.setLastUpdated(new Date(change.getLastUpdated().getTime()));
+        }
+        return copy;
+    }
+
+    /**
+     * Merges what an event tells about a change into the copy the index holds. The change of an event doesn't tell
+     * every attribute, the topic and hashtags for one are only there when the change has any in some versions of
+     * Gerrit, so what the event leaves out keeps its indexed value. The topic and hashtags told by the events
+     * about them are taken as they are, also when they are gone.
+     *
+     * @param indexed the change the index holds, or null if it holds none.
+     * @param event   the event.
+     * @return a new copy that only the index holds.
+     */
+    @SuppressWarnings("deprecation")
+    private static Change merge(Change indexed, ChangeBasedEvent event) {
+        Change merged = copy(event.getChange());
+        if (indexed != null) {
+            if (merged.getNumber() == null) {
+                merged.setNumber(indexed.getNumber());
+            }
+            if (merged.getSubject() == null) {
+                merged.setSubject(indexed.getSubject());
+            }
+            if (merged.getUrl() == null) {
+                merged.setUrl(indexed.getUrl());
+            }
+            if (merged.getStatus() == null) {
+                merged.setStatus(indexed.getStatus());
+            }
+            if (merged.getTopic() == null && indexed.getTopic() != null && !(event instanceof TopicChanged)) {
+                merged.setTopic(indexed.getTopic());
+            }
+            if ((merged.getHashtags() == null || merged.getHashtags().isEmpty()) && indexed.getHashtags() != null) {
+                merged.setHashtags(indexed.getHashtags());
+            }
+            if (merged.getOwner() == null) {
+                merged.setOwner(indexed.getOwner());
+            } else if (indexed.getOwner() != null) {
+                Account owner = merged.getOwner();
+                if (owner.getUsername() == null) {
+                    owner.setUsername(indexed.getOwner().getUsername());
+                }
+                if (owner.getEmail() == null) {
+                    owner.setEmail(indexed.getOwner().getEmail());
+                }
+                if (owner.getName() == null) {
+                    owner.setName(indexed.getOwner().getName());
+                }
+            }
+            if (merged.getCreatedOn() == null) {
+                merged.setCreatedOn(indexed.getCreatedOn());
+            }
+            if (merged.getLastUpdated() == null) {
+                merged.setLastUpdated(indexed.getLastUpdated());
+            }
+        }
+        if (event instanceof HashtagsChanged) {
+            merged.setHashtags(hashtags(indexed, (HashtagsChanged)event));
+        }
+        return merged;
+    }
+
+    /**
+     * The hashtags of a change after an event about them: all of them if the event tells them,
+     * otherwise the indexed ones with the added and removed ones of the event applied.
+     *
+     * @param indexed the change the index holds, or null if it holds none.
+     * @param event   the event.
+     * @return the hashtags.
+     */
+    private static List<String> hashtags(Change indexed, HashtagsChanged event) {
+        if (event.getHashtags() != null && !event.getHashtags().isEmpty()) {
+            return new ArrayList<String>(event.getHashtags());
+        }
+        List<String> hashtags = new ArrayList<String>();
+        if (indexed != null && indexed.getHashtags() != null) {
+            hashtags.addAll(indexed.getHashtags());
+        }
+        if (event.getRemovedHashtags() != null) {
+            hashtags.removeAll(event.getRemovedHashtags());
+        }
+        if (event.getAddedHashtags() != null) {
+            for (String hashtag : event.getAddedHashtags()) {
+                if (!hashtags.contains(hashtag)) {
+                    hashtags.add(hashtag);
+                }
+            }
+        }
+        return hashtags;
+    }
+
+    /**
+     * When a change was last updated.
+     *
+     * @param change the change.
+     * @return the time in ms, 0 if not told.
+     */
+    private static long millis(Change change) {
+        if (change.getLastUpdated() == null) {
+            return 0;
+        }
+        return change.getLastUpdated().getTime();
+    }
+}
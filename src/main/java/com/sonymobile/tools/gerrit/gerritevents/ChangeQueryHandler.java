@@ -0,0 +1,32 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import java.io.IOException;
+
+/**
+ * A handler that can run typed change queries against one server, over ssh or REST.
+ *
+ * @see FederatedQuery
+ */
+public interface ChangeQueryHandler {
+
+    //CS IGNORE RedundantThrows FOR NEXT 12 LINES. REASON: Informative.
+
+    /**
+     * Runs the query and hands each change to the visitor as soon as it is read.
+     *
+     * @param queryString the query.
+     * @param projection  the parts of the changes to fetch and decode.
+     * @param visitor     the visitor of the changes, it can stop the query by returning false.
+     * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+     * @throws IOException          for some other IO problem.
+     */
+    void queryChanges(String queryString, QueryProjection projection, ChangeVisitor visitor)
+            throws IOException, GerritQueryException;
+
+    /**
+     * The host and port of the server, as used to tell servers apart in caches and queues.
+     *
+     * @return the server.
+     */
+    String getServerKey();
+}
@@ -0,0 +1,131 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers typed change queries from a {@link ChangeIndex} when it can, and sends the rest to the server.
+ * <p>
+ * A query is answered locally when the index supports it and only the attributes of the changes are asked for,
+ * as with {@link QueryProjection#CHANGE}. Anything else, and every query while the index isn't ready, goes to the
+ * {@link GerritQueryHandler}.
+ */
+public class ChangeQueryRouter implements ChangeQueryHandler {
+
+    private final GerritQueryHandler handler;
+    private final ChangeIndex index;
+    private final AtomicLong local = new AtomicLong();
+    private final AtomicLong forwarded = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param handler the handler of the server.
+     * @param index   the index of the open changes of the same server.
+     */
+    public ChangeQueryRouter(GerritQueryHandler handler, ChangeIndex index) {
+        this.handler = handler;
+        this.index = index;
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 15 LINES. REASON: Informative.
+
+    /**
+     * Runs the query, from the index or on the server, and decodes the result into changes.
+     *
+     * @param queryString the query.
+     * @param projection  the parts of the changes to fetch and decode.
+     * @return the changes, newest first.
+     * @throws GerritQueryException if Gerrit reports an error with the query.
+     * @throws IOException          for some other IO problem.
+     */
+    public List<Change> queryChanges(String queryString, QueryProjection projection)
+            throws IOException, GerritQueryException {
+        final List<Change> changes = new ArrayList<Change>();
+        queryChanges(queryString, projection, new ChangeVisitor() {
+            @Override
+            public boolean visit(Change change) {
+                changes.add(change);
+                return true;
+            }
+        });
+        return changes;
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 30 LINES. REASON: Informative.
+
+    /**
+     * Runs the query, from the index or on the server, and hands each change to the visitor.
+     *
+     * @param queryString the query.
+     * @param projection  the parts of the changes to fetch and decode.
+     * @param visitor     the visitor of the changes, it can stop the query by returning false.
+     * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+     * @throws IOException          for some other IO problem.
+     */
+    @Override
+    public void queryChanges(String queryString, QueryProjection projection, ChangeVisitor visitor)
+            throws IOException, GerritQueryException {
+        if (isChangeOnly(projection)) {
+            List<Change> changes = index.query(queryString);
+            if (changes != null) {
+                local.incrementAndGet();
+                for (Change change : changes) {
+                    if (!visitor.visit(change)) {
+                        return;
+                    }
+                }
+                return;
+            }
+        }
+        forwarded.incrementAndGet();
+        handler.queryChanges(queryString, projection, visitor);
+    }
+
+    /**
+     * If a projection only asks for what the index holds.
+     *
+     * @param projection the projection.
+     * @return true if only the attributes of the changes are asked for.
+     */
+    private static boolean isChangeOnly(QueryProjection projection) {
+        return !projection.isPatchSets() && !projection.isCurrentPatchSet() && !projection.isFiles()
+                && !projection.isCommitMessage() && !projection.isComments() && !projection.isApprovals();
+    }
+
+    @Override
+    public String getServerKey() {
+        return handler.getServerKey();
+    }
+
+    /**
+     * The index the queries are answered from.
+     *
+     * @return the index.
+     */
+    public ChangeIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * The number of queries answered from the index.
+     *
+     * @return the count.
+     */
+    public long getLocalQueries() {
+        return local.get();
+    }
+
+    /**
+     * The number of queries sent to the server.
+     *
+     * @return the count.
+     */
+    public long getForwardedQueries() {
+        return forwarded.get();
+    }
+}
@@ -0,0 +1,779 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritChangeKind;
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritChangeStatus;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Account;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Approval;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Comment;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.PatchSet;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.APPROVALS;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.AUTHOR;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.BRANCH;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.BY;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.COMMENTS;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.COMMIT_MESSAGE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.CREATED_ON;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.CURRENT_PATCH_SET;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.EMAIL;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.FILE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.FILES;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.HASHTAGS;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.ID;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.IS_DRAFT;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.KIND;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.LAST_UPDATED;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.MESSAGE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.NAME;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.NUMBER;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.OLD_VALUE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.OWNER;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.PARENTS;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.PATCH_SETS;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.PRIVATE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.PROJECT;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.REF;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.REVIEWER;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.REVISION;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.STATUS;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.SUBJECT;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.TOPIC;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.TYPE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.UPDATED;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.UPLOADER;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.URL;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.USERNAME;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.VALUE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.WIP;
+
+/**
+ * Decodes the changes of the typed queries straight from the tokens of a {@link JsonReader} into
+ * {@link Change}s and {@link PatchSet}s, the same as {@link Change#Change(net.sf.json.JSONObject)} would.
+ * <p>
+ * Each row is read once. The members the {@link QueryProjection} doesn't want, and those a change has no place for,
+ * are passed over with {@link JsonReader#skipValue()} without being built.
+ * <p>
+ * A reader remembers the type and message of the last ssh row, so it is used by one query at a time.
+ */
+final class ChangeReader {
+
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final String UTC = "UTC";
+    private static final String REST_NUMBER = "_number";
+    private static final String REST_CHANGE_ID = "change_id";
+    private static final String REST_CREATED = "created";
+    private static final String REST_UPDATED = "updated";
+    private static final String REST_DATE = "date";
+    private static final String REST_WIP = "work_in_progress";
+    private static final String REST_PRIVATE = "is_private";
+    private static final String REST_MESSAGES = "messages";
+    private static final String REST_REVISIONS = "revisions";
+    private static final String REST_CURRENT_REVISION = "current_revision";
+    private static final String REST_COMMIT = "commit";
+    private static final String REST_LABELS = "labels";
+    private static final String REST_ALL = "all";
+
+    private final QueryProjection projection;
+    private String type;
+    private String message;
+
+    /**
+     * Constructor.
+     *
+     * @param projection the parts of the changes to decode.
+     */
+    ChangeReader(QueryProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * The type of the last ssh row, like stats or error, null for a change.
+     *
+     * @return the type.
+     */
+    String getType() {
+        return type;
+    }
+
+    /**
+     * The message of the last ssh row, as sent with an error.
+     *
+     * @return the message, or null.
+     */
+    String getMessage() {
+        return message;
+    }
+
+    /**
+     * Decodes a row of {@code gerrit query --format=JSON}.
+     *
+     * @param row the JSON text of the row.
+     * @return the change, only the type and message are of use when the row has a {@link #getType() type}.
+     * @throws IOException if the row is not a valid JSON object.
+     */
+    Change readRow(String row) throws IOException {
+        type = null;
+        message = null;
+        JsonReader reader = new JsonReader(new StringReader(row));
+        try {
+            return readChange(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException("The row is not a change: " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Decodes a query row.
+     *
+     * @param reader the reader, before the object.
+     * @return the change.
+     * @throws IOException if reading fails.
+     */
+    @SuppressWarnings("deprecation")
+    private Change readChange(JsonReader reader) throws IOException {
+        Change change = new Change();
+        change.setHashtags(Collections.<String>emptyList());
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (PROJECT.equals(name)) {
+                change.setProject(readString(reader));
+            } else if (BRANCH.equals(name)) {
+                change.setBranch(readString(reader));
+            } else if (ID.equals(name)) {
+                change.setId(readString(reader));
+            } else if (NUMBER.equals(name)) {
+                change.setNumber(readString(reader));
+            } else if (SUBJECT.equals(name)) {
+                change.setSubject(readString(reader));
+            } else if (CREATED_ON.equals(name)) {
+                change.setCreatedOn(readSeconds(reader));
+            } else if (LAST_UPDATED.equals(name)) {
+                change.setLastUpdated(readSeconds(reader));
+            } else if (OWNER.equals(name)) {
+                change.setOwner(readAccount(reader));
+            } else if (URL.equals(name)) {
+                change.setUrl(readString(reader));
+            } else if (STATUS.equals(name)) {
+                change.setStatus(GerritChangeStatus.fromString(readString(reader)));
+            } else if (WIP.equals(name)) {
+                change.setWip(readBoolean(reader));
+            } else if (PRIVATE.equals(name)) {
+                change.setPrivate(readBoolean(reader));
+            } else if (TOPIC.equals(name)) {
+                setTopic(change, readString(reader));
+            } else if (HASHTAGS.equals(name)) {
+                change.setHashtags(readStrings(reader));
+            } else if (COMMIT_MESSAGE.equals(name) && projection.isCommitMessage()) {
+                change.setCommitMessage(readString(reader));
+            } else if (COMMENTS.equals(name) && projection.isComments()) {
+                change.setComments(readComments(reader));
+            } else if (PATCH_SETS.equals(name) && projection.isPatchSets()) {
+                List<PatchSet> patchSets = new ArrayList<PatchSet>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    patchSets.add(readPatchSet(reader));
+                }
+                reader.endArray();
+                change.setPatchSets(patchSets);
+            } else if (CURRENT_PATCH_SET.equals(name) && projection.isCurrentPatchSet()) {
+                PatchSet current = readPatchSet(reader);
+                change.setCurrentPatchSet(current);
+                if (current.getFiles() != null) {
+                    change.setFiles(current.getFiles());
+                }
+            } else if (TYPE.equals(name)) {
+                type = readString(reader);
+            } else if (MESSAGE.equals(name)) {
+                message = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return change;
+    }
+
+    /**
+     * Decodes a patch set of a query row.
+     *
+     * @param reader the reader, before the object.
+     * @return the patch set.
+     * @throws IOException if reading fails.
+     */
+    private PatchSet readPatchSet(JsonReader reader) throws IOException {
+        PatchSet patchSet = new PatchSet();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (NUMBER.equals(name)) {
+                patchSet.setNumber(readString(reader));
+            } else if (REVISION.equals(name)) {
+                patchSet.setRevision(readString(reader));
+            } else if (IS_DRAFT.equals(name)) {
+                patchSet.setDraft(readBoolean(reader));
+            } else if (CREATED_ON.equals(name)) {
+                patchSet.setCreatedOn(readSeconds(reader));
+            } else if (KIND.equals(name)) {
+                patchSet.setKind(GerritChangeKind.fromString(readString(reader)));
+            } else if (REF.equals(name)) {
+                patchSet.setRef(readString(reader));
+            } else if (UPLOADER.equals(name)) {
+                patchSet.setUploader(readAccount(reader));
+            } else if (AUTHOR.equals(name)) {
+                patchSet.setAuthor(readAccount(reader));
+            } else if (PARENTS.equals(name)) {
+                patchSet.setParents(readStrings(reader));
+            } else if (APPROVALS.equals(name) && projection.isApprovals()) {
+                List<Approval> approvals = new ArrayList<Approval>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    approvals.add(readApproval(reader));
+                }
+                reader.endArray();
+                patchSet.setApprovals(approvals);
+            } else if (FILES.equals(name) && projection.isFiles()) {
+                List<String> files = new ArrayList<String>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (FILE.equals(reader.nextName())) {
+                            files.add(readString(reader));
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+                patchSet.setFiles(files);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return patchSet;
+    }
+
+    /**
+     * Decodes an approval of a query row.
+     *
+     * @param reader the reader, before the object.
+     * @return the approval.
+     * @throws IOException if reading fails.
+     */
+    private static Approval readApproval(JsonReader reader) throws IOException {
+        Approval approval = new Approval();
+        String approvalType = null;
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (TYPE.equals(name)) {
+                approvalType = readString(reader);
+            } else if (VALUE.equals(name)) {
+                value = readString(reader);
+            } else if (BY.equals(name)) {
+                approval.setBy(readAccount(reader));
+            } else if (UPDATED.equals(name)) {
+                approval.setUpdated(readBoolean(reader));
+            } else if (OLD_VALUE.equals(name)) {
+                approval.setOldValue(readString(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (approvalType != null && value != null) {
+            approval.setType(approvalType);
+            approval.setValue(value);
+        }
+        return approval;
+    }
+
+    /**
+     * Decodes the comments of a query row.
+     *
+     * @param reader the reader, before the array.
+     * @return the comments.
+     * @throws IOException if reading fails.
+     */
+    private static List<Comment> readComments(JsonReader reader) throws IOException {
+        List<Comment> comments = new ArrayList<Comment>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Comment comment = new Comment();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (MESSAGE.equals(name)) {
+                    comment.setMessage(readString(reader));
+                } else if (REVIEWER.equals(name)) {
+                    comment.setReviewer(readAccount(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            comments.add(comment);
+        }
+        reader.endArray();
+        return comments;
+    }
+
+    /**
+     * Decodes a ChangeInfo of the REST API into the same change as the ssh query row of the change gives, except
+     * that the patch set that is current is also in the patch sets rather than a copy of it.
+     *
+     * @param reader the reader, before the object.
+     * @return the change.
+     * @throws IOException if reading fails.
+     */
+    @SuppressWarnings("deprecation")
+    Change readChangeInfo(JsonReader reader) throws IOException {
+        Change change = new Change();
+        change.setHashtags(Collections.<String>emptyList());
+        Map<String, PatchSet> revisions = null;
+        Map<String, String> commitMessages = new LinkedHashMap<String, String>();
+        List<Approval> approvals = null;
+        String current = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (PROJECT.equals(name)) {
+                change.setProject(readString(reader));
+            } else if (BRANCH.equals(name)) {
+                change.setBranch(readString(reader));
+            } else if (REST_CHANGE_ID.equals(name)) {
+                change.setId(readString(reader));
+            } else if (REST_NUMBER.equals(name)) {
+                change.setNumber(readString(reader));
+            } else if (SUBJECT.equals(name)) {
+                change.setSubject(readString(reader));
+            } else if (STATUS.equals(name)) {
+                change.setStatus(GerritChangeStatus.fromString(readString(reader)));
+            } else if (REST_WIP.equals(name)) {
+                change.setWip(readBoolean(reader));
+            } else if (REST_PRIVATE.equals(name)) {
+                change.setPrivate(readBoolean(reader));
+            } else if (REST_CREATED.equals(name)) {
+                change.setCreatedOn(toDate(readString(reader)));
+            } else if (REST_UPDATED.equals(name)) {
+                change.setLastUpdated(toDate(readString(reader)));
+            } else if (OWNER.equals(name)) {
+                change.setOwner(readAccount(reader));
+            } else if (TOPIC.equals(name)) {
+                setTopic(change, readString(reader));
+            } else if (HASHTAGS.equals(name)) {
+                change.setHashtags(readStrings(reader));
+            } else if (REST_MESSAGES.equals(name) && projection.isComments()) {
+                change.setComments(readMessages(reader));
+            } else if (REST_CURRENT_REVISION.equals(name)) {
+                current = readString(reader);
+            } else if (REST_LABELS.equals(name) && projection.isApprovals()) {
+                approvals = readLabels(reader);
+            } else if (REST_REVISIONS.equals(name)
+                    && (projection.isPatchSets() || projection.isCurrentPatchSet())) {
+                revisions = new LinkedHashMap<String, PatchSet>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String revision = reader.nextName();
+                    revisions.put(revision, readRevisionInfo(reader, revision, commitMessages));
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (revisions != null) {
+            List<PatchSet> patchSets = new ArrayList<PatchSet>(revisions.values());
+            Collections.sort(patchSets, new Comparator<PatchSet>() {
+                @Override
+                public int compare(PatchSet a, PatchSet b) {
+                    return Integer.compare(toInt(a.getNumber()), toInt(b.getNumber()));
+                }
+            });
+            change.setPatchSets(patchSets);
+            PatchSet currentPatchSet = revisions.get(current);
+            if (currentPatchSet != null) {
+                if (approvals != null) {
+                    currentPatchSet.setApprovals(approvals);
+                }
+                change.setCurrentPatchSet(currentPatchSet);
+                if (currentPatchSet.getFiles() != null) {
+                    change.setFiles(currentPatchSet.getFiles());
+                }
+                change.setCommitMessage(commitMessages.get(current));
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Decodes a RevisionInfo.
+     *
+     * @param reader         the reader, before the object.
+     * @param revision       the SHA-1.
+     * @param commitMessages where to put the commit message of the revision, if it is wanted.
+     * @return the patch set.
+     * @throws IOException if reading fails.
+     */
+    private PatchSet readRevisionInfo(JsonReader reader, String revision, Map<String, String> commitMessages)
+            throws IOException {
+        PatchSet patchSet = new PatchSet();
+        patchSet.setRevision(revision);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (REST_NUMBER.equals(name)) {
+                patchSet.setNumber(readString(reader));
+            } else if (REF.equals(name)) {
+                patchSet.setRef(readString(reader));
+            } else if (KIND.equals(name)) {
+                patchSet.setKind(GerritChangeKind.fromString(readString(reader)));
+            } else if (REST_CREATED.equals(name)) {
+                patchSet.setCreatedOn(toDate(readString(reader)));
+            } else if (UPLOADER.equals(name)) {
+                patchSet.setUploader(readAccount(reader));
+            } else if (REST_COMMIT.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String commitName = reader.nextName();
+                    if (AUTHOR.equals(commitName)) {
+                        patchSet.setAuthor(readAccount(reader));
+                    } else if (PARENTS.equals(commitName)) {
+                        patchSet.setParents(readParents(reader));
+                    } else if (MESSAGE.equals(commitName) && projection.isCommitMessage()) {
+                        commitMessages.put(revision, readString(reader));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (FILES.equals(name) && projection.isFiles() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                List<String> files = new ArrayList<String>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    files.add(reader.nextName());
+                    reader.skipValue();
+                }
+                reader.endObject();
+                patchSet.setFiles(files);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return patchSet;
+    }
+
+    /**
+     * Decodes the parents of a CommitInfo.
+     *
+     * @param reader the reader, before the array.
+     * @return the SHA-1s of the parents.
+     * @throws IOException if reading fails.
+     */
+    private static List<String> readParents(JsonReader reader) throws IOException {
+        List<String> parents = new ArrayList<String>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String parent = "";
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (REST_COMMIT.equals(reader.nextName())) {
+                    parent = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            parents.add(parent);
+        }
+        reader.endArray();
+        return parents;
+    }
+
+    /**
+     * Decodes the messages of a ChangeInfo into comments.
+     *
+     * @param reader the reader, before the array.
+     * @return the comments.
+     * @throws IOException if reading fails.
+     */
+    private static List<Comment> readMessages(JsonReader reader) throws IOException {
+        List<Comment> comments = new ArrayList<Comment>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Comment comment = new Comment();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (MESSAGE.equals(name)) {
+                    comment.setMessage(readString(reader));
+                } else if (AUTHOR.equals(name)) {
+                    comment.setReviewer(readAccount(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            comments.add(comment);
+        }
+        reader.endArray();
+        return comments;
+    }
+
+    /**
+     * Decodes the votes of the detailed labels of a ChangeInfo into approvals.
+     *
+     * @param reader the reader, before the object.
+     * @return the approvals, the votes of 0 left out.
+     * @throws IOException if reading fails.
+     */
+    private static List<Approval> readLabels(JsonReader reader) throws IOException {
+        List<Approval> approvals = new ArrayList<Approval>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String label = reader.nextName();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (REST_ALL.equals(reader.nextName())) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Approval approval = readVote(reader, label);
+                        if (approval != null) {
+                            approvals.add(approval);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return approvals;
+    }
+
+    /**
+     * Decodes an ApprovalInfo of a label.
+     *
+     * @param reader the reader, before the object.
+     * @param label  the name of the label.
+     * @return the approval, or null if the vote is 0.
+     * @throws IOException if reading fails.
+     */
+    private static Approval readVote(JsonReader reader, String label) throws IOException {
+        Account by = new Account();
+        int value = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (VALUE.equals(name)) {
+                value = toInt(readString(reader));
+            } else if (!readAccountMember(reader, name, by)) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (value == 0) {
+            return null;
+        }
+        Approval approval = new Approval();
+        approval.setType(label);
+        approval.setValue(String.valueOf(value));
+        approval.setBy(by);
+        return approval;
+    }
+
+    /**
+     * Decodes an account, an AccountInfo or a GitPersonInfo.
+     *
+     * @param reader the reader, before the object.
+     * @return the account, or null if it is null.
+     * @throws IOException if reading fails.
+     */
+    private static Account readAccount(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        Account account = new Account();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!readAccountMember(reader, reader.nextName(), account)) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return account;
+    }
+
+    /**
+     * Decodes a member of an account, if it is one.
+     *
+     * @param reader  the reader, before the value.
+     * @param name    the name of the member.
+     * @param account the account.
+     * @return true if the value was read, false if it is left for the caller.
+     * @throws IOException if reading fails.
+     */
+    private static boolean readAccountMember(JsonReader reader, String name, Account account) throws IOException {
+        if (NAME.equals(name)) {
+            account.setName(readString(reader));
+        } else if (EMAIL.equals(name)) {
+            account.setEmail(readString(reader));
+        } else if (USERNAME.equals(name)) {
+            account.setUsername(readString(reader));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the topic of a change, unless it is empty.
+     *
+     * @param change the change.
+     * @param topic  the name of the topic, or null.
+     */
+    private static void setTopic(Change change, String topic) {
+        if (topic != null && !topic.isEmpty()) {
+            change.setTopic(topic);
+        }
+    }
+
+    /**
+     * Reads an array of strings.
+     *
+     * @param reader the reader, before the array.
+     * @return the strings.
+     * @throws IOException if reading fails.
+     */
+    private static List<String> readStrings(JsonReader reader) throws IOException {
+        List<String> strings = new ArrayList<String>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            strings.add(readString(reader));
+        }
+        reader.endArray();
+        return strings;
+    }
+
+    /**
+     * Reads a value as a string, the way {@link net.sf.json.JSONObject#getString} turns numbers and booleans into
+     * strings.
+     *
+     * @param reader the reader, before the value.
+     * @return the string, or null if the value is null, an object or an array.
+     * @throws IOException if reading fails.
+     */
+    private static String readString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    /**
+     * Reads a value as a boolean.
+     *
+     * @param reader the reader, before the value.
+     * @return the boolean, false if it isn't one.
+     * @throws IOException if reading fails.
+     */
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        return Boolean.parseBoolean(readString(reader));
+    }
+
+    /**
+     * Reads a time in seconds since the epoch, as Gerrit writes it.
+     *
+     * @param reader the reader, before the value.
+     * @return the date, or null if it isn't one.
+     * @throws IOException if reading fails.
+     */
+    private static Date readSeconds(JsonReader reader) throws IOException {
+        String seconds = readString(reader);
+        if (seconds == null) {
+            return null;
+        }
+        try {
+            return new Date(TimeUnit.SECONDS.toMillis(Long.parseLong(seconds)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a timestamp of the REST API.
+     *
+     * @param timestamp the timestamp, in the {@code yyyy-MM-dd HH:mm:ss.fffffffff} UTC format, or null.
+     * @return the date, to the second, or null if there is no valid timestamp.
+     */
+    private static Date toDate(String timestamp) {
+        if (timestamp == null || timestamp.length() < TIMESTAMP_FORMAT.length()) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone(UTC));
+        try {
+            return format.parse(timestamp.substring(0, TIMESTAMP_FORMAT.length()));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a number, the way {@link net.sf.json.JSONObject#optInt} does.
+     *
+     * @param number the number, or null.
+     * @return the number, 0 if it isn't one.
+     */
+    private static int toInt(String number) {
+        if (number == null) {
+            return 0;
+        }
+        try {
+            return (int)Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
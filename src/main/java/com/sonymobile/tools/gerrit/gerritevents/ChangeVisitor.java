@@ -0,0 +1,21 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+
+/**
+ * Receives the changes of a typed query one at a time, as they are decoded.
+ *
+ * @see GerritQueryHandler#queryChanges(String, QueryProjection, ChangeVisitor)
+ * @see GerritQueryHandlerHttp#queryChanges(String, QueryProjection, ChangeVisitor)
+ */
+public interface ChangeVisitor {
+
+    /**
+     * Visits a change of the result.
+     *
+     * @param change the change.
+     * @return true to get the next change, false to stop the query without reading the rest.
+     * @throws GerritQueryException if you want to, the query is stopped.
+     */
+    boolean visit(Change change) throws GerritQueryException;
+}
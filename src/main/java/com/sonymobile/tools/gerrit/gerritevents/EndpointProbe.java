@@ -0,0 +1,111 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshSessionPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks if an ssh endpoint answers, without logging in when it can be helped.
+ * <p>
+ * Without a proxy a plain TCP connect is made and the ssh identification line the server sends first is read.
+ * Through a proxy a session is borrowed from the {@link SshSessionPool}, or connected if there is no pool,
+ * and asked for the version.
+ */
+final class EndpointProbe {
+
+    /**
+     * The time in ms to wait for the connect and the identification line.
+     */
+    static final int TIMEOUT = Integer.getInteger("gerritevents.EndpointProbe.TIMEOUT", 10000);
+    /**
+     * What the identification line of an ssh server starts with.
+     */
+    private static final String SSH_IDENTIFICATION = "SSH-";
+    /**
+     * The longest line allowed before the identification line, RFC 4253 section 4.2.
+     */
+    private static final int MAX_LINE_LENGTH = 255;
+    /**
+     * The most lines read while looking for the identification line.
+     */
+    private static final int MAX_LINES = 10;
+
+    /**
+     * Utility class.
+     */
+    private EndpointProbe() {
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 12 LINES. REASON: Informative
+
+    /**
+     * Checks the endpoint.
+     *
+     * @param endpoint       the endpoint.
+     * @param proxy          the proxy url, or null or empty for none.
+     * @param authentication the credentials, only used through a proxy.
+     * @throws IOException if the endpoint didn't answer like an ssh server.
+     */
+    static void probe(GerritEndpoint endpoint, String proxy, Authentication authentication) throws IOException {
+        if (proxy != null && !proxy.isEmpty()) {
+            SshConnection ssh = SshSessionPool.connect(endpoint.getHost(), endpoint.getPort(), proxy,
+                    authentication, TIMEOUT);
+            try {
+                ssh.executeCommand("gerrit version");
+            } finally {
+                ssh.disconnect();
+            }
+            return;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < MAX_LINES; i++) {
+                String line = readLine(in);
+                if (line == null) {
+                    throw new IOException("The connection to " + endpoint + " was closed before the ssh banner.");
+                }
+                if (line.startsWith(SSH_IDENTIFICATION)) {
+                    return;
+                }
+            }
+            throw new IOException("No ssh banner from " + endpoint);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads one line sent by the server.
+     *
+     * @param in the stream.
+     * @return the line without the line end, or null at the end of the stream.
+     * @throws IOException if the line is too long or the read failed.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        byte[] line = new byte[MAX_LINE_LENGTH];
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            if (length == MAX_LINE_LENGTH) {
+                throw new IOException("Too long line before the ssh banner.");
+            }
+            line[length++] = (byte)b;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,91 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Picks the endpoint for the next connection attempt and how long to wait when all of them have failed.
+ * <p>
+ * The endpoints are tried in rounds. Within a round the first healthy endpoint in the configured order is tried,
+ * or when none is healthy the one with the best score, and an endpoint that fails is not tried again until the
+ * next round. Between the rounds the wait is a {@link ReconnectBackoff}.
+ */
+public class EndpointSelector {
+
+    private final List<GerritEndpoint> endpoints;
+    private final ReconnectBackoff backoff;
+    private final Set<GerritEndpoint> tried = new HashSet<GerritEndpoint>();
+
+    /**
+     * Constructor.
+     *
+     * @param endpoints the endpoints in order of preference.
+     * @param random    the source of the jitter.
+     */
+    public EndpointSelector(List<GerritEndpoint> endpoints, Random random) {
+        this.endpoints = endpoints;
+        this.backoff = new ReconnectBackoff(random);
+    }
+
+    /**
+     * The endpoint to try next in this round.
+     *
+     * @return the endpoint, or null if all have been tried.
+     */
+    public GerritEndpoint next() {
+        GerritEndpoint best = null;
+        for (GerritEndpoint endpoint : endpoints) {
+            if (tried.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.isHealthy()) {
+                return endpoint;
+            }
+            if (best == null || endpoint.getScore() > best.getScore()) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Tells that an attempt failed, the endpoint isn't tried again in this round.
+     *
+     * @param endpoint the endpoint.
+     */
+    public void failed(GerritEndpoint endpoint) {
+        tried.add(endpoint);
+    }
+
+    /**
+     * Tells that an attempt succeeded, which resets the backoff.
+     */
+    public void connected() {
+        tried.clear();
+        backoff.reset();
+    }
+
+    /**
+     * Ends the round and gives the time to wait before the next.
+     *
+     * @param base the shortest wait in ms.
+     * @param cap  the longest wait in ms.
+     * @return the wait in ms.
+     */
+    public long backoff(long base, long cap) {
+        tried.clear();
+        return backoff.next(base, cap);
+    }
+
+    /**
+     * If the endpoint is the first choice.
+     *
+     * @param endpoint the endpoint.
+     * @return true if so.
+     */
+    public boolean isPreferred(GerritEndpoint endpoint) {
+        return !endpoints.isEmpty() && endpoints.get(0) == endpoint;
+    }
+}
@@ -0,0 +1,220 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.source.GerritEventSource;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineLimits;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.WatchTimeExceptionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Reads the events of a {@link GerritEventSource} and posts them to a handler.
+ * Does for any source what {@link GerritConnection} does for the stream-events command, with the same loop:
+ * frames the lines within the {@link LineLimits}, watches that the source is alive and reopens it when it is lost.
+ */
+public class EventSourceConnection extends Thread implements Connector {
+
+    /**
+     * The default size of the receive buffer.
+     */
+    public static final int DEFAULT_RX_BUFFER_SIZE = 65536;
+    private static final Logger logger = LoggerFactory.getLogger(EventSourceConnection.class);
+
+    private final GerritEventSource source;
+    private final Set<ConnectionListener> listeners = new CopyOnWriteArraySet<ConnectionListener>();
+    private final EventStreamLoop loop;
+    private volatile int reconnectCallCount = 0;
+
+    /**
+     * Constructor without a watchdog.
+     *
+     * @param source the source.
+     */
+    public EventSourceConnection(GerritEventSource source) {
+        this(source, 0, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param source                 the source.
+     * @param watchdogTimeoutSeconds number of seconds before the connection watch dog reopens the source,
+     *                               set to 0 or less to disable it.
+     * @param exceptionData          time info for when the watch dog's timeout should not be in effect.
+     *                               set to null to disable the watch dog.
+     */
+    public EventSourceConnection(GerritEventSource source, int watchdogTimeoutSeconds,
+                                 WatchTimeExceptionData exceptionData) {
+        this.source = source;
+        this.loop = new EventStreamLoop(source, this, new EventStreamLoop.Listener() {
+            @Override
+            public void established(Provider provider) {
+                notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_ESTABLISHED);
+            }
+
+            @Override
+            public void down() {
+                notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_DOWN);
+            }
+        });
+        if (exceptionData != null) {
+            loop.setWatchdog(watchdogTimeoutSeconds, exceptionData);
+        }
+    }
+
+    /**
+     * The source.
+     *
+     * @return the source.
+     */
+    public GerritEventSource getSource() {
+        return source;
+    }
+
+    /**
+     * Sets gerrit handler.
+     *
+     * @param handler the handler.
+     */
+    public void setHandler(GerritHandler handler) {
+        loop.setHandler(handler);
+    }
+
+    /**
+     * Fetches the events missed while the source was lost from the events-log plugin.
+     *
+     * @param catchUp the catch-up, or null to not catch up.
+     * @see GerritConnection#setCatchUp(EventsLogCatchUp)
+     */
+    public void setCatchUp(EventsLogCatchUp catchUp) {
+        loop.setCatchUp(catchUp);
+    }
+
+    /**
+     * Sets the biggest size of the receive buffer,
+     * see {@link com.sonymobile.tools.gerrit.gerritevents.stream.AdaptiveReceiveBuffer}.
+     *
+     * @param size buffer size.
+     */
+    public void setRxBufferSize(int size) {
+        loop.setRxBufferSize(size);
+    }
+
+    /**
+     * Sets the bounds of a received line, takes effect when the source is next opened.
+     *
+     * @param lineLimits the limits, default {@link LineLimits#DEFAULT}.
+     */
+    public void setLineLimits(LineLimits lineLimits) {
+        loop.setLineLimits(lineLimits);
+    }
+
+    /**
+     * The bounds of a received line, with the counters of capped and dropped lines.
+     *
+     * @return the limits.
+     */
+    public LineLimits getLineLimits() {
+        return loop.getLineLimits();
+    }
+
+    /**
+     * Makes the watchdog learn how long the source is normally quiet, and probe sources that can be probed before
+     * reopening them, see {@link GerritConnection#enableAdaptiveLiveness(int)}. Needs the watchdog to be enabled.
+     *
+     * @param maxTimeoutSeconds the longest the watchdog waits.
+     */
+    public void enableAdaptiveLiveness(int maxTimeoutSeconds) {
+        loop.enableAdaptiveLiveness(maxTimeoutSeconds);
+    }
+
+    /**
+     * Add listener for the connection events.
+     *
+     * @param listener the listener.
+     */
+    public void addListener(ConnectionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove listener for the connection events.
+     *
+     * @param listener the listener.
+     */
+    public void removeListener(ConnectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * If the source is open.
+     *
+     * @return true if so.
+     */
+    public boolean isConnected() {
+        return loop.isConnected();
+    }
+
+    /**
+     * Count how many times {@link #reconnect()} has been called since object creation.
+     *
+     * @return the count.
+     */
+    public int getReconnectCallCount() {
+        return reconnectCallCount;
+    }
+
+    @Override
+    public void run() {
+        loop.run();
+        logger.debug("End of EventSourceConnection Thread.");
+    }
+
+    @Override
+    public void reconnect() {
+        reconnectCallCount++;
+        loop.drop();
+    }
+
+    /**
+     * Closes the source and stops the thread.
+     *
+     * @param join if the method should wait for the thread to finish before returning.
+     */
+    public void shutdown(boolean join) {
+        loop.shutdown();
+        EventsLogCatchUp currentCatchUp = loop.getCatchUp();
+        if (currentCatchUp != null) {
+            currentCatchUp.getStore().flush();
+        }
+        if (join) {
+            try {
+                this.join();
+            } catch (InterruptedException ex) {
+                logger.warn("Got interrupted while waiting for shutdown.", ex);
+            }
+        }
+    }
+
+    /**
+     * Notifies all listeners of a Gerrit connection event.
+     *
+     * @param event the event.
+     */
+    private void notifyListeners(GerritConnectionEvent event) {
+        for (ConnectionListener listener : listeners) {
+            try {
+                if (event == GerritConnectionEvent.GERRIT_CONNECTION_ESTABLISHED) {
+                    listener.connectionEstablished();
+                } else {
+                    listener.connectionDown();
+                }
+            } catch (Exception ex) {
+                logger.error("ConnectionListener threw Exception. ", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.source.GerritEventSource;
+import com.sonymobile.tools.gerrit.gerritevents.stream.AdaptiveReceiveBuffer;
+import com.sonymobile.tools.gerrit.gerritevents.stream.EventDeduplicator;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineFramer;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineLimits;
+import com.sonymobile.tools.gerrit.gerritevents.stream.ReceiveBufferPool;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.LivenessModel;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.LivenessProbe;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.StreamWatchdog;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.WatchTimeExceptionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read, watchdog and reconnect loop shared by {@link GerritConnection}, {@link GerritConnectionGroup} and
+ * {@link EventSourceConnection}, over any {@link GerritEventSource}.
+ * <p>
+ * Each session opens the source, frames what is read within the {@link LineLimits}, passes the lines through the
+ * {@link EventDeduplicator} and {@link EventsLogCatchUp} when there are any and posts them to the handler.
+ * A {@link StreamWatchdog} reconnects a session that has been quiet for too long, probing the source first when it
+ * is a {@link LivenessProbe} and adaptive liveness is enabled. The loop keeps one watchdog on the shared scheduler,
+ * reset when a session starts and paused while there is none. A failed open is retried after a
+ * {@link ReconnectBackoff}, and so is a session that ended without receiving anything.
+ * <p>
+ * The loop is either run on a thread of its own with {@link #run()}, blocking in the reads,
+ * or driven by {@link #poll(Executor)}, which only reads what has already arrived.
+ */
+class EventStreamLoop {
+
+    /**
+     * Told when a session starts and ends.
+     */
+    interface Listener {
+
+        /**
+         * The source has been opened, called before anything is read from it.
+         *
+         * @param provider the server the events of the session come from.
+         */
+        void established(Provider provider);
+
+        /**
+         * The session has ended.
+         */
+        void down();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(EventStreamLoop.class);
+
+    private final GerritEventSource source;
+    private final Connector owner;
+    private final Listener listener;
+    private final ReconnectBackoff backoff = new ReconnectBackoff(new Random());
+    private volatile GerritHandler handler;
+    private volatile EventsLogCatchUp catchUp;
+    private volatile EventStreamLoop partner;
+    private volatile EventDeduplicator deduplicator;
+    private volatile int streamIndex = 0;
+    private volatile LineLimits lineLimits = LineLimits.DEFAULT;
+    private volatile int rxBufferSize = EventSourceConnection.DEFAULT_RX_BUFFER_SIZE;
+    private volatile long minBackoff = GerritConnection.CONNECT_SLEEP;
+    private volatile long maxBackoff = GerritConnection.DEFAULT_MAX_CONNECT_SLEEP;
+    private volatile int watchdogTimeoutSeconds = 0;
+    private volatile WatchTimeExceptionData exceptionData;
+    private volatile LivenessModel livenessModel;
+    private volatile long maxLivenessTimeoutMillis = 0;
+    private volatile StreamWatchdog watchdog;
+    private volatile boolean shutdownInProgress = false;
+    private volatile boolean connected = false;
+
+    //The state of the session, only touched by the thread running the loop, or by a poll and the open it hands over.
+    private volatile boolean opening = false;
+    private long nextOpen = 0;
+    private InputStream in;
+    private AdaptiveReceiveBuffer rx;
+    private LineFramer framer;
+    private LineFramer.LineSink sink;
+    private boolean received;
+
+    /**
+     * Constructor.
+     *
+     * @param source   the source.
+     * @param owner    what the watchdog reconnects through, which should end up in {@link #drop()}.
+     * @param listener told when sessions start and end.
+     */
+    EventStreamLoop(GerritEventSource source, Connector owner, Listener listener) {
+        this.source = source;
+        this.owner = owner;
+        this.listener = listener;
+    }
+
+    /**
+     * The source.
+     *
+     * @return the source.
+     */
+    GerritEventSource getSource() {
+        return source;
+    }
+
+    /**
+     * Sets the handler the events are posted to.
+     *
+     * @param handler the handler.
+     */
+    void setHandler(GerritHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Fetches the events missed between the sessions, see {@link GerritConnection#setCatchUp(EventsLogCatchUp)}.
+     *
+     * @param catchUp the catch-up, or null to not catch up.
+     */
+    void setCatchUp(EventsLogCatchUp catchUp) {
+        this.catchUp = catchUp;
+    }
+
+    /**
+     * The events-log catch-up.
+     *
+     * @return the catch-up or null if not set.
+     */
+    EventsLogCatchUp getCatchUp() {
+        return catchUp;
+    }
+
+    /**
+     * Merges the events of this loop with those of another loop following the same server.
+     * The catch-up is only started when the partner isn't connected, since it has received what was missed.
+     *
+     * @param other the loop of the other session.
+     * @param dedup drops the events already posted by the other session.
+     * @param index the index of this stream in the deduplicator.
+     */
+    void setPartner(EventStreamLoop other, EventDeduplicator dedup, int index) {
+        this.partner = other;
+        this.deduplicator = dedup;
+        this.streamIndex = index;
+    }
+
+    /**
+     * Sets the bounds of a received line, takes effect at the next session.
+     *
+     * @param limits the limits.
+     */
+    void setLineLimits(LineLimits limits) {
+        this.lineLimits = limits;
+    }
+
+    /**
+     * The bounds of a received line.
+     *
+     * @return the limits.
+     */
+    LineLimits getLineLimits() {
+        return lineLimits;
+    }
+
+    /**
+     * Sets the biggest size of the receive buffer, see {@link AdaptiveReceiveBuffer}.
+     *
+     * @param size the size.
+     */
+    void setRxBufferSize(int size) {
+        this.rxBufferSize = size;
+    }
+
+    /**
+     * Sets the bounds of the wait between attempts.
+     *
+     * @param min the shortest wait in ms.
+     * @param max the longest wait in ms.
+     */
+    void setBackoff(long min, long max) {
+        this.minBackoff = min;
+        this.maxBackoff = Math.max(min, max);
+    }
+
+    /**
+     * Sets the watchdog, takes effect right away.
+     *
+     * @param timeoutSeconds the quiet time before reconnecting, 0 or less to disable the watchdog.
+     * @param exceptions     time spans and days when the timeout should not be in effect, or null.
+     */
+    void setWatchdog(int timeoutSeconds, WatchTimeExceptionData exceptions) {
+        this.exceptionData = exceptions;
+        this.watchdogTimeoutSeconds = timeoutSeconds;
+        synchronized (this) {
+            if (connected || watchdog != null) {
+                createWatchdog();
+            }
+        }
+    }
+
+    /**
+     * Makes the watchdog learn the normal quiet time of the server, see
+     * {@link GerritConnection#enableAdaptiveLiveness(int)}.
+     *
+     * @param maxTimeoutSeconds the longest the watchdog waits.
+     */
+    void enableAdaptiveLiveness(int maxTimeoutSeconds) {
+        LivenessModel model = livenessModel;
+        if (model == null) {
+            model = new LivenessModel();
+        }
+        setLivenessModel(model, TimeUnit.SECONDS.toMillis(maxTimeoutSeconds));
+    }
+
+    /**
+     * Makes the watchdog adapt to a model learned by someone else, takes effect right away.
+     *
+     * @param model            the model.
+     * @param maxTimeoutMillis the longest the watchdog waits.
+     */
+    void setLivenessModel(LivenessModel model, long maxTimeoutMillis) {
+        synchronized (this) {
+            this.maxLivenessTimeoutMillis = maxTimeoutMillis;
+            this.livenessModel = model;
+            StreamWatchdog current = watchdog;
+            if (current != null) {
+                adapt(current);
+            }
+        }
+    }
+
+    /**
+     * The gaps between the events learned by the watchdog.
+     *
+     * @return the model or null if not enabled.
+     */
+    LivenessModel getLivenessModel() {
+        return livenessModel;
+    }
+
+    /**
+     * If a session is up.
+     *
+     * @return true if so.
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * If {@link #shutdown()} has been called.
+     *
+     * @return true if so.
+     */
+    boolean isShutdownInProgress() {
+        return shutdownInProgress;
+    }
+
+    /**
+     * Runs sessions one after another until {@link #shutdown()}, on the calling thread.
+     */
+    void run() {
+        while (!shutdownInProgress) {
+            try {
+                open();
+            } catch (IOException ex) {
+                logger.error("Could not open the event source.", ex);
+                source.close();
+                pause();
+                continue;
+            }
+            try {
+                int readCount;
+                while ((readCount = in.read(rx.array())) != -1) {
+                    if (shutdownInProgress) {
+                        break;
+                    }
+                    received(readCount);
+                }
+            } catch (IOException ex) {
+                if (!shutdownInProgress) {
+                    logger.error("Event stream error. ", ex);
+                }
+            } finally {
+                end();
+            }
+            if (!received) {
+                pause();
+            }
+        }
+        logger.debug("End of the event stream loop.");
+    }
+
+    /**
+     * Reads what has arrived without blocking, ends the session if the source is lost and opens it again when it
+     * is time. The open is handed to the executor and no polls do anything until it is done.
+     * Must not be called concurrently with itself.
+     *
+     * @param openExecutor where to open the source.
+     */
+    void poll(Executor openExecutor) {
+        if (opening) {
+            return;
+        }
+        if (in == null) {
+            if (!shutdownInProgress && System.currentTimeMillis() >= nextOpen) {
+                startOpen(openExecutor);
+            }
+            return;
+        }
+        try {
+            if (shutdownInProgress) {
+                throw new IOException("Shutdown requested");
+            }
+            int available;
+            while ((available = in.available()) > 0) {
+                int count = in.read(rx.array(), 0, Math.min(available, rx.array().length));
+                if (count < 0) {
+                    break;
+                }
+                received(count);
+            }
+            if (!source.isOpen()) {
+                throw new IOException("The event source is closed.");
+            }
+        } catch (IOException ex) {
+            if (!shutdownInProgress) {
+                logger.info("The event stream ended: {}", ex.getMessage());
+            }
+            end();
+            nextOpen = System.currentTimeMillis();
+            if (!received) {
+                nextOpen += backoff.next(minBackoff, maxBackoff);
+            }
+        }
+    }
+
+    /**
+     * Opens the source on the executor.
+     *
+     * @param openExecutor the executor.
+     */
+    private void startOpen(Executor openExecutor) {
+        opening = true;
+        try {
+            openExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        open();
+                        if (shutdownInProgress) {
+                            end();
+                        }
+                    } catch (Exception ex) {
+                        logger.error("Could not open the event source.", ex);
+                        source.close();
+                        nextOpen = System.currentTimeMillis() + backoff.next(minBackoff, maxBackoff);
+                    } finally {
+                        opening = false;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            //The owner is shutting down.
+            opening = false;
+        }
+    }
+
+    /**
+     * Opens the source and starts a session.
+     *
+     * @throws IOException if the source could not be opened.
+     */
+    private void open() throws IOException {
+        InputStream stream = source.open();
+        final Provider provider = source.getProvider();
+        received = false;
+        framer = new LineFramer(lineLimits);
+        sink = new LineFramer.LineSink() {
+            @Override
+            public void onLine(byte[] line) {
+                deliver(line, provider);
+            }
+        };
+        rx = new AdaptiveReceiveBuffer(ReceiveBufferPool.getInstance(), rxBufferSize);
+        in = stream;
+        resetWatchdog();
+        startCatchUp(provider);
+        connected = true;
+        listener.established(provider);
+    }
+
+    /**
+     * Frames the bytes just read into the receive buffer.
+     *
+     * @param count the number of bytes.
+     */
+    private void received(int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (!received) {
+            received = true;
+            backoff.reset();
+        }
+        framer.feed(rx.array(), 0, count, sink);
+        rx.filled(count);
+        StreamWatchdog current = watchdog;
+        if (current != null) {
+            current.signal();
+        }
+    }
+
+    /**
+     * Posts a line, unless the other session already has.
+     *
+     * @param line     the line.
+     * @param provider the server.
+     */
+    private void deliver(byte[] line, Provider provider) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Data-line from Gerrit: {}", new String(line, StandardCharsets.UTF_8));
+        }
+        GerritHandler current = handler;
+        EventDeduplicator dedup = deduplicator;
+        if (current == null || (dedup != null && !dedup.accept(streamIndex, line))) {
+            return;
+        }
+        EventsLogCatchUp currentCatchUp = catchUp;
+        if (currentCatchUp != null) {
+            currentCatchUp.deliver(current, line, provider);
+        } else {
+            current.post(line, provider);
+        }
+    }
+
+    /**
+     * Starts fetching the events missed between the sessions, unless the partner has been receiving them.
+     *
+     * @param provider the server.
+     */
+    private void startCatchUp(Provider provider) {
+        EventsLogCatchUp current = catchUp;
+        EventStreamLoop other = partner;
+        if (current != null && handler != null && (other == null || !other.isConnected())) {
+            current.start(handler, provider);
+        }
+    }
+
+    /**
+     * Ends the session.
+     */
+    private void end() {
+        if (rx != null) {
+            rx.release();
+            rx = null;
+        }
+        in = null;
+        framer = null;
+        sink = null;
+        pauseWatchdog();
+        source.close();
+        if (connected) {
+            connected = false;
+            listener.down();
+        }
+    }
+
+    /**
+     * Sleeps before the next attempt.
+     */
+    private void pause() {
+        if (shutdownInProgress) {
+            return;
+        }
+        long wait = backoff.next(minBackoff, maxBackoff);
+        logger.trace("Sleeping for {} ms.", wait);
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException ex) {
+            logger.warn("Got interrupted while sleeping.", ex);
+        }
+    }
+
+    /**
+     * Starts watching a new session, creating the watchdog of the loop if there is none yet.
+     */
+    private synchronized void resetWatchdog() {
+        if (watchdog == null) {
+            createWatchdog();
+        }
+        StreamWatchdog current = watchdog;
+        if (current != null) {
+            current.reset();
+        }
+    }
+
+    /**
+     * Stops watching until the next session.
+     */
+    private synchronized void pauseWatchdog() {
+        StreamWatchdog current = watchdog;
+        if (current != null) {
+            current.pause();
+        }
+    }
+
+    /**
+     * Replaces the watchdog of the loop with one of the current settings, or none if disabled.
+     * It is paused unless a session is up. Short timeouts are checked more often than
+     * {@link StreamWatchdog#DEFAULT_CHECK_PERIOD}.
+     */
+    private synchronized void createWatchdog() {
+        nullifyWatchdog();
+        int timeout = watchdogTimeoutSeconds;
+        if (timeout <= 0 || shutdownInProgress) {
+            return;
+        }
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(timeout);
+        StreamWatchdog created = new StreamWatchdog(owner, timeout, exceptionData,
+                Math.min(StreamWatchdog.DEFAULT_CHECK_START_DELAY, timeoutMillis),
+                Math.max(1, Math.min(StreamWatchdog.DEFAULT_CHECK_PERIOD, timeoutMillis / 2)));
+        adapt(created);
+        if (!connected) {
+            created.pause();
+        }
+        watchdog = created;
+    }
+
+    /**
+     * Makes a watchdog adapt to the liveness model, if adaptive liveness is enabled.
+     *
+     * @param target the watchdog.
+     */
+    private void adapt(StreamWatchdog target) {
+        LivenessModel model = livenessModel;
+        if (model != null) {
+            target.setLivenessModel(model, maxLivenessTimeoutMillis);
+            if (source instanceof LivenessProbe) {
+                target.setProbe((LivenessProbe)source, StreamWatchdog.DEFAULT_PROBE_TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * If the watchdog field is not null, shut it down and put it to null.
+     */
+    private synchronized void nullifyWatchdog() {
+        StreamWatchdog current = watchdog;
+        if (current != null) {
+            current.shutdown();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * Drops the current session, the next one is started by the loop.
+     */
+    void drop() {
+        pauseWatchdog();
+        source.close();
+    }
+
+    /**
+     * Drops the current session and stops the loop.
+     * A loop driven by polls ends the session at the next {@link #poll(Executor)}.
+     */
+    void shutdown() {
+        shutdownInProgress = true;
+        nullifyWatchdog();
+        source.close();
+    }
+}
@@ -0,0 +1,279 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.rest.EventsLogClient;
+import com.sonymobile.tools.gerrit.gerritevents.stream.EventDeduplicator;
+import com.sonymobile.tools.gerrit.gerritevents.stream.EventLines;
+import com.sonymobile.tools.gerrit.gerritevents.stream.HighWaterMarkStore;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineFramer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the gap in the stream-events stream after a reconnect, with the events from the events-log plugin.
+ * <p>
+ * Every delivered event moves the high-water mark of its server forward. When the connection is up again
+ * the events from the high-water mark until now are fetched in the background, while the events arriving on
+ * the new stream are held back. The fetched events are posted first and then the held back ones, skipping
+ * every event that has already been posted, so the overlap between the old stream, the fetched range and the
+ * new stream is only delivered once.
+ * <p>
+ * At most {@link #setMaxHeld(int)} events are held back. When more arrive, the held back events are dropped
+ * and, once the fetch is done, the range from the end of it until then is fetched too, until the events that
+ * arrived meanwhile fit.
+ *
+ * @see GerritConnection#setCatchUp(EventsLogCatchUp)
+ */
+public class EventsLogCatchUp {
+
+    /**
+     * The default number of recently posted events remembered for the deduplication.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 4096;
+    /**
+     * The default longest gap that is caught up, in seconds.
+     */
+    public static final long DEFAULT_MAX_GAP_SECONDS = TimeUnit.DAYS.toSeconds(1);
+    /**
+     * The default most events held back while catching up.
+     */
+    public static final int DEFAULT_MAX_HELD =
+            Integer.getInteger("gerritevents.EventsLogCatchUp.DEFAULT_MAX_HELD", 10000);
+    private static final Logger logger = LoggerFactory.getLogger(EventsLogCatchUp.class);
+
+    private final EventsLogClient client;
+    private final HighWaterMarkStore store;
+    private final Map<Long, Boolean> recent;
+    private List<byte[]> held = null;
+    private boolean heldOverflowed = false;
+    private volatile long maxGapSeconds = DEFAULT_MAX_GAP_SECONDS;
+    private volatile int maxHeld = DEFAULT_MAX_HELD;
+
+    /**
+     * Constructor with a deduplication window of {@link #DEFAULT_WINDOW_SIZE}.
+     *
+     * @param client the events-log client of the server.
+     * @param store  where the high-water marks are kept.
+     */
+    public EventsLogCatchUp(EventsLogClient client, HighWaterMarkStore store) {
+        this(client, store, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param client     the events-log client of the server.
+     * @param store      where the high-water marks are kept.
+     * @param windowSize the number of recently posted events remembered for the deduplication.
+     */
+    public EventsLogCatchUp(EventsLogClient client, HighWaterMarkStore store, final int windowSize) {
+        this.client = client;
+        this.store = store;
+        this.recent = new LinkedHashMap<Long, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > windowSize;
+            }
+        };
+    }
+
+    /**
+     * The high-water mark store.
+     *
+     * @return the store.
+     */
+    public HighWaterMarkStore getStore() {
+        return store;
+    }
+
+    /**
+     * The longest gap that is caught up, only the last part of a longer gap is fetched.
+     *
+     * @param maxGapSeconds the longest gap in seconds.
+     */
+    public void setMaxGapSeconds(long maxGapSeconds) {
+        this.maxGapSeconds = maxGapSeconds;
+    }
+
+    /**
+     * The most events held back while catching up, more make the catch-up fetch them instead.
+     *
+     * @param maxHeld the number of events, default {@link #DEFAULT_MAX_HELD}.
+     */
+    public void setMaxHeld(int maxHeld) {
+        this.maxHeld = maxHeld;
+    }
+
+    /**
+     * If a catch-up is running and the events from the stream are held back.
+     *
+     * @return true if so.
+     */
+    public synchronized boolean isCatchingUp() {
+        return held != null;
+    }
+
+    /**
+     * Posts an event from the stream, or holds it back while catching up.
+     *
+     * @param handler  the handler.
+     * @param line     the event.
+     * @param provider the server.
+     */
+    public synchronized void deliver(GerritHandler handler, byte[] line, Provider provider) {
+        if (held != null) {
+            if (heldOverflowed) {
+                return;
+            }
+            if (held.size() >= maxHeld) {
+                logger.warn("More than {} events of {} arrived while catching up, they will be fetched instead.",
+                        maxHeld, provider.getName());
+                held.clear();
+                heldOverflowed = true;
+                return;
+            }
+            held.add(line);
+            return;
+        }
+        recent.put(EventDeduplicator.fingerprint(line), Boolean.TRUE);
+        post(handler, line, provider);
+    }
+
+    /**
+     * Starts fetching what was missed since the high-water mark, if there is one, in a new thread.
+     * Does nothing if a catch-up is already running.
+     *
+     * @param handler  the handler.
+     * @param provider the server.
+     * @return the thread or null if no catch-up was started.
+     */
+    public Thread start(final GerritHandler handler, final Provider provider) {
+        final long mark;
+        synchronized (this) {
+            if (held != null) {
+                return null;
+            }
+            mark = store.get(provider.getName());
+            if (mark <= 0) {
+                return null;
+            }
+            held = new ArrayList<byte[]>();
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                catchUp(handler, provider, mark);
+            }
+        }, "Gerrit events-log catch-up " + provider.getName());
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Fetches and posts the missed events, then the held back ones.
+     *
+     * @param handler  the handler.
+     * @param provider the server.
+     * @param mark     the high-water mark.
+     */
+    private void catchUp(final GerritHandler handler, final Provider provider, final long mark) {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 1;
+        long from = mark;
+        if (now - from > maxGapSeconds) {
+            from = now - maxGapSeconds;
+            logger.warn("The events of {} from {} to {} are too old to be caught up.",
+                    new Object[]{provider.getName(), mark, from});
+        }
+        try {
+            while (true) {
+                fetch(handler, provider, mark, from, now);
+                synchronized (this) {
+                    if (!heldOverflowed) {
+                        return;
+                    }
+                    heldOverflowed = false;
+                }
+                //The dropped events arrived before now, the overlap with the previous range is deduplicated.
+                from = now - 1;
+                now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 1;
+            }
+        } catch (IOException e) {
+            logger.error("Could not fetch the missed events of " + provider.getName()
+                    + ", events since " + from + " may be lost.", e);
+        } catch (RuntimeException e) {
+            logger.error("Catch-up of " + provider.getName() + " failed, events since " + from + " may be lost.", e);
+        } finally {
+            synchronized (this) {
+                List<byte[]> lines = held;
+                held = null;
+                heldOverflowed = false;
+                logger.info("Caught up with {}, posting {} held back events.", provider.getName(), lines.size());
+                for (byte[] line : lines) {
+                    postOnce(handler, line, provider);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches and posts the events of a range.
+     *
+     * @param handler  the handler.
+     * @param provider the server.
+     * @param mark     the high-water mark, older events are not posted.
+     * @param from     the start of the range in seconds since the epoch.
+     * @param to       the end of the range in seconds since the epoch.
+     * @throws IOException if the events could not be fetched.
+     */
+    private void fetch(final GerritHandler handler, final Provider provider, final long mark, long from, long to)
+            throws IOException {
+        logger.info("Fetching the events of {} since {} from the events-log.", provider.getName(), from);
+        client.fetch(from, to, new LineFramer.LineSink() {
+            @Override
+            public void onLine(byte[] line) {
+                long createdOn = EventLines.eventCreatedOn(line);
+                if (createdOn > 0 && createdOn < mark) {
+                    return;
+                }
+                synchronized (EventsLogCatchUp.this) {
+                    postOnce(handler, line, provider);
+                }
+            }
+        });
+    }
+
+    /**
+     * Posts an event unless it has already been posted.
+     *
+     * @param handler  the handler.
+     * @param line     the event.
+     * @param provider the server.
+     */
+    private void postOnce(GerritHandler handler, byte[] line, Provider provider) {
+        if (recent.put(EventDeduplicator.fingerprint(line), Boolean.TRUE) == null) {
+            post(handler, line, provider);
+        }
+    }
+
+    /**
+     * Posts an event and moves the high-water mark.
+     *
+     * @param handler  the handler.
+     * @param line     the event.
+     * @param provider the server.
+     */
+    private void post(GerritHandler handler, byte[] line, Provider provider) {
+        if (handler != null) {
+            handler.post(line, provider);
+        }
+        store.update(provider.getName(), EventLines.eventCreatedOn(line));
+    }
+}
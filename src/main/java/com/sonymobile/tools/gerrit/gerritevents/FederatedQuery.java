@@ -0,0 +1,655 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs one query against several servers at the same time, over ssh or REST, and hands the changes of all of
+ * them to one visitor on the calling thread, each with the {@link Provider} it came from.
+ * <p>
+ * The queries run on an {@link AsyncQueryExecutor}, so they count against the limit of their server. Each server
+ * has a timeout from the start of the query. A server that fails or times out is left out and the rest goes on,
+ * the failures are told in the {@link Result}. Changes can either be handed over as they arrive, or merged
+ * newest first by their last update, like Gerrit orders a single result.
+ * <p>
+ * The default timeout is read from the system property {@code gerritevents.FederatedQuery.TIMEOUT}, in ms with
+ * 0 or less for none. The providers of the servers should tell them apart, as failures are told by provider.
+ */
+public final class FederatedQuery {
+
+    /**
+     * The default time a server may take to answer the whole query, in ms. 0 or less for no limit.
+     */
+    public static final long DEFAULT_TIMEOUT = Long.getLong("gerritevents.FederatedQuery.TIMEOUT", 60000);
+    /**
+     * The number of changes read ahead from each server while the visitor is busy.
+     */
+    static final int BUFFER_SIZE = 256;
+    /**
+     * How often a server blocked on a full buffer checks if the query is over, in ms.
+     */
+    private static final long OFFER_INTERVAL = 100;
+
+    /**
+     * Receives the changes of a federated query.
+     */
+    public interface ResultVisitor {
+
+        /**
+         * Visits a change of the result.
+         *
+         * @param provider the server the change came from.
+         * @param change   the change.
+         * @return true to get the next change, false to stop the query on all servers.
+         * @throws GerritQueryException if you want to, the query is stopped on all servers.
+         */
+        boolean visit(Provider provider, Change change) throws GerritQueryException;
+    }
+
+    /**
+     * How a federated query went.
+     */
+    public static final class Result {
+        private final int count;
+        private final Map<Provider, Exception> failures;
+        private final boolean stopped;
+
+        /**
+         * Constructor.
+         *
+         * @param count    the number of changes handed to the visitor.
+         * @param failures the servers that failed, with the reason.
+         * @param stopped  if the visitor stopped the query.
+         */
+        private Result(int count, Map<Provider, Exception> failures, boolean stopped) {
+            this.count = count;
+            this.failures = Collections.unmodifiableMap(failures);
+            this.stopped = stopped;
+        }
+
+        /**
+         * The number of changes handed to the visitor.
+         *
+         * @return the count.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * The servers that failed or timed out, with the reason. A {@link TimeoutException} tells a timeout.
+         *
+         * @return the failures, in the order the servers were added.
+         */
+        public Map<Provider, Exception> getFailures() {
+            return failures;
+        }
+
+        /**
+         * If the visitor stopped the query before all servers were done.
+         *
+         * @return true if so.
+         */
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * If all servers answered in full.
+         *
+         * @return true if no server failed and the query wasn't stopped.
+         */
+        public boolean isComplete() {
+            return failures.isEmpty() && !stopped;
+        }
+    }
+
+    /**
+     * A server of the federation.
+     */
+    private static final class Server {
+        private final Provider provider;
+        private final ChangeQueryHandler handler;
+        private final long timeout;
+
+        /**
+         * Constructor.
+         *
+         * @param provider the server as told to the visitor.
+         * @param handler  the handler to query it with.
+         * @param timeout  the time it may take, in ms. 0 or less for no limit.
+         */
+        private Server(Provider provider, ChangeQueryHandler handler, long timeout) {
+            this.provider = provider;
+            this.handler = handler;
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * A change read from a server, or the end of the result of the server.
+     */
+    private static final class Row {
+        private final Stream stream;
+        private final Change change;
+        private final Exception failure;
+
+        /**
+         * Constructor.
+         *
+         * @param stream  the server.
+         * @param change  the change, or null for the end.
+         * @param failure why the server failed, or null.
+         */
+        private Row(Stream stream, Change change, Exception failure) {
+            this.stream = stream;
+            this.change = change;
+            this.failure = failure;
+        }
+
+        /**
+         * If the server has no more changes.
+         *
+         * @return true if so.
+         */
+        private boolean isEnd() {
+            return change == null;
+        }
+    }
+
+    /**
+     * The rows read ahead from one or more servers. Changes wait for room in the buffer, the end of a server never
+     * does, so it can be told from any thread as soon as the query of the server is done.
+     */
+    private static final class Buffer {
+        private final BlockingQueue<Row> rows = new LinkedBlockingQueue<Row>();
+        private final Semaphore room = new Semaphore(BUFFER_SIZE);
+
+        /**
+         * Hands a change to the reader, waiting while the buffer is full.
+         *
+         * @param row  the row of the change.
+         * @param self the future of the query, giving up when it is done.
+         * @return true if the row was handed over.
+         */
+        private boolean offer(Row row, Future<Void> self) {
+            try {
+                while (!room.tryAcquire(OFFER_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (self.isDone()) {
+                        return false;
+                    }
+                }
+                rows.add(row);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * Tells the reader that a server is done, whether or not there is room.
+         *
+         * @param row the end row of the server.
+         */
+        private void end(Row row) {
+            rows.add(row);
+        }
+
+        /**
+         * Waits for the next row.
+         *
+         * @return the row.
+         * @throws InterruptedException if the calling thread is interrupted.
+         */
+        private Row take() throws InterruptedException {
+            return taken(rows.take());
+        }
+
+        /**
+         * Waits for the next row for some time.
+         *
+         * @param timeout the time to wait, in ms.
+         * @return the row, or null if there was none in time.
+         * @throws InterruptedException if the calling thread is interrupted.
+         */
+        private Row poll(long timeout) throws InterruptedException {
+            return taken(rows.poll(timeout, TimeUnit.MILLISECONDS));
+        }
+
+        /**
+         * Makes room for the next change when one is taken.
+         *
+         * @param row the row taken, or null.
+         * @return the row.
+         */
+        private Row taken(Row row) {
+            if (row != null && !row.isEnd()) {
+                room.release();
+            }
+            return row;
+        }
+    }
+
+    /**
+     * The result of one server as it is read.
+     */
+    private static final class Stream {
+        private final Server server;
+        private final Buffer rows;
+        private final long deadline;
+        private CompletableFuture<Void> future;
+        private Change head;
+
+        /**
+         * Constructor.
+         *
+         * @param server the server.
+         * @param rows   where to put the changes read.
+         * @param start  when the query started, in ms.
+         */
+        private Stream(Server server, Buffer rows, long start) {
+            this.server = server;
+            this.rows = rows;
+            if (server.timeout > 0) {
+                this.deadline = start + server.timeout;
+            } else {
+                this.deadline = Long.MAX_VALUE;
+            }
+        }
+
+        /**
+         * Starts the query of the server.
+         * The end is told when the future completes, so also when the query times out or is rejected before it
+         * ever runs.
+         *
+         * @param executor    the executor to run it on.
+         * @param queryString the query.
+         * @param projection  the parts of the changes to fetch.
+         */
+        private void start(AsyncQueryExecutor executor, final String queryString, final QueryProjection projection) {
+            future = executor.submit(server.handler.getServerKey(), new AsyncQueryExecutor.Query<Void>() {
+                @Override
+                public Void run(final Future<Void> self) throws IOException, GerritQueryException {
+                    server.handler.queryChanges(queryString, projection, new ChangeVisitor() {
+                        @Override
+                        public boolean visit(Change change) {
+                            return !self.isDone() && rows.offer(new Row(Stream.this, change, null), self);
+                        }
+                    });
+                    return null;
+                }
+            });
+            future.whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void result, Throwable failure) {
+                    rows.end(new Row(Stream.this, null, toException(failure)));
+                }
+            });
+        }
+
+        /**
+         * Stops the query of the server.
+         */
+        private void cancel() {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * The failure of a query as told in the result.
+         *
+         * @param failure what the future completed with, or null.
+         * @return the failure, or null if there was none.
+         */
+        private static Exception toException(Throwable failure) {
+            Throwable cause = failure;
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause == null || cause instanceof Exception) {
+                return (Exception)cause;
+            }
+            return new ExecutionException(cause);
+        }
+    }
+
+    /**
+     * Orders streams by the last update of their next change, newest first. Changes without one go last.
+     */
+    private static final Comparator<Stream> NEWEST_FIRST = new Comparator<Stream>() {
+        @Override
+        public int compare(Stream a, Stream b) {
+            Date aUpdated = a.head.getLastUpdated();
+            Date bUpdated = b.head.getLastUpdated();
+            if (aUpdated == null || bUpdated == null) {
+                return Boolean.compare(aUpdated == null, bUpdated == null);
+            }
+            return bUpdated.compareTo(aUpdated);
+        }
+    };
+
+    private final List<Server> servers = new ArrayList<Server>();
+    private final AsyncQueryExecutor executor;
+    private final long defaultTimeout;
+
+    /**
+     * Constructor, running the queries on the {@link AsyncQueryExecutor#getInstance() shared executor} with the
+     * {@link #DEFAULT_TIMEOUT default timeout}.
+     */
+    public FederatedQuery() {
+        this(AsyncQueryExecutor.getInstance(), DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param executor       the executor to run the queries on.
+     * @param defaultTimeout the time a server may take, in ms. 0 or less for no limit.
+     */
+    public FederatedQuery(AsyncQueryExecutor executor, long defaultTimeout) {
+        this.executor = executor;
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    /**
+     * Adds a server with the default timeout.
+     *
+     * @param provider the server as told to the visitor.
+     * @param handler  the handler to query it with.
+     * @return this.
+     */
+    public FederatedQuery addServer(Provider provider, ChangeQueryHandler handler) {
+        return addServer(provider, handler, defaultTimeout);
+    }
+
+    /**
+     * Adds a server.
+     *
+     * @param provider the server as told to the visitor.
+     * @param handler  the handler to query it with.
+     * @param timeout  the time the server may take, in ms. 0 or less for no limit.
+     * @return this.
+     */
+    public synchronized FederatedQuery addServer(Provider provider, ChangeQueryHandler handler, long timeout) {
+        servers.add(new Server(provider, handler, timeout));
+        return this;
+    }
+
+    /**
+     * The servers of the federation.
+     *
+     * @return the servers, in the order they were added.
+     */
+    public synchronized List<Provider> getProviders() {
+        List<Provider> providers = new ArrayList<Provider>(servers.size());
+        for (Server server : servers) {
+            providers.add(server.provider);
+        }
+        return providers;
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 50 LINES. REASON: Informative.
+
+    /**
+     * Runs the query on all servers and hands the changes to the visitor in the order they arrive.
+     *
+     * @param queryString the query.
+     * @param projection  the parts of the changes to fetch and decode.
+     * @param visitor     the visitor of the changes, it can stop the query on all servers by returning false.
+     * @return how it went.
+     * @throws GerritQueryException if the visitor throws it.
+     * @throws InterruptedException if the calling thread is interrupted, the query is stopped on all servers.
+     */
+    public Result query(String queryString, QueryProjection projection, ResultVisitor visitor)
+            throws GerritQueryException, InterruptedException {
+        Buffer rows = new Buffer();
+        List<Stream> streams = start(queryString, projection, rows, false);
+        Set<Stream> open = new HashSet<Stream>(streams);
+        Map<Provider, Exception> failures = new LinkedHashMap<Provider, Exception>();
+        int count = 0;
+        boolean stopped = false;
+        try {
+            while (!open.isEmpty()) {
+                long deadline = earliestDeadline(open);
+                Row row;
+                if (deadline == Long.MAX_VALUE) {
+                    row = rows.take();
+                } else {
+                    row = rows.poll(Math.max(0, deadline - System.currentTimeMillis()));
+                }
+                if (row == null) {
+                    expire(open, failures);
+                } else if (open.contains(row.stream)) {
+                    if (row.isEnd()) {
+                        open.remove(row.stream);
+                        addFailure(row, failures);
+                    } else {
+                        count++;
+                        if (!visitor.visit(row.stream.server.provider, row.change)) {
+                            stopped = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        } finally {
+            cancel(streams);
+        }
+        return result(count, failures, stopped, streams);
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 50 LINES. REASON: Informative.
+
+    /**
+     * Runs the query on all servers and merges the changes newest first by their last update.
+     * As each server already sorts its result that way, a change is handed over as soon as every server that
+     * isn't done has sent one to compare it with.
+     *
+     * @param queryString the query.
+     * @param projection  the parts of the changes to fetch and decode.
+     * @param visitor     the visitor of the changes, it can stop the query on all servers by returning false.
+     * @return how it went.
+     * @throws GerritQueryException if the visitor throws it.
+     * @throws InterruptedException if the calling thread is interrupted, the query is stopped on all servers.
+     */
+    public Result querySorted(String queryString, QueryProjection projection, ResultVisitor visitor)
+            throws GerritQueryException, InterruptedException {
+        List<Stream> streams = start(queryString, projection, null, true);
+        PriorityQueue<Stream> heads = new PriorityQueue<Stream>(Math.max(1, streams.size()), NEWEST_FIRST);
+        Set<Stream> open = new HashSet<Stream>(streams);
+        Map<Provider, Exception> failures = new LinkedHashMap<Provider, Exception>();
+        int count = 0;
+        boolean stopped = false;
+        try {
+            for (Stream stream : streams) {
+                if (readHead(stream, open, failures)) {
+                    heads.add(stream);
+                }
+            }
+            while (!heads.isEmpty()) {
+                Stream stream = heads.poll();
+                count++;
+                if (!visitor.visit(stream.server.provider, stream.head)) {
+                    stopped = true;
+                    break;
+                }
+                if (readHead(stream, open, failures)) {
+                    heads.add(stream);
+                }
+            }
+        } finally {
+            cancel(streams);
+        }
+        return result(count, failures, stopped, streams);
+    }
+
+    /**
+     * Starts the query on all servers.
+     *
+     * @param queryString the query.
+     * @param projection  the parts of the changes to fetch.
+     * @param rows        the buffer all servers share, or null.
+     * @param sorted      if each server gets a buffer of its own.
+     * @return the streams of the servers.
+     */
+    private List<Stream> start(String queryString, QueryProjection projection, Buffer rows, boolean sorted) {
+        List<Server> targets;
+        synchronized (this) {
+            targets = new ArrayList<Server>(servers);
+        }
+        long now = System.currentTimeMillis();
+        List<Stream> streams = new ArrayList<Stream>(targets.size());
+        for (Server server : targets) {
+            Buffer buffer = rows;
+            if (sorted) {
+                buffer = new Buffer();
+            }
+            Stream stream = new Stream(server, buffer, now);
+            streams.add(stream);
+            stream.start(executor, queryString, projection);
+        }
+        return streams;
+    }
+
+    /**
+     * Waits for the next change of a server.
+     *
+     * @param stream   the server.
+     * @param open     the servers not done, the server is taken out when it is.
+     * @param failures where to tell a failure or timeout.
+     * @return true if there is a next change.
+     * @throws InterruptedException if the calling thread is interrupted.
+     */
+    private static boolean readHead(Stream stream, Set<Stream> open, Map<Provider, Exception> failures)
+            throws InterruptedException {
+        stream.head = null;
+        Row row;
+        if (stream.deadline == Long.MAX_VALUE) {
+            row = stream.rows.take();
+        } else {
+            row = stream.rows.poll(Math.max(0, stream.deadline - System.currentTimeMillis()));
+        }
+        if (row == null) {
+            timeout(stream, failures);
+            open.remove(stream);
+            return false;
+        }
+        if (row.isEnd()) {
+            addFailure(row, failures);
+            open.remove(stream);
+            return false;
+        }
+        stream.head = row.change;
+        return true;
+    }
+
+    /**
+     * The first deadline of some servers.
+     *
+     * @param streams the servers.
+     * @return the deadline in ms, {@link Long#MAX_VALUE} if none has one.
+     */
+    private static long earliestDeadline(Set<Stream> streams) {
+        long deadline = Long.MAX_VALUE;
+        for (Stream stream : streams) {
+            deadline = Math.min(deadline, stream.deadline);
+        }
+        return deadline;
+    }
+
+    /**
+     * Takes the servers past their deadline out, telling the timeouts.
+     *
+     * @param open     the servers not done.
+     * @param failures where to tell the timeouts.
+     */
+    private static void expire(Set<Stream> open, Map<Provider, Exception> failures) {
+        long now = System.currentTimeMillis();
+        for (Stream stream : new ArrayList<Stream>(open)) {
+            if (stream.deadline <= now) {
+                timeout(stream, failures);
+                open.remove(stream);
+            }
+        }
+    }
+
+    /**
+     * Stops a server that took too long and tells the timeout.
+     *
+     * @param stream   the server.
+     * @param failures where to tell it.
+     */
+    private static void timeout(Stream stream, Map<Provider, Exception> failures) {
+        stream.cancel();
+        failures.put(stream.server.provider, new TimeoutException("The query took longer than "
+                + stream.server.timeout + " ms on " + stream.server.handler.getServerKey()));
+    }
+
+    /**
+     * Tells the failure of a server that ended with one.
+     *
+     * @param end      the last row of the server.
+     * @param failures where to tell it.
+     */
+    private static void addFailure(Row end, Map<Provider, Exception> failures) {
+        if (end.failure != null) {
+            failures.put(end.stream.server.provider, end.failure);
+        }
+    }
+
+    /**
+     * Stops the servers that aren't done.
+     *
+     * @param streams the servers.
+     */
+    private static void cancel(List<Stream> streams) {
+        for (Stream stream : streams) {
+            stream.cancel();
+        }
+    }
+
+    /**
+     * Sums up a query.
+     *
+     * @param count    the number of changes handed over.
+     * @param failures the failures.
+     * @param stopped  if the visitor stopped the query.
+     * @param streams  all servers, to keep the failures in their order.
+     * @return the result.
+     */
+    private static Result result(int count, Map<Provider, Exception> failures, boolean stopped,
+                                 List<Stream> streams) {
+        Map<Provider, Exception> ordered = new LinkedHashMap<Provider, Exception>();
+        for (Stream stream : streams) {
+            Exception failure = failures.get(stream.server.provider);
+            if (failure != null) {
+                ordered.put(stream.server.provider, failure);
+            }
+        }
+        return new Result(count, ordered, stopped);
+    }
+}
@@ -25,27 +25,27 @@
 package com.sonymobile.tools.gerrit.gerritevents;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.jcraft.jsch.ChannelExec;
-import com.jcraft.jsch.JSchException;
 import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
+import com.sonymobile.tools.gerrit.gerritevents.source.SshEventSource;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.AuthenticationUpdater;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshAuthenticationException;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnectException;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnectionFactory;
-import com.sonymobile.tools.gerrit.gerritevents.watchdog.StreamWatchdog;
+import com.sonymobile.tools.gerrit.gerritevents.stream.EventDeduplicator;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineLimits;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.LivenessModel;
 import com.sonymobile.tools.gerrit.gerritevents.watchdog.WatchTimeExceptionData;
 
 
@@ -53,7 +53,8 @@ import com.sonymobile.tools.gerrit.gerritevents.watchdog.WatchTimeExceptionData;
 
 
 /**
- * Main class for connection. Contains the main loop for connecting to Gerrit.
+ * Main class for connection. Runs the {@link EventStreamLoop} of the stream-events command of a Gerrit server,
+ * through an {@link SshEventSource}.
  *
  * @author rinrinne &lt;rinrin.ne@gmail.com&gt;
  */
@@ -63,40 +64,64 @@ public class GerritConnection extends Thread implements Connector {
      * Time to wait between connection attempts.
      */
     public static final int CONNECT_SLEEP = 2000;
+    /**
+     * The default longest time to wait between rounds of connection attempts, the wait grows from
+     * {@link #CONNECT_SLEEP} up to this with random jitter.
+     */
+    public static final long DEFAULT_MAX_CONNECT_SLEEP = 60000;
+    /**
+     * The default time between checks if the preferred endpoint is back, in ms.
+     */
+    public static final long DEFAULT_FAILBACK_INTERVAL = 60000;
     /**
      * Command to open gerrit event stream.
      */
     public static final String CMD_STREAM_EVENTS = "gerrit stream-events";
     private static final String GERRIT_VERSION_PREFIX = "gerrit version ";
-    /* The buffer must support 256KB as real life messages can be pretty
-     * big. See https://issues.jenkins-ci.org/browse/JENKINS-44568
+    /* Real life messages can be pretty big (see https://issues.jenkins-ci.org/browse/JENKINS-44568),
+     * the framer joins lines that span several reads so this is only how much is read at a time.
      */
     private static final int SSH_RX_BUFFER_SIZE = 262400;
-    private static final int SSH_RX_SLEEP_MILLIS = 100;
     /**
      * The standard scheme used for stream-events.
      */
     public static final String GERRIT_PROTOCOL_SCHEME_NAME = "ssh";
     private static final Logger logger = LoggerFactory.getLogger(GerritConnection.class);
+    private static final ScheduledExecutorService FAILBACK_TIMER = createFailbackTimer();
     private String gerritName;
     private String gerritHostName;
     private int gerritSshPort;
     private String gerritProxy;
     private Authentication authentication;
     private String gerritFrontEndUrl;
-    private SshConnection sshConnection;
     private volatile boolean shutdownInProgress = false;
     private volatile boolean connected = false;
-    private String gerritVersion = null;
+    private volatile String gerritVersion = null;
     private int watchdogTimeoutSeconds;
     private WatchTimeExceptionData exceptionData;
-    private StreamWatchdog watchdog;
     private int reconnectCallCount = 0;
-    private GerritHandler handler;
-    private AuthenticationUpdater authenticationUpdater = null;
+    private volatile GerritHandler handler;
+    private volatile AuthenticationUpdater authenticationUpdater = null;
     private final Set<ConnectionListener> listeners = new CopyOnWriteArraySet<ConnectionListener>();
     private int sshRxBufferSize = SSH_RX_BUFFER_SIZE;
-    private StringBuilder eventBuffer = null;
+    private GerritConnection standby;
+    private GerritConnection partner;
+    private GerritConnection primary;
+    private EventDeduplicator deduplicator;
+    private int streamIndex = 0;
+    private volatile boolean reconnectPending = false;
+    private volatile EventsLogCatchUp catchUp;
+    private List<GerritEndpoint> endpoints = null;
+    private GerritEndpoint defaultEndpoint = null;
+    private volatile GerritEndpoint currentEndpoint = null;
+    private long maxConnectSleep = DEFAULT_MAX_CONNECT_SLEEP;
+    private long failbackInterval = DEFAULT_FAILBACK_INTERVAL;
+    private ScheduledFuture<?> failbackCheck = null;
+    private volatile ServerCapabilities capabilities = null;
+    private LivenessModel livenessModel = null;
+    private long maxLivenessTimeoutMillis = 0;
+    private LineLimits lineLimits = LineLimits.DEFAULT;
+    private volatile EventStreamLoop loop = null;
 
     /**
      * Creates a GerritHandler with all the default values set.
@@ -160,6 +185,20 @@ public class GerritConnection extends Thread implements Connector {
         this(gerritName, config, config.getGerritProxy(), config.getWatchdogTimeoutSeconds(), config.getExceptionData());
     }
 
+    /**
+     * Standard Constructor.
+     *
+     * @param gerritName the name of the gerrit server.
+     * @param config the configuration containing the connection values and the ssh endpoints.
+     */
+    public GerritConnection(String gerritName, GerritConnectionConfig3 config) {
+        this(gerritName, (GerritConnectionConfig2)config);
+        List<GerritEndpoint> configured = config.getGerritEndpoints();
+        if (configured != null && !configured.isEmpty()) {
+            setEndpoints(configured);
+        }
+    }
+
     /**
      * Creates a GerritHandler with the specified values.
      *
@@ -237,14 +276,20 @@ public class GerritConnection extends Thread implements Connector {
     }
 
     /**
-     * Sets Buffer size for receiving SSH stream.
+     * Sets the biggest buffer size for receiving SSH stream.
+     * The buffer starts small and only grows towards this size while reads fill it,
+     * see {@link com.sonymobile.tools.gerrit.gerritevents.stream.AdaptiveReceiveBuffer}.
+     * Lines longer than the buffer are joined by the framer, so this only affects how much is read at a time.
      *
      * @param size buffer size.
      * @return The previous size.
      */
-    public int setSshRxBufferSize(int size) {
+    public synchronized int setSshRxBufferSize(int size) {
         int prev = sshRxBufferSize;
         sshRxBufferSize = size;
+        if (loop != null) {
+            loop.setRxBufferSize(size);
+        }
         return prev;
     }
 
@@ -253,8 +298,11 @@ public class GerritConnection extends Thread implements Connector {
      *
      * @param handler the handler.
      */
-    public void setHandler(GerritHandler handler) {
+    public synchronized void setHandler(GerritHandler handler) {
         this.handler = handler;
+        if (loop != null) {
+            loop.setHandler(handler);
+        }
     }
 
     /**
@@ -316,236 +364,354 @@ public class GerritConnection extends Thread implements Connector {
      * Sets {@link AuthenticationUpdater}.
      * @param authenticationUpdater The {@link AuthenticationUpdater}.
      */
-    public void setAuthenticationUpdater(AuthenticationUpdater authenticationUpdater) {
+    public synchronized void setAuthenticationUpdater(AuthenticationUpdater authenticationUpdater) {
         this.authenticationUpdater = authenticationUpdater;
+        if (loop != null) {
+            ((SshEventSource)loop.getSource()).setAuthenticationUpdater(authenticationUpdater);
+        }
     }
 
     /**
-     * If watchdog field is not null, shut it down and put it to null.
+     * Fetches the events missed while disconnected from the events-log plugin after each reconnect.
+     * Must be called before the thread is started.
+     *
+     * @param catchUp the catch-up, or null to not catch up.
      */
-    private void nullifyWatchdog() {
-        if (watchdog != null) {
-            watchdog.shutdown();
-            watchdog = null;
-        }
+    public synchronized void setCatchUp(EventsLogCatchUp catchUp) {
+        this.catchUp = catchUp;
     }
 
     /**
-     * Offers lines in buffer to queue.
+     * The events-log catch-up.
      *
-     * @param cb a buffer to have received text data.
-     * @return the line string. null if no EOL, otherwise buffer is compacted.
+     * @return the catch-up or null if not set.
      */
-    private String getLine(CharBuffer cb) {
-        String line = null;
-        int pos = cb.position();
-        int limit = cb.limit();
-        cb.flip();
-        for (int i = 0; i < cb.length(); i++) {
-            if (cb.charAt(i) == '\n') {
-                line = getSubSequence(cb, 0, i).toString();
-                cb.position(i + 1);
-                break;
-            }
-        }
-        if (line != null) {
-            cb.compact();
-            if (eventBuffer != null) {
-                eventBuffer.append(line);
-                String eventString = eventBuffer.toString();
-                eventBuffer = null;
-                line = eventString;
-            }
-            line.trim();
-        } else {
-            if (cb.length() > 0) {
-                if (cb.length() == cb.capacity()) {
-                    if (eventBuffer == null) {
-                        logger.debug("Encountered big event.");
-                        eventBuffer = new StringBuilder();
-                    }
-                    eventBuffer.append(getSubSequence(cb, 0, pos));
-                } else {
-                    cb.position(pos);
-                    cb.limit(limit);
-                }
-            } else {
-                cb.clear();
-            }
+    public EventsLogCatchUp getCatchUp() {
+        return catchUp;
+    }
+
+    /**
+     * Makes the watchdog learn how long the server is normally quiet at each hour of the day and wait that long
+     * instead of the watchdog timeout, which becomes the shortest wait. When the wait is over the session is
+     * probed with {@code gerrit version} and only reconnected if that doesn't answer,
+     * so a short watchdog timeout can catch a half-open connection without reconnecting quiet ones.
+     * Must be called before the thread is started, and needs the watchdog to be enabled.
+     *
+     * @param maxTimeoutSeconds the longest the watchdog waits.
+     */
+    public synchronized void enableAdaptiveLiveness(int maxTimeoutSeconds) {
+        maxLivenessTimeoutMillis = TimeUnit.SECONDS.toMillis(maxTimeoutSeconds);
+        if (livenessModel == null) {
+            livenessModel = new LivenessModel();
         }
-        return line;
     }
 
     /**
-     *  Get sub sequence of buffer.
+     * The gaps between the events learned by the watchdog.
      *
-     *  This method avoids error in java-api-check.
-     *  animal-sniffer is confused by the signature of CharBuffer.subSequence()
-     *  due to declaration of this method has been changed since Java7.
-     *  (abstract -> non-abstract)
+     * @return the model or null if not enabled.
+     * @see #enableAdaptiveLiveness(int)
+     */
+    public LivenessModel getLivenessModel() {
+        return livenessModel;
+    }
+
+    /**
+     * Keeps a second stream-events session to the same host open, see {@link #enableHotStandby(String, int)}.
+     */
+    public void enableHotStandby() {
+        enableHotStandby(gerritHostName, gerritSshPort);
+    }
+
+    /**
+     * Keeps a second stream-events session open, to the same or another host of the same Gerrit server.
+     * The events from the two streams are merged through an {@link EventDeduplicator}, so each event is posted
+     * to the handler once while either of the sessions is up, and losing one of them loses no events.
+     * A {@link #reconnect()} of one of the sessions waits for the other to be connected before it disconnects.
+     * The listeners of this connection are told that the connection is established when the first of the sessions
+     * is up and that it is down when both of them are.
+     * Must be called before the thread is started.
      *
-     * @param cb a buffer
-     * @param start start of sub sequence
-     * @param end end of sub sequence
-     * @return sub sequence.
+     * @param standbyHostName the host name of the standby session.
+     * @param standbySshPort  the ssh port of the standby session.
+     * @return the standby connection, it is started and shut down together with this one.
      */
-    @IgnoreJRERequirement
-    private CharSequence getSubSequence(CharBuffer cb, int start, int end) {
-        return cb.subSequence(start, end);
+    public synchronized GerritConnection enableHotStandby(String standbyHostName, int standbySshPort) {
+        if (primary != null) {
+            throw new IllegalStateException("The standby can't have a standby of its own");
+        }
+        if (standby == null) {
+            standby = new GerritConnection(gerritName, standbyHostName, standbySshPort, gerritProxy,
+                    gerritFrontEndUrl, authentication, watchdogTimeoutSeconds, exceptionData);
+            standby.primary = this;
+            standby.partner = this;
+            partner = standby;
+            deduplicator = new EventDeduplicator(2);
+            standby.deduplicator = deduplicator;
+            standby.streamIndex = 1;
+            standby.setName(getName() + "-standby");
+        }
+        return standby;
     }
 
     /**
-     * Main loop for connecting and reading Gerrit JSON Events and dispatching them to Workers.
+     * The hot standby connection.
+     *
+     * @return the standby or null if not enabled.
+     * @see #enableHotStandby(String, int)
      */
-    @Override
-    public void run() {
-        logger.info("Starting Up " + gerritName);
-        do {
-            sshConnection = connect();
-            if (sshConnection == null) {
-                return;
-            }
-            if (watchdogTimeoutSeconds > 0 && exceptionData != null) {
-                nullifyWatchdog();
-                watchdog = new StreamWatchdog(this, watchdogTimeoutSeconds, exceptionData);
+    public GerritConnection getStandby() {
+        return standby;
+    }
+
+    /**
+     * Starts the standby connection with the current settings of this one, merging the events of the two.
+     *
+     * @param own the loop of this connection.
+     */
+    private void startStandby(EventStreamLoop own) {
+        GerritConnection current = standby;
+        if (current != null && !current.isAlive()) {
+            current.handler = handler;
+            current.authenticationUpdater = authenticationUpdater;
+            current.sshRxBufferSize = sshRxBufferSize;
+            current.catchUp = catchUp;
+            current.lineLimits = lineLimits;
+            if (livenessModel != null && current.livenessModel == null) {
+                current.enableAdaptiveLiveness(
+                        (int)TimeUnit.MILLISECONDS.toSeconds(maxLivenessTimeoutMillis));
             }
+            EventStreamLoop other = current.getLoop();
+            own.setPartner(other, deduplicator, streamIndex);
+            other.setPartner(own, deduplicator, current.streamIndex);
+            current.setDaemon(isDaemon());
+            current.start();
+        }
+    }
 
-            ChannelExec channel = null;
-            try {
-                logger.trace("Executing stream-events command.");
-                channel = sshConnection.executeCommandChannel(CMD_STREAM_EVENTS, false);
-                if (channel == null) {
-                    throw new IOException("Cannot open SSH channel.");
-                }
-                Reader reader = new InputStreamReader(channel.getInputStream(), "utf-8");
-                channel.connect();
-                CharBuffer cb = CharBuffer.allocate(sshRxBufferSize);
-                notifyConnectionEstablished();
-                Provider provider = new Provider(
-                        gerritName,
-                        gerritHostName,
-                        String.valueOf(gerritSshPort),
-                        GERRIT_PROTOCOL_SCHEME_NAME,
-                        gerritFrontEndUrl,
-                        getGerritVersionString());
-                logger.info("Ready to receive data from Gerrit: " + gerritName);
-                String line;
-                Integer readCount;
-                while ((readCount = reader.read(cb)) != -1) {
-                    logger.debug("Read count from Gerrit stream: {}", String.valueOf(readCount));
-                    int linecount = 0;
-                    while ((line = getLine(cb)) != null) {
-                        linecount++;
-                        logger.debug("Data-line from Gerrit: {}", line);
-                        if (handler != null) {
-                            handler.post(line, provider);
-                        }
-                    }
-                    if (shutdownInProgress || interrupted()) {
-                        throw new InterruptedException("shutdown requested: " + shutdownInProgress);
-                    }
-                    if (readCount > 0 && watchdog != null) {
-                        watchdog.signal();
-                    }
-                    if (!channel.isConnected() || !sshConnection.isConnected()) {
-                        throw new IllegalStateException("SSH connection is already lost.");
-                    }
-                    if (readCount == 0 || linecount > 0) {
-                        sleep(SSH_RX_SLEEP_MILLIS);
-                    }
-                }
-            } catch (IOException ex) {
-                logger.error("Stream events command error. ", ex);
-            } catch (IllegalStateException ex) {
-                logger.error("Unexpected disconnection occurred after initial moment of connection. ", ex);
-            } catch (InterruptedException ex) {
-                logger.error("Interrupted.", ex);
-            } catch (JSchException ex) {
-                logger.error("Error when establishing SSH connection. ", ex);
-            } finally {
-                nullifyWatchdog();
-                if (channel != null && !channel.isClosed()) {
-                    logger.trace("Close channel.");
-                    try {
-                        channel.disconnect();
-                    } catch (Exception ex) {
-                        logger.warn("Error when disconnecting SSH command channel.", ex);
-                    }
+    /**
+     * The loop of this connection, created with the current settings the first time.
+     *
+     * @return the loop.
+     */
+    private synchronized EventStreamLoop getLoop() {
+        if (loop == null) {
+            SshEventSource source = new SshEventSource(gerritName, getEndpoints(), gerritProxy, gerritFrontEndUrl,
+                    authentication);
+            source.setAuthenticationUpdater(authenticationUpdater);
+            source.setProviderAddress(gerritHostName, gerritSshPort);
+            EventStreamLoop created = new EventStreamLoop(source, this, new EventStreamLoop.Listener() {
+                @Override
+                public void established(Provider provider) {
+                    sessionEstablished();
                 }
-                if (!sshConnection.isConnected()) {
-                    sshConnection = null;
+
+                @Override
+                public void down() {
+                    notifyConnectionDown();
                 }
-                notifyConnectionDown();
+            });
+            created.setHandler(handler);
+            created.setCatchUp(catchUp);
+            created.setLineLimits(lineLimits);
+            created.setRxBufferSize(sshRxBufferSize);
+            created.setBackoff(CONNECT_SLEEP, maxConnectSleep);
+            if (watchdogTimeoutSeconds > 0 && exceptionData != null) {
+                created.setWatchdog(watchdogTimeoutSeconds, exceptionData);
+            }
+            if (livenessModel != null) {
+                created.setLivenessModel(livenessModel, maxLivenessTimeoutMillis);
             }
-        } while (!shutdownInProgress);
+            if (shutdownInProgress) {
+                created.shutdown();
+            }
+            loop = created;
+        }
+        return loop;
+    }
+
+    /**
+     * Main loop for connecting and reading Gerrit JSON Events and dispatching them to Workers.
+     */
+    @Override
+    public void run() {
+        logger.info("Starting Up " + gerritName);
+        EventStreamLoop own = getLoop();
+        startStandby(own);
+        startFailbackTimer();
+        own.run();
         handler = null;
+        stopFailbackTimer();
         logger.debug("End of GerritConnection Thread.");
     }
 
     /**
-     * Connects to the Gerrit server and authenticates as the specified user.
+     * Takes what the source found out at the connect and tells the listeners.
+     */
+    private void sessionEstablished() {
+        SshEventSource source = (SshEventSource)loop.getSource();
+        capabilities = source.getCapabilities();
+        if (capabilities != null) {
+            gerritVersion = capabilities.getVersion();
+        }
+        currentEndpoint = source.getCurrentEndpoint();
+        notifyConnectionEstablished();
+        logger.info("Ready to receive data from Gerrit: " + gerritName);
+    }
+
+    /**
+     * Sets the ssh endpoints of the server in order of preference, replacing the host name and ssh port.
+     * The first endpoint is connected to as long as it is healthy. When an attempt fails the next endpoint is
+     * tried right away, and only when all have failed is there a wait, see {@link #setMaxConnectSleep(long)}.
+     * While connected to another endpoint, the first is checked every {@link #setFailbackInterval(long)} ms
+     * and the connection is moved back to it once it answers.
+     * Must be called before the thread is started.
      *
-     * @return not null if everything is well, null if connect and reconnect failed.
+     * @param endpoints the endpoints.
      */
-    private SshConnection connect() {
-        if (sshConnection != null && sshConnection.isConnected()) {
-            return sshConnection;
+    public synchronized void setEndpoints(List<GerritEndpoint> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is needed");
         }
-        while (!shutdownInProgress) {
-            SshConnection ssh = null;
-            try {
-                logger.debug("Connecting...");
-                ssh = SshConnectionFactory.getConnection(gerritHostName, gerritSshPort, gerritProxy,
-                        authentication, authenticationUpdater);
-                gerritVersion  = formatVersion(ssh.executeCommand("gerrit version"));
-                logger.debug("connection seems ok, returning it.");
-                return ssh;
-            } catch (SshConnectException sshConEx) {
-                logger.error("Could not connect to Gerrit server! "
-                        + "Host: {} Port: {}", gerritHostName, gerritSshPort);
-                logger.error(" Proxy: {}", gerritProxy);
-                logger.error(" User: {} KeyFile: {}", authentication.getUsername(), authentication.getPrivateKeyFile());
-                logger.error("ConnectionException: ", sshConEx);
-            } catch (SshAuthenticationException sshAuthEx) {
-                logger.error("Could not authenticate to Gerrit server!"
-                        + "\n\tUsername: {}\n\tKeyFile: {}\n\tPassword: {}",
-                        new Object[]{authentication.getUsername(),
-                                authentication.getPrivateKeyFile(),
-                                authentication.getPrivateKeyFilePassword(), });
-                logger.error("AuthenticationException: ", sshAuthEx);
-            } catch (IOException ex) {
-                logger.error("Could not connect to Gerrit server! "
-                        + "Host: {} Port: {}", gerritHostName, gerritSshPort);
-                logger.error(" Proxy: {}", gerritProxy);
-                logger.error(" User: {} KeyFile: {}", authentication.getUsername(), authentication.getPrivateKeyFile());
-                logger.error("IOException: ", ex);
-            }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<GerritEndpoint>(endpoints));
+    }
 
-            if (ssh != null) {
-                logger.trace("Disconnecting bad connection.");
-                try {
-                    //The ssh lib used is starting at least one thread for each connection.
-                    //The thread isn't shutdown properly when the connection goes down,
-                    //so we need to close it "manually"
-                    ssh.disconnect();
-                } catch (Exception ex) {
-                    logger.warn("Error when disconnecting bad connection.", ex);
-                } finally {
-                    ssh = null;
-                }
-            }
+    /**
+     * The ssh endpoints of the server in order of preference, with the health and latency of the attempts.
+     *
+     * @return the endpoints, the host name and ssh port if none have been set.
+     */
+    public synchronized List<GerritEndpoint> getEndpoints() {
+        if (endpoints != null) {
+            return endpoints;
+        }
+        if (defaultEndpoint == null || !defaultEndpoint.getHost().equals(gerritHostName)
+                || defaultEndpoint.getPort() != gerritSshPort) {
+            defaultEndpoint = new GerritEndpoint(gerritHostName, gerritSshPort);
+        }
+        return Collections.singletonList(defaultEndpoint);
+    }
 
-            if (!shutdownInProgress) {
-                //If we end up here, sleep for a while and then go back up in the loop.
-                logger.trace("Sleeping for a bit.");
-                try {
-                    Thread.sleep(CONNECT_SLEEP);
-                } catch (InterruptedException ex) {
-                    logger.warn("Got interrupted while sleeping.", ex);
-                }
+    /**
+     * The endpoint of the current or latest connection.
+     *
+     * @return the endpoint or null if never connected.
+     */
+    public GerritEndpoint getCurrentEndpoint() {
+        return currentEndpoint;
+    }
+
+    /**
+     * Sets the bounds of a received stream-events line, takes effect on the next connect.
+     *
+     * @param lineLimits the limits, default {@link LineLimits#DEFAULT}.
+     */
+    public synchronized void setLineLimits(LineLimits lineLimits) {
+        this.lineLimits = lineLimits;
+        if (loop != null) {
+            loop.setLineLimits(lineLimits);
+        }
+    }
+
+    /**
+     * The bounds of a received stream-events line, with the counters of capped and dropped lines.
+     *
+     * @return the limits.
+     */
+    public LineLimits getLineLimits() {
+        return lineLimits;
+    }
+
+    /**
+     * Sets the longest time to wait between rounds of connection attempts.
+     *
+     * @param maxConnectSleep the time in ms, default {@link #DEFAULT_MAX_CONNECT_SLEEP}.
+     */
+    public synchronized void setMaxConnectSleep(long maxConnectSleep) {
+        this.maxConnectSleep = Math.max(CONNECT_SLEEP, maxConnectSleep);
+        if (loop != null) {
+            loop.setBackoff(CONNECT_SLEEP, this.maxConnectSleep);
+        }
+    }
+
+    /**
+     * Sets how often to check if the preferred endpoint is back while connected to another.
+     * Must be called before the thread is started.
+     *
+     * @param failbackInterval the time in ms, 0 or less to stay on the endpoint until it is lost.
+     */
+    public void setFailbackInterval(long failbackInterval) {
+        this.failbackInterval = failbackInterval;
+    }
+
+    /**
+     * Starts checking for the preferred endpoint, if there is more than one.
+     */
+    private synchronized void startFailbackTimer() {
+        if (failbackInterval <= 0 || getEndpoints().size() < 2 || failbackCheck != null) {
+            return;
+        }
+        failbackCheck = FAILBACK_TIMER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkFailback();
             }
+        }, failbackInterval, failbackInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops checking for the preferred endpoint.
+     */
+    private synchronized void stopFailbackTimer() {
+        if (failbackCheck != null) {
+            failbackCheck.cancel(false);
+            failbackCheck = null;
+        }
+    }
+
+    /**
+     * When connected to a fallback endpoint, probes the preferred and reconnects if it answers.
+     *
+     * @see EndpointProbe
+     */
+    private void checkFailback() {
+        GerritEndpoint preferred = getEndpoints().get(0);
+        if (!connected || shutdownInProgress || currentEndpoint == preferred) {
+            return;
         }
-        return null;
+        long start = System.nanoTime();
+        try {
+            EndpointProbe.probe(preferred, gerritProxy, authentication);
+            preferred.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException ex) {
+            preferred.recordFailure(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            logger.debug("The preferred endpoint {} is still down.", preferred, ex);
+            return;
+        }
+        logger.info("The preferred endpoint {} of {} is back, failing back to it.", preferred, gerritName);
+        reconnect();
+    }
+
+    /**
+     * Creates the timer of the failback checks, shared by all connections.
+     *
+     * @return the timer.
+     */
+    private static ScheduledExecutorService createFailbackTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                new NamedDaemonThreadFactory(GerritConnection.class.getName() + ".failback"));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * What the server supports, as found out at the latest connect.
+     *
+     * @return the capabilities, or null if never connected.
+     * @see ServerCapabilitiesCache
+     */
+    public ServerCapabilities getCapabilities() {
+        return capabilities;
     }
 
     /**
@@ -553,7 +719,7 @@ public class GerritConnection extends Thread implements Connector {
      * @param version the response from gerrit.
      * @return the input string with "gerrit version " removed.
      */
-    private String formatVersion(String version) {
+    public static String formatVersion(String version) {
         if (version == null) {
             return version;
         }
@@ -564,18 +730,6 @@ public class GerritConnection extends Thread implements Connector {
         return split[1].trim();
     }
 
-    /**
-     * Gets the gerrit version.
-     * @return the gerrit version as valid string.
-     */
-    private String getGerritVersionString() {
-        String version = getGerritVersion();
-        if (version == null) {
-            version = "";
-        }
-        return version;
-    }
-
     /**
      * The authentication credentials for ssh connection.
      *
@@ -675,8 +829,32 @@ public class GerritConnection extends Thread implements Connector {
     @Override
     public void reconnect() {
         reconnectCallCount++;
-        nullifyWatchdog();
-        sshConnection.disconnect();
+        GerritConnection other = partner;
+        if (other != null && !other.isConnected() && !reconnectPending) {
+            //Make before break, the session is dropped when the partner is up or at the next reconnect.
+            logger.info("Postponing reconnect of {} until the other stream-events session is up.", getName());
+            reconnectPending = true;
+            return;
+        }
+        reconnectPending = false;
+        EventStreamLoop current = loop;
+        if (current != null) {
+            current.drop();
+        }
+    }
+
+    /**
+     * Called when the partner session is up, carries out a postponed reconnect.
+     */
+    private void partnerEstablished() {
+        if (reconnectPending) {
+            reconnectPending = false;
+            logger.info("Carrying out the postponed reconnect of {}.", getName());
+            EventStreamLoop current = loop;
+            if (current != null) {
+                current.drop();
+            }
+        }
     }
 
 
@@ -695,15 +873,22 @@ public class GerritConnection extends Thread implements Connector {
      * @param join if the method should wait for the thread to finish before returning.
      */
     public void shutdown(boolean join) {
-        setShutdownInProgress();
-        nullifyWatchdog();
-        if (sshConnection != null) {
+        GerritConnection current = standby;
+        if (current != null) {
+            current.shutdown(join);
+        }
+        synchronized (this) {
+            setShutdownInProgress();
+        }
+        stopFailbackTimer();
+        EventsLogCatchUp currentCatchUp = catchUp;
+        if (currentCatchUp != null) {
+            currentCatchUp.getStore().flush();
+        }
+        EventStreamLoop currentLoop = loop;
+        if (currentLoop != null) {
             logger.info("Shutting down the ssh connection.");
-            try {
-                sshConnection.disconnect();
-            } catch (Exception ex) {
-                logger.warn("Error when disconnecting sshConnection.", ex);
-            }
+            currentLoop.shutdown();
         }
         if (join) {
             try {
@@ -742,15 +927,54 @@ public class GerritConnection extends Thread implements Connector {
      * Notifies all ConnectionListeners that the connection is down.
      */
     protected void notifyConnectionDown() {
-        connected = false;
-        notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_DOWN);
+        GerritConnection other = partner;
+        if (other == null) {
+            connected = false;
+            notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_DOWN);
+            return;
+        }
+        boolean last;
+        synchronized (deduplicator) {
+            connected = false;
+            last = !other.connected;
+        }
+        if (last) {
+            owner().notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_DOWN);
+        } else {
+            logger.info("Stream-events session {} is down, the other session is still receiving.", getName());
+        }
     }
 
     /**
      * Notifies all ConnectionListeners that the connection is established.
      */
     protected void notifyConnectionEstablished() {
-        connected = true;
-        notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_ESTABLISHED);
+        GerritConnection other = partner;
+        if (other == null) {
+            connected = true;
+            notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_ESTABLISHED);
+            return;
+        }
+        boolean first;
+        synchronized (deduplicator) {
+            connected = true;
+            first = !other.connected;
+        }
+        if (first) {
+            owner().notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_ESTABLISHED);
+        }
+        other.partnerEstablished();
+    }
+
+    /**
+     * The connection whose listeners are notified, the primary one when this is a hot standby.
+     *
+     * @return the connection.
+     */
+    private GerritConnection owner() {
+        if (primary != null) {
+            return primary;
+        }
+        return this;
     }
 }
@@ -0,0 +1,18 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import java.util.List;
+
+/**
+ * Interface for an object that has information about how to connect to the Gerrit server.
+ * Additions to the GerritConnectionConfig2 for servers reachable through several ssh endpoints.
+ */
+public interface GerritConnectionConfig3 extends GerritConnectionConfig2 {
+
+    /**
+     * Gets the ssh endpoints of the server in order of preference.
+     * The connection fails over to the next endpoint when one is down and fails back when the first recovers.
+     *
+     * @return the endpoints, or null or empty to only use the host name and ssh port.
+     */
+    List<GerritEndpoint> getGerritEndpoints();
+}
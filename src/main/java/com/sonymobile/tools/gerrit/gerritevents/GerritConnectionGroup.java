@@ -0,0 +1,413 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
+import com.sonymobile.tools.gerrit.gerritevents.source.SshEventSource;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.AuthenticationUpdater;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineLimits;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.WatchTimeExceptionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Follows the stream-events of many Gerrit servers with a small fixed set of polling threads,
+ * instead of the one {@link GerritConnection} thread per server. JSch still keeps a reader thread of its own
+ * for every session, so each server connected to costs that one thread.
+ * <p>
+ * Every server added is polled by the group's threads. Reading whatever bytes have arrived
+ * on the stream-events channel, and reconnecting when the connection is lost, are all done in that poll,
+ * so no thread ever blocks in a read. The connects themselves are handed to a separate pool, so that many servers
+ * are connected to in parallel. The framing, watchdog and failover are those of {@link GerritConnection},
+ * through the same {@link EventStreamLoop}. All events are posted to the one shared handler.
+ */
+public class GerritConnectionGroup {
+
+    /**
+     * The default number of threads polling the servers.
+     */
+    public static final int DEFAULT_THREADS = 2;
+    /**
+     * How often each server is polled, in ms.
+     */
+    public static final long POLL_INTERVAL = 100;
+    /**
+     * The default number of servers connected to at the same time.
+     */
+    public static final int DEFAULT_CONNECT_THREADS =
+            Integer.getInteger("gerritevents.GerritConnectionGroup.DEFAULT_CONNECT_THREADS", 8);
+    private static final int CONNECT_THREAD_KEEP_ALIVE_SECONDS = 60;
+    private static final String THREAD_PREFIX = "Gerrit-connection-group-";
+    private static final int RX_BUFFER_SIZE = 16384;
+    private static final Logger logger = LoggerFactory.getLogger(GerritConnectionGroup.class);
+
+    private final GerritHandler handler;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ThreadPoolExecutor connectExecutor;
+    private final Map<String, Member> members = new ConcurrentHashMap<String, Member>();
+
+    /**
+     * Constructor with {@link #DEFAULT_THREADS} threads.
+     *
+     * @param handler the handler to post the events to.
+     */
+    public GerritConnectionGroup(GerritHandler handler) {
+        this(handler, DEFAULT_THREADS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param handler the handler to post the events to.
+     * @param threads the number of threads polling the servers.
+     */
+    public GerritConnectionGroup(GerritHandler handler, int threads) {
+        this(handler, threads, DEFAULT_CONNECT_THREADS);
+    }
+
+    /**
+     * Constructor.
+     * Connecting is done on threads of its own, so that servers are connected to in parallel at startup
+     * and a slow connect doesn't hold up the polls of the servers already connected.
+     *
+     * @param handler        the handler to post the events to.
+     * @param threads        the number of threads polling the servers.
+     * @param connectThreads the number of servers connected to at the same time.
+     */
+    public GerritConnectionGroup(GerritHandler handler, int threads, int connectThreads) {
+        this.handler = handler;
+        this.connectExecutor = new ThreadPoolExecutor(connectThreads, connectThreads,
+                CONNECT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedDaemonThreadFactory(THREAD_PREFIX + "connect"));
+        connectExecutor.allowCoreThreadTimeOut(true);
+        this.executor = new ScheduledThreadPoolExecutor(threads, new NamedDaemonThreadFactory(THREAD_PREFIX + "poll"));
+    }
+
+    /**
+     * Adds a server to follow, it is connected to by the group's threads right away.
+     *
+     * @param name           the name of the server, used in the {@link Provider} of its events.
+     * @param hostName       the host name.
+     * @param sshPort        the ssh port.
+     * @param proxy          the proxy url.
+     * @param frontEndUrl    the front end url.
+     * @param authentication the credentials.
+     * @return the member, for setting listeners and the watchdog.
+     */
+    public synchronized Member add(String name, String hostName, int sshPort, String proxy, String frontEndUrl,
+                                   Authentication authentication) {
+        if (members.containsKey(name)) {
+            throw new IllegalArgumentException("A server named " + name + " is already in the group");
+        }
+        Member member = new Member(name, hostName, sshPort, proxy, frontEndUrl, authentication);
+        members.put(name, member);
+        member.future = executor.scheduleWithFixedDelay(member, 0, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        return member;
+    }
+
+    /**
+     * Stops following a server and disconnects from it.
+     *
+     * @param name the name of the server.
+     */
+    public synchronized void remove(String name) {
+        Member member = members.remove(name);
+        if (member != null) {
+            member.close();
+        }
+    }
+
+    /**
+     * The member following the named server.
+     *
+     * @param name the name of the server.
+     * @return the member or null if there is none.
+     */
+    public Member get(String name) {
+        return members.get(name);
+    }
+
+    /**
+     * The members of the group.
+     *
+     * @return an unmodifiable list of the members.
+     */
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(new ArrayList<Member>(members.values()));
+    }
+
+    /**
+     * Disconnects from all servers and stops the threads.
+     *
+     * @param join if the method should wait for the threads to finish before returning.
+     */
+    public synchronized void shutdown(boolean join) {
+        for (Member member : members.values()) {
+            member.close();
+        }
+        members.clear();
+        connectExecutor.shutdown();
+        executor.shutdown();
+        if (join) {
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                logger.warn("Got interrupted while waiting for shutdown.", ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The stream-events connection to one server, an {@link SshEventSource} driven by the polls of the group
+     * through the same loop as a {@link GerritConnection}.
+     */
+    public final class Member implements Runnable, Connector {
+        private final String name;
+        private final SshEventSource source;
+        private final EventStreamLoop loop;
+        private final Set<ConnectionListener> listeners = new CopyOnWriteArraySet<ConnectionListener>();
+        private final AtomicInteger reconnectCallCount = new AtomicInteger();
+        /**
+         * Held while polling, {@link EventStreamLoop#poll(java.util.concurrent.Executor)} must not run concurrently.
+         */
+        private final Object pollLock = new Object();
+        private volatile boolean closed = false;
+        private ScheduledFuture<?> future;
+
+        /**
+         * Constructor.
+         *
+         * @param name           the name of the server.
+         * @param hostName       the host name.
+         * @param sshPort        the ssh port.
+         * @param proxy          the proxy url.
+         * @param frontEndUrl    the front end url.
+         * @param authentication the credentials.
+         */
+        private Member(String name, String hostName, int sshPort, String proxy, String frontEndUrl,
+                       Authentication authentication) {
+            this.name = name;
+            this.source = new SshEventSource(name, hostName, sshPort, proxy, frontEndUrl, authentication);
+            this.source.setProviderAddress(hostName, sshPort);
+            this.loop = new EventStreamLoop(source, this, new EventStreamLoop.Listener() {
+                @Override
+                public void established(Provider provider) {
+                    logger.info("Ready to receive data from Gerrit: {}", Member.this.name);
+                    notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_ESTABLISHED);
+                }
+
+                @Override
+                public void down() {
+                    notifyListeners(GerritConnectionEvent.GERRIT_CONNECTION_DOWN);
+                }
+            });
+            loop.setHandler(handler);
+            loop.setRxBufferSize(RX_BUFFER_SIZE);
+        }
+
+        /**
+         * The name of the server.
+         *
+         * @return the name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The gerrit version of the server, once connected.
+         *
+         * @return the version or null.
+         */
+        public String getGerritVersion() {
+            ServerCapabilities capabilities = source.getCapabilities();
+            if (capabilities == null) {
+                return null;
+            }
+            return capabilities.getVersion();
+        }
+
+        /**
+         * If the stream-events channel is open.
+         *
+         * @return true if so.
+         */
+        public boolean isConnected() {
+            return loop.isConnected();
+        }
+
+        /**
+         * Count how many times {@link #reconnect()} has been called.
+         *
+         * @return the count.
+         */
+        public int getReconnectCallCount() {
+            return reconnectCallCount.get();
+        }
+
+        /**
+         * Add listener for the connection events of this server.
+         *
+         * @param listener the listener.
+         */
+        public void addListener(ConnectionListener listener) {
+            listeners.add(listener);
+        }
+
+        /**
+         * Remove listener for the connection events of this server.
+         *
+         * @param listener the listener.
+         */
+        public void removeListener(ConnectionListener listener) {
+            listeners.remove(listener);
+        }
+
+        /**
+         * Sets {@link AuthenticationUpdater}.
+         *
+         * @param authenticationUpdater The {@link AuthenticationUpdater}.
+         */
+        public void setAuthenticationUpdater(AuthenticationUpdater authenticationUpdater) {
+            source.setAuthenticationUpdater(authenticationUpdater);
+        }
+
+        /**
+         * Sets the ssh endpoints of the server in order of preference, see
+         * {@link GerritConnection#setEndpoints(List)}. Takes effect at the next connect.
+         *
+         * @param endpoints the endpoints.
+         */
+        public void setEndpoints(List<GerritEndpoint> endpoints) {
+            source.setEndpoints(endpoints);
+        }
+
+        /**
+         * The endpoint of the current or latest connection.
+         *
+         * @return the endpoint or null if never connected.
+         */
+        public GerritEndpoint getCurrentEndpoint() {
+            return source.getCurrentEndpoint();
+        }
+
+        /**
+         * Sets the bounds of a received stream-events line, takes effect at the next connect.
+         *
+         * @param lineLimits the limits, default {@link LineLimits#DEFAULT}.
+         */
+        public void setLineLimits(LineLimits lineLimits) {
+            loop.setLineLimits(lineLimits);
+        }
+
+        /**
+         * The bounds of a received stream-events line, with the counters of capped and dropped lines.
+         *
+         * @return the limits.
+         */
+        public LineLimits getLineLimits() {
+            return loop.getLineLimits();
+        }
+
+        /**
+         * Reconnects when nothing has been received for the given time, like the
+         * {@link com.sonymobile.tools.gerrit.gerritevents.watchdog.StreamWatchdog} does for a GerritConnection.
+         *
+         * @param timeoutSeconds the quiet time before reconnecting, 0 to disable.
+         * @param exceptions     time spans and days when the timeout should not be in effect, or null.
+         */
+        public void setWatchdog(int timeoutSeconds, WatchTimeExceptionData exceptions) {
+            loop.setWatchdog(timeoutSeconds, exceptions);
+        }
+
+        /**
+         * Makes the watchdog learn how long the server is normally quiet and probe the session before
+         * reconnecting, see {@link GerritConnection#enableAdaptiveLiveness(int)}. Needs the watchdog to be enabled.
+         *
+         * @param maxTimeoutSeconds the longest the watchdog waits.
+         */
+        public void enableAdaptiveLiveness(int maxTimeoutSeconds) {
+            loop.enableAdaptiveLiveness(maxTimeoutSeconds);
+        }
+
+        /**
+         * Drops the connection, it is reconnected by the next poll.
+         */
+        @Override
+        public void reconnect() {
+            reconnectCallCount.incrementAndGet();
+            logger.info("Reconnecting to {}", name);
+            loop.drop();
+        }
+
+        /**
+         * Stops polling and disconnects.
+         */
+        private void close() {
+            closed = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+            loop.shutdown();
+            //Let a last poll end the session, on the group's threads since a poll may be running right now.
+            //Cancelling doesn't wait for that poll, the lock makes the last one wait for it.
+            Runnable last = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (pollLock) {
+                        loop.poll(connectExecutor);
+                    }
+                }
+            };
+            try {
+                executor.execute(last);
+            } catch (RejectedExecutionException ex) {
+                last.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (pollLock) {
+                if (!closed) {
+                    loop.poll(connectExecutor);
+                }
+            }
+        }
+
+        /**
+         * Notifies the listeners of this server.
+         *
+         * @param event the event.
+         */
+        private void notifyListeners(GerritConnectionEvent event) {
+            for (ConnectionListener listener : listeners) {
+                try {
+                    if (event == GerritConnectionEvent.GERRIT_CONNECTION_ESTABLISHED) {
+                        listener.connectionEstablished();
+                    } else {
+                        listener.connectionDown();
+                    }
+                } catch (Exception ex) {
+                    logger.error("ConnectionListener threw Exception. ", ex);
+                }
+            }
+        }
+    }
+}
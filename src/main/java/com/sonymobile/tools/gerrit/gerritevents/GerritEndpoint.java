@@ -0,0 +1,164 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+/**
+ * An ssh host and port of a Gerrit server, with the health of the recent connection attempts to it.
+ * <p>
+ * The health score is a moving average of the outcome of the attempts, 1 when they succeed and 0 when they
+ * fail, scaled down by the moving average of the time the attempts took. A new endpoint starts with a score of 1.
+ */
+public final class GerritEndpoint {
+
+    /**
+     * How much the latest attempt counts in the moving averages.
+     */
+    private static final double WEIGHT = 0.3;
+    /**
+     * The connect time at which the score is halved, in ms.
+     */
+    private static final double LATENCY_SCALE_MILLIS = 1000;
+
+    private final String host;
+    private final int port;
+    private long attempts = 0;
+    private long failures = 0;
+    private int consecutiveFailures = 0;
+    private long lastLatencyMillis = -1;
+    private double averageLatencyMillis = -1;
+    private double successRate = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param host the host name.
+     * @param port the ssh port.
+     */
+    public GerritEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * The host name.
+     *
+     * @return the host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * The ssh port.
+     *
+     * @return the port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Records a successful connection attempt.
+     *
+     * @param latencyMillis the time the attempt took.
+     */
+    public synchronized void recordSuccess(long latencyMillis) {
+        record(latencyMillis, 1);
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a failed connection attempt.
+     *
+     * @param latencyMillis the time the attempt took.
+     */
+    public synchronized void recordFailure(long latencyMillis) {
+        record(latencyMillis, 0);
+        failures++;
+        consecutiveFailures++;
+    }
+
+    /**
+     * Updates the counters and moving averages.
+     *
+     * @param latencyMillis the time the attempt took.
+     * @param outcome       1 for success and 0 for failure.
+     */
+    private void record(long latencyMillis, double outcome) {
+        attempts++;
+        lastLatencyMillis = latencyMillis;
+        if (averageLatencyMillis < 0) {
+            averageLatencyMillis = latencyMillis;
+        } else {
+            averageLatencyMillis += WEIGHT * (latencyMillis - averageLatencyMillis);
+        }
+        successRate += WEIGHT * (outcome - successRate);
+    }
+
+    /**
+     * The health score, higher is better.
+     *
+     * @return the score, between 0 and 1.
+     */
+    public synchronized double getScore() {
+        double latency = Math.max(averageLatencyMillis, 0);
+        return successRate / (1 + latency / LATENCY_SCALE_MILLIS);
+    }
+
+    /**
+     * If the latest connection attempt succeeded, or there has been none.
+     *
+     * @return true if so.
+     */
+    public synchronized boolean isHealthy() {
+        return consecutiveFailures == 0;
+    }
+
+    /**
+     * The number of connection attempts.
+     *
+     * @return the count.
+     */
+    public synchronized long getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * The number of failed connection attempts.
+     *
+     * @return the count.
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * The number of connection attempts that have failed since the last successful one.
+     *
+     * @return the count.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * The time the latest connection attempt took.
+     *
+     * @return the time in ms, or -1 if there has been no attempt.
+     */
+    public synchronized long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    /**
+     * The moving average of the time the connection attempts took.
+     *
+     * @return the time in ms, or -1 if there has been no attempt.
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -24,6 +24,7 @@
  */
 package com.sonymobile.tools.gerrit.gerritevents;
 
+import com.sonymobile.tools.gerrit.gerritevents.capture.EventCaptureWriter;
 import com.sonymobile.tools.gerrit.gerritevents.dto.GerritEvent;
 import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Account;
 import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
@@ -43,6 +44,7 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -99,6 +101,8 @@ public class GerritHandler implements Coordinator, Handler {
     private final String whitelistTimeout = "gerrit.whitelist.timeout";
     private final String whitelistTimeoutDefault = "30";
     private static volatile HashMap<String, Object> whitelist = new HashMap<String, Object>();
+    private volatile EventCaptureWriter capture = null;
+    private final AtomicInteger pendingWork = new AtomicInteger();
     /**
      * The minimum size of the job-queue before monitors should begin to warn the administrator(s).
      */
@@ -258,9 +262,77 @@ public class GerritHandler implements Coordinator, Handler {
     @Override
     public void post(String data, Provider provider) {
         logger.debug("Trigger event string: {}", data);
+        if (capture != null && data != null) {
+            capture(data.getBytes(StandardCharsets.UTF_8), provider);
+        }
         post(new StreamEventsStringWork(data, provider));
     }
 
+    /**
+     * Post the raw bytes of a stream-events line to working queue.
+     * The line is kept as UTF-8 until the work is performed, which for the mostly ASCII
+     * events from Gerrit is about half the memory of the decoded String.
+     * Note that you must not update the array passed to this method.
+     *
+     * @param data the UTF-8 encoded line from the stream-events stream of events.
+     * @param provider the Gerrit server info.
+     */
+    public void post(byte[] data, Provider provider) {
+        post(data, provider, null);
+    }
+
+    /**
+     * Post the raw bytes of a stream-events line to working queue, like {@link #post(byte[], Provider)},
+     * and be told when a worker is done with it.
+     *
+     * @param data the UTF-8 encoded line from the stream-events stream of events.
+     * @param provider the Gerrit server info.
+     * @param done run by the worker once the listeners have been notified or the line was found uninteresting,
+     *             before it counts as done in {@link #getPendingWorkCount()}, or null.
+     */
+    public void post(byte[] data, Provider provider, Runnable done) {
+        logger.debug("Trigger event bytes: {}", data.length);
+        capture(data, provider);
+        queueWork(new StreamEventsStringWork(data, provider), done);
+    }
+
+    /**
+     * Records the stream-events lines posted to this handler, for replaying them later.
+     *
+     * @param capture the capture, or null to stop recording.
+     * @see com.sonymobile.tools.gerrit.gerritevents.capture.EventReplayer
+     */
+    public void setCapture(EventCaptureWriter capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * The capture recording the posted lines.
+     *
+     * @return the capture or null.
+     */
+    public EventCaptureWriter getCapture() {
+        return capture;
+    }
+
+    /**
+     * Records a line if there is a capture.
+     *
+     * @param data     the line.
+     * @param provider the Gerrit server info.
+     */
+    private void capture(byte[] data, Provider provider) {
+        EventCaptureWriter current = capture;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.append(data, provider, System.currentTimeMillis());
+        } catch (IOException e) {
+            logger.warn("Could not capture the event.", e);
+        }
+    }
+
     @Override
     public void post(JSONObject json, Provider provider) {
         logger.debug("Trigger event json object: {}", json);
@@ -281,6 +353,14 @@ public class GerritHandler implements Coordinator, Handler {
         return executor.getQueue().size();
     }
 
+    /**
+     * Returns the number of posted events that are not worked off yet, both queued and being worked on.
+     * @return number of events
+     */
+    public int getPendingWorkCount() {
+        return pendingWork.get();
+    }
+
     /**
      * Post work object to work queue.
      *
@@ -300,6 +380,8 @@ public class GerritHandler implements Coordinator, Handler {
 
         Work work;
         Coordinator coordinator;
+        AtomicInteger pending;
+        Runnable done;
 
         /**
          * creates a new new EventWorker
@@ -308,14 +390,61 @@ public class GerritHandler implements Coordinator, Handler {
          * @param coordinator the coordinator
          */
         public EventWorker(Work work, Coordinator coordinator) {
+            this(work, coordinator, null);
+        }
+
+        /**
+         * creates a new new EventWorker that counts down the pending work when done
+         *
+         * @param work the work to do
+         * @param coordinator the coordinator
+         * @param pending the count of pending work, or null
+         */
+        EventWorker(Work work, Coordinator coordinator, AtomicInteger pending) {
+            this(work, coordinator, pending, null);
+        }
+
+        /**
+         * creates a new new EventWorker that tells when it is done and then counts down the pending work
+         *
+         * @param work the work to do
+         * @param coordinator the coordinator
+         * @param pending the count of pending work, or null
+         * @param done what to run when the work is done, or null
+         */
+        EventWorker(Work work, Coordinator coordinator, AtomicInteger pending, Runnable done) {
             this.work = work;
             this.coordinator = coordinator;
+            this.pending = pending;
+            this.done = done;
         }
 
         @Override
         public void run() {
+            try {
+                perform();
+            } finally {
+                try {
+                    if (done != null) {
+                        done.run();
+                    }
+                } finally {
+                    if (pending != null) {
+                        pending.decrementAndGet();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Performs the work, unless its project is filtered out.
+         */
+        private void perform() {
             //Check if we want to actually perform any further work on this.
-            if (work instanceof StreamEventsStringWork) {
+            if (getWhitelist().isEmpty()) {
+                //Nothing is filtered, so don't decode the line just to find the project.
+                work.perform(coordinator);
+            } else if (work instanceof StreamEventsStringWork) {
                 workEvent(((StreamEventsStringWork)work).getLine());
             } else if (work instanceof JSONEventWork) {
                 logger.debug("JSON project: {}", ((JSONEventWork)work).getJson());
@@ -391,10 +520,22 @@ public class GerritHandler implements Coordinator, Handler {
      * @param work the work to do
      */
     private void queueWork(Work work) {
+        queueWork(work, null);
+    }
+
+    /**
+     * Queues work for the workers, telling when it is done.
+     *
+     * @param work the work.
+     * @param done what to run when the work is done, or null.
+     */
+    private void queueWork(Work work, Runnable done) {
         try {
             logger.debug("Queueing work {}", work);
-            executor.submit(new EventWorker(work, this));
+            pendingWork.incrementAndGet();
+            executor.submit(new EventWorker(work, this, pendingWork, done));
         } catch (RejectedExecutionException e) {
+            pendingWork.decrementAndGet();
             logger.error("Unable to queue a received event! ", e);
         }
         checkQueueSize();
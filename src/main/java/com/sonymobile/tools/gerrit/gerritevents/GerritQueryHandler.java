@@ -24,15 +24,18 @@
  */
 package com.sonymobile.tools.gerrit.gerritevents;
 
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnectionFactory;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshSessionPool;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.SshException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 import net.sf.json.JSONObject;
 import net.sf.json.JSONSerializer;
@@ -43,7 +46,7 @@ import org.slf4j.LoggerFactory;
  * This class helps you call gerrit query to search for patch-sets.
  * @author Robert Sandell &lt;robert.sandell@sonyericsson.com&gt;
  */
-public class GerritQueryHandler {
+public class GerritQueryHandler implements ChangeQueryHandler {
 
     /**
      * Logger instance.
@@ -54,11 +57,20 @@ public class GerritQueryHandler {
      * The base of the query ssh command to send to Gerrit.
      */
     public static final String QUERY_COMMAND = "gerrit query";
+    /**
+     * The default number of pages fetched at the same time by {@link #queryAll}.
+     */
+    public static final int DEFAULT_PAGE_CONCURRENCY =
+            Integer.getInteger("gerritevents.GerritQueryHandler.DEFAULT_PAGE_CONCURRENCY", 4);
     private final String gerritHostName;
     private final int gerritSshPort;
     private final String gerritProxy;
     private final Authentication authentication;
     private final int connectionTimeout;
+    private int pageConcurrency = DEFAULT_PAGE_CONCURRENCY;
+    private volatile QueryResultCache resultCache = null;
+    private volatile SingleFlight singleFlight = null;
+    private volatile AsyncQueryExecutor asyncExecutor = AsyncQueryExecutor.getInstance();
 
 
     /**
@@ -185,10 +197,12 @@ public class GerritQueryHandler {
         return queryJava(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, false);
     }
 
-    //CS IGNORE RedundantThrows FOR NEXT 24 LINES. REASON: Informative.
+    //CS IGNORE RedundantThrows FOR NEXT 26 LINES. REASON: Informative.
 
     /**
      * Runs the query and returns the result as a list of Java JSONObjects.
+     * The result is taken from and stored in the {@link #setResultCache result cache} if there is one.
+     * Identical queries asked at the same time can share one execution, see {@link #setSingleFlight}.
      * @param queryString the query.
      * @param getPatchSets getPatchSets if all patch-sets of the projects found should be included in the result.
      *                      Meaning if --patch-sets should be appended to the command call.
@@ -206,26 +220,418 @@ public class GerritQueryHandler {
      * @throws SshException if there is an error in the SSH Connection.
      * @throws IOException for some other IO problem.
      */
-    public List<JSONObject> queryJava(String queryString, boolean getPatchSets, boolean getCurrentPatchSet,
-                                      boolean getFiles, boolean getCommitMessage, boolean getComments)
+    public List<JSONObject> queryJava(final String queryString, final boolean getPatchSets,
+                                      final boolean getCurrentPatchSet, final boolean getFiles,
+                                      final boolean getCommitMessage, final boolean getComments)
             throws SshException, IOException, GerritQueryException {
 
+        QueryResultCache cache = resultCache;
+        String key = null;
+        long generation = 0;
+        if (cache != null) {
+            key = QueryResultCache.key(getUserKey(), queryString,
+                    getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments);
+            List<JSONObject> cached = cache.get(key);
+            if (cached != null) {
+                return new LinkedList<JSONObject>(cached);
+            }
+            generation = cache.getGeneration();
+        }
+        SingleFlight flight = singleFlight;
+        if (flight == null) {
+            return fetchRows(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments,
+                    key, generation, null);
+        }
+        final String cacheKey = key;
+        final long cacheGeneration = generation;
+        String flightKey = QueryResultCache.key(getUserKey(), queryString,
+            getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments);
+        return new LinkedList<JSONObject>(flight.execute(flightKey, new SingleFlight.Call() {
+            @Override
+            public List<JSONObject> call() throws IOException, GerritQueryException {
+                return fetchRows(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments,
+                        cacheKey, cacheGeneration, null);
+            }
+        }));
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 22 LINES. REASON: Informative.
+
+    /**
+     * Runs the query for {@link #queryJava(String, boolean, boolean, boolean, boolean, boolean)},
+     * and stores the result in the result cache if there is one.
+     * @param queryString the query.
+     * @param getPatchSets if all patch-sets should be included.
+     * @param getCurrentPatchSet if the current patch-set should be included.
+     * @param getFiles if the files of the patch sets should be included.
+     * @param getCommitMessage if full commit message should be included.
+     * @param getComments if patchset comments should be included.
+     * @param key the key in the result cache, or null if there is none.
+     * @param generation the generation of the result cache when the query was started.
+     * @param stop stops the query when done, or null.
+     * @return the rows, as far as read if stopped.
+     * @throws GerritQueryException if Gerrit reports an error with the query.
+     * @throws IOException for some IO problem.
+     */
+    private List<JSONObject> fetchRows(String queryString, boolean getPatchSets, boolean getCurrentPatchSet,
+                                       boolean getFiles, boolean getCommitMessage, boolean getComments,
+                                       String key, long generation, final Future<?> stop)
+            throws IOException, GerritQueryException {
         final List<JSONObject> list = new LinkedList<JSONObject>();
+        final boolean[] stopped = {false};
+
+        queryEach(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments,
+                new QueryVisitor() {
+                    @Override
+                    public boolean visit(JSONObject row) {
+                        if (stop != null && stop.isDone()) {
+                            stopped[0] = true;
+                            return false;
+                        }
+                        list.add(row);
+                        return true;
+                    }
+                });
+        QueryResultCache cache = resultCache;
+        if (cache != null && key != null && !stopped[0]) {
+            cache.put(key, list, generation);
+        }
+        return list;
+    }
+
+    /**
+     * Runs the query in the background on the {@link #setAsyncExecutor async executor},
+     * which caps the number of queries running against each server.
+     * The result is taken from and stored in the {@link #setResultCache result cache} if there is one.
+     * Cancelling the future, or its timing out, stops the query and closes the channel.
+     * @param queryString the query.
+     * @param getPatchSets if all patch-sets of the projects found should be included in the result.
+     * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
+     * @param getFiles if the files of the patch sets should be included in the result.
+     * @param getCommitMessage if full commit message should be included in the result.
+     * @param getComments if patchset comments should be included in the results.
+     * @return the future query result, failing with a {@link GerritQueryException} or {@link IOException}
+     *         as queryJava would throw.
+     */
+    public CompletableFuture<List<JSONObject>> queryJavaAsync(final String queryString, final boolean getPatchSets,
+                                                              final boolean getCurrentPatchSet, final boolean getFiles,
+                                                              final boolean getCommitMessage,
+                                                              final boolean getComments) {
+        QueryResultCache cache = resultCache;
+        long generation = 0;
+        String key = null;
+        if (cache != null) {
+            key = QueryResultCache.key(getUserKey(), queryString,
+                    getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments);
+            List<JSONObject> cached = cache.get(key);
+            if (cached != null) {
+                return CompletableFuture.<List<JSONObject>>completedFuture(new LinkedList<JSONObject>(cached));
+            }
+            generation = cache.getGeneration();
+        }
+        final String cacheKey = key;
+        final long cacheGeneration = generation;
+        return asyncExecutor.submit(getServerKey(), new AsyncQueryExecutor.Query<List<JSONObject>>() {
+            @Override
+            public List<JSONObject> run(Future<List<JSONObject>> future) throws IOException, GerritQueryException {
+                return fetchRows(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage,
+                        getComments, cacheKey, cacheGeneration, future);
+            }
+        });
+    }
 
-        runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments,
+    /**
+     * Runs the query in the background, with the current patch set and its files.
+     * @param queryString the query.
+     * @return the future query result.
+     * @see #queryJavaAsync(String, boolean, boolean, boolean, boolean, boolean)
+     */
+    public CompletableFuture<List<JSONObject>> queryFilesAsync(String queryString) {
+        return queryJavaAsync(queryString, false, true, true, false, false);
+    }
+
+    /**
+     * Runs the query in the background, with the current patch set.
+     * @param queryString the query.
+     * @return the future query result.
+     * @see #queryJavaAsync(String, boolean, boolean, boolean, boolean, boolean)
+     */
+    public CompletableFuture<List<JSONObject>> queryCurrentPatchSetsAsync(String queryString) {
+        return queryJavaAsync(queryString, false, true, false, false, false);
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 40 LINES. REASON: Informative.
+
+    /**
+     * Runs the query and hands each row to the visitor as soon as it is read,
+     * so the result is never held in full.
+     * The last row is the statistics row that Gerrit sends after the changes.
+     * When the visitor stops the query the command on the server is stopped too.
+     * @param queryString the query.
+     * @param getPatchSets getPatchSets if all patch-sets of the projects found should be included in the result.
+     *                      Meaning if --patch-sets should be appended to the command call.
+     * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
+     *                          Meaning if --current-patch-set should be appended to the command call.
+     * @param getFiles if the files of the patch sets should be included in the result.
+     *                          Meaning if --files should be appended to the command call.
+     * @param getCommitMessage if full commit message should be included in the result.
+     *                          Meaning if --commit-message should be appended to the command call.
+     * @param getComments if patchset comments should be included in the results.
+     *                          Meaning if --comments should be appended to the command call.
+     * @param visitor the visitor of the rows.
+     * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+     * @throws SshException if there is an error in the SSH Connection.
+     * @throws IOException for some other IO problem.
+     */
+    public void queryEach(String queryString, boolean getPatchSets, boolean getCurrentPatchSet, boolean getFiles,
+                          boolean getCommitMessage, boolean getComments, final QueryVisitor visitor)
+            throws SshException, IOException, GerritQueryException {
+        runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments, 0,
                 new LineVisitor() {
                     @Override
-                    public void visit(String line) throws GerritQueryException {
+                    public boolean visit(String line) throws GerritQueryException {
                         JSONObject json = (JSONObject)JSONSerializer.toJSON(line.trim());
                         if (json.has("type") && "error".equalsIgnoreCase(json.getString("type"))) {
                             throw new GerritQueryException(json.getString("message"));
                         }
-                        list.add(json);
+                        return visitor.visit(json);
                     }
                 });
-        return list;
     }
 
+    //CS IGNORE RedundantThrows FOR NEXT 17 LINES. REASON: Informative.
+
+    /**
+     * Runs the query and decodes the result into changes, with the parts the projection asks for.
+     * @param queryString the query.
+     * @param projection the parts of the changes to fetch and decode.
+     * @return the changes, without the statistics.
+     * @throws GerritQueryException if Gerrit reports an error with the query.
+     * @throws SshException if there is an error in the SSH Connection.
+     * @throws IOException for some other IO problem.
+     * @see #queryChanges(String, QueryProjection, ChangeVisitor)
+     */
+    public List<Change> queryChanges(String queryString, QueryProjection projection)
+            throws SshException, IOException, GerritQueryException {
+        final List<Change> changes = new LinkedList<Change>();
+        queryChanges(queryString, projection, new ChangeVisitor() {
+            @Override
+            public boolean visit(Change change) {
+                changes.add(change);
+                return true;
+            }
+        });
+        return changes;
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 21 LINES. REASON: Informative.
+
+    /**
+     * Runs the query and hands each change to the visitor as soon as it is read.
+     * The server is only asked for the parts the projection wants, and the parts it sends anyway are skipped.
+     * Each row is read once, straight into the {@link Change} with its
+     * {@link com.sonymobile.tools.gerrit.gerritevents.dto.attr.PatchSet}s.
+     * @param queryString the query.
+     * @param projection the parts of the changes to fetch and decode.
+     * @param visitor the visitor of the changes, it can stop the query by returning false.
+     * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+     * @throws SshException if there is an error in the SSH Connection.
+     * @throws IOException for some other IO problem.
+     */
+    @Override
+    public void queryChanges(String queryString, final QueryProjection projection, final ChangeVisitor visitor)
+            throws SshException, IOException, GerritQueryException {
+        final ChangeReader rows = new ChangeReader(projection);
+        runQuery(queryString, projection.isPatchSets(), projection.isCurrentPatchSet(), projection.isFiles(),
+                projection.isCommitMessage(), projection.isComments(), 0, new LineVisitor() {
+                    @Override
+                    public boolean visit(String line) throws GerritQueryException {
+                        Change change;
+                        try {
+                            change = rows.readRow(line.trim());
+                        } catch (IOException e) {
+                            throw new GerritQueryException("Could not decode the query row.", e);
+                        }
+                        if (rows.getType() != null) {
+                            if ("error".equalsIgnoreCase(rows.getType())) {
+                                throw new GerritQueryException(rows.getMessage());
+                            }
+                            return true;
+                        }
+                        return visitor.visit(change);
+                    }
+                });
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 36 LINES. REASON: Informative.
+
+    /**
+     * Runs the query page by page until Gerrit has no more changes, instead of stopping at the limit of the server.
+     * The changes of the first page are handed to the visitor as they are read. The following pages are fetched
+     * with --start, up to {@link #getPageConcurrency()} at a time on the {@link #getAsyncExecutor() async executor},
+     * and handed to the visitor in order.
+     * The statistics rows are not handed over.
+     * Changes can be missed or repeated if the result changes on the server while it is paged through.
+     * @param queryString the query.
+     * @param getPatchSets if all patch-sets of the projects found should be included in the result.
+     * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
+     * @param getFiles if the files of the patch sets should be included in the result.
+     * @param getCommitMessage if full commit message should be included in the result.
+     * @param getComments if patchset comments should be included in the results.
+     * @param visitor the visitor of the changes, it can stop the query by returning false.
+     * @return the number of changes handed to the visitor.
+     * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+     * @throws SshException if there is an error in the SSH Connection.
+     * @throws IOException for some other IO problem.
+     */
+    public long queryAll(final String queryString, final boolean getPatchSets, final boolean getCurrentPatchSet,
+                         final boolean getFiles, final boolean getCommitMessage, final boolean getComments,
+                         QueryVisitor visitor) throws SshException, IOException, GerritQueryException {
+        return QueryPager.fetchAll(asyncExecutor, getServerKey(), new QueryPager.PageFetcher() {
+            @Override
+            public QueryPager.Page fetch(int start, QueryVisitor pageVisitor)
+                    throws IOException, GerritQueryException {
+                return fetchPage(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage,
+                        getComments, start, pageVisitor);
+            }
+        }, pageConcurrency, visitor);
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 22 LINES. REASON: Informative.
+
+    /**
+     * Runs one page of the query.
+     * @param queryString the query.
+     * @param getPatchSets if all patch-sets should be included.
+     * @param getCurrentPatchSet if the current patch-set should be included.
+     * @param getFiles if the files should be included.
+     * @param getCommitMessage if the commit message should be included.
+     * @param getComments if the comments should be included.
+     * @param start the number of changes to skip.
+     * @param visitor the visitor of the changes of the page.
+     * @return the row count and if there are more changes, from the statistics row.
+     * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+     * @throws IOException for some other IO problem.
+     */
+    private QueryPager.Page fetchPage(String queryString, boolean getPatchSets, boolean getCurrentPatchSet,
+                                      boolean getFiles, boolean getCommitMessage, boolean getComments, int start,
+                                      final QueryVisitor visitor) throws IOException, GerritQueryException {
+        final int[] rows = new int[1];
+        final boolean[] more = new boolean[1];
+        runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments, start,
+                new LineVisitor() {
+                    @Override
+                    public boolean visit(String line) throws GerritQueryException {
+                        JSONObject json = (JSONObject)JSONSerializer.toJSON(line.trim());
+                        String type = json.optString("type");
+                        if ("error".equalsIgnoreCase(type)) {
+                            throw new GerritQueryException(json.getString("message"));
+                        } else if ("stats".equalsIgnoreCase(type)) {
+                            more[0] = json.optBoolean("moreChanges", false);
+                            return true;
+                        }
+                        rows[0]++;
+                        return visitor.visit(json);
+                    }
+                });
+        return new QueryPager.Page(rows[0], more[0]);
+    }
+
+    /**
+     * The host and port of the server, as used to tell servers apart in caches.
+     *
+     * @return the host and port.
+     */
+    @Override
+    public String getServerKey() {
+        return gerritHostName + ":" + gerritSshPort;
+    }
+
+    /**
+     * The user and server, as used to tell the results of identical queries apart.
+     *
+     * @return the user, host and port.
+     */
+    private String getUserKey() {
+        String user = null;
+        if (authentication != null) {
+            user = authentication.getUsername();
+        }
+        return user + "@" + getServerKey();
+    }
+
+    /**
+     * Sets where the async queries run.
+     *
+     * @param asyncExecutor the executor.
+     */
+    public void setAsyncExecutor(AsyncQueryExecutor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Where the async queries run.
+     *
+     * @return the executor, the {@link AsyncQueryExecutor#getInstance() shared one} unless set.
+     */
+    public AsyncQueryExecutor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets what lets identical queryJava calls made at the same time share one execution, none unless set.
+     *
+     * @param singleFlight the single flight, such as the {@link SingleFlight#getInstance() shared one},
+     *                     or null for every call to run its own query.
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * What lets identical queryJava calls made at the same time share one execution.
+     *
+     * @return the single flight, or null if none was set.
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Sets the cache queryJava looks in before asking the server, and stores the results in.
+     *
+     * @param resultCache the cache, or null to always ask the server.
+     */
+    public void setResultCache(QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * The cache queryJava looks in before asking the server.
+     *
+     * @return the cache, or null.
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * The number of pages {@link #queryAll} fetches at the same time after the first.
+     *
+     * @return the number of pages.
+     */
+    public int getPageConcurrency() {
+        return pageConcurrency;
+    }
+
+    /**
+     * Sets the number of pages {@link #queryAll} fetches at the same time after the first.
+     *
+     * @param pageConcurrency the number of pages, default {@link #DEFAULT_PAGE_CONCURRENCY}.
+     */
+    public void setPageConcurrency(int pageConcurrency) {
+        this.pageConcurrency = Math.max(1, pageConcurrency);
+    }
 
     //CS IGNORE RedundantThrows FOR NEXT 18 LINES. REASON: Informative.
     //CS IGNORE JavadocMethod FOR NEXT 17 LINES. REASON: It is there.
@@ -316,11 +722,12 @@ public class GerritQueryHandler {
             throws SshException, IOException {
         final List<String> list = new LinkedList<String>();
         try {
-            runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, false,
+            runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, false, 0,
                     new LineVisitor() {
                         @Override
-                        public void visit(String line) {
+                        public boolean visit(String line) {
                             list.add(line.trim());
+                            return true;
                         }
                     });
         } catch (GerritQueryException gqe) {
@@ -329,8 +736,8 @@ public class GerritQueryHandler {
         return list;
     }
 
-    //CS IGNORE RedundantThrows FOR NEXT 24 LINES. REASON: Informative.
-    //CS IGNORE JavadocMethod FOR NEXT 20 LINES. REASON: It is there.
+    //CS IGNORE RedundantThrows FOR NEXT 25 LINES. REASON: Informative.
+    //CS IGNORE JavadocMethod FOR NEXT 21 LINES. REASON: It is there.
 
     /**
      * Runs the query on the Gerrit server and lets the provided visitor handle each line in the result.
@@ -345,13 +752,14 @@ public class GerritQueryHandler {
      *                          Meaning if --commit-message should be appended to the command call.
      * @param getComments if patchset comments should be included in the results.
      *                          Meaning if --comments should be appended to the command call.
-     * @param visitor the visitor to handle each line in the result.
+     * @param start the number of changes to skip, meaning --start if more than 0.
+     * @param visitor the visitor to handle each line in the result, it can stop the query by returning false.
      * @throws GerritQueryException if a visitor finds that Gerrit reported an error with the query.
      * @throws SshException if there is an error in the SSH Connection.
      * @throws IOException for some other IO problem.
      */
     private void runQuery(String queryString, boolean getPatchSets, boolean getCurrentPatchSet, boolean getFiles,
-                          boolean getCommitMessage, boolean getComments, LineVisitor visitor)
+                          boolean getCommitMessage, boolean getComments, int start, LineVisitor visitor)
             throws GerritQueryException, SshException, IOException {
         StringBuilder str = new StringBuilder(QUERY_COMMAND);
         str.append(" --format=JSON");
@@ -370,19 +778,28 @@ public class GerritQueryHandler {
         if (getCommitMessage) {
             str.append(" --commit-message");
         }
+        if (start > 0) {
+            str.append(" --start ").append(start);
+        }
         str.append(" \"").append(queryString.replace((CharSequence)"\"", (CharSequence)"\\\"")).append("\"");
 
         SshConnection ssh = null;
         try {
             ssh = getConnection();
             BufferedReader reader = new BufferedReader(ssh.executeCommandReader(str.toString()));
-            String incomingLine = null;
-            while ((incomingLine = reader.readLine()) != null) {
-                logger.trace("Incoming line: {}", incomingLine);
-                visitor.visit(incomingLine);
+            try {
+                String incomingLine = null;
+                while ((incomingLine = reader.readLine()) != null) {
+                    logger.trace("Incoming line: {}", incomingLine);
+                    if (!visitor.visit(incomingLine)) {
+                        logger.trace("Query stopped by the visitor.");
+                        break;
+                    }
+                }
+            } finally {
+                logger.trace("Closing reader.");
+                reader.close();
             }
-            logger.trace("Closing reader.");
-            reader.close();
         } finally {
             cleanupConnection(ssh);
         }
@@ -390,13 +807,14 @@ public class GerritQueryHandler {
 
     /**
      * Creates a new SSH connection used to execute the queries.
+     * If the {@link SshSessionPool} is active the connection is borrowed from it instead.
      *
      * @return a fresh instance of {@link SshConnection}
      * @throws IOException for IO issues
      */
     protected SshConnection getConnection() throws IOException {
-        return SshConnectionFactory.getConnection(gerritHostName, gerritSshPort, gerritProxy,
-                authentication, connectionTimeout);
+        return SshSessionPool.connect(gerritHostName, gerritSshPort, gerritProxy, authentication,
+                connectionTimeout);
     }
 
     /**
@@ -412,15 +830,16 @@ public class GerritQueryHandler {
 
     /**
      * Internal visitor for handling a line of text.
-     * Used by {@link #runQuery(java.lang.String, boolean, boolean, boolean, boolean, boolean, LineVisitor)}.
+     * Used by {@link #runQuery(java.lang.String, boolean, boolean, boolean, boolean, boolean, int, LineVisitor)}.
      */
     interface LineVisitor {
         /**
          * Visits a line of query result.
          * @param line the line.
+         * @return true to read the next line, false to stop.
          * @throws GerritQueryException if you want to.
          */
-        void visit(String line) throws GerritQueryException;
+        boolean visit(String line) throws GerritQueryException;
     }
 
     @Override
@@ -1,26 +1,38 @@
 package com.sonymobile.tools.gerrit.gerritevents;
 
+import com.google.gson.stream.JsonReader;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.rest.JsonArrayReader;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.SshException;
-import io.restassured.response.Response;
-import net.sf.json.JSONArray;
+import com.sonymobile.tools.gerrit.gerritevents.rest.PooledHttpClient;
 import net.sf.json.JSONObject;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
-import java.util.function.Consumer;
-
-import static io.restassured.RestAssured.given;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 /**
  * This class helps you call gerrit query to search for patch-sets. instead of using SSH, it calls Gerrit's Rest api
  *
  * @author Manuel Mühlberger &lt;Manuel.Muehlberger@faktorzehn.de&gt;
  */
-public class GerritQueryHandlerHttp {
+public class GerritQueryHandlerHttp implements ChangeQueryHandler {
 
   static final int STATUS_OK = 200;
   static final int STATUS_BAD_REQUEST = 400;
@@ -31,6 +43,21 @@ public class GerritQueryHandlerHttp {
   static final String GET_CURRENT_FILES = "&o=CURRENT_FILES";
   static final String GET_CURRENT_COMMIT = "&o=CURRENT_COMMIT";
   static final String GET_MESSAGES = "&o=MESSAGES";
+  static final String GET_ALL_FILES = "&o=ALL_FILES";
+  static final String GET_DETAILED_LABELS = "&o=DETAILED_LABELS";
+  static final String START = "&S=";
+  static final String MORE_CHANGES = "_more_changes";
+  static final String QUERY_PATH = "/a/changes/?q=";
+  static final String CHANGES_PATH = "/a/changes/";
+  static final String REVISIONS_PATH = "/revisions/";
+  static final String FILES_PATH = "/files/";
+  private static final String BASIC = "Basic ";
+  private static final int MAX_LOGGED_LENGTH = 512;
+  /**
+   * The default number of pages fetched at the same time by {@link #queryAll}.
+   */
+  public static final int DEFAULT_PAGE_CONCURRENCY =
+      Integer.getInteger("gerritevents.GerritQueryHandlerHttp.DEFAULT_PAGE_CONCURRENCY", 4);
 
   /**
    * Logger instance.
@@ -44,6 +71,11 @@ public class GerritQueryHandlerHttp {
   private final String httpBaseUrl;
   private final String proxy;
   private final Credential credential;
+  private final int connectionTimeout;
+  private int pageConcurrency = DEFAULT_PAGE_CONCURRENCY;
+  private volatile QueryResultCache resultCache = null;
+  private volatile SingleFlight singleFlight = null;
+  private volatile AsyncQueryExecutor asyncExecutor = AsyncQueryExecutor.getInstance();
 
 
   /**
@@ -54,9 +86,24 @@ public class GerritQueryHandlerHttp {
    * @param gerritProxy the (optional) proxy
    */
   public GerritQueryHandlerHttp(String frontEndUrl, Credential credential, String gerritProxy) {
+    this(frontEndUrl, credential, gerritProxy, 0);
+  }
+
+  /**
+   * Creates a GerritQueryHandlerHTTP with the following parameters.
+   *
+   * @param frontEndUrl the front-end-url specified
+   * @param credential the credentials, contains the username and password
+   * @param gerritProxy the (optional) proxy
+   * @param connectionTimeout the time to wait for connecting and between packets in ms,
+   *                          zero or less for {@link PooledHttpClient#DEFAULT_TIMEOUT}
+   */
+  public GerritQueryHandlerHttp(String frontEndUrl, Credential credential, String gerritProxy,
+                                int connectionTimeout) {
     this.httpBaseUrl = frontEndUrl;
     this.credential = credential;
     this.proxy = gerritProxy;
+    this.connectionTimeout = connectionTimeout;
   }
 
 
@@ -125,10 +172,11 @@ public class GerritQueryHandlerHttp {
     return queryJava(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, false);
   }
 
-  //CS IGNORE RedundantThrows FOR NEXT 24 LINES. REASON: Informative.
+  //CS IGNORE RedundantThrows FOR NEXT 26 LINES. REASON: Informative.
 
   /**
    * Runs the query and returns the result as a list of Java JSONObjects.
+   * Identical queries asked at the same time can share one execution, see {@link #setSingleFlight}.
    *
    * @param queryString        the query.
    * @param getPatchSets       getPatchSets if all patch-sets of the projects found should be included in the result.
@@ -145,21 +193,419 @@ public class GerritQueryHandlerHttp {
    * @throws GerritQueryException if Gerrit reports an error with the query.
    * @throws IOException          for some other IO problem.
    */
-  public List<JSONObject> queryJava(String queryString, boolean getPatchSets, boolean getCurrentPatchSet,
-                                           boolean getFiles, boolean getCommitMessage, boolean getComments)
+  public List<JSONObject> queryJava(final String queryString, final boolean getPatchSets,
+                                    final boolean getCurrentPatchSet, final boolean getFiles,
+                                    final boolean getCommitMessage, final boolean getComments)
       throws IOException, GerritQueryException {
 
-    List<JSONObject> list = new ArrayList<>();
-    Consumer<JSONObject> lineVisitor = new Consumer<JSONObject>() {
+    QueryResultCache cache = resultCache;
+    String key = null;
+    long generation = 0;
+    if (cache != null) {
+      key = QueryResultCache.key(getUserKey(), queryString,
+          getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments);
+      List<JSONObject> cached = cache.get(key);
+      if (cached != null) {
+        return new ArrayList<>(cached);
+      }
+      generation = cache.getGeneration();
+    }
+    SingleFlight flight = singleFlight;
+    if (flight == null) {
+      return fetchRows(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments,
+          key, generation, null);
+    }
+    final String cacheKey = key;
+    final long cacheGeneration = generation;
+    String flightKey = QueryResultCache.key(getUserKey(), queryString,
+      getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments);
+    return flight.execute(flightKey, new SingleFlight.Call() {
+      @Override
+      public List<JSONObject> call() throws IOException, GerritQueryException {
+        return fetchRows(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments,
+            cacheKey, cacheGeneration, null);
+      }
+    });
+  }
+
+  //CS IGNORE RedundantThrows FOR NEXT 24 LINES. REASON: Informative.
+
+  /**
+   * Runs the query for {@link #queryJava(String, boolean, boolean, boolean, boolean, boolean)},
+   * and stores the result in the result cache if there is one.
+   *
+   * @param queryString        the query.
+   * @param getPatchSets       if all patch-sets should be included.
+   * @param getCurrentPatchSet if the current patch-set should be included.
+   * @param getFiles           if the files of the patch sets should be included.
+   * @param getCommitMessage   if full commit message should be included.
+   * @param getComments        if patchset comments should be included.
+   * @param key                the key in the result cache, or null if there is none.
+   * @param generation         the generation of the result cache when the query was started.
+   * @param stop               stops the query when done, or null.
+   * @return the changes, as far as read if stopped.
+   * @throws GerritQueryException if Gerrit reports an error with the query.
+   * @throws IOException          for some IO problem.
+   */
+  private List<JSONObject> fetchRows(String queryString, boolean getPatchSets, boolean getCurrentPatchSet,
+                                     boolean getFiles, boolean getCommitMessage, boolean getComments,
+                                     String key, long generation, final Future<?> stop)
+      throws IOException, GerritQueryException {
+    final List<JSONObject> list = new ArrayList<>();
+    final boolean[] stopped = {false};
+    QueryVisitor lineVisitor = new QueryVisitor() {
       @Override
-      public void accept(JSONObject jsonObject) {
+      public boolean visit(JSONObject jsonObject) {
+        if (stop != null && stop.isDone()) {
+          stopped[0] = true;
+          return false;
+        }
         list.add(jsonObject);
+        return true;
       }
     };
-    runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments, lineVisitor);
+    runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments, 0,
+        lineVisitor);
+    QueryResultCache cache = resultCache;
+    if (cache != null && key != null && !stopped[0]) {
+      cache.put(key, list, generation);
+    }
     return list;
   }
 
+  /**
+   * Runs the query in the background on the {@link #setAsyncExecutor async executor},
+   * which caps the number of queries running against each server.
+   * The result is taken from and stored in the {@link #setResultCache result cache} if there is one.
+   * Cancelling the future, or its timing out, stops the query and the reading of the response.
+   *
+   * @param queryString        the query.
+   * @param getPatchSets       if all patch-sets of the projects found should be included in the result.
+   * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
+   * @param getFiles           if the files of the patch sets should be included in the result.
+   * @param getCommitMessage   if full commit message should be included in the result.
+   * @param getComments        if patchset comments should be included in the results.
+   * @return the future query result, failing with a {@link GerritQueryException} or {@link IOException}
+   *         as queryJava would throw.
+   */
+  public CompletableFuture<List<JSONObject>> queryJavaAsync(final String queryString, final boolean getPatchSets,
+                                                            final boolean getCurrentPatchSet, final boolean getFiles,
+                                                            final boolean getCommitMessage,
+                                                            final boolean getComments) {
+    QueryResultCache cache = resultCache;
+    String key = null;
+    long generation = 0;
+    if (cache != null) {
+      key = QueryResultCache.key(getUserKey(), queryString,
+          getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments);
+      List<JSONObject> cached = cache.get(key);
+      if (cached != null) {
+        return CompletableFuture.<List<JSONObject>>completedFuture(new ArrayList<>(cached));
+      }
+      generation = cache.getGeneration();
+    }
+    final String cacheKey = key;
+    final long cacheGeneration = generation;
+    return asyncExecutor.submit(httpBaseUrl, new AsyncQueryExecutor.Query<List<JSONObject>>() {
+      @Override
+      public List<JSONObject> run(Future<List<JSONObject>> future) throws IOException, GerritQueryException {
+        return fetchRows(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments,
+            cacheKey, cacheGeneration, future);
+      }
+    });
+  }
+
+  /**
+   * Runs the query in the background, with the current patch set and its files.
+   *
+   * @param queryString the query.
+   * @return the future query result.
+   * @see #queryJavaAsync(String, boolean, boolean, boolean, boolean, boolean)
+   */
+  public CompletableFuture<List<JSONObject>> queryFilesAsync(String queryString) {
+    return queryJavaAsync(queryString, false, true, true, false, false);
+  }
+
+  /**
+   * Runs the query in the background, with the current patch set.
+   *
+   * @param queryString the query.
+   * @return the future query result.
+   * @see #queryJavaAsync(String, boolean, boolean, boolean, boolean, boolean)
+   */
+  public CompletableFuture<List<JSONObject>> queryCurrentPatchSetsAsync(String queryString) {
+    return queryJavaAsync(queryString, false, true, false, false, false);
+  }
+
+  //CS IGNORE RedundantThrows FOR NEXT 16 LINES. REASON: Informative.
+
+  /**
+   * Runs the query and decodes the result into changes, with the parts the projection asks for.
+   *
+   * @param queryString the query.
+   * @param projection  the parts of the changes to fetch and decode.
+   * @return the changes.
+   * @throws GerritQueryException if Gerrit reports an error with the query.
+   * @throws IOException          for some other IO problem.
+   * @see #queryChanges(String, QueryProjection, ChangeVisitor)
+   */
+  public List<Change> queryChanges(String queryString, QueryProjection projection)
+      throws IOException, GerritQueryException {
+    final List<Change> changes = new ArrayList<>();
+    queryChanges(queryString, projection, new ChangeVisitor() {
+      @Override
+      public boolean visit(Change change) {
+        changes.add(change);
+        return true;
+      }
+    });
+    return changes;
+  }
+
+  //CS IGNORE RedundantThrows FOR NEXT 22 LINES. REASON: Informative.
+
+  /**
+   * Runs the query and hands each change to the visitor as soon as it is read from the response.
+   * The server is only asked for the parts the projection wants, and the parts it sends anyway are skipped.
+   * Each ChangeInfo is read once, straight from the response into the same {@link Change} and
+   * {@link com.sonymobile.tools.gerrit.gerritevents.dto.attr.PatchSet}s as an ssh query gives,
+   * except that the commit message only comes with a patch set, and the approvals are those of the current one.
+   *
+   * @param queryString the query.
+   * @param projection  the parts of the changes to fetch and decode.
+   * @param visitor     the visitor of the changes, it can stop the query by returning false.
+   * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+   * @throws IOException          for some other IO problem.
+   */
+  @Override
+  public void queryChanges(String queryString, final QueryProjection projection, final ChangeVisitor visitor)
+      throws IOException, GerritQueryException {
+    StringBuilder url = new StringBuilder(getUrl(queryString, projection.isPatchSets(),
+        projection.isCurrentPatchSet(), projection.isFiles(), projection.isCommitMessage(),
+        projection.isComments(), 0));
+    if (projection.isPatchSets() && projection.isFiles()) {
+      url.append(GET_ALL_FILES);
+    }
+    if (projection.isApprovals()) {
+      url.append(GET_DETAILED_LABELS);
+    }
+    execute(url.toString(), new ResponseHandler() {
+      @Override
+      public void handle(HttpGet request, HttpEntity entity) throws GerritQueryException, IOException {
+        readChanges(request, entity, projection, visitor);
+      }
+    });
+  }
+
+  //CS IGNORE RedundantThrows FOR NEXT 26 LINES. REASON: Informative.
+
+  /**
+   * Runs the query and hands each change to the visitor as soon as it is read from the response,
+   * so the result is never held in full. When the visitor stops the query the rest of the response is not read.
+   *
+   * @param queryString        the query.
+   * @param getPatchSets       getPatchSets if all patch-sets of the projects found should be included in the result.
+   * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
+   * @param getFiles           if the files of the patch sets should be included in the result.
+   * @param getCommitMessage   if full commit message should be included in the result.
+   * @param getComments        if patchset comments should be included in the results.
+   * @param visitor            the visitor of the changes.
+   * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+   * @throws IOException          for some other IO problem.
+   */
+  public void queryEach(String queryString, boolean getPatchSets, boolean getCurrentPatchSet, boolean getFiles,
+                        boolean getCommitMessage, boolean getComments, QueryVisitor visitor)
+      throws IOException, GerritQueryException {
+    runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments, 0,
+        visitor);
+  }
+
+  //CS IGNORE RedundantThrows FOR NEXT 34 LINES. REASON: Informative.
+
+  /**
+   * Runs the query page by page until Gerrit has no more changes, instead of stopping at the limit of the server.
+   * The changes of the first page are handed to the visitor as they are read. The following pages are fetched
+   * with S=, up to {@link #getPageConcurrency()} at a time on the {@link #getAsyncExecutor() async executor},
+   * and handed to the visitor in order.
+   * Changes can be missed or repeated if the result changes on the server while it is paged through.
+   *
+   * @param queryString        the query.
+   * @param getPatchSets       if all patch-sets of the projects found should be included in the result.
+   * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
+   * @param getFiles           if the files of the patch sets should be included in the result.
+   * @param getCommitMessage   if full commit message should be included in the result.
+   * @param getComments        if patchset comments should be included in the results.
+   * @param visitor            the visitor of the changes, it can stop the query by returning false.
+   * @return the number of changes handed to the visitor.
+   * @throws GerritQueryException if Gerrit reports an error with the query, or the visitor throws it.
+   * @throws IOException          for some other IO problem.
+   */
+  public long queryAll(final String queryString, final boolean getPatchSets, final boolean getCurrentPatchSet,
+                       final boolean getFiles, final boolean getCommitMessage, final boolean getComments,
+                       QueryVisitor visitor) throws IOException, GerritQueryException {
+    return QueryPager.fetchAll(asyncExecutor, httpBaseUrl, new QueryPager.PageFetcher() {
+      @Override
+      public QueryPager.Page fetch(int start, final QueryVisitor pageVisitor)
+          throws IOException, GerritQueryException {
+        final int[] rows = new int[1];
+        final boolean[] more = new boolean[1];
+        runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments, start,
+            new QueryVisitor() {
+              @Override
+              public boolean visit(JSONObject row) throws GerritQueryException {
+                rows[0]++;
+                //Only the last change of a page has it.
+                more[0] = row.optBoolean(MORE_CHANGES, false);
+                return pageVisitor.visit(row);
+              }
+            });
+        return new QueryPager.Page(rows[0], more[0]);
+      }
+    }, pageConcurrency, visitor);
+  }
+
+  /**
+   * The front end url of the server, as used to tell servers apart in caches.
+   *
+   * @return the url.
+   */
+  @Override
+  public String getServerKey() {
+    return httpBaseUrl;
+  }
+
+  /**
+   * The user and server, as used to tell the results of identical queries apart.
+   *
+   * @return the user and front end url.
+   */
+  private String getUserKey() {
+    String user = null;
+    if (credential != null && credential.getUserPrincipal() != null) {
+      user = credential.getUserPrincipal().getName();
+    }
+    return user + "@" + httpBaseUrl;
+  }
+
+  /**
+   * Sets where the async queries run.
+   *
+   * @param asyncExecutor the executor.
+   */
+  public void setAsyncExecutor(AsyncQueryExecutor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /**
+   * Where the async queries run.
+   *
+   * @return the executor, the {@link AsyncQueryExecutor#getInstance() shared one} unless set.
+   */
+  public AsyncQueryExecutor getAsyncExecutor() {
+    return asyncExecutor;
+  }
+
+  /**
+   * Sets what lets identical queryJava calls made at the same time share one execution, none unless set.
+   *
+   * @param singleFlight the single flight, such as the {@link SingleFlight#getInstance() shared one},
+   *                     or null for every call to run its own query.
+   */
+  public void setSingleFlight(SingleFlight singleFlight) {
+    this.singleFlight = singleFlight;
+  }
+
+  /**
+   * What lets identical queryJava calls made at the same time share one execution.
+   *
+   * @return the single flight, or null if none was set.
+   */
+  public SingleFlight getSingleFlight() {
+    return singleFlight;
+  }
+
+  /**
+   * Sets the cache queryJava looks in before asking the server, and stores the results in.
+   * The rows of a cached result are shared by everyone it is handed to and must not be modified.
+   *
+   * @param resultCache the cache, or null to always ask the server.
+   */
+  public void setResultCache(QueryResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
+
+  /**
+   * The cache queryJava looks in before asking the server.
+   *
+   * @return the cache, or null.
+   */
+  public QueryResultCache getResultCache() {
+    return resultCache;
+  }
+
+  /**
+   * The number of pages {@link #queryAll} fetches at the same time after the first.
+   *
+   * @return the number of pages.
+   */
+  public int getPageConcurrency() {
+    return pageConcurrency;
+  }
+
+  /**
+   * Sets the number of pages {@link #queryAll} fetches at the same time after the first.
+   *
+   * @param pageConcurrency the number of pages, default {@link #DEFAULT_PAGE_CONCURRENCY}.
+   */
+  public void setPageConcurrency(int pageConcurrency) {
+    this.pageConcurrency = Math.max(1, pageConcurrency);
+  }
+
+
+  //CS IGNORE RedundantThrows FOR NEXT 18 LINES. REASON: Informative.
+
+  /**
+   * Fetches the files of a patch set from {@code /changes/{change}/revisions/{revision}/files/},
+   * which unlike a query also knows the patch sets that are not current.
+   *
+   * @param changeId the change number or id.
+   * @param revision the SHA-1 of the patch set.
+   * @return the paths of the files, with the magic files like /COMMIT_MSG.
+   * @throws GerritQueryException if Gerrit answers that the request is bad.
+   * @throws IOException          if the change or revision is not found, or for some other IO problem.
+   */
+  public List<String> queryRevisionFiles(String changeId, String revision) throws IOException, GerritQueryException {
+    String url;
+    try {
+      url = httpBaseUrl + CHANGES_PATH + URLEncoder.encode(changeId, StandardCharsets.UTF_8.name())
+          + REVISIONS_PATH + URLEncoder.encode(revision, StandardCharsets.UTF_8.name()) + FILES_PATH;
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is always supported", e);
+    }
+    final List<String> files = new ArrayList<>();
+    execute(url, new ResponseHandler() {
+      @Override
+      public void handle(HttpGet request, HttpEntity entity) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(
+            new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8)));
+        //Lenient to skip the )]}' line Gerrit puts in front of its responses against XSSI.
+        reader.setLenient(true);
+        try {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            files.add(reader.nextName());
+            reader.skipValue();
+          }
+          reader.endObject();
+        } catch (IllegalStateException e) {
+          throw new IOException("The response is not a map of files: " + e.getMessage(), e);
+        } finally {
+          reader.close();
+        }
+      }
+    });
+    return files;
+  }
 
   //CS IGNORE RedundantThrows FOR NEXT 18 LINES. REASON: Informative.
   //CS IGNORE JavadocMethod FOR NEXT 17 LINES. REASON: It is there.
@@ -254,44 +700,39 @@ public class GerritQueryHandlerHttp {
                                 boolean getFiles, boolean getCommitMessage)
       throws GerritQueryException, IOException {
 
-    List<String> list = new ArrayList<>();
-    Consumer<JSONObject> lineVisitor = new Consumer<JSONObject>() {
+    final List<String> list = new ArrayList<>();
+    QueryVisitor lineVisitor = new QueryVisitor() {
       @Override
-      public void accept(JSONObject jsonObject) {
+      public boolean visit(JSONObject jsonObject) {
         list.add(jsonObject.toString());
+        return true;
       }
     };
-    runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, false, lineVisitor);
+    runQuery(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, false, 0,
+        lineVisitor);
     return list;
   }
 
-  //CS IGNORE RedundantThrows FOR NEXT 24 LINES. REASON: Informative.
-  //CS IGNORE JavadocMethod FOR NEXT 20 LINES. REASON: It is there.
-
   /**
-   * Runs the query on the Gerrit server and lets the provided visitor handle each line in the result.
+   * The url of a query.
    *
    * @param queryString        the query. (e.g "limit=1")
    * @param getPatchSets       if all patch-sets of the projects found should be included in the result.
-   *                           Meaning if --patch-sets should be appended to the command call.
    * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
-   *                           Meaning if --current-patch-set should be appended to the command call.
    * @param getFiles           if changed files list should be included in the result.
-   *                           Meaning if --files should be appended to the command call.
    * @param getCommitMessage   if full commit message should be included in the result.
-   *                           Meaning if --commit-message should be appended to the command call.
    * @param getComments        if patchset comments should be included in the results.
-   *                           Meaning if --comments should be appended to the command call.
-   * @param lineVisitor the visitor to handle each line in the result.
-   * @throws GerritQueryException if a visitor finds that Gerrit reported an error with the query.
-   * @throws IOException          for some other IO problem.
+   * @param start              the number of changes to skip, meaning S= if more than 0.
+   * @return the url.
    */
-  private void runQuery(String queryString, boolean getPatchSets, boolean getCurrentPatchSet, boolean getFiles,
-                            boolean getCommitMessage, boolean getComments, Consumer<JSONObject> lineVisitor)
-      throws GerritQueryException, IOException {
-
+  String getUrl(String queryString, boolean getPatchSets, boolean getCurrentPatchSet, boolean getFiles,
+                boolean getCommitMessage, boolean getComments, int start) {
     StringBuilder str = new StringBuilder(httpBaseUrl);
-    str.append("/a/changes/?q=").append(queryString);
+    try {
+      str.append(QUERY_PATH).append(URLEncoder.encode(queryString, StandardCharsets.UTF_8.name()));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is always supported", e);
+    }
 
     // map the cl-arguments from: https://gerrit-review.googlesource.com/Documentation/cmd-query.html
     // to Rest-API-arguments:     https://gerrit-review.googlesource.com/Documentation/rest-api-changes.html
@@ -324,44 +765,232 @@ public class GerritQueryHandlerHttp {
       //MESSAGES: include messages associated with the change.
       str.append(GET_MESSAGES);
     }
+    if (start > 0) {
+      str.append(START).append(start);
+    }
+    return str.toString();
+  }
 
-    logger.debug("sending: " + str);
+  /**
+   * The value of the Authorization header, sent with every request instead of waiting to be challenged.
+   *
+   * @return the basic credentials.
+   */
+  private String getAuthorization() {
+    String userPass = credential.getUserPrincipal().getName() + ":" + credential.getPassword();
+    return BASIC + Base64.getEncoder().encodeToString(userPass.getBytes(StandardCharsets.UTF_8));
+  }
 
-    Response response = given().auth().preemptive()
-                        .basic(credential.getUserPrincipal().getName(), credential.getPassword())
-                        .given().when().request("GET", str.toString());
+  //CS IGNORE RedundantThrows FOR NEXT 27 LINES. REASON: Informative.
+  //CS IGNORE JavadocMethod FOR NEXT 23 LINES. REASON: It is there.
 
-    logger.debug("Status received: " + response.getStatusLine());
+  /**
+   * Runs the query on the Gerrit server and lets the provided visitor handle each line in the result.
+   * The request is sent on a kept alive connection of the {@link PooledHttpClient}, and the response is parsed one
+   * change at a time as it arrives.
+   *
+   * @param queryString        the query. (e.g "limit=1")
+   * @param getPatchSets       if all patch-sets of the projects found should be included in the result.
+   *                           Meaning if --patch-sets should be appended to the command call.
+   * @param getCurrentPatchSet if the current patch-set for the projects found should be included in the result.
+   *                           Meaning if --current-patch-set should be appended to the command call.
+   * @param getFiles           if changed files list should be included in the result.
+   *                           Meaning if --files should be appended to the command call.
+   * @param getCommitMessage   if full commit message should be included in the result.
+   *                           Meaning if --commit-message should be appended to the command call.
+   * @param getComments        if patchset comments should be included in the results.
+   *                           Meaning if --comments should be appended to the command call.
+   * @param start              the number of changes to skip, meaning S= if more than 0.
+   * @param lineVisitor the visitor to handle each change in the result, it can stop the query by returning false.
+   * @throws GerritQueryException if a visitor finds that Gerrit reported an error with the query.
+   * @throws IOException          for some other IO problem.
+   */
+  private void runQuery(String queryString, boolean getPatchSets, boolean getCurrentPatchSet, boolean getFiles,
+                            boolean getCommitMessage, boolean getComments, int start,
+                            final QueryVisitor lineVisitor)
+      throws GerritQueryException, IOException {
 
-    switch(response.statusCode()) {
-      case STATUS_OK:
-        logger.debug("Body received: " + response.body().asPrettyString());
-        break;
+    execute(getUrl(queryString, getPatchSets, getCurrentPatchSet, getFiles, getCommitMessage, getComments, start),
+        new ResponseHandler() {
+          @Override
+          public void handle(HttpGet request, HttpEntity entity) throws GerritQueryException, IOException {
+            visitChanges(request, entity, lineVisitor);
+          }
+        });
+  }
 
-      case STATUS_BAD_REQUEST:
-        logger.error(httpBaseUrl + ": Bad request " + "(400)");
-        throw new GerritQueryException(str + ": Bad request " + "(400)");
+  //CS IGNORE RedundantThrows FOR NEXT 16 LINES. REASON: Informative.
 
-      case STATUS_BAD_CREDENTIALS:
-        logger.error("Unable to authenticate to \"" + httpBaseUrl + "\"");
-        throw new IOException("Error connecting to \"" + httpBaseUrl + "\" " + "(401)");
+  /**
+   * Sends a query and lets the handler read the result.
+   *
+   * @param url          the url of the query.
+   * @param handler      the reader of the response.
+   * @throws GerritQueryException if a visitor finds that Gerrit reported an error with the query.
+   * @throws IOException          for some other IO problem.
+   */
+  private void execute(String url, ResponseHandler handler)
+      throws GerritQueryException, IOException {
+    logger.debug("sending: {}", url);
+
+    HttpGet request = new HttpGet(url);
+    request.setConfig(PooledHttpClient.requestConfig(connectionTimeout));
+    request.setHeader(HttpHeaders.AUTHORIZATION, getAuthorization());
+    CloseableHttpResponse response = PooledHttpClient.get(proxy).execute(request);
+    try {
+      int status = response.getStatusLine().getStatusCode();
+      logger.debug("Status received: {}", response.getStatusLine());
+
+      switch(status) {
+        case STATUS_OK:
+          break;
+
+        case STATUS_BAD_REQUEST:
+          logger.error(httpBaseUrl + ": Bad request " + "(400)");
+          throw new GerritQueryException(url + ": Bad request " + "(400)");
+
+        case STATUS_BAD_CREDENTIALS:
+          logger.error("Unable to authenticate to \"" + httpBaseUrl + "\"");
+          throw new IOException("Error connecting to \"" + httpBaseUrl + "\" " + "(401)");
+
+        case STATUS_NOT_FOUND:
+          logger.error("\"" + httpBaseUrl + "\": Could not be found! (404)");
+          throw new IOException("Error connecting to \"" + httpBaseUrl + "\" " + "(404)");
+
+        default:
+          logger.error("Error connecting to \"" + httpBaseUrl + "\"! (" + status + ")");
+          throw new IOException("Error connecting to \"" + httpBaseUrl + "\" (" + status + ")");
+      }
 
-      case STATUS_NOT_FOUND:
-        logger.error("\"" + httpBaseUrl + "\": Could not be found! (404)");
-        throw new IOException("Error connecting to \"" + httpBaseUrl + "\" " + "(404)");
+      HttpEntity entity = response.getEntity();
+      if (entity == null) {
+        throw new IOException("Empty response from \"" + httpBaseUrl + "\"");
+      }
+      handler.handle(request, entity);
+    } finally {
+      response.close();
+    }
+  }
+
+  //CS IGNORE RedundantThrows FOR NEXT 20 LINES. REASON: Informative.
 
-      default:
-        logger.error("Error connecting to \"" + httpBaseUrl + "\"! (" + response.statusCode() + ")");
-        throw new IOException("Error connecting to \"" + httpBaseUrl + "\" (" + response.statusCode() + ")");
+  /**
+   * Parses the changes of a response one at a time and hands them to the visitor.
+   * When all were read the rest of the response is read too, so the connection can be used again.
+   * When the visitor stops the request is aborted instead, closing the connection rather than reading the rest.
+   *
+   * @param request the request.
+   * @param entity  the response.
+   * @param visitor the visitor.
+   * @throws GerritQueryException if the visitor throws it.
+   * @throws IOException          if reading fails.
+   */
+  private void visitChanges(HttpGet request, HttpEntity entity, QueryVisitor visitor)
+      throws GerritQueryException, IOException {
+    JsonArrayReader reader = new JsonArrayReader(new BufferedReader(
+        new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8)));
+    int count = 0;
+    boolean stopped = false;
+    try {
+      String element = reader.next();
+      while (element != null) {
+        count++;
+        if (logger.isTraceEnabled()) {
+          logger.trace("Change received: {}", abbreviate(element));
+        }
+        if (!visitor.visit(JSONObject.fromObject(element))) {
+          logger.trace("Query stopped by the visitor.");
+          stopped = true;
+          break;
+        }
+        element = reader.next();
+      }
+      if (!stopped) {
+        EntityUtils.consume(entity);
+      }
+    } finally {
+      if (stopped) {
+        request.abort();
+      }
+      reader.close();
     }
+    logger.debug("Changes received: {}", count);
+  }
 
-    String body = response.body().asString().split("\\r?\\n|\\r")[1]; //removing XSSI-Chars
-    JSONArray jsonArray = JSONArray.fromObject(body);
+  //CS IGNORE RedundantThrows FOR NEXT 20 LINES. REASON: Informative.
 
-    //jsonArray.forEach(v -> lineVisitor.accept((JSONObject) v));
-    for (Object element : jsonArray) {
-        lineVisitor.accept((JSONObject)element);
+  /**
+   * Decodes the changes of a response one at a time, straight from the tokens, and hands them to the visitor.
+   * When all were read the rest of the response is read too, so the connection can be used again.
+   * When the visitor stops the request is aborted instead, closing the connection rather than reading the rest.
+   *
+   * @param request    the request.
+   * @param entity     the response.
+   * @param projection the parts of the changes to decode.
+   * @param visitor    the visitor.
+   * @throws GerritQueryException if the visitor throws it.
+   * @throws IOException          if reading fails.
+   */
+  private void readChanges(HttpGet request, HttpEntity entity, QueryProjection projection, ChangeVisitor visitor)
+      throws GerritQueryException, IOException {
+    JsonReader reader = new JsonReader(new BufferedReader(
+        new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8)));
+    //Lenient to skip the )]}' line Gerrit puts in front of its responses against XSSI.
+    reader.setLenient(true);
+    ChangeReader changes = new ChangeReader(projection);
+    int count = 0;
+    boolean stopped = false;
+    try {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        count++;
+        if (!visitor.visit(changes.readChangeInfo(reader))) {
+          logger.trace("Query stopped by the visitor.");
+          stopped = true;
+          break;
+        }
+      }
+      if (!stopped) {
+        reader.endArray();
+        EntityUtils.consume(entity);
+      }
+    } catch (IllegalStateException e) {
+      throw new IOException("The response is not a list of changes: " + e.getMessage(), e);
+    } finally {
+      if (stopped) {
+        request.abort();
+      }
+      reader.close();
     }
+    logger.debug("Changes received: {}", count);
+  }
+
+  /**
+   * Shortens a text for logging.
+   *
+   * @param text the text.
+   * @return the text, cut at {@link #MAX_LOGGED_LENGTH}.
+   */
+  private static String abbreviate(String text) {
+    if (text.length() <= MAX_LOGGED_LENGTH) {
+      return text;
+    }
+    return text.substring(0, MAX_LOGGED_LENGTH) + "...";
+  }
+
+  /**
+   * Reads the response of a query.
+   */
+  private interface ResponseHandler {
+    /**
+     * Reads the response.
+     *
+     * @param request the request, to abort when the rest of the response is not wanted.
+     * @param entity  the response.
+     * @throws GerritQueryException if a visitor throws it.
+     * @throws IOException          if reading fails.
+     */
+    void handle(HttpGet request, HttpEntity entity) throws GerritQueryException, IOException;
   }
 
   @Override
@@ -375,11 +1004,12 @@ public class GerritQueryHandlerHttp {
     GerritQueryHandlerHttp gerritQueryHandler = (GerritQueryHandlerHttp)o;
     return Objects.equals(httpBaseUrl, gerritQueryHandler.httpBaseUrl)
         && Objects.equals(proxy, gerritQueryHandler.proxy)
-        && Objects.equals(credential, gerritQueryHandler.credential);
+        && Objects.equals(credential, gerritQueryHandler.credential)
+        && connectionTimeout == gerritQueryHandler.connectionTimeout;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(httpBaseUrl, proxy, credential);
+    return Objects.hash(httpBaseUrl, proxy, credential, connectionTimeout);
   }
 }
@@ -31,12 +31,13 @@ public class GerritQueryHandlerWithPersistedConnection extends GerritQueryHandle
     /**
      * Returns a fresh SSH connection if the persisted one is not valid.
      * Otherwise returns the existing connection.
+     * Synchronized as the pages of a query can be fetched from several threads.
      *
      * @return an active SSH connection
      * @throws IOException for IO issues
      */
     @Override
-    protected SshConnection getConnection() throws IOException {
+    protected synchronized SshConnection getConnection() throws IOException {
         if (!isPersistedConnectionValid()) {
             activeConnection = super.getConnection();
             logger.trace("SSH connection is not valid anymore, a new one was created.");
@@ -0,0 +1,196 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a query page by page until the server says there are no more changes.
+ * The first page is streamed to the visitor and tells the page size the server uses.
+ * The following pages are fetched ahead in parallel, a bounded number at a time,
+ * and handed to the visitor in order. They run on an {@link AsyncQueryExecutor}, so they count against the limit of
+ * the server like any other query.
+ */
+final class QueryPager {
+
+    /**
+     * Fetches one page of a query.
+     */
+    interface PageFetcher {
+        /**
+         * Fetches the page starting at an offset.
+         *
+         * @param start   the offset of the first change of the page.
+         * @param visitor receives the changes of the page, without any statistics row.
+         * @return what the page said.
+         * @throws IOException          if so.
+         * @throws GerritQueryException if so.
+         */
+        Page fetch(int start, QueryVisitor visitor) throws IOException, GerritQueryException;
+    }
+
+    /**
+     * What a page said about the result.
+     */
+    static final class Page {
+        private final int rows;
+        private final boolean more;
+
+        /**
+         * Constructor.
+         *
+         * @param rows the number of changes in the page.
+         * @param more if the server has more changes after the page.
+         */
+        Page(int rows, boolean more) {
+            this.rows = rows;
+            this.more = more;
+        }
+    }
+
+    /**
+     * Utility constructor.
+     */
+    private QueryPager() {
+    }
+
+    /**
+     * Runs the query until there are no more changes or the visitor stops.
+     *
+     * @param executor    the executor to fetch the pages after the first on.
+     * @param server      the server, as told apart by the executor.
+     * @param fetcher     fetches the pages.
+     * @param concurrency the number of pages to fetch at the same time.
+     * @param visitor     receives the changes, in order.
+     * @return the number of changes handed to the visitor.
+     * @throws IOException          if a page fails.
+     * @throws GerritQueryException if a page fails or the visitor throws it.
+     */
+    static long fetchAll(AsyncQueryExecutor executor, String server, PageFetcher fetcher, int concurrency,
+                         final QueryVisitor visitor)
+            throws IOException, GerritQueryException {
+        final boolean[] stopped = new boolean[1];
+        Page first = fetcher.fetch(0, new QueryVisitor() {
+            @Override
+            public boolean visit(JSONObject row) throws GerritQueryException {
+                stopped[0] = !visitor.visit(row);
+                return !stopped[0];
+            }
+        });
+        long delivered = first.rows;
+        if (stopped[0] || !first.more || first.rows == 0) {
+            return delivered;
+        }
+        int pageSize = first.rows;
+        int start = pageSize;
+        Deque<Future<PageRows>> pending = new ArrayDeque<Future<PageRows>>();
+        try {
+            boolean more = true;
+            while (more) {
+                while (pending.size() < Math.max(1, concurrency)) {
+                    pending.add(executor.submit(server, new PageTask(fetcher, start)));
+                    start += pageSize;
+                }
+                PageRows page = get(pending.poll());
+                for (JSONObject row : page.rows) {
+                    delivered++;
+                    if (!visitor.visit(row)) {
+                        return delivered;
+                    }
+                }
+                more = page.page.more && page.page.rows > 0;
+            }
+        } finally {
+            for (Future<PageRows> future : pending) {
+                future.cancel(true);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Waits for a page fetched ahead.
+     *
+     * @param future the page.
+     * @return the page.
+     * @throws IOException          if the fetch failed so, or the wait was interrupted.
+     * @throws GerritQueryException if the fetch failed so.
+     */
+    private static PageRows get(Future<PageRows> future) throws IOException, GerritQueryException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a page.");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof GerritQueryException) {
+                throw (GerritQueryException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The changes of a page fetched ahead.
+     */
+    private static final class PageRows {
+        private final List<JSONObject> rows;
+        private final Page page;
+
+        /**
+         * Constructor.
+         *
+         * @param rows the changes.
+         * @param page what the page said.
+         */
+        private PageRows(List<JSONObject> rows, Page page) {
+            this.rows = rows;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Fetches a page ahead, collecting its changes.
+     */
+    private static final class PageTask implements AsyncQueryExecutor.Query<PageRows> {
+        private final PageFetcher fetcher;
+        private final int start;
+
+        /**
+         * Constructor.
+         *
+         * @param fetcher fetches the page.
+         * @param start   the offset of the page.
+         */
+        private PageTask(PageFetcher fetcher, int start) {
+            this.fetcher = fetcher;
+            this.start = start;
+        }
+
+        @Override
+        public PageRows run(final Future<PageRows> future) throws IOException, GerritQueryException {
+            final List<JSONObject> rows = new ArrayList<JSONObject>();
+            Page page = fetcher.fetch(start, new QueryVisitor() {
+                @Override
+                public boolean visit(JSONObject row) {
+                    rows.add(row);
+                    //Stop reading when cancelled.
+                    return !future.isDone();
+                }
+            });
+            return new PageRows(rows, page);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+/**
+ * Tells the typed queries which parts of a change to fetch and decode.
+ * <p>
+ * The parts are asked for from the server with the matching query options. Parts the server sends anyway, like
+ * approvals, or that the caller didn't ask for, are skipped while the row is read, so they are never turned into
+ * objects. The basic attributes of a change are always decoded.
+ * <p>
+ * A projection is immutable, {@link #CHANGE} is the smallest one and the {@code with} methods add parts to it.
+ */
+public final class QueryProjection {
+
+    /**
+     * Only the attributes of the change itself.
+     */
+    public static final QueryProjection CHANGE = new QueryProjection(false, false, false, false, false, false);
+    /**
+     * The change with its current patch set, the approvals and the files of it.
+     */
+    public static final QueryProjection CURRENT_PATCH_SET_FILES = CHANGE.withCurrentPatchSet().withFiles()
+            .withApprovals();
+    /**
+     * Everything a query can tell.
+     */
+    public static final QueryProjection ALL = new QueryProjection(true, true, true, true, true, true);
+
+    private final boolean patchSets;
+    private final boolean currentPatchSet;
+    private final boolean files;
+    private final boolean commitMessage;
+    private final boolean comments;
+    private final boolean approvals;
+
+    /**
+     * Constructor.
+     *
+     * @param patchSets       if all patch sets are wanted.
+     * @param currentPatchSet if the current patch set is wanted.
+     * @param files           if the files of the patch sets are wanted.
+     * @param commitMessage   if the full commit message is wanted.
+     * @param comments        if the comments are wanted.
+     * @param approvals       if the approvals of the patch sets are wanted.
+     */
+    private QueryProjection(boolean patchSets, boolean currentPatchSet, boolean files, boolean commitMessage,
+                            boolean comments, boolean approvals) {
+        this.patchSets = patchSets;
+        this.currentPatchSet = currentPatchSet;
+        this.files = files;
+        this.commitMessage = commitMessage;
+        this.comments = comments;
+        this.approvals = approvals;
+    }
+
+    /**
+     * This projection with all patch sets.
+     *
+     * @return the projection.
+     */
+    public QueryProjection withPatchSets() {
+        return new QueryProjection(true, currentPatchSet, files, commitMessage, comments, approvals);
+    }
+
+    /**
+     * This projection with the current patch set.
+     *
+     * @return the projection.
+     */
+    public QueryProjection withCurrentPatchSet() {
+        return new QueryProjection(patchSets, true, files, commitMessage, comments, approvals);
+    }
+
+    /**
+     * This projection with the files of the patch sets.
+     *
+     * @return the projection.
+     */
+    public QueryProjection withFiles() {
+        return new QueryProjection(patchSets, currentPatchSet, true, commitMessage, comments, approvals);
+    }
+
+    /**
+     * This projection with the full commit message.
+     *
+     * @return the projection.
+     */
+    public QueryProjection withCommitMessage() {
+        return new QueryProjection(patchSets, currentPatchSet, files, true, comments, approvals);
+    }
+
+    /**
+     * This projection with the comments.
+     *
+     * @return the projection.
+     */
+    public QueryProjection withComments() {
+        return new QueryProjection(patchSets, currentPatchSet, files, commitMessage, true, approvals);
+    }
+
+    /**
+     * This projection with the approvals of the patch sets.
+     *
+     * @return the projection.
+     */
+    public QueryProjection withApprovals() {
+        return new QueryProjection(patchSets, currentPatchSet, files, commitMessage, comments, true);
+    }
+
+    /**
+     * If all patch sets are wanted.
+     *
+     * @return true if so.
+     */
+    public boolean isPatchSets() {
+        return patchSets;
+    }
+
+    /**
+     * If the current patch set is wanted.
+     *
+     * @return true if so.
+     */
+    public boolean isCurrentPatchSet() {
+        return currentPatchSet;
+    }
+
+    /**
+     * If the files of the patch sets are wanted.
+     *
+     * @return true if so.
+     */
+    public boolean isFiles() {
+        return files;
+    }
+
+    /**
+     * If the full commit message is wanted.
+     *
+     * @return true if so.
+     */
+    public boolean isCommitMessage() {
+        return commitMessage;
+    }
+
+    /**
+     * If the comments are wanted.
+     *
+     * @return true if so.
+     */
+    public boolean isComments() {
+        return comments;
+    }
+
+    /**
+     * If the approvals of the patch sets are wanted.
+     *
+     * @return true if so.
+     */
+    public boolean isApprovals() {
+        return approvals;
+    }
+}
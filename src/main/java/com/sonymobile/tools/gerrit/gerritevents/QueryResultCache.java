@@ -0,0 +1,398 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritEvent;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeBasedEvent;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers query results, for consumers that run the same queries over and over.
+ * Set it on a {@link GerritQueryHandler} or {@link GerritQueryHandlerHttp} and add it as a listener to the
+ * {@link GerritHandler} receiving the events of the same server. An event about a change then forgets every result
+ * holding that change, told by its Change-Id. Results are also forgotten after a time to live, since a new change
+ * matching a query can't be told from the events. The least recently used results are forgotten first when there are
+ * more than the maximum number of results, or results with more than the maximum number of rows in total.
+ * <p>
+ * The rows are copied when stored, so the caller storing them can go on modifying its own. The rows handed out are
+ * shared by everyone getting the same result and must not be modified, the lists holding them can't be.
+ */
+public class QueryResultCache implements GerritEventListener {
+
+    /**
+     * The default maximum number of results.
+     */
+    public static final int DEFAULT_MAX_ENTRIES =
+            Integer.getInteger("gerritevents.QueryResultCache.DEFAULT_MAX_ENTRIES", 1000);
+    /**
+     * The default maximum number of rows in all results.
+     */
+    public static final long DEFAULT_MAX_ROWS =
+            Long.getLong("gerritevents.QueryResultCache.DEFAULT_MAX_ROWS", 50000);
+    /**
+     * The default time a result is fresh, in ms.
+     */
+    public static final long DEFAULT_TTL =
+            Long.getLong("gerritevents.QueryResultCache.DEFAULT_TTL", TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * The number of changes the time of their last event is remembered for, to tell if a result is older.
+     * A result of a query started before the oldest of them is not stored.
+     */
+    private static final int MAX_TRACKED_CHANGES = 10000;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * A remembered result.
+     */
+    private static final class Entry {
+        private final List<JSONObject> rows;
+        private final Set<String> changes;
+        private final long expiresAt;
+
+        /**
+         * Constructor.
+         *
+         * @param rows      the rows, not shared with anyone storing them.
+         * @param changes   the Change-Ids of the changes in the rows.
+         * @param expiresAt when it stops being fresh.
+         */
+        private Entry(List<JSONObject> rows, Set<String> changes, long expiresAt) {
+            this.rows = rows;
+            this.changes = changes;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * If the result is younger than the time to live of the cache.
+         *
+         * @return true if so.
+         */
+        private boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxRows;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    private final Map<String, Set<String>> keysByChange = new HashMap<String, Set<String>>();
+    private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<String, Long>();
+    private long rows = 0;
+    private long generation = 0;
+    private long forgottenUpTo = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    /**
+     * Constructor with the default limits.
+     */
+    public QueryResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_ROWS, DEFAULT_TTL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries the maximum number of results.
+     * @param maxRows    the maximum number of rows in all results.
+     * @param ttl        the time a result is fresh, in ms.
+     */
+    public QueryResultCache(int maxEntries, long maxRows, long ttl) {
+        this.maxEntries = maxEntries;
+        this.maxRows = maxRows;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Makes the key of a query, the same query written with other whitespace gets the same key.
+     *
+     * @param server  the server the query is run on, with the user running it since what a query finds differs
+     *                per account.
+     * @param query   the query.
+     * @param options the options of the query.
+     * @return the key.
+     */
+    public static String key(String server, String query, boolean... options) {
+        StringBuilder key = new StringBuilder(server);
+        for (boolean option : options) {
+            key.append('|').append(option);
+        }
+        return key.append('|').append(query.trim().replaceAll("\\s+", " ")).toString();
+    }
+
+    /**
+     * Looks up a result, counting a hit if there is a fresh one and a miss if not.
+     *
+     * @param key the key.
+     * @return the rows, shared and not to be modified, or null if there is no fresh result.
+     */
+    public synchronized List<JSONObject> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isFresh()) {
+            hits++;
+            return entry.rows;
+        }
+        misses++;
+        if (entry != null) {
+            remove(key);
+        }
+        return null;
+    }
+
+    /**
+     * The number of the changes the cache has been told about, to give to {@link #put}.
+     * A result of a query started before one of its changes was told about is not stored,
+     * as it could hold the change as it was before.
+     *
+     * @return the generation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores a result, unless one of its changes was told about since the query was started,
+     * or one of its rows has no Change-Id. The statistics row Gerrit sends last is stored with the changes,
+     * but needs no Change-Id. The result stored before under the key is forgotten either way.
+     *
+     * @param key        the key.
+     * @param result     the rows.
+     * @param startedAt  the {@link #getGeneration()} from before the query was started.
+     */
+    public synchronized void put(String key, List<JSONObject> result, long startedAt) {
+        Set<String> changes = new HashSet<String>();
+        for (JSONObject row : result) {
+            if (isStats(row)) {
+                continue;
+            }
+            if (!row.has("id") && !row.has("change_id")) {
+                //No event could forget a row without a Change-Id.
+                remove(key);
+                return;
+            }
+            addChange(changes, row, "id");
+            addChange(changes, row, "change_id");
+        }
+        remove(key);
+        if (isInvalidatedSince(changes, startedAt)) {
+            return;
+        }
+        Entry entry = new Entry(Collections.unmodifiableList(copy(result)), changes, System.currentTimeMillis() + ttl);
+        entries.put(key, entry);
+        rows += result.size();
+        for (String change : changes) {
+            Set<String> keys = keysByChange.get(change);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                keysByChange.put(change, keys);
+            }
+            keys.add(key);
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || rows > maxRows) && eldest.hasNext()) {
+            Map.Entry<String, Entry> evicted = eldest.next();
+            eldest.remove();
+            forget(evicted.getKey(), evicted.getValue());
+            evictions++;
+        }
+    }
+
+    /**
+     * Forgets the results holding a change.
+     *
+     * @param changeId the Change-Id of the change.
+     */
+    public synchronized void invalidateChange(String changeId) {
+        generation++;
+        invalidatedAt.remove(changeId);
+        invalidatedAt.put(changeId, generation);
+        Iterator<Long> eldest = invalidatedAt.values().iterator();
+        while (invalidatedAt.size() > MAX_TRACKED_CHANGES && eldest.hasNext()) {
+            forgottenUpTo = eldest.next();
+            eldest.remove();
+        }
+        Set<String> keys = keysByChange.remove(changeId);
+        if (keys != null) {
+            for (String key : new ArrayList<String>(keys)) {
+                if (remove(key)) {
+                    invalidations++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets everything.
+     */
+    public synchronized void clear() {
+        generation++;
+        forgottenUpTo = generation;
+        invalidatedAt.clear();
+        entries.clear();
+        keysByChange.clear();
+        rows = 0;
+    }
+
+    /**
+     * The number of lookups that found a fresh result.
+     *
+     * @return the count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of lookups that found no fresh result.
+     *
+     * @return the count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The number of results forgotten to stay within the limits.
+     *
+     * @return the count.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * The number of results forgotten because of an event about one of their changes.
+     *
+     * @return the count.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * The number of results.
+     *
+     * @return the count.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void gerritEvent(GerritEvent event) {
+        if (event instanceof ChangeBasedEvent) {
+            Change change = ((ChangeBasedEvent)event).getChange();
+            if (change != null && change.getId() != null) {
+                invalidateChange(change.getId());
+            }
+        }
+    }
+
+    /**
+     * If a change was told about since a query was started.
+     *
+     * @param changes   the Change-Ids of the changes in the result of the query.
+     * @param startedAt the {@link #getGeneration()} from before the query was started.
+     * @return true if so, or if it can't be told anymore.
+     */
+    private boolean isInvalidatedSince(Set<String> changes, long startedAt) {
+        if (startedAt < forgottenUpTo) {
+            return true;
+        }
+        for (String change : changes) {
+            Long at = invalidatedAt.get(change);
+            if (at != null && at > startedAt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies rows, so that the copies share nothing with them.
+     *
+     * @param rows the rows.
+     * @return the copies.
+     */
+    static List<JSONObject> copy(List<JSONObject> rows) {
+        List<JSONObject> copies = new ArrayList<JSONObject>(rows.size());
+        for (JSONObject row : rows) {
+            copies.add(JSONObject.fromObject(row.toString()));
+        }
+        return copies;
+    }
+
+    /**
+     * If a row is the statistics row that Gerrit sends after the changes of a query.
+     *
+     * @param row the row.
+     * @return true if so.
+     */
+    private static boolean isStats(JSONObject row) {
+        return "stats".equals(row.optString("type"));
+    }
+
+    /**
+     * Adds the value of a field of a row to the changes of a result.
+     *
+     * @param changes the changes.
+     * @param row     the row.
+     * @param field   the field holding a Change-Id.
+     */
+    private static void addChange(Set<String> changes, JSONObject row, String field) {
+        Object value = row.opt(field);
+        if (value != null) {
+            changes.add(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Removes a result.
+     *
+     * @param key the key.
+     * @return true if there was one.
+     */
+    private boolean remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        forget(key, entry);
+        return true;
+    }
+
+    /**
+     * Removes a result from the change index and the row count, after it was removed from the entries.
+     *
+     * @param key   the key.
+     * @param entry the result.
+     */
+    private void forget(String key, Entry entry) {
+        rows -= entry.rows.size();
+        for (String change : entry.changes) {
+            Set<String> keys = keysByChange.get(change);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByChange.remove(change);
+                }
+            }
+        }
+    }
+}
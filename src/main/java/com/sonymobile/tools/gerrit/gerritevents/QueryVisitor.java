@@ -0,0 +1,21 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Receives the rows of a query one at a time, as they are read from the server.
+ *
+ * @see GerritQueryHandler#queryEach(String, boolean, boolean, boolean, boolean, boolean, QueryVisitor)
+ * @see GerritQueryHandlerHttp#queryEach(String, boolean, boolean, boolean, boolean, boolean, QueryVisitor)
+ */
+public interface QueryVisitor {
+
+    /**
+     * Visits a row of the result.
+     *
+     * @param row the row.
+     * @return true to get the next row, false to stop the query without reading the rest.
+     * @throws GerritQueryException if you want to, the query is stopped.
+     */
+    boolean visit(JSONObject row) throws GerritQueryException;
+}
@@ -0,0 +1,48 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import java.util.Random;
+
+/**
+ * The wait between reconnect attempts, a decorrelated jitter backoff: a random time between the base and
+ * three times the previous wait, capped, so that many consumers losing the same server don't reconnect in step.
+ */
+final class ReconnectBackoff {
+
+    /**
+     * How much the previous wait is multiplied by at most.
+     */
+    private static final int GROWTH = 3;
+
+    private final Random random;
+    private long previousWait = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param random the source of the jitter.
+     */
+    ReconnectBackoff(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * The time to wait before the next attempt.
+     *
+     * @param base the shortest wait in ms.
+     * @param cap  the longest wait in ms.
+     * @return the wait in ms.
+     */
+    synchronized long next(long base, long cap) {
+        long upper = Math.max(base, previousWait * GROWTH);
+        long wait = base + (long)(random.nextDouble() * (upper - base));
+        previousWait = Math.min(cap, wait);
+        return previousWait;
+    }
+
+    /**
+     * Starts over from the base, after an attempt succeeded.
+     */
+    synchronized void reset() {
+        previousWait = 0;
+    }
+}
@@ -0,0 +1,83 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What a Gerrit server supports, worked out from its version.
+ *
+ * @see ServerCapabilitiesCache
+ */
+public final class ServerCapabilities {
+
+    /**
+     * The first version where stream-events takes {@code -s} to subscribe to some event types.
+     */
+    private static final int[] SUBSCRIBE_VERSION = {2, 11};
+    private static final Pattern VERSION_PATTERN = Pattern.compile("^(\\d+)\\.(\\d+)");
+
+    private final String version;
+    private final long fetchedAt;
+    private final int major;
+    private final int minor;
+
+    /**
+     * Constructor.
+     *
+     * @param version   the version, as answered by {@code gerrit version} without the prefix.
+     * @param fetchedAt when it was asked, ms since the epoch.
+     */
+    public ServerCapabilities(String version, long fetchedAt) {
+        this.version = version;
+        this.fetchedAt = fetchedAt;
+        int parsedMajor = -1;
+        int parsedMinor = -1;
+        if (version != null) {
+            Matcher matcher = VERSION_PATTERN.matcher(version);
+            if (matcher.find()) {
+                parsedMajor = Integer.parseInt(matcher.group(1));
+                parsedMinor = Integer.parseInt(matcher.group(2));
+            }
+        }
+        this.major = parsedMajor;
+        this.minor = parsedMinor;
+    }
+
+    /**
+     * The version.
+     *
+     * @return the version, or null if the server didn't tell.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * When the version was asked.
+     *
+     * @return ms since the epoch.
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * If the version is known to be at least the given one.
+     *
+     * @param atLeastMajor the major version.
+     * @param atLeastMinor the minor version.
+     * @return true if so, false if older or unknown.
+     */
+    public boolean isAtLeast(int atLeastMajor, int atLeastMinor) {
+        return major > atLeastMajor || (major == atLeastMajor && minor >= atLeastMinor);
+    }
+
+    /**
+     * If stream-events can be told which event types to send with {@code -s}.
+     *
+     * @return true if so.
+     */
+    public boolean isStreamEventsSubscribeSupported() {
+        return isAtLeast(SUBSCRIBE_VERSION[0], SUBSCRIBE_VERSION[1]);
+    }
+}
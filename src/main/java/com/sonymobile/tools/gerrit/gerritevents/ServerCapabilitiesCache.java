@@ -0,0 +1,179 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the {@link ServerCapabilities} of each user on an ssh host and port,
+ * so that a reconnect doesn't need a {@code gerrit version} round trip before opening the stream.
+ * Users are kept apart since what a server tells may depend on the permissions of the user.
+ * <p>
+ * The first connection to a server asks right away. Later connections get the remembered answer after a check that
+ * the session is still up and authenticated, and when the answer is older than the time to live it is still used
+ * but asked again in the background on the new connection. Only answers with a version are remembered.
+ */
+public final class ServerCapabilitiesCache {
+
+    /**
+     * The default time an answer is fresh, in ms.
+     */
+    public static final long DEFAULT_TTL =
+            Long.getLong("gerritevents.ServerCapabilitiesCache.TTL", TimeUnit.HOURS.toMillis(1));
+    private static final String VERSION_COMMAND = "gerrit version";
+    private static final Logger logger = LoggerFactory.getLogger(ServerCapabilitiesCache.class);
+    private static final ServerCapabilitiesCache INSTANCE = new ServerCapabilitiesCache(DEFAULT_TTL);
+    private static final ExecutorService REVALIDATION = Executors.newSingleThreadExecutor(
+            new NamedDaemonThreadFactory(ServerCapabilitiesCache.class.getName()));
+
+    private final long ttl;
+    private final Map<String, ServerCapabilities> cache = new ConcurrentHashMap<String, ServerCapabilities>();
+    private final Map<String, Boolean> revalidating = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Constructor.
+     *
+     * @param ttl the time an answer is fresh, in ms.
+     */
+    public ServerCapabilitiesCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * The cache shared by the connections of the process.
+     *
+     * @return the instance.
+     */
+    public static ServerCapabilitiesCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The capabilities of the server, asked on the connection if not remembered.
+     *
+     * @param user       the user the connection is authenticated as.
+     * @param host       the ssh host.
+     * @param port       the ssh port.
+     * @param connection a connection to the server.
+     * @return the capabilities.
+     * @throws IOException if the server had to be asked and the command failed,
+     *                     or the session is no longer usable.
+     */
+    public ServerCapabilities get(String user, String host, int port, SshConnection connection)
+            throws IOException {
+        String key = toKey(user, host, port);
+        ServerCapabilities cached = cache.get(key);
+        if (cached == null) {
+            return fetch(key, connection);
+        }
+        //Not asking the server, but the session must at least still be up, as when the answer came back.
+        if (!connection.isConnected() || !connection.isAuthenticated()) {
+            throw new SshException("The session to " + key + " went down right after the connect.");
+        }
+        if (System.currentTimeMillis() - cached.getFetchedAt() >= ttl) {
+            revalidate(key, connection);
+        }
+        return cached;
+    }
+
+    /**
+     * The remembered capabilities.
+     *
+     * @param user the user.
+     * @param host the ssh host.
+     * @param port the ssh port.
+     * @return the capabilities or null if not remembered.
+     */
+    public ServerCapabilities peek(String user, String host, int port) {
+        return cache.get(toKey(user, host, port));
+    }
+
+    /**
+     * Forgets the capabilities of a server for a user, the next connection asks again.
+     *
+     * @param user the user.
+     * @param host the ssh host.
+     * @param port the ssh port.
+     */
+    public void invalidate(String user, String host, int port) {
+        cache.remove(toKey(user, host, port));
+    }
+
+    /**
+     * Forgets all servers.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * The key of a user on a server.
+     *
+     * @param user the user.
+     * @param host the ssh host.
+     * @param port the ssh port.
+     * @return the key.
+     */
+    private static String toKey(String user, String host, int port) {
+        return user + "@" + host + ":" + port;
+    }
+
+    /**
+     * Asks the server and remembers the answer.
+     *
+     * @param key        the user, host and port.
+     * @param connection the connection.
+     * @return the capabilities.
+     * @throws IOException if so.
+     */
+    private ServerCapabilities fetch(String key, SshConnection connection) throws IOException {
+        String version = GerritConnection.formatVersion(connection.executeCommand(VERSION_COMMAND));
+        ServerCapabilities capabilities = new ServerCapabilities(version, System.currentTimeMillis());
+        if (version != null && !version.isEmpty()) {
+            ServerCapabilities previous = cache.put(key, capabilities);
+            if (previous != null && !version.equals(previous.getVersion())) {
+                logger.info("The Gerrit version of {} changed from {} to {}.",
+                        new Object[]{key, previous.getVersion(), version});
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * Asks the server again in the background, unless already being asked.
+     *
+     * @param key        the user, host and port.
+     * @param connection the connection.
+     */
+    private void revalidate(final String key, final SshConnection connection) {
+        if (revalidating.put(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            REVALIDATION.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(key, connection);
+                    } catch (IOException | RuntimeException ex) {
+                        logger.debug("Could not revalidate the capabilities of {}.", key, ex);
+                    } finally {
+                        revalidating.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            revalidating.remove(key);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets identical queries asked at the same time share one execution.
+ * <p>
+ * The first caller of a key runs the query. Callers of the same key that come while it runs wait for it and get
+ * copies of the same rows, or the same exception. A caller that comes after it is done runs
+ * the query again, remembering results is left to a {@link QueryResultCache}.
+ * The query handlers only use one when it is set on them, such as the {@link #getInstance() shared instance}.
+ */
+public final class SingleFlight {
+
+    private static final SingleFlight INSTANCE = new SingleFlight();
+
+    /**
+     * A query to run.
+     */
+    public interface Call {
+
+        //CS IGNORE RedundantThrows FOR NEXT 10 LINES. REASON: Informative.
+
+        /**
+         * Runs the query.
+         *
+         * @return the rows.
+         * @throws IOException          if so.
+         * @throws GerritQueryException if so.
+         */
+        List<JSONObject> call() throws IOException, GerritQueryException;
+    }
+
+    /**
+     * A query being run.
+     */
+    private static final class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private List<JSONObject> rows;
+        private Throwable failure;
+    }
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * The instance shared by the query handlers of the process.
+     *
+     * @return the instance.
+     */
+    public static SingleFlight getInstance() {
+        return INSTANCE;
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 50 LINES. REASON: Informative.
+
+    /**
+     * Runs the query, or waits for the run of the same key already going on.
+     *
+     * @param key  the query, server and user, as made by {@link QueryResultCache#key}.
+     * @param call runs the query.
+     * @return copies of the rows, that only this caller has.
+     * @throws IOException          if the run failed so, or the wait was interrupted.
+     * @throws GerritQueryException if the run failed so.
+     */
+    public List<JSONObject> execute(String key, Call call) throws IOException, GerritQueryException {
+        Flight flight = new Flight();
+        Flight running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                running.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the same query");
+            }
+            rethrow(running.failure);
+            return QueryResultCache.copy(running.rows);
+        }
+        executions.incrementAndGet();
+        try {
+            flight.rows = call.call();
+            return QueryResultCache.copy(flight.rows);
+        } catch (IOException | GerritQueryException | RuntimeException | Error e) {
+            flight.failure = e;
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+            flight.done.countDown();
+        }
+    }
+
+    /**
+     * Throws the failure of a run to a caller that waited for it.
+     *
+     * @param failure the failure, or null if it succeeded.
+     * @throws IOException          if so.
+     * @throws GerritQueryException if so.
+     */
+    private static void rethrow(Throwable failure) throws IOException, GerritQueryException {
+        if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure instanceof GerritQueryException) {
+            throw (GerritQueryException)failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        }
+    }
+
+    /**
+     * The number of queries run.
+     *
+     * @return the count.
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * The number of calls that got the result of a run of another caller.
+     *
+     * @return the count.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * The number of queries being run.
+     *
+     * @return the count.
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+}
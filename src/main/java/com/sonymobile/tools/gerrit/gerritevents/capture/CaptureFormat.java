@@ -0,0 +1,102 @@
+package com.sonymobile.tools.gerrit.gerritevents.capture;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of the capture files.
+ * <p>
+ * The segment file starts with {@link #MAGIC} followed by records, each starting with a type byte:
+ * <ul>
+ * <li>{@link #TYPE_PROVIDER}: int number, then name, host, port, scheme, url and version as strings.</li>
+ * <li>{@link #TYPE_EVENT}: long receive time in ms, int provider number or {@link #NO_PROVIDER},
+ * int length, then the bytes of the line.</li>
+ * </ul>
+ * A provider record always comes before the first event referring to it.
+ * The index file, named like the segment with {@link #INDEX_SUFFIX} added, starts with {@link #INDEX_MAGIC}
+ * followed by pairs of long receive time and long offset of an event record, in order.
+ * Strings are a boolean telling if there is a string, then the string in modified UTF-8.
+ */
+final class CaptureFormat {
+
+    /**
+     * Start of the segment file.
+     */
+    static final byte[] MAGIC = "GEC1".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Start of the index file.
+     */
+    static final byte[] INDEX_MAGIC = "GEI1".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Added to the name of the segment file to get the name of the index file.
+     */
+    static final String INDEX_SUFFIX = ".idx";
+    /**
+     * Type of a provider record.
+     */
+    static final int TYPE_PROVIDER = 1;
+    /**
+     * Type of an event record.
+     */
+    static final int TYPE_EVENT = 2;
+    /**
+     * Provider number of an event without a provider.
+     */
+    static final int NO_PROVIDER = -1;
+    /**
+     * The size of an event record without the line: type, time, provider and length.
+     */
+    static final int EVENT_HEADER_SIZE = 1 + Long.BYTES + Integer.BYTES + Integer.BYTES;
+    /**
+     * The size of an entry of the index: time and offset.
+     */
+    static final int INDEX_ENTRY_SIZE = Long.BYTES + Long.BYTES;
+
+    /**
+     * Private constructor to hinder instantiation.
+     */
+    private CaptureFormat() {
+        throw new UnsupportedOperationException("Cannot instantiate util classes.");
+    }
+
+    /**
+     * The index file of a segment.
+     *
+     * @param segment the segment file.
+     * @return the index file.
+     */
+    static File indexFile(File segment) {
+        return new File(segment.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Writes a string that can be null.
+     *
+     * @param out   where to.
+     * @param value the string.
+     * @throws IOException if so.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a string that can be null.
+     *
+     * @param in where from.
+     * @return the string.
+     * @throws IOException if so.
+     */
+    static String readString(DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            return in.readUTF();
+        }
+        return null;
+    }
+}
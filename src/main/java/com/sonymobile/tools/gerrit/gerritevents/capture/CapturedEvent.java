@@ -0,0 +1,53 @@
+package com.sonymobile.tools.gerrit.gerritevents.capture;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+
+/**
+ * A line read from a capture.
+ */
+public class CapturedEvent {
+
+    private final byte[] line;
+    private final Provider provider;
+    private final long receivedTime;
+
+    /**
+     * Constructor.
+     *
+     * @param line         the raw line.
+     * @param provider     the server it came from, or null.
+     * @param receivedTime when it was received, in ms since the epoch.
+     */
+    public CapturedEvent(byte[] line, Provider provider, long receivedTime) {
+        this.line = line;
+        this.provider = provider;
+        this.receivedTime = receivedTime;
+    }
+
+    /**
+     * The raw UTF-8 line, without the line terminator.
+     *
+     * @return the line.
+     */
+    public byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * The server the line came from.
+     *
+     * @return the provider or null.
+     */
+    public Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * When the line was received.
+     *
+     * @return ms since the epoch.
+     */
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+}
@@ -0,0 +1,254 @@
+package com.sonymobile.tools.gerrit.gerritevents.capture;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the events of a capture written by {@link EventCaptureWriter}, in the order they were recorded.
+ */
+public class EventCaptureReader implements Closeable {
+
+    private final File segment;
+    private final Map<Integer, Provider> providers = new HashMap<Integer, Provider>();
+    private CountingInputStream counter;
+    private DataInputStream in;
+
+    /**
+     * Opens a capture.
+     *
+     * @param segment the segment file.
+     * @throws IOException if it isn't a capture.
+     */
+    public EventCaptureReader(File segment) throws IOException {
+        this.segment = segment;
+        open(0);
+        byte[] magic = new byte[CaptureFormat.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, CaptureFormat.MAGIC)) {
+            close();
+            throw new IOException(segment + " is not an event capture");
+        }
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @return the event or null at the end of the capture.
+     * @throws IOException if so.
+     */
+    public CapturedEvent next() throws IOException {
+        while (true) {
+            int type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (type == CaptureFormat.TYPE_PROVIDER) {
+                readProvider();
+            } else if (type == CaptureFormat.TYPE_EVENT) {
+                long receivedTime = in.readLong();
+                int providerId = in.readInt();
+                byte[] line = new byte[in.readInt()];
+                in.readFully(line);
+                return new CapturedEvent(line, providers.get(providerId), receivedTime);
+            } else {
+                throw new IOException("Unknown record type " + type + " in " + segment);
+            }
+        }
+    }
+
+    /**
+     * Moves to the first event received at or after the given time,
+     * jumping close to it with the sparse time index and reading forward from there.
+     * Can seek backwards as well as forwards.
+     *
+     * @param time the time in ms since the epoch.
+     * @return the event or null if there is none.
+     * @throws IOException if so.
+     */
+    public CapturedEvent seek(long time) throws IOException {
+        long target = findIndexOffset(time);
+        if (target < counter.getCount()) {
+            //The providers before the target have all been read already.
+            in.close();
+            open(Math.max(target, CaptureFormat.MAGIC.length));
+        } else {
+            //Skip to the offset, reading the providers on the way.
+            while (counter.getCount() < target) {
+                int type = in.readByte();
+                if (type == CaptureFormat.TYPE_PROVIDER) {
+                    readProvider();
+                } else if (type == CaptureFormat.TYPE_EVENT) {
+                    in.readLong();
+                    in.readInt();
+                    skipFully(in.readInt());
+                } else {
+                    throw new IOException("Unknown record type " + type + " in " + segment);
+                }
+            }
+        }
+        CapturedEvent event;
+        do {
+            event = next();
+        } while (event != null && event.getReceivedTime() < time);
+        return event;
+    }
+
+    /**
+     * The offset of the last index entry before the time, or the start of the file.
+     *
+     * @param time the time.
+     * @return the offset.
+     * @throws IOException if the index can't be read.
+     */
+    private long findIndexOffset(long time) throws IOException {
+        File indexFile = CaptureFormat.indexFile(segment);
+        long offset = 0;
+        if (!indexFile.isFile()) {
+            return offset;
+        }
+        List<long[]> entries = new ArrayList<long[]>();
+        DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            byte[] magic = new byte[CaptureFormat.INDEX_MAGIC.length];
+            index.readFully(magic);
+            if (!Arrays.equals(magic, CaptureFormat.INDEX_MAGIC)) {
+                return offset;
+            }
+            //A partly written last entry is ignored.
+            long count = (indexFile.length() - magic.length) / CaptureFormat.INDEX_ENTRY_SIZE;
+            for (long i = 0; i < count; i++) {
+                entries.add(new long[]{index.readLong(), index.readLong()});
+            }
+        } finally {
+            index.close();
+        }
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid)[0] < time) {
+                offset = entries.get(mid)[1];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Reads a provider record, after the type.
+     *
+     * @throws IOException if so.
+     */
+    private void readProvider() throws IOException {
+        int id = in.readInt();
+        Provider provider = new Provider(CaptureFormat.readString(in), CaptureFormat.readString(in),
+                CaptureFormat.readString(in), CaptureFormat.readString(in), CaptureFormat.readString(in),
+                CaptureFormat.readString(in));
+        providers.put(id, provider);
+    }
+
+    /**
+     * Skips bytes of the segment.
+     *
+     * @param count the number of bytes.
+     * @throws IOException if the end of the file is reached.
+     */
+    private void skipFully(int count) throws IOException {
+        int left = count;
+        while (left > 0) {
+            int skipped = in.skipBytes(left);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated event in " + segment);
+            }
+            left -= skipped;
+        }
+    }
+
+    /**
+     * Opens the segment file at an offset.
+     *
+     * @param offset the offset.
+     * @throws IOException if so.
+     */
+    private void open(long offset) throws IOException {
+        FileInputStream file = new FileInputStream(segment);
+        file.getChannel().position(offset);
+        counter = new CountingInputStream(new BufferedInputStream(file), offset);
+        in = new DataInputStream(counter);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Keeps track of the offset in the segment file.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        /**
+         * Constructor.
+         *
+         * @param in    the stream to count.
+         * @param start the offset the stream starts at.
+         */
+        private CountingInputStream(InputStream in, long start) {
+            super(in);
+            this.count = start;
+        }
+
+        /**
+         * The offset of the next byte to read.
+         *
+         * @return the offset.
+         */
+        private long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.sonymobile.tools.gerrit.gerritevents.capture;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the raw stream-events lines as they are received, for {@link EventReplayer} to play back later.
+ * <p>
+ * A capture is a segment file and a sparse time index next to it, see {@link CaptureFormat}.
+ * Each line is stored as it came off the wire together with the time it was received and its
+ * {@link Provider}; the providers are written once and then referred to by number.
+ * Thread safe, one writer can record the streams of several connections.
+ * <p>
+ * The lines are written by a thread of the writer, so that recording does not put disk I/O on the path that reads
+ * the streams. They wait in a bounded queue; when the disk can't keep up and the queue is full, the lines are
+ * dropped and counted rather than holding up the connections, see {@link #getDroppedCount()}.
+ */
+public class EventCaptureWriter implements Closeable {
+
+    /**
+     * The default number of events between the entries of the time index.
+     */
+    public static final int DEFAULT_INDEX_INTERVAL = 1024;
+    /**
+     * The default number of lines waiting to be written.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+    private static final Logger logger = LoggerFactory.getLogger(EventCaptureWriter.class);
+    private static final Record END = new Record(null, null, 0);
+
+    private final DataOutputStream out;
+    private final DataOutputStream index;
+    private final int indexInterval;
+    private final BlockingQueue<Record> queue;
+    private final Thread writer;
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Map<Provider, Integer> providers = new HashMap<Provider, Integer>();
+    private Provider lastProvider = null;
+    private int lastProviderId = CaptureFormat.NO_PROVIDER;
+    private long offset;
+    private long written = 0;
+    private volatile IOException failure = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor with an index entry every {@link #DEFAULT_INDEX_INTERVAL} events.
+     *
+     * @param segment the segment file, it is overwritten.
+     * @throws IOException if the file can't be created.
+     */
+    public EventCaptureWriter(File segment) throws IOException {
+        this(segment, DEFAULT_INDEX_INTERVAL);
+    }
+
+    /**
+     * Constructor with room for {@link #DEFAULT_QUEUE_SIZE} lines waiting to be written.
+     *
+     * @param segment       the segment file, it is overwritten.
+     * @param indexInterval the number of events between the entries of the time index.
+     * @throws IOException if the file can't be created.
+     */
+    public EventCaptureWriter(File segment, int indexInterval) throws IOException {
+        this(segment, indexInterval, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param segment       the segment file, it is overwritten.
+     * @param indexInterval the number of events between the entries of the time index.
+     * @param queueSize     the number of lines that can wait to be written before they are dropped.
+     * @throws IOException if the file can't be created.
+     */
+    public EventCaptureWriter(File segment, int indexInterval, int queueSize) throws IOException {
+        if (indexInterval < 1) {
+            throw new IllegalArgumentException("The index interval must be positive");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("The queue size must be positive");
+        }
+        this.indexInterval = indexInterval;
+        this.queue = new ArrayBlockingQueue<Record>(queueSize);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment)));
+        this.index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(CaptureFormat.indexFile(segment))));
+        out.write(CaptureFormat.MAGIC);
+        index.write(CaptureFormat.INDEX_MAGIC);
+        offset = CaptureFormat.MAGIC.length;
+        writer = new NamedDaemonThreadFactory(EventCaptureWriter.class.getName()).newThread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+        writer.start();
+    }
+
+    /**
+     * Records a received line. It is handed to the writer thread and written later, or dropped if too many lines
+     * are already waiting.
+     *
+     * @param line         the raw line, without the line terminator. It must not be modified afterwards.
+     * @param provider     the server it came from, or null.
+     * @param receivedTime when it was received, in ms since the epoch.
+     * @throws IOException if the capture is closed or writing has failed.
+     */
+    public void append(byte[] line, Provider provider, long receivedTime) throws IOException {
+        if (closed) {
+            throw new IOException("The capture is closed");
+        }
+        checkFailure();
+        if (queue.offer(new Record(line, provider, receivedTime))) {
+            eventCount.incrementAndGet();
+        } else {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The number of events recorded, including the ones still waiting to be written.
+     *
+     * @return the count.
+     */
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * The number of events dropped because the queue to the writer thread was full.
+     *
+     * @return the count.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Waits for the events recorded so far to be written and writes what is buffered to the files.
+     *
+     * @throws IOException if so.
+     */
+    public void flush() throws IOException {
+        long target = eventCount.get();
+        synchronized (this) {
+            awaitWritten(target);
+            checkFailure();
+            out.flush();
+            index.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(END);
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                out.close();
+            } finally {
+                index.close();
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes the queued lines until the end marker, run by the writer thread.
+     */
+    private void drain() {
+        try {
+            Record record = queue.take();
+            while (record != END) {
+                synchronized (this) {
+                    if (failure == null) {
+                        write(record);
+                    }
+                    written++;
+                    notifyAll();
+                }
+                record = queue.take();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("The capture writer was interrupted, the remaining events are lost.");
+        }
+    }
+
+    /**
+     * Writes a line, remembering the failure if it could not be.
+     *
+     * @param record the line.
+     */
+    private void write(Record record) {
+        try {
+            int providerId = providerId(record.provider);
+            if (written % indexInterval == 0) {
+                index.writeLong(record.receivedTime);
+                index.writeLong(offset);
+            }
+            out.writeByte(CaptureFormat.TYPE_EVENT);
+            out.writeLong(record.receivedTime);
+            out.writeInt(providerId);
+            out.writeInt(record.line.length);
+            out.write(record.line);
+            offset += CaptureFormat.EVENT_HEADER_SIZE + record.line.length;
+        } catch (IOException e) {
+            logger.error("Could not write the capture, no more events will be recorded.", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * Waits until the writer thread has taken care of a number of lines, must hold the lock.
+     *
+     * @param count the number of lines.
+     * @throws IOException if interrupted.
+     */
+    private void awaitWritten(long count) throws IOException {
+        while (written < count && writer.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the capture to be written");
+            }
+        }
+    }
+
+    /**
+     * Throws the failure of the writer thread, if any.
+     *
+     * @throws IOException if writing has failed.
+     */
+    private void checkFailure() throws IOException {
+        IOException current = failure;
+        if (current != null) {
+            throw new IOException("Writing the capture has failed", current);
+        }
+    }
+
+    /**
+     * The number of the provider, writing a provider record the first time it is seen.
+     *
+     * @param provider the provider.
+     * @return the number.
+     * @throws IOException if the record could not be written.
+     */
+    private int providerId(Provider provider) throws IOException {
+        if (provider == null) {
+            return CaptureFormat.NO_PROVIDER;
+        }
+        if (provider == lastProvider) {
+            return lastProviderId;
+        }
+        Integer id = providers.get(provider);
+        if (id == null) {
+            id = providers.size();
+            providers.put(provider, id);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(CaptureFormat.TYPE_PROVIDER);
+            record.writeInt(id);
+            CaptureFormat.writeString(record, provider.getName());
+            CaptureFormat.writeString(record, provider.getHost());
+            CaptureFormat.writeString(record, provider.getPort());
+            CaptureFormat.writeString(record, provider.getScheme());
+            CaptureFormat.writeString(record, provider.getUrl());
+            CaptureFormat.writeString(record, provider.getVersion());
+            bytes.writeTo(out);
+            offset += bytes.size();
+        }
+        lastProvider = provider;
+        lastProviderId = id;
+        return id;
+    }
+
+    /**
+     * A line waiting to be written.
+     */
+    private static final class Record {
+        private final byte[] line;
+        private final Provider provider;
+        private final long receivedTime;
+
+        /**
+         * Constructor.
+         *
+         * @param line         the raw line.
+         * @param provider     the server it came from, or null.
+         * @param receivedTime when it was received, in ms since the epoch.
+         */
+        private Record(byte[] line, Provider provider, long receivedTime) {
+            this.line = line;
+            this.provider = provider;
+            this.receivedTime = receivedTime;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.sonymobile.tools.gerrit.gerritevents.capture;
+
+import com.sonymobile.tools.gerrit.gerritevents.GerritHandler;
+import com.sonymobile.tools.gerrit.gerritevents.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a capture recorded by {@link EventCaptureWriter} back into a {@link Handler},
+ * to reproduce a production load or an incident without a Gerrit server.
+ * <p>
+ * The events are posted with the same spacing as they were received divided by the speed,
+ * so a speed of 1 is the original pace, 10 is ten times faster and 0 posts them as fast as possible.
+ * A {@link GerritHandler} gets the raw bytes, like from a connection; other handlers get the decoded lines.
+ * The latency of each event is measured from its post until the handler is done with it, which for a
+ * {@link GerritHandler} is when a worker has notified the listeners.
+ */
+public class EventReplayer {
+
+    /**
+     * Replay at the original pace.
+     */
+    public static final double ORIGINAL_SPEED = 1;
+    /**
+     * Replay as fast as possible.
+     */
+    public static final double MAX_SPEED = 0;
+    /**
+     * How often a {@link GerritHandler} is checked while waiting for it to work off the events, in ms.
+     */
+    private static final long DRAIN_POLL_INTERVAL = 10;
+    private static final Logger logger = LoggerFactory.getLogger(EventReplayer.class);
+
+    private final File segment;
+    private double speed = ORIGINAL_SPEED;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor.
+     *
+     * @param segment the segment file of the capture.
+     */
+    public EventReplayer(File segment) {
+        this.segment = segment;
+    }
+
+    /**
+     * Sets the replay speed.
+     *
+     * @param speed the multiple of the original pace, or {@link #MAX_SPEED}.
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("The speed can't be negative");
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Only replays the events received within a time range, the start is found with the time index.
+     *
+     * @param fromTime the first receive time to replay, in ms since the epoch.
+     * @param toTime   the receive time to stop before, in ms since the epoch.
+     */
+    public void setTimeRange(long fromTime, long toTime) {
+        this.from = fromTime;
+        this.to = toTime;
+    }
+
+    /**
+     * Stops a replay in progress.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Replays the capture, returning when all events are posted and the handler is done with them,
+     * including the ones the workers of a {@link GerritHandler} have taken from the queue but not finished.
+     *
+     * @param handler the handler to post the events to.
+     * @return what the replay achieved.
+     * @throws IOException if the capture can't be read.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public ReplayStats replay(Handler handler) throws IOException, InterruptedException {
+        stopped = false;
+        GerritHandler gerritHandler = null;
+        if (handler instanceof GerritHandler) {
+            gerritHandler = (GerritHandler)handler;
+        }
+        long events = 0;
+        long bytes = 0;
+        Latencies latencies = new Latencies();
+        long start = System.nanoTime();
+        long firstReceived = 0;
+        EventCaptureReader reader = new EventCaptureReader(segment);
+        try {
+            CapturedEvent event;
+            if (from == Long.MIN_VALUE) {
+                event = reader.next();
+            } else {
+                event = reader.seek(from);
+            }
+            while (event != null && event.getReceivedTime() < to && !stopped) {
+                long now = System.nanoTime();
+                if (events == 0) {
+                    start = now;
+                    firstReceived = event.getReceivedTime();
+                }
+                if (speed > 0) {
+                    long due = start + (long)(TimeUnit.MILLISECONDS.toNanos(event.getReceivedTime() - firstReceived)
+                            / speed);
+                    if (due > now) {
+                        TimeUnit.NANOSECONDS.sleep(due - now);
+                    }
+                }
+                long dispatched = System.nanoTime();
+                if (gerritHandler != null) {
+                    gerritHandler.post(event.getLine(), event.getProvider(), latencies.since(dispatched));
+                } else {
+                    handler.post(new String(event.getLine(), StandardCharsets.UTF_8), event.getProvider());
+                    latencies.record(System.nanoTime() - dispatched);
+                }
+                events++;
+                bytes += event.getLine().length;
+                event = reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+        if (gerritHandler != null) {
+            while (gerritHandler.getPendingWorkCount() > 0 && !stopped) {
+                Thread.sleep(DRAIN_POLL_INTERVAL);
+            }
+        }
+        long end = System.nanoTime();
+        ReplayStats stats = new ReplayStats(events, bytes, end - start, latencies.count.get(), latencies.max.get(),
+                latencies.total.get());
+        logger.info("Replayed {}: {}", segment, stats);
+        return stats;
+    }
+
+    /**
+     * The latencies of the events, recorded by the workers of the handler as they finish.
+     */
+    private static final class Latencies {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+
+        /**
+         * What records the latency of an event when the handler is done with it.
+         *
+         * @param dispatched when the event was posted, from {@link System#nanoTime()}.
+         * @return the callback.
+         */
+        Runnable since(final long dispatched) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    record(System.nanoTime() - dispatched);
+                }
+            };
+        }
+
+        /**
+         * Records the latency of an event.
+         *
+         * @param nanos the latency in ns.
+         */
+        void record(long nanos) {
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+    }
+}
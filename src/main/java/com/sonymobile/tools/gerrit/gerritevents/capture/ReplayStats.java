@@ -0,0 +1,116 @@
+package com.sonymobile.tools.gerrit.gerritevents.capture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a replay by {@link EventReplayer} achieved.
+ * <p>
+ * The latency of an event is the time from when it was posted until the handler was done with it. For a
+ * {@link com.sonymobile.tools.gerrit.gerritevents.GerritHandler} that includes waiting in its queue, parsing and
+ * notifying the listeners, which shows whether the handler keeps up with the recorded load.
+ */
+public class ReplayStats {
+
+    private final long events;
+    private final long bytes;
+    private final long durationNanos;
+    private final long handled;
+    private final long maxLatencyNanos;
+    private final long totalLatencyNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param events            number of events posted.
+     * @param bytes             number of bytes of the posted lines.
+     * @param durationNanos     time from the first post until the handler was done with the events.
+     * @param handled           number of events the handler was done with, which the latencies are of.
+     * @param maxLatencyNanos   the largest latency.
+     * @param totalLatencyNanos the sum of the latencies.
+     */
+    public ReplayStats(long events, long bytes, long durationNanos, long handled, long maxLatencyNanos,
+                       long totalLatencyNanos) {
+        this.events = events;
+        this.bytes = bytes;
+        this.durationNanos = durationNanos;
+        this.handled = handled;
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.totalLatencyNanos = totalLatencyNanos;
+    }
+
+    /**
+     * The number of events posted.
+     *
+     * @return the count.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * The number of events the handler was done with, less than the posted ones if the replay was stopped.
+     *
+     * @return the count.
+     */
+    public long getHandled() {
+        return handled;
+    }
+
+    /**
+     * The number of bytes of the posted lines.
+     *
+     * @return the count.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * The time the replay took, until the handler was done with the events.
+     *
+     * @return the time in ms.
+     */
+    public long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    /**
+     * The events handled per second.
+     *
+     * @return the throughput.
+     */
+    public double getEventsPerSecond() {
+        if (durationNanos <= 0) {
+            return 0;
+        }
+        return handled * (double)TimeUnit.SECONDS.toNanos(1) / durationNanos;
+    }
+
+    /**
+     * The largest latency of an event.
+     *
+     * @return the latency in ms.
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos / (double)TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * The average latency of an event.
+     *
+     * @return the latency in ms.
+     */
+    public double getAverageLatencyMillis() {
+        if (handled == 0) {
+            return 0;
+        }
+        return totalLatencyNanos / (double)TimeUnit.MILLISECONDS.toNanos(1) / handled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d events (%d bytes) in %d ms, %.1f events/s, latency avg %.2f ms max %.2f ms",
+                events, bytes, getDurationMillis(), getEventsPerSecond(), getAverageLatencyMillis(),
+                getMaxLatencyMillis());
+    }
+}
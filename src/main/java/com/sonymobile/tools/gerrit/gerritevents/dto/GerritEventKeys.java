@@ -281,6 +281,22 @@ public abstract class GerritEventKeys {
      * remover.
      */
     public static final String REMOVER = "remover";
+    /**
+     * patchSets, of a query result.
+     */
+    public static final String PATCH_SETS = "patchSets";
+    /**
+     * currentPatchSet, of a query result.
+     */
+    public static final String CURRENT_PATCH_SET = "currentPatchSet";
+    /**
+     * files, of a patch set of a query result.
+     */
+    public static final String FILES = "files";
+    /**
+     * file.
+     */
+    public static final String FILE = "file";
 
     /**
      * Empty default constructor to hinder instantiation.
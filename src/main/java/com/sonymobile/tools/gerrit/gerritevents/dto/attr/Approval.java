@@ -185,6 +185,24 @@ public class Approval implements GerritJsonDTO {
         return oldValue;
     }
 
+    /**
+     * Set the old (or previous) approval value.
+     *
+     * @param oldValue the old approval value.
+     */
+    public void setOldValue(String oldValue) {
+        this.oldValue = oldValue;
+    }
+
+    /**
+     * Set whether this approval was updated, as told by Gerrit.
+     *
+     * @param updated true if it was updated.
+     */
+    public void setUpdated(Boolean updated) {
+        this.updated = updated;
+    }
+
     /**
      * Checks whether this approval was updated.
      * oldValue is only set when the approval has been changed.
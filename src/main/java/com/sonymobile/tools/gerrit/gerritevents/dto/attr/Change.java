@@ -59,6 +59,8 @@ import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.STATU
 
 import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.WIP;
 import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.PRIVATE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.PATCH_SETS;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.CURRENT_PATCH_SET;
 
 /**
  * Represents a Gerrit JSON Change DTO.
@@ -128,6 +130,14 @@ public class Change implements GerritJsonDTO {
      * The changed files in this patchset.
      */
     private List<String> files;
+    /**
+     * The patch sets, only filled in by queries asking for them.
+     */
+    private List<PatchSet> patchSets;
+    /**
+     * The current patch set, only filled in by queries asking for it.
+     */
+    private PatchSet currentPatchSet;
 
     /**
      * The change status.
@@ -222,6 +232,52 @@ public class Change implements GerritJsonDTO {
         status = GerritChangeStatus.fromString(getString(json, STATUS));
         wip = getBoolean(json, WIP, false);
         _private = getBoolean(json, PRIVATE, false);
+
+        if (json.containsKey(PATCH_SETS)) {
+            JSONArray queriedPatchSets = json.getJSONArray(PATCH_SETS);
+            patchSets = new ArrayList<PatchSet>(queriedPatchSets.size());
+            for (int i = 0; i < queriedPatchSets.size(); i++) {
+                patchSets.add(new PatchSet(queriedPatchSets.getJSONObject(i)));
+            }
+        }
+        if (json.containsKey(CURRENT_PATCH_SET)) {
+            currentPatchSet = new PatchSet(json.getJSONObject(CURRENT_PATCH_SET));
+            if (currentPatchSet.getFiles() != null) {
+                files = currentPatchSet.getFiles();
+            }
+        }
+    }
+
+    /**
+     * The patch sets, only known from queries asking for them.
+     * @return the patch sets, or null if not known.
+     */
+    public List<PatchSet> getPatchSets() {
+        return patchSets;
+    }
+
+    /**
+     * The patch sets.
+     * @param patchSets the patch sets.
+     */
+    public void setPatchSets(List<PatchSet> patchSets) {
+        this.patchSets = patchSets;
+    }
+
+    /**
+     * The current patch set, only known from queries asking for it.
+     * @return the current patch set, or null if not known.
+     */
+    public PatchSet getCurrentPatchSet() {
+        return currentPatchSet;
+    }
+
+    /**
+     * The current patch set.
+     * @param currentPatchSet the current patch set.
+     */
+    public void setCurrentPatchSet(PatchSet currentPatchSet) {
+        this.currentPatchSet = currentPatchSet;
     }
 
     /**
@@ -248,6 +304,14 @@ public class Change implements GerritJsonDTO {
         return comments;
     }
 
+    /**
+     * Comments.
+     * @param comments the comments list.
+     */
+    public void setComments(List<Comment> comments) {
+        this.comments = comments;
+    }
+
     /**
      * Change status.
      * @return the change status.
@@ -71,6 +71,15 @@ public class Comment implements GerritJsonDTO {
         return message;
     }
 
+    /**
+     * The message.
+     *
+     * @param message the message.
+     */
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
     /**
      * Account of the reviewer.
      *
@@ -80,6 +89,15 @@ public class Comment implements GerritJsonDTO {
         return reviewer;
     }
 
+    /**
+     * Account of the reviewer.
+     *
+     * @param reviewer the reviewer.
+     */
+    public void setReviewer(Account reviewer) {
+        this.reviewer = reviewer;
+    }
+
     @Override
     public boolean equals(Object o) {
         //CS IGNORE MagicNumber FOR NEXT 14 LINES. REASON: Autogenerated Code.
@@ -46,6 +46,8 @@ import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.AUTHO
 import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.APPROVALS;
 import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.PARENTS;
 import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.CREATED_ON;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.FILE;
+import static com.sonymobile.tools.gerrit.gerritevents.dto.GerritEventKeys.FILES;
 
 /**
  * Represents a Gerrit JSON Patchset DTO.
@@ -94,6 +96,10 @@ public class PatchSet implements GerritJsonDTO {
      * The Date when this change was created.
      */
     private Date createdOn;
+    /**
+     * The files, only filled in by queries asking for them.
+     */
+    private List<String> files;
     /**
      * Default constructor.
      */
@@ -138,6 +144,31 @@ public class PatchSet implements GerritJsonDTO {
                 parents.add(eventParents.getString(i));
             }
         }
+        if (json.containsKey(FILES)) {
+            JSONArray queriedFiles = json.getJSONArray(FILES);
+            files = new ArrayList<String>(queriedFiles.size());
+            for (int i = 0; i < queriedFiles.size(); i++) {
+                files.add(queriedFiles.getJSONObject(i).getString(FILE));
+            }
+        }
+    }
+
+    /**
+     * The files of the patch set, only known from queries asking for them.
+     *
+     * @return the files, or null if not known.
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * The files of the patch set.
+     *
+     * @param files the files.
+     */
+    public void setFiles(List<String> files) {
+        this.files = files;
     }
 
     /**
@@ -147,6 +178,15 @@ public class PatchSet implements GerritJsonDTO {
         return parents;
     }
 
+    /**
+     * The parent dependency hashes.
+     *
+     * @param parents the parents.
+     */
+    public void setParents(List<String> parents) {
+        this.parents = parents;
+    }
+
     /**
      * The patchset number.
      * @return the number.
@@ -164,6 +204,15 @@ public class PatchSet implements GerritJsonDTO {
         return approvals;
     }
 
+    /**
+     * The list of approvals for this patch set.
+     *
+     * @param approvals the list of approvals.
+     */
+    public void setApprovals(List<Approval> approvals) {
+        this.approvals = approvals;
+    }
+
 
     /**
      * The patchset number.
@@ -257,6 +306,15 @@ public class PatchSet implements GerritJsonDTO {
         return author;
     }
 
+    /**
+     * The patch set author.
+     *
+     * @param author the account of the author.
+     */
+    public void setAuthor(Account author) {
+        this.author = author;
+    }
+
     /**
      * The one who uploaded the patch-set.
      * @param uploader the account of the uploader.
@@ -26,6 +26,7 @@ package com.sonymobile.tools.gerrit.gerritevents.dto.events;
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandler;
 import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
 import com.sonymobile.tools.gerrit.gerritevents.dto.attr.PatchSet;
+import com.sonymobile.tools.gerrit.gerritevents.helpers.FileHelper;
 import net.sf.json.JSONObject;
 
 import java.util.Collections;
@@ -91,6 +92,7 @@ public abstract class ChangeBasedEvent extends GerritTriggeredEvent {
 
     /**
      * Queries gerrit for the files included in this patch set.
+     * The files of the revision of the event are asked for, not those of the current patch set of the change.
      *
      * @param gerritQueryHandler the query handler, responsible for the queries to gerrit.
      * @return a list of files that are part of this patch set.
@@ -99,7 +101,17 @@ public abstract class ChangeBasedEvent extends GerritTriggeredEvent {
      */
     @Deprecated
     public List<String> getFiles(GerritQueryHandler gerritQueryHandler) {
-        List<String> returned = change.getFiles(gerritQueryHandler);
+        List<String> returned;
+        if (patchSet != null && patchSet.getRevision() != null) {
+            //The number tells the change apart, the Change-Id is the same on all branches it is cherry-picked to.
+            String changeNumber = change.getNumber();
+            if (changeNumber == null) {
+                changeNumber = change.getId();
+            }
+            returned = FileHelper.getFilesByRevision(gerritQueryHandler, changeNumber, patchSet.getRevision());
+        } else {
+            returned = change.getFiles(gerritQueryHandler);
+        }
         if (returned == null) {
             return Collections.emptyList();
         }
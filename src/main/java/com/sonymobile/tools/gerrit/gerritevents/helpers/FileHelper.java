@@ -2,6 +2,7 @@ package com.sonymobile.tools.gerrit.gerritevents.helpers;
 
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandler;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandlerHttp;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.slf4j.Logger;
@@ -9,14 +10,23 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
  * Class that holds static function that provides list of files for the change.
+ * The files of each revision found are remembered in the {@link FileListCache}.
  */
 public final class FileHelper {
     private static final Logger logger = LoggerFactory.getLogger(FileHelper.class);
+    /**
+     * The longest a query of {@link #prefetchFiles} may be.
+     */
+    static final int MAX_QUERY_LENGTH = Integer.getInteger("gerritevents.FileHelper.MAX_QUERY_LENGTH", 1000);
+    private static final String OR = " OR ";
 
     /**
      * Utility class should not have constructor.
@@ -26,6 +36,7 @@ public final class FileHelper {
 
     /**
      * Provides list of files related to the change.
+     * The files are remembered in the {@link FileListCache} under the revision they belong to.
      * @param gerritQueryHandler the query handler, responsible for the queries to gerrit.
      * @param changeId the Gerrit change id.
      * @return list of files from the change, null in case of errors
@@ -38,21 +49,11 @@ public final class FileHelper {
                     continue;
                 }
                 if (json.has("currentPatchSet")) {
-                    JSONObject currentPatchSet = json.getJSONObject("currentPatchSet");
-                    if (currentPatchSet.has("files")) {
-                        JSONArray changedFiles = currentPatchSet.optJSONArray("files");
-                        int numberOfFiles = changedFiles.size();
-
-                        if (numberOfFiles > 0) {
-                            List<String> files = new ArrayList<String>(numberOfFiles);
-                            for (int i = 0; i < changedFiles.size(); i++) {
-                                JSONObject file = changedFiles.getJSONObject(i);
-                                files.add(file.getString("file"));
-                            }
-                            return files;
-                        }
+                    List<String> files = storePatchSet(gerritQueryHandler.getServerKey(),
+                            json.getJSONObject("currentPatchSet"));
+                    if (files != null && !files.isEmpty()) {
+                        return files;
                     }
-
                     break;
                 }
             }
@@ -63,4 +64,214 @@ public final class FileHelper {
         }
         return null;
     }
+
+    /**
+     * Provides the files of a patch set, from the {@link FileListCache} if known.
+     * Otherwise the change is queried with all its patch sets, and the files of every one of them are remembered.
+     * @param gerritQueryHandler the query handler, responsible for the queries to gerrit.
+     * @param changeId the Gerrit change number or id, null to only look in the cache.
+     * @param revision the SHA-1 of the patch set.
+     * @return the files, null if not found or in case of errors.
+     */
+    public static List<String> getFilesByRevision(GerritQueryHandler gerritQueryHandler, String changeId,
+                                                  String revision) {
+        String server = gerritQueryHandler.getServerKey();
+        List<String> files = FileListCache.getInstance().get(server, revision);
+        if (files != null || changeId == null) {
+            return files;
+        }
+        try {
+            List<JSONObject> jsonList = gerritQueryHandler.queryJava("change:" + changeId, true, false, true, false);
+            for (JSONObject json : jsonList) {
+                JSONArray patchSets = json.optJSONArray("patchSets");
+                if (patchSets != null) {
+                    for (int i = 0; i < patchSets.size(); i++) {
+                        storePatchSet(server, patchSets.getJSONObject(i));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("IOException occurred. ", e);
+            return null;
+        } catch (GerritQueryException e) {
+            logger.error("Bad query. ", e);
+            return null;
+        }
+        return FileListCache.getInstance().get(server, revision);
+    }
+
+    /**
+     * Provides the files of a patch set over the REST API, from the {@link FileListCache} if known,
+     * for instance from {@link #prefetchFiles(GerritQueryHandlerHttp, Collection)}.
+     * Otherwise they are fetched from the files of the revision, which works for any patch set of the change.
+     * @param gerritQueryHandler the query handler, responsible for the queries to gerrit.
+     * @param changeId the Gerrit change number or id, null to only look in the cache.
+     * @param revision the SHA-1 of the patch set.
+     * @return the files, null if not found or in case of errors.
+     */
+    public static List<String> getFilesByRevision(GerritQueryHandlerHttp gerritQueryHandler, String changeId,
+                                                  String revision) {
+        String server = gerritQueryHandler.getServerKey();
+        List<String> files = FileListCache.getInstance().get(server, revision);
+        if (files != null || changeId == null) {
+            return files;
+        }
+        try {
+            FileListCache.getInstance().put(server, revision,
+                    gerritQueryHandler.queryRevisionFiles(changeId, revision));
+        } catch (IOException e) {
+            logger.error("IOException occurred. ", e);
+            return null;
+        } catch (GerritQueryException e) {
+            logger.error("Bad query. ", e);
+            return null;
+        }
+        return FileListCache.getInstance().get(server, revision);
+    }
+
+    /**
+     * Fetches the files of the current patch sets of many changes, with as few queries as the query length allows.
+     * The files are remembered in the {@link FileListCache}, so later lookups of the revisions need no query.
+     * @param gerritQueryHandler the query handler, responsible for the queries to gerrit.
+     * @param changeIds the Gerrit change ids or numbers.
+     * @return the files of each change found, by both change number and Change-Id.
+     */
+    public static Map<String, List<String>> prefetchFiles(GerritQueryHandler gerritQueryHandler,
+                                                          Collection<String> changeIds) {
+        Map<String, List<String>> found = new HashMap<String, List<String>>();
+        for (String query : orQueries(changeIds, MAX_QUERY_LENGTH)) {
+            try {
+                for (JSONObject json : gerritQueryHandler.queryFiles(query)) {
+                    JSONObject currentPatchSet = json.optJSONObject("currentPatchSet");
+                    if (currentPatchSet != null) {
+                        List<String> files = storePatchSet(gerritQueryHandler.getServerKey(), currentPatchSet);
+                        putChange(found, json.optString("number", null), files);
+                        putChange(found, json.optString("id", null), files);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("IOException occurred. ", e);
+            } catch (GerritQueryException e) {
+                logger.error("Bad query. ", e);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Fetches the files of the current patch sets of many changes over the REST API,
+     * with as few queries as the query length allows.
+     * The files are remembered in the {@link FileListCache}, so later lookups of the revisions need no query.
+     * @param gerritQueryHandler the query handler, responsible for the queries to gerrit.
+     * @param changeIds the Gerrit change ids or numbers.
+     * @return the files of each change found, by both change number and Change-Id.
+     */
+    public static Map<String, List<String>> prefetchFiles(GerritQueryHandlerHttp gerritQueryHandler,
+                                                          Collection<String> changeIds) {
+        Map<String, List<String>> found = new HashMap<String, List<String>>();
+        for (String query : orQueries(changeIds, MAX_QUERY_LENGTH)) {
+            try {
+                for (JSONObject json : gerritQueryHandler.queryFiles(query)) {
+                    List<String> files = storeRevisions(gerritQueryHandler.getServerKey(), json);
+                    putChange(found, json.optString("_number", null), files);
+                    putChange(found, json.optString("change_id", null), files);
+                }
+            } catch (IOException e) {
+                logger.error("IOException occurred. ", e);
+            } catch (GerritQueryException e) {
+                logger.error("Bad query. ", e);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Joins change ids into queries of the form {@code change:A OR change:B}, each no longer than a length
+     * unless a single id is.
+     * @param changeIds the change ids.
+     * @param maxLength the longest a query may be.
+     * @return the queries.
+     */
+    static List<String> orQueries(Collection<String> changeIds, int maxLength) {
+        List<String> queries = new ArrayList<String>();
+        StringBuilder query = new StringBuilder();
+        for (String changeId : changeIds) {
+            String term = "change:" + changeId;
+            if (query.length() > 0 && query.length() + OR.length() + term.length() > maxLength) {
+                queries.add(query.toString());
+                query.setLength(0);
+            }
+            if (query.length() > 0) {
+                query.append(OR);
+            }
+            query.append(term);
+        }
+        if (query.length() > 0) {
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    /**
+     * Remembers the files of a patch set from an ssh query.
+     * @param server the server.
+     * @param patchSet the patch set.
+     * @return the files, or null if the patch set has none listed.
+     */
+    private static List<String> storePatchSet(String server, JSONObject patchSet) {
+        JSONArray changedFiles = patchSet.optJSONArray("files");
+        if (changedFiles == null) {
+            return null;
+        }
+        List<String> files = new ArrayList<String>(changedFiles.size());
+        for (int i = 0; i < changedFiles.size(); i++) {
+            files.add(changedFiles.getJSONObject(i).getString("file"));
+        }
+        String revision = patchSet.optString("revision", null);
+        if (revision != null) {
+            FileListCache.getInstance().put(server, revision, files);
+        }
+        return files;
+    }
+
+    /**
+     * Remembers the files of the revisions of a change from a REST query.
+     * @param server the server.
+     * @param change the change.
+     * @return the files of the current revision, or null if not listed.
+     */
+    private static List<String> storeRevisions(String server, JSONObject change) {
+        JSONObject revisions = change.optJSONObject("revisions");
+        if (revisions == null || revisions.isNullObject()) {
+            return null;
+        }
+        List<String> current = null;
+        for (Object key : revisions.keySet()) {
+            String revision = (String)key;
+            JSONObject files = revisions.getJSONObject(revision).optJSONObject("files");
+            if (files != null && !files.isNullObject()) {
+                List<String> paths = new ArrayList<String>();
+                for (Object path : files.keySet()) {
+                    paths.add((String)path);
+                }
+                FileListCache.getInstance().put(server, revision, paths);
+                if (revision.equals(change.optString("current_revision"))) {
+                    current = paths;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Adds the files of a change to the result of a prefetch.
+     * @param found the result.
+     * @param change the change number or id, can be null.
+     * @param files the files, can be null.
+     */
+    private static void putChange(Map<String, List<String>> found, String change, List<String> files) {
+        if (change != null && files != null) {
+            found.put(change, files);
+        }
+    }
 }
@@ -0,0 +1,149 @@
+package com.sonymobile.tools.gerrit.gerritevents.helpers;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers the files of patch sets for the whole process.
+ * The lists are keyed by server and revision: the files belong to the commit, so the change number is not part
+ * of the key, and a list found by number is also found when the change is looked up by its Change-Id.
+ * The files of a revision never change, so a list is only forgotten when the cache is full,
+ * the least recently used first.
+ * The lists are kept compact: whole paths are interned by the cache, so that a file touched by many patch sets
+ * has one copy of its path. Paths are not split into directory and name, a stored list is handed out as is
+ * instead of being put together again on every lookup.
+ * The interned paths are only weakly held and go away with the last list using them.
+ *
+ * @see FileHelper
+ */
+public final class FileListCache {
+
+    /**
+     * The default maximum number of file lists.
+     */
+    public static final int DEFAULT_MAX_ENTRIES =
+            Integer.getInteger("gerritevents.FileListCache.DEFAULT_MAX_ENTRIES", 10000);
+    private static final FileListCache INSTANCE = new FileListCache(DEFAULT_MAX_ENTRIES);
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Map<String, List<String>> lists;
+    private final Map<String, WeakReference<String>> paths = new WeakHashMap<String, WeakReference<String>>();
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries the maximum number of file lists.
+     */
+    public FileListCache(final int maxEntries) {
+        this.lists = new LinkedHashMap<String, List<String>>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The cache shared by the process.
+     *
+     * @return the instance.
+     */
+    public static FileListCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The files of a revision.
+     *
+     * @param server   the server, as a host and port or front end url.
+     * @param revision the SHA-1 of the revision.
+     * @return an unmodifiable list of the files, or null if not known.
+     */
+    public synchronized List<String> get(String server, String revision) {
+        List<String> list = lists.get(server + "|" + revision);
+        if (list == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return list;
+    }
+
+    /**
+     * Remembers the files of a revision.
+     *
+     * @param server   the server, as a host and port or front end url.
+     * @param revision the SHA-1 of the revision.
+     * @param files    the paths of the files.
+     */
+    public synchronized void put(String server, String revision, List<String> files) {
+        List<String> list = new ArrayList<String>(files.size());
+        for (String path : files) {
+            list.add(intern(path));
+        }
+        lists.put(server + "|" + revision, Collections.unmodifiableList(list));
+    }
+
+    /**
+     * The copy of a path shared by all lists.
+     *
+     * @param path the path.
+     * @return the shared copy.
+     */
+    private String intern(String path) {
+        WeakReference<String> reference = paths.get(path);
+        if (reference != null) {
+            String shared = reference.get();
+            if (shared != null) {
+                return shared;
+            }
+        }
+        paths.put(path, new WeakReference<String>(path));
+        return path;
+    }
+
+    /**
+     * The number of lookups of a known revision.
+     *
+     * @return the count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of lookups of an unknown revision.
+     *
+     * @return the count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The number of file lists.
+     *
+     * @return the count.
+     */
+    public synchronized int size() {
+        return lists.size();
+    }
+
+    /**
+     * Forgets everything.
+     */
+    public synchronized void clear() {
+        lists.clear();
+        paths.clear();
+    }
+}
@@ -0,0 +1,30 @@
+package com.sonymobile.tools.gerrit.gerritevents.helpers;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes daemon threads named after a prefix and a counter, for the background pools of the library that must not
+ * keep the JVM alive.
+ */
+public final class NamedDaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger(1);
+
+    /**
+     * Constructor.
+     *
+     * @param prefix the name of the threads, a dash and a counter are added to it.
+     */
+    public NamedDaemonThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, prefix + "-" + counter.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
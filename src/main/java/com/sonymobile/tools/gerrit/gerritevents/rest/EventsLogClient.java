@@ -0,0 +1,208 @@
+package com.sonymobile.tools.gerrit.gerritevents.rest;
+
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineFramer;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches past events from the REST API of the events-log plugin,
+ * <code>/plugins/events-log/events/?t1=...&amp;t2=...</code>.
+ * The response holds one event per line, in the same format as stream-events, and is read as it arrives
+ * so a large range never has to fit in memory. Long ranges are split into pages of {@link #getPageSeconds()}.
+ * The requests go through the connections of the {@link PooledHttpClient}.
+ */
+public class EventsLogClient {
+
+    /**
+     * The default length in seconds of the range fetched by one request.
+     */
+    public static final long DEFAULT_PAGE_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    /**
+     * The format of the t1 and t2 parameters.
+     */
+    static final String TIMESTAMP_FORMAT = "yyyy.MM.dd HH:mm:ss";
+    private static final String EVENTS_PATH = "plugins/events-log/events/";
+    private static final String AUTHENTICATED_PREFIX = "a/";
+    private static final int RX_BUFFER_SIZE = 8192;
+    private static final Logger logger = LoggerFactory.getLogger(EventsLogClient.class);
+
+    private final RestConnectionConfig config;
+    private long pageSeconds = DEFAULT_PAGE_SECONDS;
+    private TimeZone timeZone = TimeZone.getDefault();
+
+    /**
+     * Constructor.
+     *
+     * @param config the front end url, credentials and proxy of the Gerrit server.
+     */
+    public EventsLogClient(RestConnectionConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * The length in seconds of the range fetched by one request.
+     *
+     * @return the page length.
+     */
+    public long getPageSeconds() {
+        return pageSeconds;
+    }
+
+    /**
+     * The length in seconds of the range fetched by one request.
+     *
+     * @param pageSeconds the page length.
+     */
+    public void setPageSeconds(long pageSeconds) {
+        if (pageSeconds < 1) {
+            throw new IllegalArgumentException("The page length must be positive");
+        }
+        this.pageSeconds = pageSeconds;
+    }
+
+    /**
+     * The time zone the events-log plugin interprets t1 and t2 in, the time zone of the Gerrit server.
+     * Defaults to the local time zone.
+     *
+     * @param timeZone the time zone.
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Fetches the events created from one point in time up to another, page by page and in order.
+     * Events on the border between two pages can be delivered twice.
+     *
+     * @param fromSeconds the first second of the range, since the epoch.
+     * @param toSeconds   the end of the range, since the epoch.
+     * @param sink        receives the lines.
+     * @return the number of lines received.
+     * @throws IOException if a request fails.
+     */
+    public long fetch(long fromSeconds, long toSeconds, LineFramer.LineSink sink) throws IOException {
+        long count = 0;
+        HttpClientContext context = createContext();
+        for (long t1 = fromSeconds; t1 < toSeconds; t1 += pageSeconds) {
+            long t2 = Math.min(t1 + pageSeconds, toSeconds);
+            count += fetchPage(context, t1, t2, sink);
+        }
+        logger.debug("Fetched {} events from the events-log.", count);
+        return count;
+    }
+
+    /**
+     * Fetches one page and frames the response as it is read.
+     *
+     * @param context the credentials, and the authentication of the previous pages.
+     * @param t1      the start of the page.
+     * @param t2      the end of the page.
+     * @param sink    receives the lines.
+     * @return the number of lines received.
+     * @throws IOException if the request fails.
+     */
+    private long fetchPage(HttpClientContext context, long t1, long t2, final LineFramer.LineSink sink)
+            throws IOException {
+        HttpGet get = new HttpGet(getUrl(t1, t2));
+        logger.debug("Fetching {}", get.getURI());
+        final long[] count = new long[1];
+        LineFramer.LineSink counting = new LineFramer.LineSink() {
+            @Override
+            public void onLine(byte[] line) {
+                count[0]++;
+                sink.onLine(line);
+            }
+        };
+        CloseableHttpResponse response = PooledHttpClient.get(config.getGerritProxy()).execute(get, context);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK) {
+                throw new IOException("Error fetching \"" + get.getURI() + "\" (" + status + ")");
+            }
+            if (response.getEntity() == null) {
+                return 0;
+            }
+            LineFramer framer = new LineFramer();
+            byte[] rx = new byte[RX_BUFFER_SIZE];
+            InputStream in = response.getEntity().getContent();
+            try {
+                int read;
+                while ((read = in.read(rx)) != -1) {
+                    framer.feed(rx, 0, read, counting);
+                }
+                //The last line doesn't need a line terminator.
+                framer.feed(new byte[]{'\n'}, 0, 1, counting);
+            } finally {
+                in.close();
+            }
+        } finally {
+            response.close();
+        }
+        return count[0];
+    }
+
+    /**
+     * The url of a page.
+     *
+     * @param t1 the start of the page.
+     * @param t2 the end of the page.
+     * @return the url.
+     * @throws UnsupportedEncodingException never.
+     */
+    String getUrl(long t1, long t2) throws UnsupportedEncodingException {
+        StringBuilder url = new StringBuilder(config.getGerritFrontEndUrl());
+        if (url.length() == 0 || url.charAt(url.length() - 1) != '/') {
+            url.append('/');
+        }
+        if (config.getHttpCredentials() != null) {
+            url.append(AUTHENTICATED_PREFIX);
+        }
+        url.append(EVENTS_PATH);
+        url.append("?t1=").append(URLEncoder.encode(format(t1), "UTF-8"));
+        url.append("&t2=").append(URLEncoder.encode(format(t2), "UTF-8"));
+        return url.toString();
+    }
+
+    /**
+     * Formats a point in time like the events-log plugin wants it.
+     *
+     * @param seconds seconds since the epoch.
+     * @return the formatted time.
+     */
+    private String format(long seconds) {
+        SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        format.setTimeZone(timeZone);
+        return format.format(new Date(TimeUnit.SECONDS.toMillis(seconds)));
+    }
+
+    /**
+     * Creates the context of a fetch with the credentials of the config.
+     *
+     * @return the context.
+     */
+    private HttpClientContext createContext() {
+        HttpClientContext context = HttpClientContext.create();
+        if (config.getHttpCredentials() != null) {
+            CredentialsProvider credProvider = new BasicCredentialsProvider();
+            credProvider.setCredentials(AuthScope.ANY, config.getHttpCredentials());
+            context.setCredentialsProvider(credProvider);
+        }
+        return context;
+    }
+}
@@ -0,0 +1,126 @@
+package com.sonymobile.tools.gerrit.gerritevents.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the elements of a JSON array one at a time, the way the REST API sends a list of changes.
+ * The text of each element is handed over as soon as it has been read, so the whole array is never held at once.
+ * The <code>)]}'</code> line Gerrit puts in front of its responses against XSSI is skipped.
+ */
+public class JsonArrayReader implements Closeable {
+
+    private static final int INITIAL_ELEMENT_SIZE = 1024;
+    private static final String XSSI_PREFIX = ")]}'";
+
+    private final Reader reader;
+    private boolean started = false;
+    private boolean ended = false;
+
+    /**
+     * Constructor.
+     *
+     * @param reader the response, it should be buffered.
+     */
+    public JsonArrayReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next element.
+     *
+     * @return the JSON text of the element, or null after the last one.
+     * @throws IOException if reading fails or the response is not an array.
+     */
+    public String next() throws IOException {
+        if (ended) {
+            return null;
+        }
+        if (!started) {
+            start();
+        }
+        int c = skipWhitespace();
+        if (c == ',') {
+            c = skipWhitespace();
+        }
+        if (c == ']') {
+            ended = true;
+            return null;
+        }
+        if (c < 0) {
+            throw new IOException("The response ended inside the array.");
+        }
+        StringBuilder element = new StringBuilder(INITIAL_ELEMENT_SIZE);
+        int depth = 0;
+        boolean inString = false;
+        boolean escape = false;
+        while (c >= 0) {
+            if (inString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    ended = true;
+                    return element.toString().trim();
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                return element.toString().trim();
+            }
+            element.append((char)c);
+            if (depth == 0 && !inString && (c == '}' || c == ']')) {
+                return element.toString();
+            }
+            c = reader.read();
+        }
+        throw new IOException("The response ended inside an element.");
+    }
+
+    /**
+     * Skips the XSSI line and reads up to the start of the array.
+     *
+     * @throws IOException if there is no array.
+     */
+    private void start() throws IOException {
+        started = true;
+        int c = skipWhitespace();
+        if (c == XSSI_PREFIX.charAt(0)) {
+            while (c >= 0 && c != '\n') {
+                c = reader.read();
+            }
+            c = skipWhitespace();
+        }
+        if (c != '[') {
+            throw new IOException("The response is not a JSON array.");
+        }
+    }
+
+    /**
+     * Reads up to the next character that isn't whitespace.
+     *
+     * @return the character, or -1 at the end.
+     * @throws IOException if reading fails.
+     */
+    private int skipWhitespace() throws IOException {
+        int c = reader.read();
+        while (c >= 0 && Character.isWhitespace(c)) {
+            c = reader.read();
+        }
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,148 @@
+package com.sonymobile.tools.gerrit.gerritevents.rest;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP clients the REST queries are sent with.
+ * <p>
+ * All clients share one pool of keep-alive connections, so a query to a server that was asked before reuses an
+ * open connection instead of setting up a new one. Responses are asked for gzip compressed and decompressed as they
+ * are read. There is one client per proxy, and the clients are never closed.
+ * <p>
+ * The size of the pool is read from the system properties {@code gerritevents.PooledHttpClient.MAX_TOTAL} and
+ * {@code gerritevents.PooledHttpClient.MAX_PER_ROUTE}. Connecting, waiting for a connection of the pool and waiting
+ * for the server to send are bounded by {@code gerritevents.PooledHttpClient.DEFAULT_TIMEOUT}, unless a request sets
+ * its own {@link #requestConfig(int)}.
+ */
+public final class PooledHttpClient {
+
+    /**
+     * The default number of connections in the pool.
+     */
+    public static final int DEFAULT_MAX_TOTAL = Integer.getInteger("gerritevents.PooledHttpClient.MAX_TOTAL", 64);
+    /**
+     * The default number of connections in the pool to one server.
+     */
+    public static final int DEFAULT_MAX_PER_ROUTE =
+            Integer.getInteger("gerritevents.PooledHttpClient.MAX_PER_ROUTE", 16);
+    /**
+     * The default time to wait for connecting, for a connection of the pool and between packets, in ms.
+     */
+    public static final int DEFAULT_TIMEOUT =
+            Integer.getInteger("gerritevents.PooledHttpClient.DEFAULT_TIMEOUT", 60000);
+    /**
+     * The time after which an unused connection is closed, in seconds.
+     */
+    private static final long MAX_IDLE_SECONDS = 60;
+    private static final String NO_PROXY = "";
+    private static final Logger logger = LoggerFactory.getLogger(PooledHttpClient.class);
+    private static final PoolingHttpClientConnectionManager CONNECTIONS = createConnectionManager();
+    private static final ConcurrentMap<String, CloseableHttpClient> CLIENTS =
+            new ConcurrentHashMap<String, CloseableHttpClient>();
+
+    /**
+     * Utility constructor.
+     */
+    private PooledHttpClient() {
+    }
+
+    /**
+     * Creates the pool.
+     *
+     * @return the pool.
+     */
+    private static PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(DEFAULT_MAX_TOTAL);
+        manager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+        new IdleConnectionEvictor(manager, MAX_IDLE_SECONDS, TimeUnit.SECONDS).start();
+        return manager;
+    }
+
+    /**
+     * The client sending through a proxy.
+     *
+     * @param proxy the url of the proxy, null or empty for none.
+     * @return the client.
+     */
+    public static CloseableHttpClient get(String proxy) {
+        String key = NO_PROXY;
+        if (proxy != null) {
+            key = proxy;
+        }
+        CloseableHttpClient client = CLIENTS.get(key);
+        if (client == null) {
+            CloseableHttpClient created = create(key);
+            client = CLIENTS.putIfAbsent(key, created);
+            if (client == null) {
+                client = created;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Creates a client on the pool.
+     *
+     * @param proxy the url of the proxy, empty for none.
+     * @return the client.
+     */
+    private static CloseableHttpClient create(String proxy) {
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(CONNECTIONS)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(requestConfig(DEFAULT_TIMEOUT));
+        if (!proxy.isEmpty()) {
+            try {
+                URL url = new URL(proxy);
+                builder.setProxy(new HttpHost(url.getHost(), url.getPort(), url.getProtocol()));
+            } catch (MalformedURLException e) {
+                logger.error("Could not parse proxy URL, attempting without proxy.", e);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * The timeouts of a request.
+     *
+     * @param timeout the time to wait for connecting, for a connection of the pool and between packets, in ms,
+     *                zero or less for {@link #DEFAULT_TIMEOUT}.
+     * @return the config to set on the request.
+     */
+    public static RequestConfig requestConfig(int timeout) {
+        int bounded = timeout;
+        if (bounded <= 0) {
+            bounded = DEFAULT_TIMEOUT;
+        }
+        return RequestConfig.custom()
+                .setConnectTimeout(bounded)
+                .setConnectionRequestTimeout(bounded)
+                .setSocketTimeout(bounded)
+                .build();
+    }
+
+    /**
+     * The state of the pool.
+     *
+     * @return the number of connections leased, available and waited for.
+     */
+    public static PoolStats getStats() {
+        return CONNECTIONS.getTotalStats();
+    }
+}
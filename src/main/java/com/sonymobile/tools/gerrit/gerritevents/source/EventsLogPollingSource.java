@@ -0,0 +1,239 @@
+package com.sonymobile.tools.gerrit.gerritevents.source;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.rest.EventsLogClient;
+import com.sonymobile.tools.gerrit.gerritevents.stream.EventDeduplicator;
+import com.sonymobile.tools.gerrit.gerritevents.stream.EventLines;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineFramer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the REST API of the events-log plugin for new events, for sites where ssh isn't available.
+ * <p>
+ * Each poll fetches the events from the eventCreatedOn of the newest event seen so far. Since that second is
+ * fetched again by the next poll, the events already handed out are remembered in a bounded window and skipped.
+ * While the polls come back empty the time between them doubles, up to {@link #getMaxPollInterval()},
+ * and it goes back to {@link #getPollInterval()} as soon as there are new events.
+ */
+public class EventsLogPollingSource implements GerritEventSource {
+
+    /**
+     * The default time in ms between polls.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 5000;
+    /**
+     * The default longest time in ms between polls, after many empty polls.
+     */
+    public static final long DEFAULT_MAX_POLL_INTERVAL = 60000;
+    /**
+     * The number of recent events remembered to skip them in the next poll.
+     */
+    private static final int WINDOW_SIZE = 4096;
+    /**
+     * How often a sleeping poll checks if the source has been closed, in ms.
+     */
+    private static final long CLOSE_CHECK_INTERVAL = 100;
+    private static final int BYTE_MASK = 0xff;
+
+    private final EventsLogClient client;
+    private final Provider provider;
+    private final Map<Long, Boolean> recent = new LinkedHashMap<Long, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > WINDOW_SIZE;
+        }
+    };
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private long maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+    private volatile long currentInterval = DEFAULT_POLL_INTERVAL;
+    private volatile long since = 0;
+    private volatile boolean closed = true;
+
+    /**
+     * Constructor.
+     *
+     * @param client   the events-log client of the server.
+     * @param provider the server the events come from.
+     */
+    public EventsLogPollingSource(EventsLogClient client, Provider provider) {
+        this.client = client;
+        this.provider = provider;
+    }
+
+    /**
+     * The time between polls while there are new events.
+     *
+     * @return the time in ms.
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Sets the time between polls while there are new events.
+     *
+     * @param pollInterval the time in ms.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+        this.currentInterval = pollInterval;
+    }
+
+    /**
+     * The longest time between polls, reached after many empty polls.
+     *
+     * @return the time in ms.
+     */
+    public long getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    /**
+     * Sets the longest time between polls, reached after many empty polls.
+     *
+     * @param maxPollInterval the time in ms, the poll interval if shorter.
+     */
+    public void setMaxPollInterval(long maxPollInterval) {
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    /**
+     * The time until the next poll after an empty one.
+     *
+     * @return the time in ms.
+     */
+    public long getCurrentInterval() {
+        return currentInterval;
+    }
+
+    /**
+     * The eventCreatedOn of the newest event handed out.
+     *
+     * @return seconds since the epoch.
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Where the first poll should start, defaults to the time the source is first opened.
+     *
+     * @param since seconds since the epoch.
+     */
+    public void setSince(long since) {
+        this.since = since;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        if (since <= 0) {
+            since = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        }
+        closed = false;
+        return new InputStream() {
+            private byte[] page = new byte[0];
+            private int pos = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int count = read(b, 0, 1);
+                if (count < 0) {
+                    return -1;
+                }
+                return b[0] & BYTE_MASK;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (pos >= page.length) {
+                    if (closed) {
+                        return -1;
+                    }
+                    page = poll();
+                    pos = 0;
+                    if (page.length == 0) {
+                        sleep(currentInterval);
+                        currentInterval = Math.max(pollInterval, Math.min(maxPollInterval, currentInterval * 2));
+                    } else {
+                        currentInterval = pollInterval;
+                    }
+                }
+                int count = Math.min(len, page.length - pos);
+                System.arraycopy(page, pos, b, off, count);
+                pos += count;
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return page.length - pos;
+            }
+        };
+    }
+
+    /**
+     * Fetches the events since the newest one seen.
+     *
+     * @return the new events, one per line.
+     * @throws IOException if the request fails.
+     */
+    private byte[] poll() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 1;
+        client.fetch(since, now, new LineFramer.LineSink() {
+            @Override
+            public void onLine(byte[] line) {
+                synchronized (recent) {
+                    if (recent.put(EventDeduplicator.fingerprint(line), Boolean.TRUE) != null) {
+                        return;
+                    }
+                }
+                since = Math.max(since, EventLines.eventCreatedOn(line));
+                out.write(line, 0, line.length);
+                out.write('\n');
+            }
+        });
+        return out.toByteArray();
+    }
+
+    /**
+     * Waits for the next poll.
+     *
+     * @param interval the time to wait in ms.
+     * @throws InterruptedIOException if interrupted.
+     */
+    private void sleep(long interval) throws InterruptedIOException {
+        long until = System.currentTimeMillis() + interval;
+        while (!closed && System.currentTimeMillis() < until) {
+            try {
+                Thread.sleep(Math.min(interval, CLOSE_CHECK_INTERVAL));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the next poll");
+            }
+        }
+    }
+
+    @Override
+    public Provider getProvider() {
+        return provider;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
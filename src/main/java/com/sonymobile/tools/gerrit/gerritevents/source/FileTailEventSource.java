@@ -0,0 +1,217 @@
+package com.sonymobile.tools.gerrit.gerritevents.source;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Follows a local file that events are appended to, one JSON object per line.
+ * <p>
+ * The offset of the end of the last complete line read is tracked, and reading continues from there when the
+ * source is reopened. Save {@link #getOffset()} and restore it with {@link #setOffset(long)} to continue
+ * where a previous run stopped. When another file has taken the place of the one being read, told by the file key
+ * (the inode on unix) or the creation time where there is no file key, the rest of the old file is read and then
+ * the new one from the start. A file that gets shorter than the offset is taken to have been truncated,
+ * and is read from the start.
+ */
+public class FileTailEventSource implements GerritEventSource {
+
+    /**
+     * The default time in ms between checks for more data at the end of the file.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 500;
+    private static final int BYTE_MASK = 0xff;
+    private static final Logger logger = LoggerFactory.getLogger(FileTailEventSource.class);
+
+    private final File file;
+    private final Provider provider;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private volatile long offset = 0;
+    private RandomAccessFile current;
+    private Object identity;
+    private volatile boolean closed = true;
+
+    /**
+     * Constructor.
+     *
+     * @param file     the file to follow.
+     * @param provider the server the events come from.
+     */
+    public FileTailEventSource(File file, Provider provider) {
+        this.file = file;
+        this.provider = provider;
+    }
+
+    /**
+     * Sets the time between checks for more data.
+     *
+     * @param pollInterval the time in ms.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * The offset of the end of the last complete line that has been read.
+     *
+     * @return the offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Where to continue reading the next time the source is opened.
+     *
+     * @param offset the offset, the start of a line.
+     */
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    @Override
+    public synchronized InputStream open() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        Object opened = identify();
+        if (identity != null && !identity.equals(opened)) {
+            logger.info("{} has been replaced, reading the new file from the start.", file);
+            offset = 0;
+        } else if (raf.length() < offset) {
+            logger.info("{} is shorter than the offset {}, reading it from the start.", file, offset);
+            offset = 0;
+        }
+        identity = opened;
+        raf.seek(offset);
+        current = raf;
+        closed = false;
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int count = read(b, 0, 1);
+                if (count < 0) {
+                    return -1;
+                }
+                return b[0] & BYTE_MASK;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (!closed) {
+                    long position = raf.getFilePointer();
+                    if (raf.length() < position) {
+                        logger.info("{} was truncated, reading it from the start.", file);
+                        raf.seek(0);
+                        offset = 0;
+                        position = 0;
+                    }
+                    int count = raf.read(b, off, len);
+                    if (count > 0) {
+                        commit(position, b, off, count);
+                        return count;
+                    }
+                    if (isReplaced()) {
+                        //All of the old file has been read, the next open continues with the new one.
+                        return -1;
+                    }
+                    try {
+                        Thread.sleep(pollInterval);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for more data");
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int)Math.max(0, Math.min(Integer.MAX_VALUE, raf.length() - raf.getFilePointer()));
+            }
+        };
+    }
+
+    /**
+     * What tells the file at the path apart from a file taking its place:
+     * the file key where there is one, otherwise the creation time.
+     *
+     * @return the identity.
+     * @throws IOException if the attributes can't be read.
+     */
+    private Object identify() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        if (attributes.fileKey() != null) {
+            return attributes.fileKey();
+        }
+        return attributes.creationTime();
+    }
+
+    /**
+     * If another file is at the path than the one opened.
+     *
+     * @return true if so, false if it is the same or there is no file there yet.
+     */
+    private synchronized boolean isReplaced() {
+        if (closed || identity == null) {
+            return false;
+        }
+        try {
+            return !identity.equals(identify());
+        } catch (NoSuchFileException ex) {
+            //Moved away, but the new one isn't there yet.
+            return false;
+        } catch (IOException ex) {
+            logger.debug("Could not read the attributes of {}", file, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Moves the offset to after the last line terminator of the bytes read.
+     *
+     * @param position where the bytes were read from.
+     * @param b        the buffer.
+     * @param off      where the bytes start in the buffer.
+     * @param count    the number of bytes read.
+     */
+    private void commit(long position, byte[] b, int off, int count) {
+        for (int i = off + count - 1; i >= off; i--) {
+            if (b[i] == '\n') {
+                offset = position + (i - off) + 1;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Provider getProvider() {
+        return provider;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ex) {
+                logger.warn("Error when closing " + file, ex);
+            }
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.sonymobile.tools.gerrit.gerritevents.source;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A transport that delivers the events of a Gerrit server as newline delimited JSON,
+ * the same format as <code>gerrit stream-events</code>.
+ * <p>
+ * A source only has to open the transport and hand out the raw bytes.
+ * Framing the lines, posting them to the handler, the watchdog and reconnecting
+ * are done the same way for all sources, see {@link com.sonymobile.tools.gerrit.gerritevents.EventSourceConnection}.
+ * A source that also is a {@link com.sonymobile.tools.gerrit.gerritevents.watchdog.LivenessProbe} is probed before
+ * the watchdog reconnects it, when adaptive liveness is enabled.
+ */
+public interface GerritEventSource {
+
+    /**
+     * Opens the transport. Called again after {@link #close()} to reconnect.
+     *
+     * @return the stream of events, blocking until there is more to read and ending when the transport is lost.
+     * @throws IOException if the transport could not be opened.
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * The server the events come from, called after {@link #open()}.
+     *
+     * @return the provider.
+     */
+    Provider getProvider();
+
+    /**
+     * If what was opened is still open, for readers that only read what is {@link InputStream#available()}
+     * and so never see the end of the stream.
+     *
+     * @return true if so.
+     */
+    boolean isOpen();
+
+    /**
+     * Closes what was opened. May be called from another thread than the one reading,
+     * and must then make the blocked read return.
+     */
+    void close();
+}
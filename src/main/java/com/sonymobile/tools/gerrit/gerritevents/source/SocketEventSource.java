@@ -0,0 +1,83 @@
+package com.sonymobile.tools.gerrit.gerritevents.source;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Newline delimited JSON events read from a TCP socket, for example from a broker relaying stream-events.
+ */
+public class SocketEventSource implements GerritEventSource {
+
+    /**
+     * The default connect timeout in ms.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final Logger logger = LoggerFactory.getLogger(SocketEventSource.class);
+
+    private final String host;
+    private final int port;
+    private final Provider provider;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private Socket socket;
+
+    /**
+     * Constructor.
+     *
+     * @param host     the host to connect to.
+     * @param port     the port to connect to.
+     * @param provider the server the events come from.
+     */
+    public SocketEventSource(String host, int port, Provider provider) {
+        this.host = host;
+        this.port = port;
+        this.provider = provider;
+    }
+
+    /**
+     * Sets the connect timeout.
+     *
+     * @param connectTimeout the timeout in ms, 0 to wait forever.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        Socket current = new Socket();
+        synchronized (this) {
+            socket = current;
+        }
+        current.setKeepAlive(true);
+        current.connect(new InetSocketAddress(host, port), connectTimeout);
+        return current.getInputStream();
+    }
+
+    @Override
+    public Provider getProvider() {
+        return provider;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return socket != null && !socket.isClosed() && !socket.isInputShutdown();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                logger.warn("Error when closing the socket.", ex);
+            }
+            socket = null;
+        }
+    }
+}
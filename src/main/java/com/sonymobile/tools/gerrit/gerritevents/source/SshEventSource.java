@@ -0,0 +1,323 @@
+package com.sonymobile.tools.gerrit.gerritevents.source;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.sonymobile.tools.gerrit.gerritevents.EndpointSelector;
+import com.sonymobile.tools.gerrit.gerritevents.GerritConnection;
+import com.sonymobile.tools.gerrit.gerritevents.GerritDefaultValues;
+import com.sonymobile.tools.gerrit.gerritevents.GerritEndpoint;
+import com.sonymobile.tools.gerrit.gerritevents.ServerCapabilities;
+import com.sonymobile.tools.gerrit.gerritevents.ServerCapabilitiesCache;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.AuthenticationUpdater;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnectionFactory;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.LivenessProbe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The events from <code>gerrit stream-events</code> over ssh.
+ * <p>
+ * Each open tries the endpoints of the server in order of preference, see {@link EndpointSelector}, and fails
+ * only when all of them have failed. The version of the server is taken from the {@link ServerCapabilitiesCache}.
+ * As a {@link LivenessProbe} it asks the server for its version on the open session.
+ * <p>
+ * Only opening is synchronized. {@link #close()} does not wait for an open in progress; it disconnects the session
+ * being connected, and the open fails.
+ */
+public class SshEventSource implements GerritEventSource, LivenessProbe {
+
+    private static final String VERSION_COMMAND = "gerrit version";
+    private static final Logger logger = LoggerFactory.getLogger(SshEventSource.class);
+
+    private final String name;
+    private final String proxy;
+    private final String frontEndUrl;
+    private final Authentication authentication;
+    private final Random random = new Random();
+    private volatile List<GerritEndpoint> endpoints;
+    private volatile AuthenticationUpdater authenticationUpdater;
+    private volatile String providerHost;
+    private volatile int providerPort;
+    private volatile GerritEndpoint currentEndpoint;
+    private volatile ServerCapabilities capabilities;
+    private volatile SshConnection ssh;
+    private volatile SshConnection connecting;
+    private volatile ChannelExec channel;
+    private volatile Provider provider;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param name           the name of the server.
+     * @param hostName       the host name.
+     * @param sshPort        the ssh port.
+     * @param proxy          the proxy url socks5|http://host:port.
+     * @param frontEndUrl    the front end url.
+     * @param authentication the credentials.
+     */
+    public SshEventSource(String name, String hostName, int sshPort, String proxy, String frontEndUrl,
+                          Authentication authentication) {
+        this(name, Collections.singletonList(new GerritEndpoint(hostName, sshPort)), proxy, frontEndUrl,
+                authentication);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param name           the name of the server.
+     * @param endpoints      the ssh endpoints of the server in order of preference.
+     * @param proxy          the proxy url socks5|http://host:port.
+     * @param frontEndUrl    the front end url.
+     * @param authentication the credentials.
+     */
+    public SshEventSource(String name, List<GerritEndpoint> endpoints, String proxy, String frontEndUrl,
+                          Authentication authentication) {
+        this.name = name;
+        this.proxy = proxy;
+        this.frontEndUrl = frontEndUrl;
+        this.authentication = authentication;
+        setEndpoints(endpoints);
+    }
+
+    /**
+     * Sets {@link AuthenticationUpdater}.
+     *
+     * @param authenticationUpdater The {@link AuthenticationUpdater}.
+     */
+    public void setAuthenticationUpdater(AuthenticationUpdater authenticationUpdater) {
+        this.authenticationUpdater = authenticationUpdater;
+    }
+
+    /**
+     * Sets the host name and port told in the {@link Provider} of the events, the configured address of the
+     * server rather than the endpoint connected to, so that events from the same server look the same whichever
+     * endpoint they came through.
+     *
+     * @param hostName the host name, null for the one of the endpoint connected to.
+     * @param sshPort  the ssh port.
+     */
+    public void setProviderAddress(String hostName, int sshPort) {
+        this.providerHost = hostName;
+        this.providerPort = sshPort;
+    }
+
+    /**
+     * Sets the ssh endpoints of the server in order of preference, takes effect at the next open.
+     *
+     * @param endpoints the endpoints.
+     */
+    public void setEndpoints(List<GerritEndpoint> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is needed");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<GerritEndpoint>(endpoints));
+    }
+
+    /**
+     * The ssh endpoints of the server in order of preference.
+     *
+     * @return the endpoints.
+     */
+    public List<GerritEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * The endpoint of the current or latest session.
+     *
+     * @return the endpoint or null if never opened.
+     */
+    public GerritEndpoint getCurrentEndpoint() {
+        return currentEndpoint;
+    }
+
+    /**
+     * What the server supports, as found out at the latest open.
+     *
+     * @return the capabilities or null if never opened.
+     */
+    public ServerCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public synchronized InputStream open() throws IOException {
+        closed = false;
+        SshConnection connection = connect();
+        ssh = connection;
+        connecting = null;
+        String version = capabilities.getVersion();
+        if (version == null) {
+            version = "";
+        }
+        String host = providerHost;
+        int port = providerPort;
+        if (host == null) {
+            host = currentEndpoint.getHost();
+            port = currentEndpoint.getPort();
+        }
+        provider = new Provider(name, host, String.valueOf(port),
+                GerritConnection.GERRIT_PROTOCOL_SCHEME_NAME, frontEndUrl, version);
+        logger.trace("Executing stream-events command.");
+        try {
+            ChannelExec exec = connection.executeCommandChannel(GerritConnection.CMD_STREAM_EVENTS, false);
+            if (exec == null) {
+                throw new IOException("Cannot open SSH channel.");
+            }
+            channel = exec;
+            InputStream in = exec.getInputStream();
+            exec.connect();
+            checkClosed();
+            return in;
+        } catch (JSchException ex) {
+            checkClosed();
+            throw new IOException("Cannot open SSH channel.", ex);
+        }
+    }
+
+    /**
+     * Fails the open in progress if the source has been closed meanwhile, making sure nothing it has connected
+     * so far is left behind.
+     *
+     * @throws IOException if closed.
+     */
+    private void checkClosed() throws IOException {
+        if (closed) {
+            close();
+            throw new IOException("The source of " + name + " was closed while opening.");
+        }
+    }
+
+    /**
+     * Connects to the first of the endpoints that answers.
+     *
+     * @return the connection.
+     * @throws IOException if none of them did.
+     */
+    private SshConnection connect() throws IOException {
+        EndpointSelector selector = new EndpointSelector(endpoints, random);
+        IOException failure = null;
+        GerritEndpoint endpoint;
+        while (!closed && (endpoint = selector.next()) != null) {
+            SshConnection connection = null;
+            long start = System.nanoTime();
+            try {
+                logger.debug("Connecting to {}...", endpoint);
+                connection = SshConnectionFactory.createConnection(endpoint.getHost(), endpoint.getPort(), proxy,
+                        authentication, authenticationUpdater,
+                        GerritDefaultValues.DEFAULT_GERRIT_SSH_CONNECTION_TIMEOUT);
+                connecting = connection;
+                checkClosed();
+                connection.connect();
+                checkClosed();
+                capabilities = ServerCapabilitiesCache.getInstance().get(authentication.getUsername(),
+                        endpoint.getHost(), endpoint.getPort(), connection);
+                endpoint.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                selector.connected();
+                currentEndpoint = endpoint;
+                if (!selector.isPreferred(endpoint)) {
+                    logger.warn("Connected to {} through the fallback endpoint {}.", name, endpoint);
+                }
+                return connection;
+            } catch (IOException ex) {
+                if (closed) {
+                    disconnect(connection);
+                    throw new IOException("The source of " + name + " was closed while opening.", ex);
+                }
+                logger.error("Could not connect to {} at {}, proxy: {}, user: {}, key file: {}", new Object[]{
+                        name, endpoint, proxy, authentication.getUsername(), authentication.getPrivateKeyFile(), });
+                logger.error("Connection error: ", ex);
+                failure = ex;
+            }
+            endpoint.recordFailure(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            selector.failed(endpoint);
+            //The ssh lib used is starting at least one thread for each connection.
+            //The thread isn't shutdown properly when the connection goes down,
+            //so we need to close it "manually"
+            disconnect(connection);
+        }
+        checkClosed();
+        throw new IOException("Could not connect to any of the endpoints of " + name, failure);
+    }
+
+    /**
+     * Disconnects a connection, if there is one.
+     *
+     * @param connection the connection or null.
+     */
+    private static void disconnect(SshConnection connection) {
+        if (connection != null) {
+            try {
+                connection.disconnect();
+            } catch (Exception ex) {
+                logger.warn("Error when disconnecting sshConnection.", ex);
+            }
+        }
+    }
+
+    @Override
+    public Provider getProvider() {
+        return provider;
+    }
+
+    @Override
+    public boolean isOpen() {
+        SshConnection current = ssh;
+        if (current == null || !current.isConnected()) {
+            return false;
+        }
+        ChannelExec exec = channel;
+        return exec != null && !exec.isClosed();
+    }
+
+    @Override
+    public boolean probe() {
+        SshConnection current = ssh;
+        if (current == null || !current.isConnected()) {
+            return false;
+        }
+        try {
+            return current.executeCommand(VERSION_COMMAND) != null;
+        } catch (IOException ex) {
+            logger.debug("The liveness probe failed.", ex);
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Does not wait for an open in progress, the session it is connecting is disconnected and the open fails.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ChannelExec exec = channel;
+        channel = null;
+        if (exec != null) {
+            try {
+                exec.disconnect();
+            } catch (Exception ex) {
+                logger.warn("Error when disconnecting SSH command channel.", ex);
+            }
+        }
+        SshConnection current = ssh;
+        ssh = null;
+        disconnect(current);
+        SshConnection pending = connecting;
+        connecting = null;
+        disconnect(pending);
+    }
+}
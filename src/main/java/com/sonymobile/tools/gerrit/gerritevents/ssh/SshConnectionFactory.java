@@ -136,8 +136,29 @@ public abstract class SshConnectionFactory {
     public static SshConnection getConnection(String host, int port, String proxy,
                                               Authentication authentication,
                                               AuthenticationUpdater updater, int connectionTimeout) throws IOException {
-        SshConnection connection = new SshConnectionImpl(host, port, proxy, authentication, updater, connectionTimeout);
+        SshConnection connection = createConnection(host, port, proxy, authentication, updater, connectionTimeout);
         connection.connect();
         return connection;
     }
+
+    /**
+     * Creates a {@link SshConnection} without connecting it, so that whoever calls {@link SshConnection#connect()}
+     * can be disconnected from another thread while it is connecting.
+     *
+     * @param host           the host name
+     * @param port           the port
+     * @param proxy          the proxy url
+     * @param authentication the credentials
+     * @param updater        the updater.
+     * @param connectionTimeout the connection timeout.
+     * @return a new connection, not connected yet.
+     *
+     * @see SshConnection
+     * @see SshConnectionImpl
+     */
+    public static SshConnection createConnection(String host, int port, String proxy,
+                                                 Authentication authentication,
+                                                 AuthenticationUpdater updater, int connectionTimeout) {
+        return new SshConnectionImpl(host, port, proxy, authentication, updater, connectionTimeout);
+    }
 }
@@ -27,6 +27,7 @@ package com.sonymobile.tools.gerrit.gerritevents.ssh;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -39,6 +40,7 @@ import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.HostKey;
 import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.Identity;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.ProxyHTTP;
@@ -76,7 +78,8 @@ public class SshConnectionImpl implements SshConnection {
      */
     protected static final int PROTO_HOST_DELIM_LENGTH = 3;
     private JSch client;
-    private Session connectSession;
+    private volatile Session connectSession;
+    private volatile boolean disconnected = false;
     private String host;
     private int port;
     private String proxy;
@@ -150,21 +153,28 @@ public class SshConnectionImpl implements SshConnection {
 
     /**
      * Connects the connection.
+     * A {@link #disconnect()} from another thread makes it fail instead of waiting for it.
      * @throws IOException if the unfortunate happens.
      */
     @Override
     public synchronized void connect() throws IOException {
         logger.debug("connecting...");
+        disconnected = false;
         Authentication auth = authentication;
         if (updater != null) {
             Authentication updatedAuth = updater.updateAuthentication(authentication);
             if (updatedAuth != null && auth != updatedAuth) {
+                //The credentials have been rotated, don't keep the old key around.
+                SshIdentityCache.invalidate(auth);
                 auth = updatedAuth;
             }
         }
         try {
             client = new JSch();
-            if (auth.getPrivateKeyPhrase() == null) {
+            Identity identity = SshIdentityCache.getIdentity(client, auth);
+            if (identity != null) {
+                client.addIdentity(identity, null);
+            } else if (auth.getPrivateKeyPhrase() == null) {
                 client.addIdentity(auth.getPrivateKeyFile().getAbsolutePath(),
                         auth.getPrivateKeyFilePassword());
             } else {
@@ -172,8 +182,9 @@ public class SshConnectionImpl implements SshConnection {
                         auth.getPrivateKeyFilePassword().getBytes("UTF-8"));
             }
             client.setHostKeyRepository(new BlindHostKeyRepository());
-            connectSession = client.getSession(auth.getUsername(), host, port);
-            connectSession.setConfig("PreferredAuthentications", "publickey");
+            Session session = client.getSession(auth.getUsername(), host, port);
+            connectSession = session;
+            session.setConfig("PreferredAuthentications", "publickey");
             if (proxy != null && !proxy.isEmpty()) {
                 String[] splitted = proxy.split(":");
                 if (splitted.length > 2 && splitted[1].length() >= PROTO_HOST_DELIM_LENGTH) {
@@ -182,9 +193,9 @@ public class SshConnectionImpl implements SshConnection {
                     int pport = Integer.parseInt(splitted[2]);
                     if (pproto.equals("socks5") || pproto.equals("http")) {
                         if (pproto.equals("socks5")) {
-                             connectSession.setProxy(new ProxySOCKS5(phost, pport));
+                             session.setProxy(new ProxySOCKS5(phost, pport));
                         } else {
-                             connectSession.setProxy(new ProxyHTTP(phost, pport));
+                             session.setProxy(new ProxyHTTP(phost, pport));
                         }
                     } else {
                         throw new MalformedURLException("Only http and socks5 protocols are supported");
@@ -193,9 +204,16 @@ public class SshConnectionImpl implements SshConnection {
                     throw new MalformedURLException(proxy);
                 }
             }
-            connectSession.connect(this.connectionTimeout);
-            logger.debug("Connected: {}", connectSession.isConnected());
-            connectSession.setServerAliveInterval(ALIVE_INTERVAL);
+            if (disconnected) {
+                throw new SshException("Disconnected while connecting.");
+            }
+            session.connect(this.connectionTimeout);
+            if (disconnected) {
+                session.disconnect();
+                throw new SshException("Disconnected while connecting.");
+            }
+            logger.debug("Connected: {}", session.isConnected());
+            session.setServerAliveInterval(ALIVE_INTERVAL);
         } catch (JSchException ex) {
             throw new SshException(ex);
         }
@@ -219,7 +237,23 @@ public class SshConnectionImpl implements SshConnection {
         */
     @Override
     public synchronized boolean isAuthenticated() {
-        return client != null && connectSession != null && connectSession.isConnected();
+        Session session = connectSession;
+        return client != null && session != null && session.isConnected();
+    }
+
+    /**
+     * The session to open channels on.
+     * Only getting hold of the session is synchronized, the channels themselves can be used
+     * concurrently so several commands can run over the same session at once.
+     *
+     * @return the session or null if not connected.
+     */
+    private synchronized Session getConnectedSession() {
+        Session session = connectSession;
+        if (client != null && session != null && session.isConnected()) {
+            return session;
+        }
+        return null;
     }
 
     /**
@@ -231,15 +265,16 @@ public class SshConnectionImpl implements SshConnection {
          * @throws SshException if so.
          */
     @Override
-    public synchronized String executeCommand(String command) throws SshException {
-        if (!isConnected()) {
+    public String executeCommand(String command) throws SshException {
+        Session session = getConnectedSession();
+        if (session == null) {
             throw new IllegalStateException("Not connected!");
         }
 
         Channel channel = null;
         try {
             logger.debug("Opening channel");
-            channel = connectSession.openChannel(CMD_EXEC);
+            channel = session.openChannel(CMD_EXEC);
             ((ChannelExec)channel).setCommand(command);
 
             ByteArrayOutputStream errOut = new ByteArrayOutputStream();
@@ -313,11 +348,12 @@ public class SshConnectionImpl implements SshConnection {
         }
     };
 
-    //CS IGNORE RedundantThrows FOR NEXT 14 LINES. REASON: Informative.
+    //CS IGNORE RedundantThrows FOR NEXT 15 LINES. REASON: Informative.
 
     /**
      * Execute an ssh command on the server, without closing the session
      * so that a Reader can be returned with streaming data from the server.
+     * Closing the reader closes the channel, which stops the command if it is still running.
      *
      * @param command the command to execute.
      * @return a Reader with streaming data from the server.
@@ -325,16 +361,26 @@ public class SshConnectionImpl implements SshConnection {
      * @throws SshException if there are any ssh problems.
      */
     @Override
-    public synchronized Reader executeCommandReader(String command) throws SshException, IOException {
-        if (!isConnected()) {
+    public Reader executeCommandReader(String command) throws SshException, IOException {
+        Session session = getConnectedSession();
+        if (session == null) {
             throw new IllegalStateException("Not connected!");
         }
         try {
-            Channel channel = connectSession.openChannel("exec");
+            final Channel channel = session.openChannel("exec");
             ((ChannelExec)channel).setCommand(command);
             InputStreamReader reader = new InputStreamReader(channel.getInputStream(), "utf-8");
             channel.connect();
-            return reader;
+            return new FilterReader(reader) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        channel.disconnect();
+                    }
+                }
+            };
         } catch (JSchException ex) {
             throw new SshException(ex);
         }
@@ -374,13 +420,14 @@ public class SshConnectionImpl implements SshConnection {
      * @see #executeCommandReader(String)
      */
     @Override
-    public synchronized ChannelExec executeCommandChannel(String command, Boolean establishConnection)
+    public ChannelExec executeCommandChannel(String command, Boolean establishConnection)
             throws SshException, IOException {
-        if (!isConnected()) {
+        Session session = getConnectedSession();
+        if (session == null) {
             throw new IOException("Not connected!");
         }
         try {
-            ChannelExec channel = (ChannelExec)connectSession.openChannel("exec");
+            ChannelExec channel = (ChannelExec)session.openChannel("exec");
             channel.setCommand(command);
             if (establishConnection) {
                 channel.connect();
@@ -392,14 +439,16 @@ public class SshConnectionImpl implements SshConnection {
     }
 
     /**
-        * Disconnects the connection.
+        * Disconnects the connection, also while it is connecting, without waiting for it.
         */
     @Override
-    public synchronized void disconnect() {
-        if (connectSession != null) {
+    public void disconnect() {
+        disconnected = true;
+        Session session = connectSession;
+        connectSession = null;
+        if (session != null) {
             logger.debug("Disconnecting client connection.");
-            connectSession.disconnect();
-            connectSession = null;
+            session.disconnect();
         }
     }
 
@@ -0,0 +1,261 @@
+package com.sonymobile.tools.gerrit.gerritevents.ssh;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.KeyPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of parsed and decrypted private keys, shared by all {@link SshConnectionImpl}s.
+ * Parsing a key, and running the key derivation of an encrypted one, is only done on the first connect.
+ * A cached key file is parsed again when its modification time or size changes,
+ * or when another passphrase is used with it.
+ */
+public final class SshIdentityCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SshIdentityCache.class);
+    private static final int LENGTH_SIZE = 4;
+    private static final int BYTE_MASK = 0xff;
+    private static final int BYTE_BITS = 8;
+    private static final ConcurrentMap<String, Entry> CACHE = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Private constructor to hinder instantiation.
+     */
+    private SshIdentityCache() {
+        throw new UnsupportedOperationException("Cannot instantiate util classes.");
+    }
+
+    /**
+     * Gets the identity of the authentication, parsing the key only if it isn't cached already.
+     * Keys that can't be decrypted with the given passphrase, or that have no public key,
+     * are not cached and null is returned so that the caller can fall back to let JSch deal with it.
+     *
+     * @param client         the JSch instance to parse with.
+     * @param authentication the authentication.
+     * @return the identity or null if the key could not be cached.
+     * @throws JSchException if the key could not be parsed.
+     */
+    public static Identity getIdentity(JSch client, Authentication authentication) throws JSchException {
+        String key = toKey(authentication);
+        String stamp = toStamp(authentication);
+        Entry entry = CACHE.get(key);
+        if (entry != null && entry.stamp.equals(stamp)) {
+            return entry.identity;
+        }
+        KeyPair keyPair;
+        String name;
+        if (authentication.getPrivateKeyPhrase() == null) {
+            name = authentication.getPrivateKeyFile().getAbsolutePath();
+            keyPair = KeyPair.load(client, name);
+        } else {
+            name = authentication.getUsername();
+            keyPair = KeyPair.load(client, authentication.getPrivateKeyPhrase(), null);
+        }
+        String password = authentication.getPrivateKeyFilePassword();
+        if (keyPair.isEncrypted()
+                && (password == null || !keyPair.decrypt(password.getBytes(StandardCharsets.UTF_8)))) {
+            logger.debug("Could not decrypt {}, not caching it.", name);
+            keyPair.dispose();
+            return null;
+        }
+        CachedIdentity identity = new CachedIdentity(name, keyPair);
+        if (identity.getAlgName() == null) {
+            logger.debug("No public key could be found for {}, not caching it.", name);
+            return null;
+        }
+        logger.debug("Caching parsed private key {}", name);
+        entry = new Entry(stamp, identity);
+        CACHE.put(key, entry);
+        return entry.identity;
+    }
+
+    /**
+     * Removes the cached key of the authentication, for example when the credentials are rotated.
+     *
+     * @param authentication the authentication.
+     */
+    public static void invalidate(Authentication authentication) {
+        if (authentication == null) {
+            return;
+        }
+        CACHE.remove(toKey(authentication));
+    }
+
+    /**
+     * Removes all cached keys.
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * The cache key, the key file or a hash of the in memory key.
+     *
+     * @param authentication the authentication.
+     * @return the key.
+     */
+    private static String toKey(Authentication authentication) {
+        if (authentication.getPrivateKeyPhrase() == null) {
+            return "file:" + authentication.getPrivateKeyFile().getAbsolutePath();
+        } else {
+            return "phrase:" + authentication.getUsername() + ":" + sha256(authentication.getPrivateKeyPhrase());
+        }
+    }
+
+    /**
+     * What makes a cached key stale, the file's modification time and size and the passphrase.
+     *
+     * @param authentication the authentication.
+     * @return the stamp.
+     */
+    private static String toStamp(Authentication authentication) {
+        StringBuilder stamp = new StringBuilder();
+        if (authentication.getPrivateKeyPhrase() == null) {
+            File file = authentication.getPrivateKeyFile();
+            stamp.append(file.lastModified()).append(':').append(file.length()).append(':');
+        }
+        String password = authentication.getPrivateKeyFilePassword();
+        if (password != null) {
+            stamp.append(sha256(password.getBytes(StandardCharsets.UTF_8)));
+        }
+        return stamp.toString();
+    }
+
+    /**
+     * Hex encoded SHA-256 of the data, so that no secrets are kept in the cache keys.
+     *
+     * @param data the data.
+     * @return the hash.
+     */
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * A cached key.
+     */
+    private static final class Entry {
+        private final String stamp;
+        private final CachedIdentity identity;
+
+        /**
+         * Constructor.
+         *
+         * @param stamp    what makes the key stale.
+         * @param identity the parsed key.
+         */
+        Entry(String stamp, CachedIdentity identity) {
+            this.stamp = stamp;
+            this.identity = identity;
+        }
+    }
+
+    /**
+     * A decrypted key pair that can be added to any number of JSch instances.
+     * Clearing it from one of them does nothing, a connection could still be signing with it.
+     */
+    static final class CachedIdentity implements Identity {
+        private final String name;
+        private final KeyPair keyPair;
+        private final String algName;
+
+        /**
+         * Constructor.
+         *
+         * @param name    the name of the key.
+         * @param keyPair the decrypted key pair.
+         */
+        CachedIdentity(String name, KeyPair keyPair) {
+            this.name = name;
+            this.keyPair = keyPair;
+            this.algName = readAlgName(keyPair.getPublicKeyBlob());
+        }
+
+        /**
+         * The algorithm name is the first string of the public key blob.
+         *
+         * @param blob the public key blob.
+         * @return the name or null if there is no blob.
+         */
+        private static String readAlgName(byte[] blob) {
+            if (blob == null || blob.length < LENGTH_SIZE) {
+                return null;
+            }
+            int length = 0;
+            for (int i = 0; i < LENGTH_SIZE; i++) {
+                length = (length << BYTE_BITS) | (blob[i] & BYTE_MASK);
+            }
+            if (length < 0 || length > blob.length - LENGTH_SIZE) {
+                return null;
+            }
+            return new String(blob, LENGTH_SIZE, length, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public boolean setPassphrase(byte[] passphrase) {
+            return true;
+        }
+
+        @Override
+        public byte[] getPublicKeyBlob() {
+            return keyPair.getPublicKeyBlob();
+        }
+
+        @Override
+        public byte[] getSignature(byte[] data) {
+            return keyPair.getSignature(data);
+        }
+
+        /**
+         * Tells if the key pair is decrypted, which a cached one always is.
+         *
+         * @return true if the key pair can sign.
+         * @deprecated like {@link Identity#decrypt()}, JSch only calls it for identities that are encrypted.
+         */
+        @Override
+        @Deprecated
+        @SuppressWarnings("deprecation")
+        public boolean decrypt() {
+            return !keyPair.isEncrypted();
+        }
+
+        @Override
+        public String getAlgName() {
+            return algName;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isEncrypted() {
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            //Shared between connections.
+        }
+    }
+}
@@ -0,0 +1,699 @@
+package com.sonymobile.tools.gerrit.gerritevents.ssh;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.sonymobile.tools.gerrit.gerritevents.GerritDefaultValues;
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of long lived ssh sessions, shared by everyone sending commands or queries to the same
+ * host, port, proxy and user. Each borrowed connection runs its commands as exec channels over one
+ * of the pooled sessions, so a command costs a channel open instead of a full handshake.
+ * <p>
+ * A session that has been idle for longer than {@link #DEFAULT_PROBE_AFTER_IDLE} is probed before it is handed out,
+ * by opening a channel that the server must answer within {@link #PROBE_TIMEOUT}. A session that doesn't answer
+ * is dropped, so a connection silently cut by a firewall or a restarted server doesn't hang the next command.
+ * <p>
+ * The pool is opt in, nothing uses it until {@link #initialize(int, int, long)} has been called.
+ * Connections returned by {@link #getConnection(String, int, String, Authentication, int)} must be
+ * handed back by calling {@link SshConnection#disconnect()} on them, just as with a non pooled connection.
+ * Sessions used by the stream-events connection are never pooled.
+ */
+public final class SshSessionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SshSessionPool.class);
+    /**
+     * The default maximum number of sessions per host.
+     */
+    public static final int DEFAULT_MAX_SESSIONS =
+            Integer.getInteger("gerritevents.SshSessionPool.DEFAULT_MAX_SESSIONS", 2);
+    /**
+     * The default maximum number of channels open at the same time on one session.
+     * OpenSSH allows ten by default, so stay a bit below that.
+     */
+    public static final int DEFAULT_MAX_CHANNELS_PER_SESSION =
+            Integer.getInteger("gerritevents.SshSessionPool.DEFAULT_MAX_CHANNELS_PER_SESSION", 8);
+    /**
+     * The default time in ms that a session without open channels is kept.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * How long in ms to wait for a free channel when all sessions are busy.
+     */
+    public static final long BORROW_TIMEOUT =
+            Long.getLong("gerritevents.SshSessionPool.BORROW_TIMEOUT", TimeUnit.MINUTES.toMillis(1));
+    /**
+     * The default time in ms that a session can be idle before it is probed when borrowed.
+     */
+    public static final long DEFAULT_PROBE_AFTER_IDLE =
+            Long.getLong("gerritevents.SshSessionPool.DEFAULT_PROBE_AFTER_IDLE", TimeUnit.SECONDS.toMillis(30));
+    /**
+     * How long in ms the server gets to answer the probe of an idle session.
+     */
+    public static final int PROBE_TIMEOUT =
+            Integer.getInteger("gerritevents.SshSessionPool.PROBE_TIMEOUT", (int)TimeUnit.SECONDS.toMillis(5));
+    /**
+     * The command of the probe channel, cheap and allowed for every Gerrit user.
+     */
+    private static final String PROBE_COMMAND = "gerrit version";
+    private static final long MIN_EVICTION_INTERVAL = 1000;
+
+    private static SshSessionPool instance;
+
+    private final int maxSessions;
+    private final int maxChannelsPerSession;
+    private final long idleTimeout;
+    private final long probeAfterIdle;
+    private final int probeTimeout;
+    private final Map<PoolKey, HostSessions> hosts = new HashMap<PoolKey, HostSessions>();
+    private final ScheduledExecutorService evictor;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSessions           the maximum number of sessions per host.
+     * @param maxChannelsPerSession the maximum number of channels open at the same time on one session.
+     * @param idleTimeout           the time in ms that a session without open channels is kept.
+     */
+    SshSessionPool(int maxSessions, int maxChannelsPerSession, long idleTimeout) {
+        this(maxSessions, maxChannelsPerSession, idleTimeout, DEFAULT_PROBE_AFTER_IDLE, PROBE_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxSessions           the maximum number of sessions per host.
+     * @param maxChannelsPerSession the maximum number of channels open at the same time on one session.
+     * @param idleTimeout           the time in ms that a session without open channels is kept.
+     * @param probeAfterIdle        the time in ms that a session can be idle before it is probed when borrowed.
+     * @param probeTimeout          the time in ms the server gets to answer the probe.
+     */
+    SshSessionPool(int maxSessions, int maxChannelsPerSession, long idleTimeout, long probeAfterIdle,
+                   int probeTimeout) {
+        if (maxSessions < 1 || maxChannelsPerSession < 1) {
+            throw new IllegalArgumentException("The pool needs room for at least one session and channel.");
+        }
+        this.maxSessions = maxSessions;
+        this.maxChannelsPerSession = maxChannelsPerSession;
+        this.idleTimeout = idleTimeout;
+        this.probeAfterIdle = probeAfterIdle;
+        this.probeTimeout = probeTimeout;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(
+                new NamedDaemonThreadFactory(SshSessionPool.class.getName() + "-eviction"));
+        long interval = Math.max(MIN_EVICTION_INTERVAL, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Initializes the singleton pool with the default settings, if it isn't already.
+     */
+    public static synchronized void initialize() {
+        initialize(DEFAULT_MAX_SESSIONS, DEFAULT_MAX_CHANNELS_PER_SESSION, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Initializes the singleton pool, if it isn't already.
+     *
+     * @param maxSessions           the maximum number of sessions per host.
+     * @param maxChannelsPerSession the maximum number of channels open at the same time on one session.
+     * @param idleTimeout           the time in ms that a session without open channels is kept.
+     */
+    public static synchronized void initialize(int maxSessions, int maxChannelsPerSession, long idleTimeout) {
+        if (instance == null) {
+            instance = new SshSessionPool(maxSessions, maxChannelsPerSession, idleTimeout);
+            logger.info("SSH session pool started with max {} sessions of {} channels per host.",
+                    maxSessions, maxChannelsPerSession);
+        }
+    }
+
+    /**
+     * If the singleton pool has been initialized.
+     *
+     * @return true if so.
+     */
+    public static synchronized boolean isActive() {
+        return instance != null;
+    }
+
+    /**
+     * The singleton instance of the pool, if it has been initialized.
+     *
+     * @return the instance or null.
+     */
+    private static synchronized SshSessionPool current() {
+        return instance;
+    }
+
+    /**
+     * Returns the singleton instance of the pool.
+     *
+     * @return the instance.
+     */
+    public static synchronized SshSessionPool getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("Need to initialize the instance first!");
+        }
+        return instance;
+    }
+
+    /**
+     * Disconnects all pooled sessions and removes the singleton instance.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 22 LINES. REASON: Informative
+
+    /**
+     * Borrows a connection from the singleton pool if it has been initialized,
+     * otherwise connects a new connection of its own, with the default connection timeout.
+     *
+     * @param host           the host name
+     * @param port           the port
+     * @param proxy          the proxy url
+     * @param authentication the credentials
+     * @return a connected connection.
+     * @throws IOException if it could not be connected.
+     * @see #connect(String, int, String, Authentication, int)
+     */
+    public static SshConnection connect(String host, int port, String proxy, Authentication authentication)
+            throws IOException {
+        SshSessionPool pool = current();
+        if (pool != null) {
+            return pool.getConnection(host, port, proxy, authentication,
+                    GerritDefaultValues.DEFAULT_GERRIT_SSH_CONNECTION_TIMEOUT);
+        }
+        return SshConnectionFactory.getConnection(host, port, proxy, authentication);
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 25 LINES. REASON: Informative
+
+    /**
+     * Borrows a connection from the singleton pool if it has been initialized,
+     * otherwise connects a new connection of its own.
+     * Either way {@link SshConnection#disconnect()} is what the caller does when done with it.
+     *
+     * @param host              the host name
+     * @param port              the port
+     * @param proxy             the proxy url
+     * @param authentication    the credentials
+     * @param connectionTimeout the connection timeout.
+     * @return a connected connection.
+     * @throws IOException if it could not be connected.
+     */
+    public static SshConnection connect(String host, int port, String proxy, Authentication authentication,
+                                        int connectionTimeout) throws IOException {
+        SshSessionPool pool = current();
+        if (pool != null) {
+            return pool.getConnection(host, port, proxy, authentication, connectionTimeout);
+        }
+        return SshConnectionFactory.getConnection(host, port, proxy, authentication, connectionTimeout);
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 28 LINES. REASON: Informative
+
+    /**
+     * Borrows a connection to the given host, connecting a new session only when needed.
+     * Call {@link SshConnection#disconnect()} on the returned connection to hand it back.
+     *
+     * @param host              the host name
+     * @param port              the port
+     * @param proxy             the proxy url
+     * @param authentication    the credentials
+     * @param connectionTimeout the connection timeout used when a new session is needed.
+     * @return a connected connection.
+     * @throws IOException  if a new session could not be connected.
+     * @throws SshException if no channel became free in time.
+     */
+    public SshConnection getConnection(String host, int port, String proxy, Authentication authentication,
+                                       int connectionTimeout) throws SshException, IOException {
+        PoolKey key = new PoolKey(host, port, proxy, authentication);
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+        while (true) {
+            HostSessions sessions;
+            PooledSession session;
+            synchronized (this) {
+                sessions = hosts.get(key);
+                if (sessions == null) {
+                    sessions = new HostSessions();
+                    hosts.put(key, sessions);
+                }
+                session = lease(sessions, host, port, deadline);
+            }
+            if (session == null) {
+                return connectSession(sessions, host, port, proxy, authentication, connectionTimeout);
+            }
+            if (!session.probing || answers(session)) {
+                return new PooledSshConnection(session);
+            }
+        }
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 15 LINES. REASON: Informative
+
+    /**
+     * Takes a lease on the least loaded session of the host, waiting for one to become free if need be.
+     * A session that has been idle for too long is marked to be probed by the caller before use.
+     *
+     * @param sessions the sessions of the host.
+     * @param host     the host name
+     * @param port     the port
+     * @param deadline when to stop waiting for a free channel.
+     * @return the leased session, or null if the caller should connect a new one.
+     * @throws SshException if the pool is shut down or no channel became free in time.
+     */
+    private synchronized PooledSession lease(HostSessions sessions, String host, int port, long deadline)
+            throws SshException {
+        while (true) {
+            if (closed) {
+                throw new SshException("The session pool is shut down.");
+            }
+            PooledSession session = sessions.leastLoaded(maxChannelsPerSession);
+            if (session != null) {
+                session.leases++;
+                if (session.leases == 1 && System.currentTimeMillis() - session.lastUsed >= probeAfterIdle) {
+                    session.probing = true;
+                }
+                return session;
+            }
+            if (sessions.size() < maxSessions) {
+                sessions.connecting++;
+                return null;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SshException("Timed out waiting for a free ssh channel to " + host + ":" + port);
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SshException("Interrupted while waiting for a free ssh channel", e);
+            }
+        }
+    }
+
+    /**
+     * Probes a leased idle session by opening a channel on it, outside of the lock so that it doesn't hold up
+     * borrowers of other sessions. A session that doesn't answer in time is dropped and its lease handed back.
+     *
+     * @param session the leased session.
+     * @return true if the session answered and can be used.
+     */
+    private boolean answers(PooledSession session) {
+        boolean alive = probe(session.connection);
+        synchronized (this) {
+            session.probing = false;
+            if (alive && !closed) {
+                session.lastUsed = System.currentTimeMillis();
+                notifyAll();
+                return true;
+            }
+            if (!alive) {
+                logger.debug("Dropping pooled session that did not answer the probe.");
+                session.owner.list.remove(session);
+            }
+            release(session);
+            return false;
+        }
+    }
+
+    /**
+     * Opens and closes a channel on the session, waiting at most the probe timeout for the server to answer.
+     *
+     * @param connection the session.
+     * @return true if the server answered.
+     */
+    private boolean probe(SshConnection connection) {
+        ChannelExec channel = null;
+        try {
+            channel = connection.executeCommandChannel(PROBE_COMMAND, false);
+            channel.connect(probeTimeout);
+            return true;
+        } catch (JSchException e) {
+            logger.debug("Probe of pooled session failed.", e);
+            return false;
+        } catch (IOException e) {
+            logger.debug("Probe of pooled session failed.", e);
+            return false;
+        } finally {
+            if (channel != null) {
+                channel.disconnect();
+            }
+        }
+    }
+
+    //CS IGNORE RedundantThrows FOR NEXT 18 LINES. REASON: Informative
+
+    /**
+     * Connects a new session for the host, the caller has counted it as connecting.
+     *
+     * @param sessions          the sessions of the host.
+     * @param host              the host name
+     * @param port              the port
+     * @param proxy             the proxy url
+     * @param authentication    the credentials
+     * @param connectionTimeout the connection timeout.
+     * @return a connection leased on the new session.
+     * @throws IOException  if the session could not be connected.
+     * @throws SshException if the pool was shut down meanwhile.
+     */
+    private SshConnection connectSession(HostSessions sessions, String host, int port, String proxy,
+                                         Authentication authentication, int connectionTimeout)
+            throws SshException, IOException {
+        //The handshake is done outside of the lock so it doesn't hold up borrowers of other sessions.
+        SshConnection connection = null;
+        try {
+            logger.debug("Connecting a new pooled session to {}:{}", host, port);
+            connection = SshConnectionFactory.getConnection(host, port, proxy, authentication, connectionTimeout);
+        } finally {
+            if (connection == null) {
+                synchronized (this) {
+                    sessions.connecting--;
+                    notifyAll();
+                }
+            }
+        }
+        synchronized (this) {
+            sessions.connecting--;
+            notifyAll();
+            if (closed) {
+                connection.disconnect();
+                throw new SshException("The session pool is shut down.");
+            }
+            PooledSession session = new PooledSession(sessions, connection);
+            session.leases++;
+            sessions.list.add(session);
+            return new PooledSshConnection(session);
+        }
+    }
+
+    /**
+     * The number of sessions currently pooled for all hosts.
+     *
+     * @return the number of sessions.
+     */
+    public synchronized int getSessionCount() {
+        int count = 0;
+        for (HostSessions sessions : hosts.values()) {
+            count += sessions.list.size();
+        }
+        return count;
+    }
+
+    /**
+     * Disconnects the sessions that have been without open channels for longer than the idle timeout.
+     */
+    void evictIdle() {
+        List<SshConnection> evicted = new ArrayList<SshConnection>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<HostSessions> hostIterator = hosts.values().iterator();
+            while (hostIterator.hasNext()) {
+                HostSessions sessions = hostIterator.next();
+                Iterator<PooledSession> it = sessions.list.iterator();
+                while (it.hasNext()) {
+                    PooledSession session = it.next();
+                    if (session.leases == 0 && now - session.lastUsed >= idleTimeout) {
+                        it.remove();
+                        evicted.add(session.connection);
+                    }
+                }
+                if (sessions.list.isEmpty() && sessions.connecting == 0) {
+                    hostIterator.remove();
+                }
+            }
+        }
+        for (SshConnection connection : evicted) {
+            logger.debug("Disconnecting idle pooled session.");
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Hands back a channel lease, disconnecting the session if it is no longer pooled.
+     *
+     * @param session the session the lease was on.
+     */
+    private synchronized void release(PooledSession session) {
+        session.leases--;
+        session.lastUsed = System.currentTimeMillis();
+        if (closed || !session.connection.isConnected()) {
+            session.owner.list.remove(session);
+        }
+        if (session.leases == 0 && !session.owner.list.contains(session)) {
+            session.connection.disconnect();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Disconnects all sessions without open channels, the rest are disconnected when handed back.
+     */
+    synchronized void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (HostSessions sessions : hosts.values()) {
+            for (PooledSession session : sessions.list) {
+                if (session.leases == 0) {
+                    session.connection.disconnect();
+                }
+            }
+            sessions.list.clear();
+        }
+        hosts.clear();
+        notifyAll();
+    }
+
+    /**
+     * The pool key of a host, sessions are only shared between borrowers with the very same credentials.
+     */
+    private static final class PoolKey {
+        private final String host;
+        private final int port;
+        private final String proxy;
+        private final String username;
+        private final File privateKeyFile;
+        private final String privateKeyFilePassword;
+        private final byte[] privateKeyPhrase;
+
+        /**
+         * Constructor.
+         *
+         * @param host           the host name
+         * @param port           the port
+         * @param proxy          the proxy url
+         * @param authentication the credentials
+         */
+        PoolKey(String host, int port, String proxy, Authentication authentication) {
+            this.host = host;
+            this.port = port;
+            if (proxy != null && proxy.isEmpty()) {
+                this.proxy = null;
+            } else {
+                this.proxy = proxy;
+            }
+            this.username = authentication.getUsername();
+            this.privateKeyFile = authentication.getPrivateKeyFile();
+            this.privateKeyFilePassword = authentication.getPrivateKeyFilePassword();
+            if (authentication.getPrivateKeyPhrase() != null) {
+                this.privateKeyPhrase = authentication.getPrivateKeyPhrase().clone();
+            } else {
+                this.privateKeyPhrase = null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey other = (PoolKey)obj;
+            return port == other.port
+                    && Objects.equals(host, other.host)
+                    && Objects.equals(proxy, other.proxy)
+                    && Objects.equals(username, other.username)
+                    && Objects.equals(privateKeyFile, other.privateKeyFile)
+                    && Objects.equals(privateKeyFilePassword, other.privateKeyFilePassword)
+                    && Arrays.equals(privateKeyPhrase, other.privateKeyPhrase);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, proxy, username, privateKeyFile, privateKeyFilePassword,
+                    Arrays.hashCode(privateKeyPhrase));
+        }
+    }
+
+    /**
+     * The sessions to one host.
+     */
+    private static final class HostSessions {
+        private final List<PooledSession> list = new ArrayList<PooledSession>();
+        private int connecting = 0;
+
+        /**
+         * The number of sessions, including the ones being connected.
+         *
+         * @return the number of sessions.
+         */
+        int size() {
+            return list.size() + connecting;
+        }
+
+        /**
+         * Finds the connected session with the fewest open channels, dropping dead sessions on the way.
+         * Sessions being probed are skipped until they have answered.
+         *
+         * @param maxChannels the maximum number of channels open at the same time on one session.
+         * @return the session or null if all are full or there are none.
+         */
+        PooledSession leastLoaded(int maxChannels) {
+            PooledSession best = null;
+            Iterator<PooledSession> it = list.iterator();
+            while (it.hasNext()) {
+                PooledSession session = it.next();
+                if (!session.connection.isConnected()) {
+                    logger.debug("Dropping dead pooled session.");
+                    it.remove();
+                    if (session.leases == 0) {
+                        session.connection.disconnect();
+                    }
+                } else if (!session.probing && session.leases < maxChannels
+                        && (best == null || session.leases < best.leases)) {
+                    best = session;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * One pooled session.
+     */
+    private static final class PooledSession {
+        private final HostSessions owner;
+        private final SshConnection connection;
+        private int leases = 0;
+        private boolean probing = false;
+        private long lastUsed = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         *
+         * @param owner      the sessions of the host.
+         * @param connection the connected session.
+         */
+        PooledSession(HostSessions owner, SshConnection connection) {
+            this.owner = owner;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * The connection handed out to borrowers, disconnecting it hands the channel lease back to the pool.
+     */
+    private final class PooledSshConnection implements SshConnection {
+        private final PooledSession session;
+        private boolean released = false;
+
+        /**
+         * Constructor.
+         *
+         * @param session the session to run the commands on.
+         */
+        PooledSshConnection(PooledSession session) {
+            this.session = session;
+        }
+
+        /**
+         * The session connection, if this connection hasn't been handed back.
+         *
+         * @return the session connection.
+         */
+        private synchronized SshConnection delegate() {
+            if (released) {
+                throw new IllegalStateException("Not connected!");
+            }
+            return session.connection;
+        }
+
+        @Override
+        public synchronized boolean isConnected() {
+            return !released && session.connection.isConnected();
+        }
+
+        @Override
+        public synchronized boolean isAuthenticated() {
+            return !released && session.connection.isAuthenticated();
+        }
+
+        @Override
+        public String executeCommand(String command) throws SshException {
+            return delegate().executeCommand(command);
+        }
+
+        @Override
+        public Reader executeCommandReader(String command) throws IOException {
+            return delegate().executeCommandReader(command);
+        }
+
+        @Override
+        public ChannelExec executeCommandChannel(String command) throws IOException {
+            return delegate().executeCommandChannel(command);
+        }
+
+        @Override
+        public ChannelExec executeCommandChannel(String command, Boolean establishConnection)
+                throws IOException {
+            return delegate().executeCommandChannel(command, establishConnection);
+        }
+
+        /**
+         * Does nothing, the pool connects the session.
+         */
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(session);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+/**
+ * The receive buffer of one connection, sized after the traffic.
+ * It starts at {@link #MIN_SIZE} and doubles, up to a maximum, each time a read fills it, since more was waiting.
+ * After {@link #SHRINK_AFTER_READS} reads in a row using at most a quarter of it, it halves again.
+ * Buffers are taken from and given back to a {@link ReceiveBufferPool}.
+ * Not thread safe, use one per reading thread.
+ */
+public class AdaptiveReceiveBuffer {
+
+    /**
+     * The size a buffer starts with, unless the maximum is smaller.
+     */
+    public static final int MIN_SIZE = 4096;
+    /**
+     * The number of small reads in a row after which the buffer is halved.
+     */
+    public static final int SHRINK_AFTER_READS = 256;
+    private static final int SHRINK_FRACTION = 4;
+
+    private final ReceiveBufferPool pool;
+    private final int maxSize;
+    private byte[] buffer;
+    private int smallReads = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param pool    where to take buffers from.
+     * @param maxSize the biggest the buffer may grow.
+     */
+    public AdaptiveReceiveBuffer(ReceiveBufferPool pool, int maxSize) {
+        this.pool = pool;
+        this.maxSize = maxSize;
+        this.buffer = pool.acquire(Math.min(MIN_SIZE, maxSize));
+    }
+
+    /**
+     * The buffer to read the next chunk into.
+     * Only valid until the next call to {@link #filled(int)} or {@link #release()}.
+     *
+     * @return the buffer.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * Tells how much the last read put into the buffer, after the bytes have been consumed.
+     *
+     * @param count the number of bytes read.
+     */
+    public void filled(int count) {
+        if (count >= buffer.length) {
+            smallReads = 0;
+            if (buffer.length < maxSize) {
+                resize(Math.min(maxSize, buffer.length * 2));
+            }
+        } else if (count <= buffer.length / SHRINK_FRACTION && buffer.length > MIN_SIZE) {
+            smallReads++;
+            if (smallReads >= SHRINK_AFTER_READS) {
+                smallReads = 0;
+                resize(Math.max(MIN_SIZE, buffer.length / 2));
+            }
+        } else {
+            smallReads = 0;
+        }
+    }
+
+    /**
+     * Gives the buffer back to the pool, this object is not to be used afterwards.
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Swaps the buffer for one of another size.
+     *
+     * @param size the new size.
+     */
+    private void resize(int size) {
+        pool.release(buffer);
+        buffer = pool.acquire(size);
+    }
+}
@@ -0,0 +1,116 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Merges the lines of several stream-events streams of the same Gerrit server, so that each event is only
+ * passed on once no matter how many of the streams delivered it.
+ * <p>
+ * The lines are fingerprinted with a 64 bit hash of their bytes, and a bounded window of the most recent
+ * fingerprints remembers how many times each stream has delivered the line. The n:th copy of a line is only
+ * passed on the first time any stream delivers it, so two identical events on the same stream both get through
+ * while the copies of them from the other streams don't. A copy that arrives after its fingerprint has been
+ * pushed out of the window is passed on again, so the window must cover the delay between the streams.
+ * Thread safe, the streams are normally read by different threads.
+ */
+public class EventDeduplicator {
+
+    /**
+     * The default number of fingerprints to remember.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 4096;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int BYTE_MASK = 0xff;
+
+    private final int streams;
+    private final Map<Long, int[]> window;
+    private long duplicateCount = 0;
+
+    /**
+     * Constructor with a window of {@link #DEFAULT_WINDOW_SIZE}.
+     *
+     * @param streams the number of streams being merged.
+     */
+    public EventDeduplicator(int streams) {
+        this(streams, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param streams    the number of streams being merged.
+     * @param windowSize the number of fingerprints to remember.
+     */
+    public EventDeduplicator(int streams, final int windowSize) {
+        if (streams < 1 || windowSize < 1) {
+            throw new IllegalArgumentException("The number of streams and the window size must be positive");
+        }
+        this.streams = streams;
+        this.window = new LinkedHashMap<Long, int[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > windowSize;
+            }
+        };
+    }
+
+    /**
+     * Records that a stream delivered a line, and tells if it should be passed on.
+     *
+     * @param stream the index of the stream, from 0 to the number of streams - 1.
+     * @param line   the bytes of the line.
+     * @return true if this is the first copy of the line, false if another stream already delivered it.
+     */
+    public synchronized boolean accept(int stream, byte[] line) {
+        if (stream < 0 || stream >= streams) {
+            throw new IllegalArgumentException("No stream " + stream);
+        }
+        Long fingerprint = fingerprint(line);
+        int[] counts = window.get(fingerprint);
+        if (counts == null) {
+            counts = new int[streams];
+            window.put(fingerprint, counts);
+        }
+        counts[stream]++;
+        for (int i = 0; i < streams; i++) {
+            if (i != stream && counts[i] >= counts[stream]) {
+                duplicateCount++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The number of lines that have been dropped as duplicates.
+     *
+     * @return the count.
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Forgets all fingerprints.
+     */
+    public synchronized void clear() {
+        window.clear();
+    }
+
+    /**
+     * The 64 bit FNV-1a hash of the line.
+     *
+     * @param line the bytes of the line.
+     * @return the fingerprint.
+     */
+    public static long fingerprint(byte[] line) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : line) {
+            hash ^= b & BYTE_MASK;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
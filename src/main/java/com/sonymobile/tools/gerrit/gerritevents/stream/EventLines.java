@@ -0,0 +1,66 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads single fields out of the raw bytes of a stream-events line, without parsing the JSON.
+ */
+public final class EventLines {
+
+    private static final byte[] EVENT_CREATED_ON = "\"eventCreatedOn\"".getBytes(StandardCharsets.US_ASCII);
+    private static final int RADIX = 10;
+
+    /**
+     * Private constructor to hinder instantiation.
+     */
+    private EventLines() {
+        throw new UnsupportedOperationException("Cannot instantiate util classes.");
+    }
+
+    /**
+     * The eventCreatedOn of the event.
+     *
+     * @param line the bytes of the line.
+     * @return the seconds since the epoch, or 0 if the line has no eventCreatedOn number.
+     */
+    public static long eventCreatedOn(byte[] line) {
+        int i = indexOf(line, EVENT_CREATED_ON);
+        if (i < 0) {
+            return 0;
+        }
+        i += EVENT_CREATED_ON.length;
+        while (i < line.length && (line[i] == ':' || line[i] == ' ')) {
+            i++;
+        }
+        long value = 0;
+        int start = i;
+        while (i < line.length && line[i] >= '0' && line[i] <= '9') {
+            value = value * RADIX + (line[i] - '0');
+            i++;
+        }
+        if (i == start) {
+            return 0;
+        }
+        return value;
+    }
+
+    /**
+     * The first position of a byte sequence in the line.
+     *
+     * @param line the line.
+     * @param what the sequence to find.
+     * @return the position or -1.
+     */
+    private static int indexOf(byte[] line, byte[] what) {
+        for (int i = 0; i <= line.length - what.length; i++) {
+            int j = 0;
+            while (j < what.length && line[i + j] == what[j]) {
+                j++;
+            }
+            if (j == what.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,145 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Copies the bytes of a JSON text, cutting every string value longer than a cap.
+ * The input can be given in any number of chunks. A cut is never made inside an escape sequence or a UTF-8
+ * encoded character, and the cut part is replaced with a marker telling how many bytes were left out,
+ * so the output is still valid JSON.
+ */
+class FieldCapper {
+
+    /**
+     * Put in place of the cut part of a value, followed by the number of bytes and {@link #MARKER_END}.
+     */
+    static final String MARKER_START = "...[truncated ";
+    /**
+     * Ends the marker.
+     */
+    static final String MARKER_END = " bytes]";
+    private static final int INITIAL_SIZE = 4096;
+    private static final int UNICODE_ESCAPE_DIGITS = 4;
+    private static final int CONTINUATION_MASK = 0xC0;
+    private static final int CONTINUATION_BITS = 0x80;
+
+    private final int cap;
+    private byte[] out = new byte[INITIAL_SIZE];
+    private int size = 0;
+    private boolean inString = false;
+    private boolean escape = false;
+    private int unicodeDigits = 0;
+    private int valueLength = 0;
+    private long skipped = 0;
+    private int truncatedFields = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param cap the longest a string may be, in bytes.
+     */
+    FieldCapper(int cap) {
+        this.cap = cap;
+    }
+
+    /**
+     * Copies a chunk of the JSON text.
+     *
+     * @param data   the buffer.
+     * @param offset where the chunk starts.
+     * @param length the length of the chunk.
+     */
+    void write(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            if (!inString) {
+                out[size++] = b;
+                if (b == '"') {
+                    inString = true;
+                    valueLength = 0;
+                    skipped = 0;
+                }
+            } else if (escape) {
+                escape = false;
+                if (b == 'u') {
+                    unicodeDigits = UNICODE_ESCAPE_DIGITS;
+                }
+                content(b, true);
+            } else if (unicodeDigits > 0) {
+                unicodeDigits--;
+                content(b, true);
+            } else if (b == '\\') {
+                escape = true;
+                content(b, false);
+            } else if (b == '"') {
+                inString = false;
+                if (skipped > 0) {
+                    byte[] marker = (MARKER_START + skipped + MARKER_END).getBytes(StandardCharsets.US_ASCII);
+                    ensureCapacity(marker.length + end - i);
+                    System.arraycopy(marker, 0, out, size, marker.length);
+                    size += marker.length;
+                    truncatedFields++;
+                }
+                out[size++] = b;
+            } else {
+                content(b, (b & CONTINUATION_MASK) == CONTINUATION_BITS);
+            }
+        }
+    }
+
+    /**
+     * Copies a byte of a string value, or skips it when the value is over the cap.
+     *
+     * @param b            the byte.
+     * @param continuation if the byte continues an escape sequence or character, so a cut can't be made before it.
+     */
+    private void content(byte b, boolean continuation) {
+        if (skipped == 0 && (valueLength < cap || continuation)) {
+            out[size++] = b;
+            valueLength++;
+        } else {
+            skipped++;
+        }
+    }
+
+    /**
+     * Makes room for a chunk, the output is never longer than the input plus the markers.
+     *
+     * @param length the length of the chunk.
+     */
+    private void ensureCapacity(int length) {
+        if (out.length - size < length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, size + length));
+        }
+    }
+
+    /**
+     * The length of the output so far.
+     *
+     * @return the length in bytes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The number of values cut so far.
+     *
+     * @return the count.
+     */
+    int getTruncatedFields() {
+        return truncatedFields;
+    }
+
+    /**
+     * The output.
+     *
+     * @return an exact sized copy of the output.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(out, size);
+    }
+}
@@ -0,0 +1,150 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link HighWaterMarkStore} persisted in a properties file.
+ * The file is written by a background thread {@link #FLUSH_INTERVAL} ms after a mark has moved, so at most once
+ * per interval and never on the thread delivering the events, and by {@link #flush()}. A crash can move the mark
+ * back by that much. The overlap is taken care of by the deduplication of the catch-up.
+ * With a null file the marks are only kept in memory.
+ */
+public class FileHighWaterMarkStore implements HighWaterMarkStore {
+
+    /**
+     * The minimum time in ms between writes of the file.
+     */
+    public static final long FLUSH_INTERVAL = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(FileHighWaterMarkStore.class);
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(
+            new NamedDaemonThreadFactory(FileHighWaterMarkStore.class.getName()));
+
+    private final File file;
+    private final Map<String, Long> marks = new ConcurrentHashMap<String, Long>();
+    private final Object writeLock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile boolean dirty = false;
+
+    /**
+     * Constructor, reads the marks persisted in the file.
+     *
+     * @param file the file, or null to only keep the marks in memory.
+     */
+    public FileHighWaterMarkStore(File file) {
+        this.file = file;
+        if (file != null && file.isFile()) {
+            Properties properties = new Properties();
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                logger.error("Could not read the high-water marks from " + file, e);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                try {
+                    marks.put(name, Long.valueOf(properties.getProperty(name)));
+                } catch (NumberFormatException e) {
+                    logger.warn("Bad high-water mark for {} in {}", name, file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long get(String name) {
+        Long mark = marks.get(name);
+        if (mark == null) {
+            return 0;
+        }
+        return mark;
+    }
+
+    @Override
+    public void update(String name, long eventCreatedOn) {
+        if (eventCreatedOn <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (eventCreatedOn <= get(name)) {
+                return;
+            }
+            marks.put(name, eventCreatedOn);
+            dirty = true;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Has the file written in the background in a while, unless that is already pending.
+     */
+    private void scheduleFlush() {
+        if (file == null || !flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            FLUSHER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    flush();
+                }
+            }, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            flushScheduled.set(false);
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (file == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            Properties properties = new Properties();
+            for (Map.Entry<String, Long> entry : marks.entrySet()) {
+                properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    properties.store(out, "Last eventCreatedOn per Gerrit server");
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file))) {
+                    throw new IOException("Could not replace " + file);
+                }
+            } catch (IOException e) {
+                dirty = true;
+                logger.error("Could not write the high-water marks to " + file, e);
+            }
+        }
+    }
+}
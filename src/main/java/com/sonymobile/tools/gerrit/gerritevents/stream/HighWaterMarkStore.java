@@ -0,0 +1,29 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+/**
+ * Remembers the eventCreatedOn of the last event delivered from each Gerrit server,
+ * so that the events missed while disconnected can be fetched after a reconnect.
+ */
+public interface HighWaterMarkStore {
+
+    /**
+     * The high-water mark of a server.
+     *
+     * @param name the name of the server, as in its {@link com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider}.
+     * @return the eventCreatedOn in seconds since the epoch, or 0 if nothing has been delivered yet.
+     */
+    long get(String name);
+
+    /**
+     * Moves the high-water mark of a server forward, an older time than the current mark is ignored.
+     *
+     * @param name           the name of the server.
+     * @param eventCreatedOn the eventCreatedOn of the delivered event, in seconds since the epoch.
+     */
+    void update(String name, long eventCreatedOn);
+
+    /**
+     * Persists the marks that haven't been persisted yet.
+     */
+    void flush();
+}
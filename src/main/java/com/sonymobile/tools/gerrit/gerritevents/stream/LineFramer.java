@@ -0,0 +1,217 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import java.util.Arrays;
+
+/**
+ * Splits the raw bytes of a stream-events stream into lines.
+ * Each complete line is handed over as an exact sized UTF-8 byte array,
+ * decoding into a String is left to whoever consumes the line.
+ * Bytes of a line that hasn't ended yet are kept until the rest of it arrives,
+ * within the bounds of the framer's {@link LineLimits}.
+ * Not thread safe, use one framer per stream.
+ */
+public class LineFramer {
+
+    /**
+     * Receiver of framed lines.
+     */
+    public interface LineSink {
+        /**
+         * Called for each complete, non empty line.
+         *
+         * @param line the bytes of the line without the line terminator.
+         */
+        void onLine(byte[] line);
+    }
+
+    private static final byte EOL = '\n';
+    /**
+     * The size the pending buffer starts with, and is shrunk back to after a big line.
+     */
+    static final int INITIAL_PENDING_SIZE = 1024;
+
+    private final LineLimits limits;
+    private byte[] pending = null;
+    private int pendingLength = 0;
+    private long rawLength = 0;
+    private FieldCapper capper = null;
+    private boolean dropping = false;
+
+    /**
+     * Constructor, with the {@link LineLimits#DEFAULT} limits.
+     */
+    public LineFramer() {
+        this(LineLimits.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param limits the bounds of a line.
+     */
+    public LineFramer(LineLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * The bounds of a line, with the counters of capped and dropped lines.
+     *
+     * @return the limits.
+     */
+    public LineLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Feeds a chunk of received bytes to the framer.
+     *
+     * @param data   the buffer holding the received bytes.
+     * @param offset where the received bytes start in the buffer.
+     * @param length the number of received bytes.
+     * @param sink   where to deliver the complete lines.
+     * @return the number of lines delivered to the sink.
+     */
+    public int feed(byte[] data, int offset, int length, LineSink sink) {
+        int lines = 0;
+        int start = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (data[i] == EOL) {
+                byte[] line = takeLine(data, start, i);
+                start = i + 1;
+                if (line.length > 0) {
+                    sink.onLine(line);
+                    lines++;
+                }
+            }
+        }
+        if (start < end) {
+            append(data, start, end - start);
+        }
+        return lines;
+    }
+
+    /**
+     * The number of bytes received for a line that hasn't ended yet.
+     *
+     * @return the number of bytes.
+     */
+    public int getPendingLength() {
+        if (capper != null) {
+            return capper.size();
+        }
+        return pendingLength;
+    }
+
+    /**
+     * Throws away any partially received line, for when the stream is reconnected.
+     */
+    public void reset() {
+        pending = null;
+        pendingLength = 0;
+        endLine();
+    }
+
+    /**
+     * Creates the line ending at end, joining it with any pending bytes.
+     *
+     * @param data  the buffer.
+     * @param start the start of the unconsumed part of the buffer.
+     * @param end   the position of the line terminator.
+     * @return the line.
+     */
+    private byte[] takeLine(byte[] data, int start, int end) {
+        long length = rawLength + end - start;
+        long maxLineBytes = limits.getMaxLineBytes();
+        if (dropping || (maxLineBytes > 0 && length > maxLineBytes)) {
+            limits.count(length, 0, true);
+            reset();
+            return new byte[0];
+        }
+        if (capper == null && limits.getStreamingThreshold() > 0
+                && pendingLength + end - start > limits.getStreamingThreshold()) {
+            startCapping();
+        }
+        byte[] line;
+        int fieldsCut = 0;
+        if (capper != null) {
+            capper.write(data, start, end - start);
+            line = capper.toByteArray();
+            fieldsCut = capper.getTruncatedFields();
+        } else if (pendingLength == 0) {
+            line = Arrays.copyOfRange(data, start, end);
+        } else {
+            line = new byte[pendingLength + end - start];
+            System.arraycopy(pending, 0, line, 0, pendingLength);
+            System.arraycopy(data, start, line, pendingLength, end - start);
+        }
+        limits.count(length, fieldsCut, false);
+        pendingLength = 0;
+        if (pending != null && pending.length > INITIAL_PENDING_SIZE) {
+            //Don't hold on to the memory of a big event.
+            pending = null;
+        }
+        endLine();
+        return line;
+    }
+
+    /**
+     * Forgets the state of the current line.
+     */
+    private void endLine() {
+        rawLength = 0;
+        capper = null;
+        dropping = false;
+    }
+
+    /**
+     * Switches the current line to capping, moving the bytes kept so far through the capper.
+     */
+    private void startCapping() {
+        capper = new FieldCapper(limits.getMaxFieldBytes());
+        if (pendingLength > 0) {
+            capper.write(pending, 0, pendingLength);
+        }
+        pending = null;
+        pendingLength = 0;
+    }
+
+    /**
+     * Keeps the bytes of a line that hasn't ended yet.
+     *
+     * @param data   the buffer.
+     * @param start  where the bytes start.
+     * @param length the number of bytes.
+     */
+    private void append(byte[] data, int start, int length) {
+        rawLength += length;
+        if (dropping) {
+            return;
+        }
+        long maxLineBytes = limits.getMaxLineBytes();
+        if (maxLineBytes > 0 && rawLength > maxLineBytes) {
+            //Skip the rest of the line without keeping it.
+            dropping = true;
+            pending = null;
+            pendingLength = 0;
+            capper = null;
+            return;
+        }
+        if (capper == null && limits.getStreamingThreshold() > 0
+                && pendingLength + length > limits.getStreamingThreshold()) {
+            startCapping();
+        }
+        if (capper != null) {
+            capper.write(data, start, length);
+            return;
+        }
+        int needed = pendingLength + length;
+        if (pending == null) {
+            pending = new byte[Math.max(INITIAL_PENDING_SIZE, needed)];
+        } else if (pending.length < needed) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, needed));
+        }
+        System.arraycopy(data, start, pending, pendingLength, length);
+        pendingLength = needed;
+    }
+}
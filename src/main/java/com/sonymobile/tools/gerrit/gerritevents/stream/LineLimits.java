@@ -0,0 +1,142 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the memory a single stream-events line can take in a {@link LineFramer}.
+ * <p>
+ * A line longer than the streaming threshold stops being collected as is. From then on its bytes are passed
+ * through a cap on every JSON string value, so a huge commit message is cut at the field cap and a marker telling
+ * how much was left out is put in its place, before the line is ever held in full. A line longer than the hard
+ * limit is dropped altogether. The counters are shared by all framers using the same limits.
+ * <p>
+ * The {@link #DEFAULT} limits are read from the system properties
+ * {@code gerritevents.LineLimits.STREAMING_THRESHOLD}, {@code gerritevents.LineLimits.MAX_FIELD_BYTES} and
+ * {@code gerritevents.LineLimits.MAX_LINE_BYTES}; a threshold or limit of 0 or less is off. Lines over
+ * {@link #DEFAULT_STREAMING_THRESHOLD} are capped unless set otherwise, while dropping lines is off unless set,
+ * since a dropped event is lost for good.
+ * <p>
+ * The capped line is what gets parsed, so the JSON tree and the event objects built from it are bounded too.
+ */
+public class LineLimits {
+
+    /**
+     * The default length in bytes above which a line is capped, far above the events Gerrit normally sends.
+     */
+    public static final int DEFAULT_STREAMING_THRESHOLD = 1024 * 1024;
+    /**
+     * The default cap of a string value of a line in streaming mode.
+     */
+    public static final int DEFAULT_MAX_FIELD_BYTES = 65536;
+    /**
+     * The limits used when none are given.
+     */
+    public static final LineLimits DEFAULT = new LineLimits(
+            Integer.getInteger("gerritevents.LineLimits.STREAMING_THRESHOLD", DEFAULT_STREAMING_THRESHOLD),
+            Integer.getInteger("gerritevents.LineLimits.MAX_FIELD_BYTES", DEFAULT_MAX_FIELD_BYTES),
+            Long.getLong("gerritevents.LineLimits.MAX_LINE_BYTES", 0));
+
+    private final int streamingThreshold;
+    private final int maxFieldBytes;
+    private final long maxLineBytes;
+    private final AtomicLong truncatedLines = new AtomicLong();
+    private final AtomicLong truncatedFields = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final AtomicLong largestLine = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param streamingThreshold the length in bytes above which a line is capped, 0 or less for never.
+     * @param maxFieldBytes      the longest a string value of a capped line may be, in bytes as received.
+     * @param maxLineBytes       the length in bytes above which a line is dropped, 0 or less for never.
+     */
+    public LineLimits(int streamingThreshold, int maxFieldBytes, long maxLineBytes) {
+        this.streamingThreshold = streamingThreshold;
+        this.maxFieldBytes = maxFieldBytes;
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * The length in bytes above which a line is capped.
+     *
+     * @return the threshold, 0 or less for never.
+     */
+    public int getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    /**
+     * The longest a string value of a capped line may be.
+     *
+     * @return the cap in bytes.
+     */
+    public int getMaxFieldBytes() {
+        return maxFieldBytes;
+    }
+
+    /**
+     * The length in bytes above which a line is dropped.
+     *
+     * @return the limit, 0 or less for never.
+     */
+    public long getMaxLineBytes() {
+        return maxLineBytes;
+    }
+
+    /**
+     * The number of lines that had values cut.
+     *
+     * @return the count.
+     */
+    public long getTruncatedLines() {
+        return truncatedLines.get();
+    }
+
+    /**
+     * The number of values cut.
+     *
+     * @return the count.
+     */
+    public long getTruncatedFields() {
+        return truncatedFields.get();
+    }
+
+    /**
+     * The number of lines dropped for being longer than the hard limit.
+     *
+     * @return the count.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * The length of the longest line received.
+     *
+     * @return the length in bytes.
+     */
+    public long getLargestLine() {
+        return largestLine.get();
+    }
+
+    /**
+     * Counts a received line.
+     *
+     * @param length the length of the line as received.
+     * @param fieldsCut the number of values cut.
+     * @param dropped if it was dropped.
+     */
+    void count(long length, int fieldsCut, boolean dropped) {
+        long largest = largestLine.get();
+        while (length > largest && !largestLine.compareAndSet(largest, length)) {
+            largest = largestLine.get();
+        }
+        if (dropped) {
+            droppedLines.incrementAndGet();
+        } else if (fieldsCut > 0) {
+            truncatedLines.incrementAndGet();
+            truncatedFields.addAndGet(fieldsCut);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receive buffers shared by the connections of the process.
+ * A buffer given back is kept for the next connection asking for the same size,
+ * up to a number of buffers per size, so connections coming and going don't allocate new ones.
+ *
+ * @see AdaptiveReceiveBuffer
+ */
+public final class ReceiveBufferPool {
+
+    /**
+     * The default number of buffers of each size to keep.
+     */
+    public static final int DEFAULT_MAX_RETAINED =
+            Integer.getInteger("gerritevents.ReceiveBufferPool.DEFAULT_MAX_RETAINED", 16);
+    private static final ReceiveBufferPool INSTANCE = new ReceiveBufferPool(DEFAULT_MAX_RETAINED);
+
+    private final int maxRetained;
+    private final ConcurrentMap<Integer, Queue<byte[]>> free = new ConcurrentHashMap<Integer, Queue<byte[]>>();
+    private final AtomicInteger retained = new AtomicInteger();
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxRetained the number of buffers of each size to keep.
+     */
+    public ReceiveBufferPool(int maxRetained) {
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * The pool shared by the connections of the process.
+     *
+     * @return the instance.
+     */
+    public static ReceiveBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates one if there is none of the size.
+     *
+     * @param size the size.
+     * @return the buffer.
+     */
+    public byte[] acquire(int size) {
+        Queue<byte[]> queue = free.get(size);
+        if (queue != null) {
+            byte[] buffer = queue.poll();
+            if (buffer != null) {
+                retained.decrementAndGet();
+                return buffer;
+            }
+        }
+        allocated.incrementAndGet();
+        return new byte[size];
+    }
+
+    /**
+     * Gives a buffer back to the pool, it is dropped if enough of its size are kept already.
+     *
+     * @param buffer the buffer, not to be used by the caller any more.
+     */
+    public void release(byte[] buffer) {
+        Queue<byte[]> queue = free.get(buffer.length);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<byte[]>();
+            Queue<byte[]> existing = free.putIfAbsent(buffer.length, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        if (queue.size() < maxRetained) {
+            queue.offer(buffer);
+            retained.incrementAndGet();
+        }
+    }
+
+    /**
+     * The number of buffers kept in the pool.
+     *
+     * @return the count.
+     */
+    public int getRetained() {
+        return retained.get();
+    }
+
+    /**
+     * The number of buffers allocated because the pool had none to give.
+     *
+     * @return the count.
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,120 @@
+package com.sonymobile.tools.gerrit.gerritevents.watchdog;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns how long a server is normally quiet between events, per hour of the day,
+ * so that {@link StreamWatchdog} can wait longer at night than during office hours.
+ * <p>
+ * For each hour the gaps are kept as a moving average and a moving mean deviation, and the timeout is the average
+ * plus {@link #DEVIATIONS} deviations. Gaps shorter than {@link #MIN_GAP_MILLIS} are parts of a burst and ignored,
+ * which also keeps the cost off the read path.
+ * One model lives as long as the connection and is handed to each new watchdog.
+ */
+public class LivenessModel {
+
+    /**
+     * Gaps shorter than this are not recorded, in ms.
+     */
+    public static final long MIN_GAP_MILLIS = 1000;
+    /**
+     * The number of gaps an hour needs before its timeout is used.
+     */
+    public static final int MIN_SAMPLES = 8;
+    /**
+     * How many mean deviations above the average gap the timeout is.
+     */
+    public static final int DEVIATIONS = 4;
+    private static final int HOURS = 24;
+    private static final double WEIGHT = 0.1;
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final TimeZone timeZone;
+    private final double[] average = new double[HOURS];
+    private final double[] deviation = new double[HOURS];
+    private final int[] samples = new int[HOURS];
+
+    /**
+     * Constructor using the hours of the default time zone.
+     */
+    public LivenessModel() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timeZone the time zone of the hours of the day.
+     */
+    public LivenessModel(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Records a gap between two signals.
+     *
+     * @param time      when the gap ended, ms since the epoch.
+     * @param gapMillis the length of the gap.
+     */
+    public void record(long time, long gapMillis) {
+        if (gapMillis < MIN_GAP_MILLIS) {
+            return;
+        }
+        int hour = hourOf(time);
+        synchronized (this) {
+            if (samples[hour] == 0) {
+                average[hour] = gapMillis;
+                deviation[hour] = gapMillis / 2.0;
+            } else {
+                double difference = gapMillis - average[hour];
+                average[hour] += WEIGHT * difference;
+                deviation[hour] += WEIGHT * (Math.abs(difference) - deviation[hour]);
+            }
+            if (samples[hour] < Integer.MAX_VALUE) {
+                samples[hour]++;
+            }
+        }
+    }
+
+    /**
+     * The learned timeout at a time of day, within bounds.
+     *
+     * @param time        the time, ms since the epoch.
+     * @param floorMillis the shortest timeout, also used while too little has been learned.
+     * @param capMillis   the longest timeout.
+     * @return the timeout in ms.
+     */
+    public long getTimeoutMillis(long time, long floorMillis, long capMillis) {
+        int hour = hourOf(time);
+        double learned;
+        synchronized (this) {
+            if (samples[hour] < MIN_SAMPLES) {
+                return floorMillis;
+            }
+            learned = average[hour] + DEVIATIONS * deviation[hour];
+        }
+        return Math.max(floorMillis, Math.min(capMillis, (long)learned));
+    }
+
+    /**
+     * The number of gaps recorded at a time of day.
+     *
+     * @param time the time, ms since the epoch.
+     * @return the count.
+     */
+    public synchronized int getSamples(long time) {
+        return samples[hourOf(time)];
+    }
+
+    /**
+     * The hour of the day of a time.
+     *
+     * @param time ms since the epoch.
+     * @return 0 to 23.
+     */
+    private int hourOf(long time) {
+        long local = time + timeZone.getOffset(time);
+        return (int)((local / HOUR_MILLIS) % HOURS);
+    }
+}
@@ -0,0 +1,15 @@
+package com.sonymobile.tools.gerrit.gerritevents.watchdog;
+
+/**
+ * Checks if a quiet connection is still alive, before {@link StreamWatchdog} reconnects it.
+ */
+public interface LivenessProbe {
+
+    /**
+     * Sends something cheap over the connection and waits for the answer.
+     * May block, it is run outside of the watchdog thread and given up on after the probe timeout.
+     *
+     * @return true if the connection answered.
+     */
+    boolean probe();
+}
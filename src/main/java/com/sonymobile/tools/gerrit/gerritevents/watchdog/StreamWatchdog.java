@@ -25,16 +25,33 @@
 package com.sonymobile.tools.gerrit.gerritevents.watchdog;
 
 import com.sonymobile.tools.gerrit.gerritevents.Connector;
+import com.sonymobile.tools.gerrit.gerritevents.helpers.NamedDaemonThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Monitors the last time something came in on the stream-events connection (via signal from the controller/handler).
  * And restarts the connection if the timeout has passed.
+ * <p>
+ * All watchdogs are checked by one shared daemon thread, so a watchdog costs a scheduled task and not a thread,
+ * and {@link #signal()} is a plain volatile write that never contends on a lock.
+ * It is still a {@link TimerTask} for compatibility, but it is not scheduled on a {@link java.util.Timer}.
+ * A watchdog can be {@link #pause() paused} while there is no connection, and {@link #reset() reset} for the next one,
+ * so a connection that comes and goes keeps the same scheduled task.
+ * <p>
+ * With a {@link LivenessModel} the timeout is raised to what is normal for the server at the time of day,
+ * and with a {@link LivenessProbe} a quiet connection is first asked if it is alive, and only reconnected
+ * if it doesn't answer within the probe timeout.
  *
  * @author Robert Sandell &lt;robert.sandell@sonymobile.com&gt;
  */
@@ -43,23 +60,38 @@ public class StreamWatchdog extends TimerTask {
     /**
      * Default millis until first timeout check.
      *
-     * @see Timer#schedule(java.util.TimerTask, long, long)
+     * @see ScheduledThreadPoolExecutor#scheduleAtFixedRate(Runnable, long, long, TimeUnit)
      */
     public static final long DEFAULT_CHECK_START_DELAY = TimeUnit.MINUTES.toMillis(1);
     /**
      * Default millis between timeout checks.
      *
-     * @see Timer#schedule(java.util.TimerTask, long, long)
+     * @see ScheduledThreadPoolExecutor#scheduleAtFixedRate(Runnable, long, long, TimeUnit)
      */
     public static final long DEFAULT_CHECK_PERIOD = TimeUnit.SECONDS.toMillis(20);
+    /**
+     * Default millis to wait for a probe to answer.
+     */
+    public static final long DEFAULT_PROBE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
 
     private static final Logger logger = LoggerFactory.getLogger(StreamWatchdog.class);
+    private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+    private static final ExecutorService PROBES = Executors.newCachedThreadPool(
+            new NamedDaemonThreadFactory(StreamWatchdog.class.getName() + "-probe"));
 
-    private long lastSignal;
-    private Timer timer;
+    private volatile long lastSignal;
+    private final ScheduledFuture<?> check;
     private Connector connector;
     private int timeoutSeconds;
     private WatchTimeExceptionData exceptionData;
+    private volatile LivenessModel model = null;
+    private volatile long maxTimeoutMillis = 0;
+    private volatile LivenessProbe probe = null;
+    private volatile long probeTimeoutMillis = DEFAULT_PROBE_TIMEOUT;
+    private volatile long lastProbeAnswer = 0;
+    private volatile Future<Boolean> probeResult = null;
+    private volatile boolean paused = false;
+    private long probeStarted = 0;
 
     /**
      * Standard Constructor. Same as calling <code> StreamWatchdog(connector, timeoutSeconds, exceptionData,
@@ -79,7 +111,7 @@ public class StreamWatchdog extends TimerTask {
      *
      * @param connector     the connector who can do the actual restart of the connection.
      * @param timeoutSeconds  number of seconds before a timeout should occur.
-     * @param exceptionData   time spans and days when the timeout trigger should not be in effect.
+     * @param exceptionData   time spans and days when the timeout trigger should not be in effect, or null.
      * @param checkStartDelay millis until the first timeout check should be performed
      * @param checkPeriod     millis between timeout checks
      */
@@ -89,20 +121,137 @@ public class StreamWatchdog extends TimerTask {
         this.timeoutSeconds = timeoutSeconds;
         this.exceptionData = exceptionData;
         lastSignal = System.currentTimeMillis();
-        timer = new Timer(StreamWatchdog.class.getName());
-        timer.schedule(this, checkStartDelay, checkPeriod);
+        check = SCHEDULER.scheduleAtFixedRate(this, checkStartDelay, checkPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the thread shared by all watchdogs.
+     *
+     * @return the scheduler.
+     */
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new NamedDaemonThreadFactory(StreamWatchdog.class.getName()));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Adapts the timeout to the normal quiet time of the server.
+     * The timeout of the constructor becomes the shortest timeout.
+     *
+     * @param livenessModel the model, it should be kept for the next watchdog of the connection.
+     * @param maxTimeout    the longest timeout in ms.
+     */
+    public void setLivenessModel(LivenessModel livenessModel, long maxTimeout) {
+        this.maxTimeoutMillis = maxTimeout;
+        this.model = livenessModel;
+    }
+
+    /**
+     * Probes a quiet connection before reconnecting it.
+     *
+     * @param livenessProbe the probe.
+     * @param timeoutMillis how long to wait for the probe to answer.
+     */
+    public void setProbe(LivenessProbe livenessProbe, long timeoutMillis) {
+        this.probeTimeoutMillis = timeoutMillis;
+        this.probe = livenessProbe;
+    }
+
+    /**
+     * The timeout at a time.
+     *
+     * @param now ms since the epoch.
+     * @return the timeout in ms.
+     */
+    public long getTimeoutMillis(long now) {
+        long floor = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        LivenessModel current = model;
+        if (current == null) {
+            return floor;
+        }
+        return current.getTimeoutMillis(now, floor, Math.max(floor, maxTimeoutMillis));
     }
 
     @Override
     public void run() {
-        if (!exceptionData.isExceptionNow()) {
-            long quietTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - getLastSignal());
-            logger.debug("Quiet time: {}", quietTime);
-            if (quietTime >= timeoutSeconds) {
-                logger.info("Last lively connection with Gerrit was {} seconds ago; reconnecting.", quietTime);
-                connector.reconnect();
+        try {
+            if (paused) {
+                return;
+            }
+            if (exceptionData == null || !exceptionData.isExceptionNow()) {
+                long now = System.currentTimeMillis();
+                long quietMillis = now - Math.max(getLastSignal(), lastProbeAnswer);
+                long quietTime = TimeUnit.MILLISECONDS.toSeconds(quietMillis);
+                logger.debug("Quiet time: {}", quietTime);
+                if (quietMillis >= getTimeoutMillis(now)) {
+                    if (probe == null) {
+                        logger.info("Last lively connection with Gerrit was {} seconds ago; reconnecting.", quietTime);
+                        connector.reconnect();
+                    } else {
+                        checkProbe(now, quietTime);
+                    }
+                } else {
+                    Future<Boolean> current = probeResult;
+                    if (current != null && current.isDone()) {
+                        //It answered, the next quiet period gets a new probe.
+                        probeResult = null;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            //An exception would cancel the periodic check.
+            logger.error("The watchdog check failed.", e);
+        }
+    }
+
+    /**
+     * Starts a probe, or reconnects if the probe failed or didn't answer in time.
+     *
+     * @param now       ms since the epoch.
+     * @param quietTime seconds since the last signal.
+     */
+    private void checkProbe(long now, long quietTime) {
+        Future<Boolean> current = probeResult;
+        if (current == null) {
+            logger.debug("Last lively connection with Gerrit was {} seconds ago; probing.", quietTime);
+            final LivenessProbe currentProbe = probe;
+            probeStarted = now;
+            probeResult = PROBES.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    boolean alive = currentProbe.probe();
+                    if (alive) {
+                        lastProbeAnswer = System.currentTimeMillis();
+                    }
+                    return alive;
+                }
+            });
+            return;
+        }
+        if (current.isDone()) {
+            probeResult = null;
+            boolean alive = false;
+            try {
+                alive = current.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.warn("The liveness probe failed.", e.getCause());
+            }
+            if (alive) {
+                return;
             }
+            logger.info("Gerrit didn't answer the probe after {} seconds of quiet; reconnecting.", quietTime);
+        } else if (now - probeStarted >= probeTimeoutMillis) {
+            probeResult = null;
+            current.cancel(true);
+            logger.info("The probe timed out after {} seconds of quiet; reconnecting.", quietTime);
+        } else {
+            return;
         }
+        connector.reconnect();
     }
 
     /**
@@ -113,23 +262,76 @@ public class StreamWatchdog extends TimerTask {
      * @see System#currentTimeMillis()
      * @see #signal()
      */
-    public synchronized long getLastSignal() {
+    public long getLastSignal() {
         return lastSignal;
     }
 
     /**
      * Signals that something has come through the wire. Resetting the countdown to an eventual connection restart.
      */
-    public synchronized void signal() {
+    public void signal() {
+        long now = System.currentTimeMillis();
+        LivenessModel current = model;
+        if (current != null) {
+            current.record(now, now - lastSignal);
+        }
+        lastSignal = now;
+    }
+
+    /**
+     * Restarts the countdown for a new connection, as if something had just come through the wire, and forgets any
+     * probe of the old one. Starts checking again if paused.
+     */
+    public void reset() {
+        cancelProbe();
+        lastProbeAnswer = 0;
         lastSignal = System.currentTimeMillis();
+        paused = false;
+    }
+
+    /**
+     * Stops checking until the next {@link #reset()}, while there is no connection to watch.
+     */
+    public void pause() {
+        paused = true;
+        cancelProbe();
+    }
+
+    /**
+     * If the watchdog is paused.
+     *
+     * @return true if so.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Cancels the running probe, if there is one.
+     */
+    private void cancelProbe() {
+        Future<Boolean> current = probeResult;
+        probeResult = null;
+        if (current != null) {
+            current.cancel(true);
+        }
     }
 
     /**
      * Shuts down the watchdog timer. A new StreamWatchdog will need to be created to continue watching it.
      */
     public void shutdown() {
-        if (timer != null) {
-            timer.cancel();
-        }
+        check.cancel(false);
+        cancel();
+        cancelProbe();
+    }
+
+    /**
+     * The number of watchdogs being checked by the shared thread.
+     *
+     * @return the count.
+     */
+    public static int getActiveCount() {
+        return SCHEDULER.getQueue().size();
     }
 }
@@ -39,6 +39,7 @@ import java.util.List;
 public class WatchTimeExceptionData {
     private int[] daysOfWeek;
     private List<TimeSpan> timesOfDay;
+    private transient volatile Period period;
 
     /**
      * Standard Constructor.
@@ -94,7 +95,75 @@ public class WatchTimeExceptionData {
      * @return true if so.
      */
     public boolean isExceptionNow() {
-        return isExceptionToday() || isExceptionAtThisTime();
+        return isExceptionAt(System.currentTimeMillis());
+    }
+
+    /**
+     * If the given time is an exception, by day or time of day.
+     * The answer holds until the next time a day or a time span begins or ends, so it is worked out once for that
+     * period and the checks in between only compare the time to its bounds.
+     *
+     * @param time ms since the epoch.
+     * @return true if so.
+     */
+    public boolean isExceptionAt(long time) {
+        Period current = period;
+        if (current == null || time < current.start || time >= current.end) {
+            current = computePeriod(time);
+            period = current;
+        }
+        return current.exception;
+    }
+
+    /**
+     * Works out if the time is an exception and how long that lasts.
+     *
+     * @param time ms since the epoch.
+     * @return the period around the time.
+     */
+    private Period computePeriod(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long start = calendar.getTimeInMillis();
+        Time now = new Time(calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE));
+        boolean exception = daysOfWeek != null && isExceptionDay(calendar.get(Calendar.DAY_OF_WEEK));
+
+        Calendar midnight = (Calendar)calendar.clone();
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.add(Calendar.DAY_OF_MONTH, 1);
+        long end = midnight.getTimeInMillis();
+        if (timesOfDay != null) {
+            for (TimeSpan span : timesOfDay) {
+                if (span.isWithin(now)) {
+                    exception = true;
+                }
+                end = Math.min(end, nextAfter(calendar, span.getFrom(), 0));
+                end = Math.min(end, nextAfter(calendar, span.getTo(), 1));
+            }
+        }
+        return new Period(start, end, exception);
+    }
+
+    /**
+     * When a time of day is next reached today, after the given time.
+     *
+     * @param now     the start of the current minute.
+     * @param time    the time of day.
+     * @param minutes minutes to add to the time of day.
+     * @return ms since the epoch, or {@link Long#MAX_VALUE} if not later today.
+     */
+    private static long nextAfter(Calendar now, Time time, int minutes) {
+        Calendar at = (Calendar)now.clone();
+        at.set(Calendar.HOUR_OF_DAY, time.getHour());
+        at.set(Calendar.MINUTE, time.getMinute());
+        at.add(Calendar.MINUTE, minutes);
+        if (at.after(now)) {
+            return at.getTimeInMillis();
+        }
+        return Long.MAX_VALUE;
     }
 
     /**
@@ -161,6 +230,28 @@ public class WatchTimeExceptionData {
         return false;
     }
 
+    /**
+     * A stretch of time during which it is or isn't an exception.
+     */
+    private static final class Period {
+        private final long start;
+        private final long end;
+        private final boolean exception;
+
+        /**
+         * Constructor.
+         *
+         * @param start     the first ms of the period.
+         * @param end       the first ms after the period.
+         * @param exception if it is an exception.
+         */
+        private Period(long start, long end, boolean exception) {
+            this.start = start;
+            this.end = end;
+            this.exception = exception;
+        }
+    }
+
     /**
      * A time span from a beginning to an end.
      */
@@ -29,6 +29,8 @@ import com.sonymobile.tools.gerrit.gerritevents.GerritJsonEventFactory;
 import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
 import net.sf.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Top of the hierarchies of work, converts the string to JSON if it is interesting and usable.
  * And then hands the work over to {@link AbstractJsonObjectWork}.
@@ -38,13 +40,20 @@ import net.sf.json.JSONObject;
 public class StreamEventsStringWork extends AbstractJsonObjectWork {
 
     /**
+     * The line, decoded from the raw bytes if the work was created from them.
+     * Every call decodes again, the work only holds on to the compact bytes.
+     *
      * @return the line
      */
     public String getLine() {
+        if (line == null && data != null) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
         return line;
     }
 
     private String line;
+    private byte[] data;
     private Provider provider;
 
     /**
@@ -67,6 +76,17 @@ public class StreamEventsStringWork extends AbstractJsonObjectWork {
         this.provider = provider;
     }
 
+    /**
+     * Constructor for a line kept as raw bytes until it is performed.
+     *
+     * @param data     the UTF-8 encoded line from the stream-events stream of events.
+     * @param provider the Gerrit server info.
+     */
+    public StreamEventsStringWork(byte[] data, Provider provider) {
+        this.data = data;
+        this.provider = provider;
+    }
+
     @Override
     public void perform(Coordinator coordinator) {
         JSONObject obj = GerritJsonEventFactory.getJsonObjectIfInterestingAndUsable(getLine());
@@ -32,7 +32,7 @@ import com.sonymobile.tools.gerrit.gerritevents.GerritCmdRunner2;
 import com.sonymobile.tools.gerrit.gerritevents.GerritConnectionConfig;
 import com.sonymobile.tools.gerrit.gerritevents.GerritConnectionConfig2;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnectionFactory;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshSessionPool;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -111,8 +111,8 @@ public abstract class AbstractSendCommandJob implements Runnable, GerritCmdRunne
         String str = null;
         SshConnection ssh = null;
         try {
-            ssh = SshConnectionFactory.getConnection(config.getGerritHostName(),
-                    config.getGerritSshPort(), config.getGerritProxy(), config.getGerritAuthentication());
+            ssh = SshSessionPool.connect(config.getGerritHostName(), config.getGerritSshPort(),
+                    config.getGerritProxy(), config.getGerritAuthentication());
             str = ssh.executeCommand(command);
         } catch (Exception ex) {
             throw new IOException("Error during sending command", ex);
@@ -30,7 +30,7 @@ import java.util.concurrent.Callable;
 import com.sonymobile.tools.gerrit.gerritevents.GerritConnectionConfig2;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnectionFactory;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshSessionPool;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,7 +87,7 @@ public abstract class AbstractSendCommandJob2 implements Callable<String> {
         String str = null;
         SshConnection ssh = null;
         try {
-            ssh = SshConnectionFactory.getConnection(host, port, proxy, auth);
+            ssh = SshSessionPool.connect(host, port, proxy, auth);
             str = ssh.executeCommand(createGerritCommand());
         } catch (Exception ex) {
             throw new IOException("Error during sending command", ex);
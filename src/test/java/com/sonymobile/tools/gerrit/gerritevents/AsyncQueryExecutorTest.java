@@ -0,0 +1,155 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//CS IGNORE MagicNumber FOR NEXT 150 LINES. REASON: TestData
+
+/**
+ * Tests for {@link AsyncQueryExecutor}.
+ */
+public class AsyncQueryExecutorTest {
+
+    /**
+     * A query that runs until released or interrupted.
+     */
+    private static class BlockingQuery implements AsyncQueryExecutor.Query<String> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final String result;
+        private volatile boolean interrupted = false;
+
+        /**
+         * Constructor.
+         *
+         * @param result the result.
+         */
+        BlockingQuery(String result) {
+            this.result = result;
+        }
+
+        @Override
+        public String run(Future<String> future) throws IOException {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                throw new InterruptedIOException();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Waits for a query to start.
+     *
+     * @param query the query.
+     * @throws InterruptedException if so.
+     */
+    private static void awaitStarted(BlockingQuery query) throws InterruptedException {
+        assertTrue(query.started.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that no more queries than the cap run against a server, and that the rest run as slots free up.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testCapPerServer() throws Exception {
+        AsyncQueryExecutor executor = new AsyncQueryExecutor(2, 0);
+        BlockingQuery first = new BlockingQuery("1");
+        BlockingQuery second = new BlockingQuery("2");
+        BlockingQuery third = new BlockingQuery("3");
+        BlockingQuery other = new BlockingQuery("other");
+        CompletableFuture<String> firstResult = executor.submit("a", first);
+        CompletableFuture<String> secondResult = executor.submit("a", second);
+        CompletableFuture<String> thirdResult = executor.submit("a", third);
+        CompletableFuture<String> otherResult = executor.submit("b", other);
+        awaitStarted(first);
+        awaitStarted(second);
+        awaitStarted(other);
+        assertEquals(2, executor.getRunning("a"));
+        assertEquals(1, executor.getQueued("a"));
+        assertEquals(1, executor.getRunning("b"));
+        assertFalse(third.started.await(100, TimeUnit.MILLISECONDS));
+
+        first.release.countDown();
+        assertEquals("1", firstResult.get(10, TimeUnit.SECONDS));
+        awaitStarted(third);
+        second.release.countDown();
+        third.release.countDown();
+        other.release.countDown();
+        assertEquals("2", secondResult.get(10, TimeUnit.SECONDS));
+        assertEquals("3", thirdResult.get(10, TimeUnit.SECONDS));
+        assertEquals("other", otherResult.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that a cancelled query is interrupted if running and never started if queued.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testCancel() throws Exception {
+        AsyncQueryExecutor executor = new AsyncQueryExecutor(1, 0);
+        BlockingQuery running = new BlockingQuery("1");
+        final AtomicInteger queuedRuns = new AtomicInteger();
+        CompletableFuture<String> runningResult = executor.submit("a", running);
+        CompletableFuture<String> queuedResult = executor.submit("a", new AsyncQueryExecutor.Query<String>() {
+            @Override
+            public String run(Future<String> future) {
+                queuedRuns.incrementAndGet();
+                return "2";
+            }
+        });
+        awaitStarted(running);
+        assertTrue(queuedResult.cancel(true));
+        assertEquals(0, executor.getQueued("a"));
+        assertTrue(runningResult.cancel(true));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getRunning("a") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(running.interrupted);
+        assertEquals(0, executor.getRunning("a"));
+        assertEquals(0, queuedRuns.get());
+    }
+
+    /**
+     * Tests that a query not done within the timeout fails with a {@link TimeoutException} and is stopped.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        AsyncQueryExecutor executor = new AsyncQueryExecutor(1, 50);
+        BlockingQuery query = new BlockingQuery("1");
+        try {
+            executor.submit("a", query).get(10, TimeUnit.SECONDS);
+            fail("Expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!query.interrupted && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(query.interrupted);
+    }
+}
@@ -0,0 +1,279 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeBasedEvent;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeMerged;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.CommentAdded;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.HashtagsChanged;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.PatchsetCreated;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.TopicChanged;
+import net.sf.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+//CS IGNORE MagicNumber FOR NEXT 300 LINES. REASON: TestData
+
+/**
+ * Tests for {@link ChangeIndex} and {@link ChangeQueryRouter}.
+ */
+public class ChangeIndexTest {
+
+    private GerritQueryHandler handler;
+    private ChangeIndex index;
+
+    /**
+     * A change row like the server or an event tells it.
+     *
+     * @param number  the number.
+     * @param project the project.
+     * @param branch  the branch.
+     * @param topic   the topic, or null.
+     * @param owner   the username of the owner, also the first name of the full name.
+     * @param updated the last update, in seconds.
+     * @return the row.
+     */
+    private static JSONObject row(int number, String project, String branch, String topic, String owner,
+                                  long updated) {
+        JSONObject row = new JSONObject();
+        row.put("number", number);
+        row.put("id", "I" + number);
+        row.put("project", project);
+        row.put("branch", branch);
+        if (topic != null) {
+            row.put("topic", topic);
+        }
+        JSONObject account = new JSONObject();
+        account.put("username", owner);
+        account.put("email", owner + "@Example.com");
+        account.put("name", owner + " Example");
+        row.put("owner", account);
+        row.put("lastUpdated", updated);
+        return row;
+    }
+
+    /**
+     * An event about a change.
+     *
+     * @param event   the event.
+     * @param change  the change.
+     * @param created when the event was created, in seconds.
+     * @return the event.
+     */
+    private static ChangeBasedEvent event(ChangeBasedEvent event, JSONObject change, long created) {
+        event.setChange(new Change(change));
+        event.setEventCreatedOn(String.valueOf(created));
+        return event;
+    }
+
+    /**
+     * The Change-Ids of changes.
+     *
+     * @param changes the changes.
+     * @return the Change-Ids.
+     */
+    private static List<String> ids(List<Change> changes) {
+        List<String> ids = new ArrayList<String>();
+        for (Change change : changes) {
+            ids.add(change.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Warms an index with three open changes.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        handler = mock(GerritQueryHandler.class);
+        when(handler.getServerKey()).thenReturn("gerrit:29418");
+        doAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                QueryVisitor visitor = invocation.getArgument(6);
+                JSONObject first = row(1, "core", "master", "fix", "alice", 100);
+                first.put("hashtags", Arrays.asList("Release"));
+                visitor.visit(first);
+                visitor.visit(row(2, "core", "stable", null, "bob", 300));
+                visitor.visit(row(3, "web", "master", "fix", "alice", 200));
+                return 3L;
+            }
+        }).when(handler).queryAll(eq(ChangeIndex.WARM_QUERY), anyBoolean(), anyBoolean(), anyBoolean(),
+                anyBoolean(), anyBoolean(), any(QueryVisitor.class));
+        index = new ChangeIndex();
+        index.warm(handler);
+    }
+
+    /**
+     * Tests which queries the index can answer.
+     */
+    @Test
+    public void testParse() {
+        assertNotNull(ChangeIndex.parse("status:open"));
+        assertNotNull(ChangeIndex.parse("project:core AND is:open branch:refs/heads/master limit:5"));
+        assertNotNull(ChangeIndex.parse("status:open topic:\"two words\" owner:{Alice}"));
+        assertEquals(5, ChangeIndex.parse("status:open limit:5").getLimit());
+        assertEquals(ChangeIndex.DEFAULT_LIMIT, ChangeIndex.parse("status:open").getLimit());
+        assertEquals(ChangeIndex.DEFAULT_LIMIT, ChangeIndex.parse("status:open limit:100000").getLimit());
+        assertEquals("I2ab", ChangeIndex.parse("status:open change:i2ab").getTerms().get(0)[1]);
+        assertEquals("master", ChangeIndex.parse("status:open branch:refs/heads/master").getTerms().get(0)[1]);
+        assertEquals("two words", ChangeIndex.parse("status:open topic:\"two words\"").getTerms().get(0)[1]);
+
+        assertNull(ChangeIndex.parse("project:core"));
+        assertNull(ChangeIndex.parse("status:merged project:core"));
+        assertNull(ChangeIndex.parse("status:open -project:core"));
+        assertNull(ChangeIndex.parse("status:open (project:core OR project:web)"));
+        assertNull(ChangeIndex.parse("status:open project:^core.*"));
+        assertNull(ChangeIndex.parse("status:open owner:self"));
+        assertNull(ChangeIndex.parse("status:open reviewer:alice"));
+        assertNull(ChangeIndex.parse("status:open change:2"));
+        assertNull(ChangeIndex.parse("status:open limit:0"));
+        assertNull(ChangeIndex.parse("status:open topic:\"unterminated"));
+    }
+
+    /**
+     * Tests that queries are answered from the posting lists, newest first.
+     */
+    @Test
+    public void testQuery() {
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("I2", "I3", "I1"), ids(index.query("status:open")));
+        assertEquals(Arrays.asList("I2", "I1"), ids(index.query("status:open project:core")));
+        assertEquals(Arrays.asList("I1"), ids(index.query("project:core status:open branch:master")));
+        assertEquals(Arrays.asList("I3", "I1"), ids(index.query("status:open topic:fix owner:ALICE")));
+        assertEquals(Arrays.asList("I3"), ids(index.query("status:open owner:alice@example.com limit:1")));
+        assertEquals(Arrays.asList("I2"), ids(index.query("status:open change:I2")));
+        assertEquals(Arrays.asList("I3", "I1"), ids(index.query("status:open owner:\"Alice Example\"")));
+        assertEquals(Collections.emptyList(), index.query("status:open project:missing"));
+        assertNull(index.query("status:merged"));
+        assertNull(index.query("status:open change:2"));
+        assertEquals(8, index.getHits());
+        assertEquals(2, index.getMisses());
+    }
+
+    /**
+     * Tests that Change-Ids are matched by prefix, and that callers get copies.
+     */
+    @Test
+    public void testChangeIdPrefixAndCopies() {
+        index.gerritEvent(event(new PatchsetCreated(), row(20, "web", "master", null, "carol", 400), 400));
+        assertEquals(Arrays.asList("I20", "I2"), ids(index.query("status:open change:I2")));
+        assertEquals(Arrays.asList("I20"), ids(index.query("status:open change:i20")));
+
+        Change change = index.query("status:open change:I3").get(0);
+        change.setTopic("changed");
+        change.getOwner().setUsername("mallory");
+        assertEquals(Arrays.asList("I3", "I1"), ids(index.query("status:open topic:fix")));
+        assertEquals("alice", index.query("status:open change:I3").get(0).getOwner().getUsername());
+        assertNotSame(index.query("status:open change:I3").get(0), index.query("status:open change:I3").get(0));
+    }
+
+    /**
+     * Tests that events keep the index up to date.
+     */
+    @Test
+    public void testEvents() {
+        index.gerritEvent(event(new PatchsetCreated(), row(4, "web", "master", null, "carol", 400), 400));
+        index.gerritEvent(event(new TopicChanged(), row(1, "core", "master", "feature", "alice", 100), 500));
+        index.gerritEvent(event(new ChangeMerged(), row(2, "core", "stable", null, "bob", 300), 600));
+        index.gerritEvent(event(new CommentAdded(), row(99, "core", "master", null, "dave", 700), 700));
+
+        assertEquals(Arrays.asList("I1", "I4", "I3"), ids(index.query("status:open")));
+        assertEquals(Arrays.asList("I1"), ids(index.query("status:open topic:feature")));
+        assertEquals(Arrays.asList("I3"), ids(index.query("status:open topic:fix")));
+        assertEquals(Collections.emptyList(), index.query("status:open branch:stable"));
+    }
+
+    /**
+     * Tests that an event leaving out attributes of a change, like the hashtags and the topic, doesn't take
+     * them away from the indexed change, while the events about them do.
+     */
+    @Test
+    public void testEventsMergeIntoIndexed() {
+        JSONObject patchset = row(1, "core", "master", null, "alice", 400);
+        patchset.getJSONObject("owner").remove("email");
+        index.gerritEvent(event(new PatchsetCreated(), patchset, 400));
+        assertEquals(Arrays.asList("I1"), ids(index.query("status:open hashtag:release")));
+        assertEquals(Arrays.asList("I1"), ids(index.query("status:open topic:fix project:core")));
+        assertEquals(Arrays.asList("I1"), ids(index.query("status:open owner:alice@example.com project:core")));
+        assertEquals(Arrays.asList("I1", "I2", "I3"), ids(index.query("status:open")));
+
+        index.gerritEvent(event(new TopicChanged(), row(1, "core", "master", null, "alice", 500), 500));
+        assertEquals(Arrays.asList("I3"), ids(index.query("status:open topic:fix")));
+
+        JSONObject hashtags = new JSONObject();
+        hashtags.put("type", "hashtags-changed");
+        hashtags.put("change", row(1, "core", "master", null, "alice", 600));
+        hashtags.put("added", Arrays.asList("Hotfix"));
+        hashtags.put("removed", Arrays.asList("Release"));
+        hashtags.put("eventCreatedOn", 600);
+        HashtagsChanged changed = new HashtagsChanged();
+        changed.fromJson(hashtags);
+        index.gerritEvent(changed);
+        assertEquals(Collections.emptyList(), index.query("status:open hashtag:release"));
+        assertEquals(Arrays.asList("I1"), ids(index.query("status:open hashtag:hotfix")));
+    }
+
+    /**
+     * Tests that the index stops answering when the stream goes down, until warmed again.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testConnectionDown() throws Exception {
+        index.connectionDown();
+        assertFalse(index.isReady());
+        assertNull(index.query("status:open"));
+        index.warm(handler);
+        assertTrue(index.isReady());
+        assertEquals(3, index.query("status:open").size());
+    }
+
+    /**
+     * Tests that the router answers supported queries locally and sends the rest to the server.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRouter() throws Exception {
+        ChangeQueryRouter router = new ChangeQueryRouter(handler, index);
+
+        assertEquals(Arrays.asList("I2", "I1"), ids(router.queryChanges("status:open project:core",
+                QueryProjection.CHANGE)));
+        verify(handler, never()).queryChanges(anyString(), any(QueryProjection.class), any(ChangeVisitor.class));
+
+        router.queryChanges("status:open project:core", QueryProjection.CURRENT_PATCH_SET_FILES);
+        router.queryChanges("status:merged project:core", QueryProjection.CHANGE);
+        verify(handler).queryChanges(eq("status:open project:core"), eq(QueryProjection.CURRENT_PATCH_SET_FILES),
+                any(ChangeVisitor.class));
+        verify(handler).queryChanges(eq("status:merged project:core"), eq(QueryProjection.CHANGE),
+                any(ChangeVisitor.class));
+        assertEquals(1, router.getLocalQueries());
+        assertEquals(2, router.getForwardedQueries());
+        assertEquals("gerrit:29418", router.getServerKey());
+    }
+}
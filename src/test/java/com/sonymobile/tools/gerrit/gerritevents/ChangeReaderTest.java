@@ -0,0 +1,183 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.google.gson.stream.JsonReader;
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritChangeStatus;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.PatchSet;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 180 LINES. REASON: TestData
+
+/**
+ * Tests for {@link ChangeReader}.
+ */
+public class ChangeReaderTest {
+
+    private static final String ROW = "{\"project\":\"p\",\"branch\":\"master\",\"id\":\"I1\",\"number\":1,"
+            + "\"subject\":\"Fix\",\"owner\":{\"name\":\"Owner\",\"username\":\"owner\"},\"url\":\"http://g/1\","
+            + "\"hashtags\":[\"a\",\"b\"],\"topic\":\"\",\"wip\":true,\"createdOn\":1577836810,\"status\":\"NEW\","
+            + "\"commitMessage\":\"m\",\"comments\":[{\"message\":\"c\",\"reviewer\":{\"username\":\"rev\"}}],"
+            + "\"unknown\":{\"x\":[1,{\"y\":null}]},"
+            + "\"patchSets\":[{\"number\":1,\"revision\":\"aaa\"},{\"number\":2,\"revision\":\"bbb\"}],"
+            + "\"currentPatchSet\":{\"number\":2,\"revision\":\"bbb\",\"ref\":\"refs/changes/01/1/2\","
+            + "\"kind\":\"REWORK\",\"parents\":[\"ccc\"],\"author\":{\"email\":\"a@b\"},"
+            + "\"approvals\":[{\"type\":\"Verified\",\"value\":\"1\",\"by\":{\"username\":\"ci\"}}],"
+            + "\"files\":[{\"file\":\"/COMMIT_MSG\",\"type\":\"ADDED\"},{\"file\":\"a.txt\",\"type\":\"MODIFIED\"}]}}";
+
+    private static final String CHANGE_INFO = "{\"project\":\"p\",\"change_id\":\"I1\",\"_number\":42,"
+            + "\"status\":\"MERGED\",\"created\":\"2020-01-01 00:00:10.000000000\",\"hashtags\":[\"h\"],"
+            + "\"labels\":{\"Code-Review\":{\"all\":[{\"value\":2,\"username\":\"rev\"},{\"value\":0}]}},"
+            + "\"messages\":[{\"message\":\"Looks good\",\"author\":{\"username\":\"rev\"}}],"
+            + "\"revisions\":{"
+            + "\"bbb\":{\"_number\":2,\"ref\":\"refs/changes/42/42/2\",\"kind\":\"REWORK\","
+            + "\"commit\":{\"parents\":[{\"commit\":\"ccc\"}],\"message\":\"Fix\"},"
+            + "\"files\":{\"a.txt\":{\"lines_inserted\":1},\"b.txt\":{}}},"
+            + "\"aaa\":{\"_number\":1,\"ref\":\"refs/changes/42/42/1\"}},"
+            + "\"current_revision\":\"bbb\",\"_more_changes\":true}";
+
+    /**
+     * The ssh query row of the same change as {@link #CHANGE_INFO}.
+     */
+    private static final String CHANGE_INFO_ROW = "{\"project\":\"p\",\"id\":\"I1\",\"number\":42,"
+            + "\"status\":\"MERGED\",\"createdOn\":1577836810,\"hashtags\":[\"h\"],\"commitMessage\":\"Fix\","
+            + "\"comments\":[{\"message\":\"Looks good\",\"reviewer\":{\"username\":\"rev\"}}],"
+            + "\"patchSets\":[{\"number\":1,\"revision\":\"aaa\",\"ref\":\"refs/changes/42/42/1\"},"
+            + "{\"number\":2,\"revision\":\"bbb\",\"ref\":\"refs/changes/42/42/2\"}],"
+            + "\"currentPatchSet\":{\"number\":2,\"revision\":\"bbb\",\"ref\":\"refs/changes/42/42/2\","
+            + "\"kind\":\"REWORK\",\"parents\":[\"ccc\"],"
+            + "\"approvals\":[{\"type\":\"Code-Review\",\"value\":\"2\",\"by\":{\"username\":\"rev\"}}],"
+            + "\"files\":[{\"file\":\"a.txt\"},{\"file\":\"b.txt\"}]}}";
+
+    /**
+     * Tests that a row read with everything decodes into the same change as through a JSONObject.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testRowAsJsonObject() throws IOException {
+        ChangeReader reader = new ChangeReader(QueryProjection.ALL);
+        Change change = reader.readRow(ROW);
+        Change expected = new Change(JSONObject.fromObject(ROW));
+
+        assertNull(reader.getType());
+        assertEquals(expected, change);
+        assertEquals("p", change.getProject());
+        assertEquals("1", change.getNumber());
+        assertEquals("owner", change.getOwner().getUsername());
+        assertEquals(expected.getCreatedOn(), change.getCreatedOn());
+        assertEquals(Arrays.asList("a", "b"), change.getHashtags());
+        assertNull(change.getTopic());
+        assertTrue(change.isWip());
+        assertEquals(GerritChangeStatus.NEW, change.getStatus());
+        assertEquals("m", change.getCommitMessage());
+        assertEquals("rev", change.getComments().get(0).getReviewer().getUsername());
+        assertEquals(2, change.getPatchSets().size());
+
+        PatchSet current = change.getCurrentPatchSet();
+        assertEquals(expected.getCurrentPatchSet(), current);
+        assertEquals("refs/changes/01/1/2", current.getRef());
+        assertEquals(Collections.singletonList("ccc"), current.getParents());
+        assertEquals("a@b", current.getAuthor().getEmail());
+        assertEquals("Verified", current.getApprovals().get(0).getType());
+        assertEquals("ci", current.getApprovals().get(0).getBy().getUsername());
+        assertEquals(Arrays.asList("/COMMIT_MSG", "a.txt"), current.getFiles());
+    }
+
+    /**
+     * Tests that the parts the projection doesn't want are not decoded.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testRowProjected() throws IOException {
+        Change change = new ChangeReader(QueryProjection.CHANGE).readRow(ROW);
+        assertEquals("I1", change.getId());
+        assertNull(change.getCommitMessage());
+        assertNull(change.getComments());
+        assertNull(change.getPatchSets());
+        assertNull(change.getCurrentPatchSet());
+
+        change = new ChangeReader(QueryProjection.CHANGE.withCurrentPatchSet()).readRow(ROW);
+        assertEquals("bbb", change.getCurrentPatchSet().getRevision());
+        assertNull(change.getCurrentPatchSet().getApprovals());
+        assertNull(change.getCurrentPatchSet().getFiles());
+    }
+
+    /**
+     * Tests that the type and message of the statistics and error rows are told.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testTypedRows() throws IOException {
+        ChangeReader reader = new ChangeReader(QueryProjection.CHANGE);
+        reader.readRow("{\"type\":\"error\",\"message\":\"bad query\"}");
+        assertEquals("error", reader.getType());
+        assertEquals("bad query", reader.getMessage());
+        reader.readRow("{\"type\":\"stats\",\"rowCount\":1,\"moreChanges\":false}");
+        assertEquals("stats", reader.getType());
+        assertNull(reader.getMessage());
+        reader.readRow("{\"id\":\"I1\"}");
+        assertNull(reader.getType());
+    }
+
+    /**
+     * Tests that a row that isn't a JSON object fails to decode.
+     *
+     * @throws IOException as expected.
+     */
+    @Test(expected = IOException.class)
+    public void testInvalidRow() throws IOException {
+        new ChangeReader(QueryProjection.ALL).readRow("{\"id\":");
+    }
+
+    /**
+     * Tests that a ChangeInfo decodes into the same change as its ssh query row, also when the current revision
+     * comes after the revisions.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testChangeInfo() throws IOException {
+        Change expected = new Change(JSONObject.fromObject(CHANGE_INFO_ROW));
+
+        Change change = new ChangeReader(QueryProjection.ALL).readChangeInfo(
+                new JsonReader(new StringReader(CHANGE_INFO)));
+
+        assertEquals(expected, change);
+        assertEquals("42", change.getNumber());
+        assertEquals(expected.getCreatedOn(), change.getCreatedOn());
+        assertEquals(GerritChangeStatus.MERGED, change.getStatus());
+        assertEquals(Collections.singletonList("h"), change.getHashtags());
+        assertEquals("Fix", change.getCommitMessage());
+        assertEquals("rev", change.getComments().get(0).getReviewer().getUsername());
+        assertEquals(2, change.getPatchSets().size());
+        assertEquals("aaa", change.getPatchSets().get(0).getRevision());
+        PatchSet current = change.getCurrentPatchSet();
+        assertEquals(expected.getCurrentPatchSet(), current);
+        assertEquals(expected.getCurrentPatchSet().getRef(), current.getRef());
+        assertEquals(expected.getCurrentPatchSet().getKind(), current.getKind());
+        assertEquals(expected.getCurrentPatchSet().getParents(), current.getParents());
+        assertEquals(expected.getCurrentPatchSet().getFiles(), current.getFiles());
+        assertEquals(1, current.getApprovals().size());
+        assertEquals("Code-Review", current.getApprovals().get(0).getType());
+        assertEquals("2", current.getApprovals().get(0).getValue());
+
+        change = new ChangeReader(QueryProjection.CHANGE.withCurrentPatchSet()).readChangeInfo(
+                new JsonReader(new StringReader(CHANGE_INFO)));
+        assertNull(change.getCommitMessage());
+        assertNull(change.getComments());
+        assertNull(change.getCurrentPatchSet().getFiles());
+        assertNull(change.getCurrentPatchSet().getApprovals());
+    }
+}
@@ -0,0 +1,227 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.source.FileTailEventSource;
+import com.sonymobile.tools.gerrit.gerritevents.source.SocketEventSource;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.StreamWatchdog;
+import com.sonymobile.tools.gerrit.gerritevents.watchdog.WatchTimeExceptionData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests {@link EventSourceConnection} with the file and socket sources.
+ */
+public class EventSourceConnectionTest {
+
+    private final Provider provider = new Provider("gerrit", "localhost", "0", "file", "http://localhost/", "");
+    private final List<String> posted = Collections.synchronizedList(new ArrayList<String>());
+    private EventSourceConnection connection;
+    private GerritHandler handler;
+
+    /**
+     * Creates the handler.
+     */
+    @Before
+    public void setUp() {
+        handler = new GerritHandler() {
+            @Override
+            public void post(byte[] line, Provider p) {
+                posted.add(p.getName() + ":" + new String(line, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Stops the connection.
+     */
+    @After
+    public void tearDown() {
+        if (connection != null) {
+            connection.shutdown(true);
+        }
+    }
+
+    /**
+     * Tests that appended lines are posted and that the offset follows the complete lines.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testFileTail() throws Exception {
+        File file = File.createTempFile("events", ".json");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            out.write("{\"a\":1}\n{\"a\":2}\n{\"a\"".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            FileTailEventSource source = new FileTailEventSource(file, provider);
+            source.setPollInterval(20);
+            connection = new EventSourceConnection(source);
+            connection.setHandler(handler);
+            connection.start();
+            waitForPosted(2);
+            assertEquals(16, source.getOffset());
+            out.write(":3}\n".getBytes(StandardCharsets.UTF_8));
+            out.close();
+            waitForPosted(3);
+            assertEquals("gerrit:{\"a\":3}", posted.get(2));
+            assertEquals(file.length(), source.getOffset());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that a rotated file is followed to the new file, also when the new file is already as long as the old.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testFileRotation() throws Exception {
+        File file = File.createTempFile("events", ".json");
+        File rotated = new File(file.getPath() + ".1");
+        try {
+            Files.write(file.toPath(), "{\"a\":1}\n".getBytes(StandardCharsets.UTF_8));
+            FileTailEventSource source = new FileTailEventSource(file, provider);
+            source.setPollInterval(20);
+            connection = new EventSourceConnection(source);
+            connection.setHandler(handler);
+            connection.start();
+            waitForPosted(1);
+            assertEquals(8, source.getOffset());
+            Files.move(file.toPath(), rotated.toPath());
+            Files.write(file.toPath(), "{\"b\":1}\n{\"b\":2}\n".getBytes(StandardCharsets.UTF_8));
+            waitForPosted(3);
+            assertEquals("gerrit:{\"b\":1}", posted.get(1));
+            assertEquals("gerrit:{\"b\":2}", posted.get(2));
+            assertEquals(16, source.getOffset());
+        } finally {
+            file.delete();
+            rotated.delete();
+        }
+    }
+
+    /**
+     * Tests that the lines from a socket are posted and that the socket is reopened when lost.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testSocketReconnect() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        try {
+            Thread serverThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 1; i <= 2; i++) {
+                            Socket socket = server.accept();
+                            socket.getOutputStream().write(("{\"n\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+                            socket.close();
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Socket server: " + e);
+                    }
+                }
+            });
+            serverThread.start();
+            final CountDownLatch down = new CountDownLatch(2);
+            connection = new EventSourceConnection(new SocketEventSource("localhost", server.getLocalPort(),
+                    provider));
+            connection.setHandler(handler);
+            connection.addListener(new ConnectionListener() {
+                @Override
+                public void connectionEstablished() {
+                }
+
+                @Override
+                public void connectionDown() {
+                    down.countDown();
+                }
+            });
+            connection.start();
+            waitForPosted(2);
+            assertEquals("gerrit:{\"n\":1}", posted.get(0));
+            assertEquals("gerrit:{\"n\":2}", posted.get(1));
+            assertTrue(down.await(20, TimeUnit.SECONDS));
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Tests that the watchdog reconnects a quiet socket session after session, with the one watchdog of the loop.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testWatchdogKeptAcrossSessions() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final List<Socket> accepted = Collections.synchronizedList(new ArrayList<Socket>());
+        try {
+            Thread serverThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 1; i <= 3; i++) {
+                            Socket socket = server.accept();
+                            accepted.add(socket);
+                            socket.getOutputStream().write(("{\"n\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Socket server: " + e);
+                    }
+                }
+            });
+            serverThread.start();
+            int before = StreamWatchdog.getActiveCount();
+            connection = new EventSourceConnection(new SocketEventSource("localhost", server.getLocalPort(),
+                    provider), 1, new WatchTimeExceptionData(new int[0],
+                    Collections.<WatchTimeExceptionData.TimeSpan>emptyList()));
+            connection.setHandler(handler);
+            connection.start();
+            waitForPosted(1);
+            assertEquals(before + 1, StreamWatchdog.getActiveCount());
+            waitForPosted(3);
+            assertEquals(before + 1, StreamWatchdog.getActiveCount());
+            connection.shutdown(true);
+            connection = null;
+            assertEquals(before, StreamWatchdog.getActiveCount());
+        } finally {
+            server.close();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Waits until the handler has been given the number of lines.
+     *
+     * @param count the number of lines.
+     * @throws InterruptedException if so.
+     */
+    private void waitForPosted(int count) throws InterruptedException {
+        while (posted.size() < count) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.rest.EventsLogClient;
+import com.sonymobile.tools.gerrit.gerritevents.rest.RestConnectionConfig;
+import com.sonymobile.tools.gerrit.gerritevents.source.EventsLogPollingSource;
+import com.sonymobile.tools.gerrit.gerritevents.stream.FileHighWaterMarkStore;
+import com.sonymobile.tools.gerrit.gerritevents.stream.LineFramer;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 250 LINES. REASON: TestData
+
+/**
+ * Tests {@link EventsLogCatchUp}, {@link EventsLogClient} and {@link EventsLogPollingSource}
+ * against a local events-log stand-in.
+ */
+public class EventsLogCatchUpTest {
+
+    private static final String EVENTS_PATH = "/a/plugins/events-log/events/";
+    private static final long BASE = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 60;
+    private static final String FIRST = "{\"type\":\"ref-updated\",\"eventCreatedOn\":" + BASE + "}";
+    private static final String SECOND = "{\"type\":\"change-merged\",\"eventCreatedOn\":" + (BASE + 1) + "}";
+    private static final String THIRD = "{\"type\":\"comment-added\",\"eventCreatedOn\":" + (BASE + 2) + "}";
+
+    private final List<String> posted = Collections.synchronizedList(new ArrayList<String>());
+    private final Provider provider = new Provider("gerrit", "localhost", "29418", "ssh", "http://localhost/", "3.5");
+    private WireMockServer wireMockServer;
+    private EventsLogClient client;
+    private GerritHandler handler;
+
+    /**
+     * Starts the stand-in.
+     */
+    @Before
+    public void setUp() {
+        wireMockServer = new WireMockServer(new WireMockConfiguration().dynamicPort());
+        wireMockServer.start();
+        final String url = "http://localhost:" + wireMockServer.port() + "/";
+        client = new EventsLogClient(new RestConnectionConfig() {
+            @Override
+            public String getGerritFrontEndUrl() {
+                return url;
+            }
+
+            @Override
+            public Credentials getHttpCredentials() {
+                return new UsernamePasswordCredentials("user", "password");
+            }
+
+            @Override
+            public String getGerritProxy() {
+                return null;
+            }
+        });
+        client.setTimeZone(TimeZone.getTimeZone("UTC"));
+        handler = new GerritHandler() {
+            @Override
+            public void post(byte[] line, Provider p) {
+                posted.add(new String(line, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Stops the stand-in.
+     */
+    @After
+    public void tearDown() {
+        wireMockServer.stop();
+    }
+
+    /**
+     * Tests that a long range is fetched page by page.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testPagination() throws Exception {
+        wireMockServer.stubFor(get(urlPathEqualTo(EVENTS_PATH))
+                .willReturn(aResponse().withStatus(200).withBody(FIRST + "\n" + SECOND)));
+        client.setPageSeconds(10);
+        final List<String> lines = new ArrayList<String>();
+        long count = client.fetch(1000, 1025, new LineFramer.LineSink() {
+            @Override
+            public void onLine(byte[] line) {
+                lines.add(new String(line, StandardCharsets.UTF_8));
+            }
+        });
+        assertEquals(6, count);
+        assertEquals(SECOND, lines.get(5));
+        wireMockServer.verify(3, getRequestedFor(urlPathEqualTo(EVENTS_PATH)));
+        wireMockServer.verify(1, getRequestedFor(urlPathEqualTo(EVENTS_PATH))
+                .withQueryParam("t1", equalTo("1970.01.01 00:16:40"))
+                .withQueryParam("t2", equalTo("1970.01.01 00:16:50")));
+    }
+
+    /**
+     * Tests that the missed events are posted ahead of the held back ones, and that each is posted once.
+     */
+    @Test
+    public void testCatchUp() {
+        wireMockServer.stubFor(get(urlPathEqualTo(EVENTS_PATH))
+                .willReturn(aResponse().withStatus(200).withBody(FIRST + "\n" + SECOND + "\n" + THIRD + "\n")));
+        FileHighWaterMarkStore store = new FileHighWaterMarkStore(null);
+        EventsLogCatchUp catchUp = new EventsLogCatchUp(client, store);
+        //Delivered before the connection was lost.
+        catchUp.deliver(handler, bytes(FIRST), provider);
+        assertEquals(BASE, store.get("gerrit"));
+
+        String live = "{\"type\":\"patchset-created\",\"eventCreatedOn\":" + (BASE + 3) + "}";
+        Thread thread = catchUp.start(handler, provider);
+        assertTrue(thread != null);
+        catchUp.deliver(handler, bytes(THIRD), provider);
+        catchUp.deliver(handler, bytes(live), provider);
+        waitFor(thread);
+
+        assertEquals(4, posted.size());
+        assertEquals(FIRST, posted.get(0));
+        assertEquals(SECOND, posted.get(1));
+        assertEquals(THIRD, posted.get(2));
+        assertEquals(live, posted.get(3));
+        assertEquals(BASE + 3, store.get("gerrit"));
+        assertFalse(catchUp.isCatchingUp());
+    }
+
+    /**
+     * Tests that the events arriving while catching up are fetched when there are too many to hold back.
+     */
+    @Test
+    public void testTooManyHeld() {
+        String live = "{\"type\":\"patchset-created\",\"eventCreatedOn\":" + (BASE + 3) + "}";
+        String later = "{\"type\":\"change-abandoned\",\"eventCreatedOn\":" + (BASE + 4) + "}";
+        wireMockServer.stubFor(get(urlPathEqualTo(EVENTS_PATH)).inScenario("overflow")
+                .whenScenarioStateIs(Scenario.STARTED).willSetStateTo("fetched")
+                .willReturn(aResponse().withStatus(200).withFixedDelay(1000).withBody(FIRST + "\n" + SECOND)));
+        wireMockServer.stubFor(get(urlPathEqualTo(EVENTS_PATH)).inScenario("overflow")
+                .whenScenarioStateIs("fetched")
+                .willReturn(aResponse().withStatus(200).withBody(SECOND + "\n" + THIRD + "\n" + live)));
+        FileHighWaterMarkStore store = new FileHighWaterMarkStore(null);
+        store.update("gerrit", BASE);
+        EventsLogCatchUp catchUp = new EventsLogCatchUp(client, store);
+        catchUp.setMaxHeld(1);
+        Thread thread = catchUp.start(handler, provider);
+        catchUp.deliver(handler, bytes(THIRD), provider);
+        catchUp.deliver(handler, bytes(live), provider);
+        waitFor(thread);
+        catchUp.deliver(handler, bytes(later), provider);
+
+        assertEquals(5, posted.size());
+        assertEquals(FIRST, posted.get(0));
+        assertEquals(SECOND, posted.get(1));
+        assertEquals(THIRD, posted.get(2));
+        assertEquals(live, posted.get(3));
+        assertEquals(later, posted.get(4));
+        wireMockServer.verify(2, getRequestedFor(urlPathEqualTo(EVENTS_PATH)));
+    }
+
+    /**
+     * Tests that the held back events are posted even if the events-log can't be reached.
+     */
+    @Test
+    public void testCatchUpFailure() {
+        wireMockServer.stubFor(get(urlPathEqualTo(EVENTS_PATH)).willReturn(aResponse().withStatus(404)));
+        FileHighWaterMarkStore store = new FileHighWaterMarkStore(null);
+        store.update("gerrit", BASE);
+        EventsLogCatchUp catchUp = new EventsLogCatchUp(client, store);
+        Thread thread = catchUp.start(handler, provider);
+        catchUp.deliver(handler, bytes(SECOND), provider);
+        waitFor(thread);
+        assertEquals(1, posted.size());
+        assertEquals(SECOND, posted.get(0));
+    }
+
+    /**
+     * Tests that nothing is fetched without a high-water mark.
+     */
+    @Test
+    public void testNoMark() {
+        EventsLogCatchUp catchUp = new EventsLogCatchUp(client, new FileHighWaterMarkStore(null));
+        assertEquals(null, catchUp.start(handler, provider));
+        catchUp.deliver(handler, bytes(FIRST), provider);
+        assertEquals(1, posted.size());
+    }
+
+    /**
+     * Tests that the polls back off while they come back empty, and speed up again when there are events.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testPollingBackoff() throws Exception {
+        wireMockServer.stubFor(get(urlPathEqualTo(EVENTS_PATH)).willReturn(aResponse().withStatus(200).withBody("")));
+        EventsLogPollingSource source = new EventsLogPollingSource(client, provider);
+        source.setPollInterval(200);
+        source.setMaxPollInterval(800);
+        EventSourceConnection connection = new EventSourceConnection(source);
+        connection.setHandler(handler);
+        connection.start();
+        try {
+            while (source.getCurrentInterval() < 800) {
+                Thread.sleep(20);
+            }
+            wireMockServer.stubFor(get(urlPathEqualTo(EVENTS_PATH))
+                    .willReturn(aResponse().withStatus(200).withBody(FIRST)));
+            while (posted.isEmpty()) {
+                Thread.sleep(20);
+            }
+            assertTrue(source.getCurrentInterval() < 800);
+            assertEquals(FIRST, posted.get(0));
+        } finally {
+            connection.shutdown(true);
+        }
+    }
+
+    /**
+     * Waits for the catch-up thread to finish.
+     *
+     * @param thread the thread.
+     */
+    private static void waitFor(Thread thread) {
+        try {
+            thread.join(20000);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * UTF-8 bytes of the string.
+     *
+     * @param line the string.
+     * @return the bytes.
+     */
+    private static byte[] bytes(String line) {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+}
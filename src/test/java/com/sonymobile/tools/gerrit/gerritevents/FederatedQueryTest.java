@@ -0,0 +1,241 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests for {@link FederatedQuery}.
+ */
+public class FederatedQueryTest {
+
+    private static final Provider ALPHA = new Provider("alpha", "alpha.example.com", "29418", "ssh", null, null);
+    private static final Provider BETA = new Provider("beta", "beta.example.com", "29418", "ssh", null, null);
+
+    /**
+     * A server answering with changes named by number and last updated at the given seconds.
+     */
+    private static class FakeHandler implements ChangeQueryHandler {
+        private final String server;
+        private final long[] updated;
+        private final IOException failure;
+        private final CountDownLatch release;
+
+        /**
+         * Constructor.
+         *
+         * @param server  the server key.
+         * @param failure what to fail with after the changes, or null.
+         * @param release what to wait for before answering, or null.
+         * @param updated the last update of the changes, in seconds.
+         */
+        FakeHandler(String server, IOException failure, CountDownLatch release, long... updated) {
+            this.server = server;
+            this.failure = failure;
+            this.release = release;
+            this.updated = updated;
+        }
+
+        @Override
+        public void queryChanges(String queryString, QueryProjection projection, ChangeVisitor visitor)
+                throws IOException, GerritQueryException {
+            if (release != null) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            for (long seconds : updated) {
+                Change change = new Change();
+                change.setNumber(server + seconds);
+                change.setLastUpdated(new Date(TimeUnit.SECONDS.toMillis(seconds)));
+                if (!visitor.visit(change)) {
+                    return;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public String getServerKey() {
+            return server;
+        }
+    }
+
+    /**
+     * Collects the changes as provider/number.
+     */
+    private static class Collector implements FederatedQuery.ResultVisitor {
+        private final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        private final int limit;
+
+        /**
+         * Constructor.
+         *
+         * @param limit the number of changes to take before stopping.
+         */
+        Collector(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean visit(Provider provider, Change change) {
+            changes.add(provider.getName() + "/" + change.getNumber());
+            return changes.size() < limit;
+        }
+    }
+
+    /**
+     * Tests that the changes of all servers are handed over tagged with their server.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testQuery() throws Exception {
+        FederatedQuery query = new FederatedQuery(new AsyncQueryExecutor(2, 0), 0)
+                .addServer(ALPHA, new FakeHandler("a", null, null, 3, 2, 1))
+                .addServer(BETA, new FakeHandler("b", null, null, 5, 4));
+        Collector collector = new Collector(Integer.MAX_VALUE);
+
+        FederatedQuery.Result result = query.query("status:open", QueryProjection.CHANGE, collector);
+
+        assertEquals(5, result.getCount());
+        assertTrue(result.isComplete());
+        assertEquals(new HashSet<String>(Arrays.asList("alpha/a3", "alpha/a2", "alpha/a1", "beta/b5", "beta/b4")),
+                new HashSet<String>(collector.changes));
+        assertTrue(collector.changes.indexOf("alpha/a3") < collector.changes.indexOf("alpha/a1"));
+    }
+
+    /**
+     * Tests that the sorted query merges the servers newest first.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testQuerySorted() throws Exception {
+        FederatedQuery query = new FederatedQuery(new AsyncQueryExecutor(2, 0), 0)
+                .addServer(ALPHA, new FakeHandler("a", null, null, 9, 4, 3, 1))
+                .addServer(BETA, new FakeHandler("b", null, null, 7, 5, 2));
+        Collector collector = new Collector(Integer.MAX_VALUE);
+
+        FederatedQuery.Result result = query.querySorted("status:open", QueryProjection.CHANGE, collector);
+
+        assertEquals(7, result.getCount());
+        assertEquals(Arrays.asList("alpha/a9", "beta/b7", "beta/b5", "alpha/a4", "alpha/a3", "beta/b2", "alpha/a1"),
+                collector.changes);
+    }
+
+    /**
+     * Tests that a failing server is told and the others are still handed over.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testPartialFailure() throws Exception {
+        IOException failure = new IOException("connection reset");
+        FederatedQuery query = new FederatedQuery(new AsyncQueryExecutor(2, 0), 0)
+                .addServer(ALPHA, new FakeHandler("a", failure, null, 2))
+                .addServer(BETA, new FakeHandler("b", null, null, 3, 1));
+        Collector collector = new Collector(Integer.MAX_VALUE);
+
+        FederatedQuery.Result result = query.querySorted("status:open", QueryProjection.CHANGE, collector);
+
+        assertEquals(Arrays.asList("beta/b3", "alpha/a2", "beta/b1"), collector.changes);
+        assertFalse(result.isComplete());
+        assertEquals(1, result.getFailures().size());
+        assertEquals(failure, result.getFailures().get(ALPHA));
+    }
+
+    /**
+     * Tests that a server past its timeout is stopped and told, without holding up the others.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 5000)
+    public void testTimeout() throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        FederatedQuery query = new FederatedQuery(new AsyncQueryExecutor(2, 0), 0)
+                .addServer(ALPHA, new FakeHandler("a", null, never, 2), 200)
+                .addServer(BETA, new FakeHandler("b", null, null, 3, 1));
+        Collector collector = new Collector(Integer.MAX_VALUE);
+
+        FederatedQuery.Result result = query.querySorted("status:open", QueryProjection.CHANGE, collector);
+
+        assertEquals(Arrays.asList("beta/b3", "beta/b1"), collector.changes);
+        assertTrue(result.getFailures().get(ALPHA) instanceof TimeoutException);
+        assertFalse(result.getFailures().containsKey(BETA));
+    }
+
+    /**
+     * Tests that a server whose query times out in the executor before it ever runs is told as done,
+     * so the query doesn't wait for it forever.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 5000)
+    public void testTimeoutBeforeRun() throws Exception {
+        ChangeQueryHandler stuck = new FakeHandler("a", null, null) {
+            @Override
+            public void queryChanges(String queryString, QueryProjection projection, ChangeVisitor visitor) {
+                long end = System.currentTimeMillis() + 1000;
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        Thread.sleep(Math.max(1, end - System.currentTimeMillis()));
+                    } catch (InterruptedException e) {
+                        //Holds the slot of the server past the timeout of the query behind it.
+                    }
+                }
+            }
+        };
+        FederatedQuery query = new FederatedQuery(new AsyncQueryExecutor(1, 200), 0)
+                .addServer(ALPHA, stuck)
+                .addServer(BETA, new FakeHandler("a", null, null, 3, 1));
+        Collector collector = new Collector(Integer.MAX_VALUE);
+
+        FederatedQuery.Result result = query.query("status:open", QueryProjection.CHANGE, collector);
+
+        assertEquals(0, result.getCount());
+        assertTrue(result.getFailures().get(ALPHA) instanceof TimeoutException);
+        assertTrue(result.getFailures().get(BETA) instanceof TimeoutException);
+    }
+
+    /**
+     * Tests that the visitor can stop the query on all servers.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testStop() throws Exception {
+        FederatedQuery query = new FederatedQuery(new AsyncQueryExecutor(2, 0), 0)
+                .addServer(ALPHA, new FakeHandler("a", null, null, 3, 2, 1))
+                .addServer(BETA, new FakeHandler("b", null, null, 5, 4));
+        Collector collector = new Collector(2);
+
+        FederatedQuery.Result result = query.query("status:open", QueryProjection.CHANGE, collector);
+
+        assertEquals(2, result.getCount());
+        assertTrue(result.isStopped());
+        assertTrue(result.getFailures().isEmpty());
+    }
+}
@@ -0,0 +1,206 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.mock.SshdServerMock;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import org.apache.sshd.SshServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests {@link GerritConnection#setEndpoints(List)} against {@link SshdServerMock}.
+ */
+public class GerritConnectionFailoverTest {
+
+    private final List<SshServer> servers = new ArrayList<SshServer>();
+    private final CountDownLatch established = new CountDownLatch(1);
+    private final BlockingQueue<Provider> providers = new LinkedBlockingQueue<Provider>();
+    private GerritConnection connection;
+    private Authentication authentication;
+
+    /**
+     * Creates the key.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        authentication = new Authentication(SshdServerMock.generateKeyPair().getPrivateKey(), "jenkins");
+    }
+
+    /**
+     * Shuts down the connection and stops the servers.
+     *
+     * @throws Exception if so.
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.shutdown(true);
+        }
+        for (SshServer server : servers) {
+            server.stop(true);
+        }
+    }
+
+    /**
+     * Tests that a dead preferred endpoint is skipped for the next one without waiting.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testFailover() throws Exception {
+        GerritEndpoint dead = new GerritEndpoint("localhost", freePort());
+        GerritEndpoint live = new GerritEndpoint("localhost", startServer(freePort()));
+        connection = createConnection(dead, live);
+        connection.start();
+        assertTrue(established.await(20, TimeUnit.SECONDS));
+        assertSame(live, connection.getCurrentEndpoint());
+        assertEquals(1, dead.getFailures());
+        assertFalse(dead.isHealthy());
+        assertEquals(1, live.getAttempts());
+        assertTrue(live.isHealthy());
+        assertTrue(live.getLastLatencyMillis() >= 0);
+        assertTrue(live.getScore() > dead.getScore());
+        //The events still tell the configured address of the server, not the endpoint they came through.
+        Provider provider = providers.poll(20, TimeUnit.SECONDS);
+        assertEquals("localhost", provider.getHost());
+        assertEquals(String.valueOf(dead.getPort()), provider.getPort());
+    }
+
+    /**
+     * Tests that the connection moves back to the preferred endpoint when it recovers.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testFailback() throws Exception {
+        int preferredPort = freePort();
+        GerritEndpoint preferred = new GerritEndpoint("localhost", preferredPort);
+        GerritEndpoint fallback = new GerritEndpoint("localhost", startServer(freePort()));
+        connection = createConnection(preferred, fallback);
+        connection.setFailbackInterval(200);
+        connection.start();
+        assertTrue(established.await(20, TimeUnit.SECONDS));
+        assertSame(fallback, connection.getCurrentEndpoint());
+
+        startServer(preferredPort);
+        while (connection.getCurrentEndpoint() != preferred || !connection.isConnected()) {
+            Thread.sleep(50);
+        }
+        assertTrue(preferred.isHealthy());
+    }
+
+    /**
+     * Tests the order the endpoints are tried in and the bounds of the backoff.
+     */
+    @Test
+    public void testSelector() {
+        GerritEndpoint first = new GerritEndpoint("a", 1);
+        GerritEndpoint second = new GerritEndpoint("b", 2);
+        GerritEndpoint third = new GerritEndpoint("c", 3);
+        EndpointSelector selector = new EndpointSelector(Arrays.asList(first, second, third), new Random(1));
+        assertSame(first, selector.next());
+        first.recordFailure(10);
+        selector.failed(first);
+        assertSame(second, selector.next());
+        second.recordFailure(10);
+        selector.failed(second);
+        assertSame(third, selector.next());
+        third.recordFailure(5000);
+        selector.failed(third);
+        assertEquals(null, selector.next());
+
+        assertEquals(100, selector.backoff(100, 1000));
+        //None is healthy, the one with the best score is tried first.
+        assertSame(first, selector.next());
+        long previous = 100;
+        for (int i = 0; i < 20; i++) {
+            long wait = selector.backoff(100, 1000);
+            assertTrue(wait >= 100);
+            assertTrue(wait <= Math.max(100, previous * 3));
+            assertTrue(wait <= 1000);
+            previous = wait;
+        }
+        selector.connected();
+        assertEquals(100, selector.backoff(100, 1000));
+    }
+
+    /**
+     * Creates a connection to the endpoints that counts down {@link #established}.
+     *
+     * @param endpoints the endpoints.
+     * @return the connection.
+     */
+    private GerritConnection createConnection(GerritEndpoint... endpoints) {
+        GerritConnection created = new GerritConnection("gerrit", "localhost", endpoints[0].getPort(), "",
+                "http://gerrit/", authentication);
+        created.setEndpoints(Arrays.asList(endpoints));
+        created.setHandler(new GerritHandler() {
+            @Override
+            public void post(byte[] data, Provider provider) {
+                providers.add(provider);
+            }
+        });
+        created.addListener(new ConnectionListener() {
+            @Override
+            public void connectionEstablished() {
+                established.countDown();
+            }
+
+            @Override
+            public void connectionDown() {
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param port the port.
+     * @return the port.
+     * @throws Exception if so.
+     */
+    private int startServer(int port) throws Exception {
+        SshdServerMock server = new SshdServerMock();
+        servers.add(SshdServerMock.startServer(port, server));
+        server.returnCommandFor("gerrit version", SshdServerMock.EofCommandMock.class);
+        server.returnCommandFor(GerritConnection.CMD_STREAM_EVENTS, GerritConnectionGroupTest.StreamCommand.class);
+        return port;
+    }
+
+    /**
+     * A port nothing listens to.
+     *
+     * @return the port.
+     * @throws IOException if so.
+     */
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.mock.SshdServerMock;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import org.apache.sshd.SshServer;
+import org.apache.sshd.server.Environment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests {@link GerritConnectionGroup} against {@link SshdServerMock}.
+ */
+public class GerritConnectionGroupTest {
+
+    private SshServer sshd;
+    private int port;
+    private Authentication authentication;
+    private GerritConnectionGroup group;
+    private final List<String> posted = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Starts the server.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+        SshdServerMock server = new SshdServerMock();
+        sshd = SshdServerMock.startServer(port, server);
+        server.returnCommandFor("gerrit version", SshdServerMock.EofCommandMock.class);
+        server.returnCommandFor(GerritConnection.CMD_STREAM_EVENTS, StreamCommand.class);
+        authentication = new Authentication(SshdServerMock.generateKeyPair().getPrivateKey(), "jenkins");
+        group = new GerritConnectionGroup(new GerritHandler() {
+            @Override
+            public void post(byte[] line, Provider provider) {
+                posted.add(provider.getName() + ":" + new String(line, StandardCharsets.UTF_8));
+            }
+        }, 1);
+    }
+
+    /**
+     * Shuts down the group and stops the server.
+     *
+     * @throws Exception if so.
+     */
+    @After
+    public void tearDown() throws Exception {
+        group.shutdown(true);
+        sshd.stop(true);
+    }
+
+    /**
+     * Tests that one thread follows the streams of two servers.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testTwoServersOneThread() throws Exception {
+        Latch first = new Latch();
+        Latch second = new Latch();
+        group.add("first", "localhost", port, "", "http://first/", authentication).addListener(first);
+        group.add("second", "localhost", port, "", "http://second/", authentication).addListener(second);
+        assertTrue(first.established.await(20, TimeUnit.SECONDS));
+        assertTrue(second.established.await(20, TimeUnit.SECONDS));
+        while (posted.size() < 2) {
+            Thread.sleep(50);
+        }
+        assertTrue(posted.contains("first:" + StreamCommand.LINE));
+        assertTrue(posted.contains("second:" + StreamCommand.LINE));
+        assertEquals(2, group.getMembers().size());
+    }
+
+    /**
+     * Tests that removing a server disconnects from it.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testRemove() throws Exception {
+        Latch latch = new Latch();
+        GerritConnectionGroup.Member member = group.add("first", "localhost", port, "", "http://first/",
+                authentication);
+        member.addListener(latch);
+        assertTrue(latch.established.await(20, TimeUnit.SECONDS));
+        group.remove("first");
+        assertTrue(latch.down.await(20, TimeUnit.SECONDS));
+        assertFalse(member.isConnected());
+        assertEquals(null, group.get("first"));
+    }
+
+    /**
+     * Tests that the watchdog reconnects a quiet stream.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testWatchdogReconnects() throws Exception {
+        Latch latch = new Latch();
+        GerritConnectionGroup.Member member = group.add("first", "localhost", port, "", "http://first/",
+                authentication);
+        member.addListener(latch);
+        member.setWatchdog(1, null);
+        assertTrue(latch.down.await(20, TimeUnit.SECONDS));
+        assertTrue(member.getReconnectCallCount() >= 1);
+    }
+
+    /**
+     * Tests that servers slow to answer are connected to at the same time.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testParallelConnect() throws Exception {
+        int slowPort;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            slowPort = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+        SshdServerMock server = new SshdServerMock();
+        SshServer slow = SshdServerMock.startServer(slowPort, server);
+        server.returnCommandFor("gerrit version", SlowVersionCommand.class);
+        server.returnCommandFor(GerritConnection.CMD_STREAM_EVENTS, StreamCommand.class);
+        GerritConnectionGroup parallel = new GerritConnectionGroup(new GerritHandler(), 1, 4);
+        try {
+            long start = System.currentTimeMillis();
+            List<Latch> latches = new ArrayList<Latch>();
+            for (int i = 0; i < 4; i++) {
+                Latch latch = new Latch();
+                latches.add(latch);
+                parallel.add("slow" + i, "localhost", slowPort, "", "http://slow/", authentication)
+                        .addListener(latch);
+            }
+            for (Latch latch : latches) {
+                assertTrue(latch.established.await(20, TimeUnit.SECONDS));
+            }
+            //One after another would take at least four times as long as the slowest.
+            assertTrue(System.currentTimeMillis() - start < 3 * SlowVersionCommand.DELAY);
+        } finally {
+            parallel.shutdown(true);
+            slow.stop(true);
+        }
+    }
+
+    /**
+     * Counts down on connection events.
+     */
+    private static class Latch implements ConnectionListener {
+        private final CountDownLatch established = new CountDownLatch(1);
+        private final CountDownLatch down = new CountDownLatch(1);
+
+        @Override
+        public void connectionEstablished() {
+            established.countDown();
+        }
+
+        @Override
+        public void connectionDown() {
+            down.countDown();
+        }
+    }
+
+    /**
+     * A stream-events command that writes one line and then stays open.
+     */
+    public static class StreamCommand extends SshdServerMock.CommandMock {
+        /**
+         * The line written.
+         */
+        static final String LINE = "{\"type\":\"ref-updated\"}";
+
+        /**
+         * Standard constructor.
+         *
+         * @param command the command.
+         */
+        public StreamCommand(String command) {
+            super(command);
+        }
+
+        @Override
+        public void start(Environment environment) throws IOException {
+            //Write from another thread, so that the server's I/O thread isn't blocked.
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getOutputStream().write((LINE + "\n").getBytes(StandardCharsets.UTF_8));
+                        getOutputStream().flush();
+                    } catch (IOException e) {
+                        System.err.println("[SSHD-StreamCommand] " + e);
+                    }
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * A version command that takes a while to answer.
+     */
+    public static class SlowVersionCommand extends SshdServerMock.CommandMock {
+        /**
+         * The time it takes to answer, in ms.
+         */
+        static final long DELAY = 1500;
+
+        /**
+         * Standard constructor.
+         *
+         * @param command the command.
+         */
+        public SlowVersionCommand(String command) {
+            super(command);
+        }
+
+        @Override
+        public void start(Environment environment) throws IOException {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(DELAY);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    stop(0);
+                }
+            }).start();
+        }
+    }
+}
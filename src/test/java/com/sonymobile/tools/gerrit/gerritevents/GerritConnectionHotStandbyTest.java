@@ -0,0 +1,136 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.mock.SshdServerMock;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import org.apache.sshd.SshServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests {@link GerritConnection#enableHotStandby()} against {@link SshdServerMock}.
+ */
+public class GerritConnectionHotStandbyTest {
+
+    private SshServer sshd;
+    private GerritConnection connection;
+    private final List<String> posted = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch established = new CountDownLatch(1);
+    private final CountDownLatch down = new CountDownLatch(1);
+
+    /**
+     * Starts the server and a connection with a hot standby.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+        SshdServerMock server = new SshdServerMock();
+        sshd = SshdServerMock.startServer(port, server);
+        server.returnCommandFor("gerrit version", SshdServerMock.EofCommandMock.class);
+        server.returnCommandFor(GerritConnection.CMD_STREAM_EVENTS, GerritConnectionGroupTest.StreamCommand.class);
+        Authentication authentication = new Authentication(SshdServerMock.generateKeyPair().getPrivateKey(),
+                "jenkins");
+        connection = new GerritConnection("gerrit", "localhost", port, "", "http://gerrit/", authentication);
+        connection.setHandler(new GerritHandler() {
+            @Override
+            public void post(byte[] line, Provider provider) {
+                posted.add(new String(line, StandardCharsets.UTF_8));
+            }
+        });
+        connection.addListener(new ConnectionListener() {
+            @Override
+            public void connectionEstablished() {
+                established.countDown();
+            }
+
+            @Override
+            public void connectionDown() {
+                down.countDown();
+            }
+        });
+        connection.enableHotStandby();
+    }
+
+    /**
+     * Shuts down the connection and stops the server.
+     *
+     * @throws Exception if so.
+     */
+    @After
+    public void tearDown() throws Exception {
+        connection.shutdown(true);
+        sshd.stop(true);
+    }
+
+    /**
+     * Tests that the event sent on both sessions is posted once,
+     * and that losing one of the sessions isn't reported as the connection going down.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testMergeAndFailover() throws Exception {
+        connection.start();
+        GerritConnection standby = connection.getStandby();
+        assertNotNull(standby);
+        assertTrue(established.await(20, TimeUnit.SECONDS));
+        while (!connection.isConnected() || !standby.isConnected()) {
+            Thread.sleep(50);
+        }
+        while (posted.isEmpty()) {
+            Thread.sleep(50);
+        }
+        //Give the second copy time to arrive.
+        Thread.sleep(500);
+        assertEquals(1, posted.size());
+        assertEquals(GerritConnectionGroupTest.StreamCommand.LINE, posted.get(0));
+
+        standby.shutdown(true);
+        assertTrue(connection.isConnected());
+        assertEquals(1, down.getCount());
+        connection.shutdown(true);
+        assertTrue(down.await(20, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that a reconnect waits for the other session to be up.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testReconnectPostponedUntilPartnerIsUp() throws Exception {
+        GerritConnection standby = connection.getStandby();
+        connection.start();
+        assertTrue(established.await(20, TimeUnit.SECONDS));
+        while (!connection.isConnected() || !standby.isConnected()) {
+            Thread.sleep(50);
+        }
+        standby.shutdown(true);
+        connection.reconnect();
+        assertTrue(connection.isConnected());
+        assertEquals(1, connection.getReconnectCallCount());
+    }
+}
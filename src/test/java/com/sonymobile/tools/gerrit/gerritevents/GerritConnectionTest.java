@@ -45,6 +45,7 @@ import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CountDownLatch;
 
 import org.junit.AfterClass;
@@ -109,8 +110,9 @@ public class GerritConnectionTest {
             .thenReturn(channelExecMock);
         when(channelExecMock.getInputStream()).thenReturn(pipedInStream);
         PowerMockito.mockStatic(SshConnectionFactory.class);
-        PowerMockito.doReturn(sshConnectionMock).when(SshConnectionFactory.class, "getConnection",
-                isA(String.class), isA(Integer.class), isA(String.class), isA(Authentication.class), any());
+        PowerMockito.doReturn(sshConnectionMock).when(SshConnectionFactory.class, "createConnection",
+                isA(String.class), isA(Integer.class), isA(String.class), isA(Authentication.class), any(),
+                isA(Integer.class));
         connection = new GerritConnection("", "localhost", 29418, new Authentication(null, ""));
         connection.setSshRxBufferSize(13);
         handlerMock = mock(HandlerMock.class);
@@ -210,6 +212,7 @@ public class GerritConnectionTest {
     @Test
     public void testReceiveEvent() throws Exception {
         doCallRealMethod().when(handlerMock).post(any(String.class), any(Provider.class));
+        doCallRealMethod().when(handlerMock).post(any(byte[].class), any(Provider.class));
         //CS IGNORE LineLength FOR NEXT 1 LINES. REASON: TestData
         String aVeryLongMessage = "This is a very long line.                                             It stands for a commit that contains a very huge commit message. It should be long enough to fill the buffer several times.";
 
@@ -263,6 +266,11 @@ public class GerritConnectionTest {
             post(data, null);
         }
 
+        @Override
+        public void post(byte[] data, Provider provider) {
+            post(new String(data, StandardCharsets.UTF_8), provider);
+        }
+
         @Override
         public void post(String data, Provider provider) {
             System.out.println("INFO: Posted string: " + data);
@@ -0,0 +1,217 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.rest.PooledHttpClient;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests how {@link GerritQueryHandlerHttp} sends the requests and reads the responses.
+ */
+public class GerritQueryHandlerHttpTransportTest {
+
+    private static final String QUERY_URL = "/a/changes/?q=status%3Aopen+project%3Ax&o=CURRENT_REVISION";
+
+    private WireMockServer server;
+    private GerritQueryHandlerHttp handler;
+    private Credential credential;
+
+    /**
+     * Starts the mock server.
+     */
+    @Before
+    public void setUp() {
+        server = new WireMockServer(options().dynamicPort());
+        server.start();
+        credential = new Credential() {
+            @Override
+            public Principal getUserPrincipal() {
+                return new Principal() {
+                    @Override
+                    public String getName() {
+                        return "user";
+                    }
+                };
+            }
+
+            @Override
+            public String getPassword() {
+                return "secret";
+            }
+        };
+        handler = new GerritQueryHandlerHttp("http://localhost:" + server.port(), credential, null);
+        handler.setSingleFlight(null);
+    }
+
+    /**
+     * Stops the mock server.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Tests that the credentials are sent without waiting for a challenge, gzip is accepted,
+     * and the changes are read from a response spread over several lines.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testQuery() throws Exception {
+        server.stubFor(get(urlEqualTo(QUERY_URL))
+                .withHeader("Authorization", equalTo("Basic dXNlcjpzZWNyZXQ="))
+                .withHeader("Accept-Encoding", containing("gzip"))
+                .willReturn(aResponse().withStatus(GerritQueryHandlerHttp.STATUS_OK)
+                        .withBody(")]}'\n[\n  {\"_number\": 1},\n  {\"_number\": 2}\n]\n")));
+
+        List<JSONObject> changes = handler.queryJava("status:open project:x", false, true, false, false);
+        handler.queryJava("status:open project:x", false, true, false, false);
+
+        assertEquals(2, changes.size());
+        assertEquals(2, changes.get(1).getInt("_number"));
+        server.verify(2, getRequestedFor(urlEqualTo(QUERY_URL)));
+        assertEquals(0, PooledHttpClient.getStats().getLeased());
+    }
+
+    /**
+     * Tests that an error status is reported as such.
+     *
+     * @throws Exception if so.
+     */
+    @Test(expected = GerritQueryException.class)
+    public void testBadRequest() throws Exception {
+        server.stubFor(get(urlEqualTo(QUERY_URL))
+                .willReturn(aResponse().withStatus(GerritQueryHandlerHttp.STATUS_BAD_REQUEST)));
+        handler.queryJava("status:open project:x", false, true, false, false);
+    }
+
+    //CS IGNORE MagicNumber FOR NEXT 50 LINES. REASON: TestData
+
+    /**
+     * Tests that a query stopped by the visitor gives its connection back without reading the rest of the response.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 10000)
+    public void testStopAborts() throws Exception {
+        StringBuilder body = new StringBuilder(")]}'\n[");
+        for (int i = 1; i <= 10000; i++) {
+            if (i > 1) {
+                body.append(',');
+            }
+            body.append("{\"_number\": ").append(i).append('}');
+        }
+        body.append("]\n");
+        server.stubFor(get(urlEqualTo(QUERY_URL))
+                .willReturn(aResponse().withStatus(GerritQueryHandlerHttp.STATUS_OK).withBody(body.toString())));
+        final List<JSONObject> changes = new ArrayList<JSONObject>();
+
+        handler.queryEach("status:open project:x", false, true, false, false, false, new QueryVisitor() {
+            @Override
+            public boolean visit(JSONObject change) {
+                changes.add(change);
+                return false;
+            }
+        });
+
+        assertEquals(1, changes.size());
+        assertEquals(0, PooledHttpClient.getStats().getLeased());
+    }
+
+    /**
+     * Tests that the typed query decodes the changes straight from the response, and that a visitor stopping it
+     * gives the connection back.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 10000)
+    public void testQueryChanges() throws Exception {
+        server.stubFor(get(urlEqualTo(QUERY_URL))
+                .willReturn(aResponse().withStatus(GerritQueryHandlerHttp.STATUS_OK)
+                        .withBody(")]}'\n[{\"_number\": 1, \"change_id\": \"I1\", \"current_revision\": \"a\","
+                                + " \"revisions\": {\"a\": {\"_number\": 3, \"files\": {\"f\": {}}}}},"
+                                + " {\"_number\": 2, \"_more_changes\": true}]\n")));
+
+        List<Change> changes = handler.queryChanges("status:open project:x", QueryProjection.CHANGE
+                .withCurrentPatchSet());
+        final List<Change> first = new ArrayList<Change>();
+        handler.queryChanges("status:open project:x", QueryProjection.CHANGE.withCurrentPatchSet(),
+                new ChangeVisitor() {
+                    @Override
+                    public boolean visit(Change change) {
+                        first.add(change);
+                        return false;
+                    }
+                });
+
+        assertEquals(2, changes.size());
+        assertEquals("I1", changes.get(0).getId());
+        assertEquals("3", changes.get(0).getCurrentPatchSet().getNumber());
+        assertNull(changes.get(0).getCurrentPatchSet().getFiles());
+        assertEquals("2", changes.get(1).getNumber());
+        assertEquals(1, first.size());
+        assertEquals(0, PooledHttpClient.getStats().getLeased());
+    }
+
+    /**
+     * Tests that the files of a revision are read from the files of the revision of the change.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testQueryRevisionFiles() throws Exception {
+        server.stubFor(get(urlEqualTo("/a/changes/42/revisions/abc/files/"))
+                .willReturn(aResponse().withStatus(GerritQueryHandlerHttp.STATUS_OK)
+                        .withBody(")]}'\n{\"/COMMIT_MSG\": {\"status\": \"A\"}, \"a/b.txt\": {}}\n")));
+
+        assertEquals(Arrays.asList("/COMMIT_MSG", "a/b.txt"), handler.queryRevisionFiles("42", "abc"));
+        assertEquals(0, PooledHttpClient.getStats().getLeased());
+    }
+
+    /**
+     * Tests that a server not answering within the timeout of the handler fails the query.
+     *
+     * @throws Exception if so.
+     */
+    @Test(expected = SocketTimeoutException.class, timeout = 10000)
+    public void testTimeout() throws Exception {
+        server.stubFor(get(urlEqualTo(QUERY_URL))
+                .willReturn(aResponse().withStatus(GerritQueryHandlerHttp.STATUS_OK).withFixedDelay(5000)
+                        .withBody(")]}'\n[]\n")));
+        handler = new GerritQueryHandlerHttp("http://localhost:" + server.port(), credential, null, 200);
+        handler.setSingleFlight(null);
+        handler.queryJava("status:open project:x", false, true, false, false);
+    }
+
+    //CS IGNORE MagicNumber FOR NEXT 10 LINES. REASON: TestData
+
+    /**
+     * Tests the url of the query options.
+     */
+    @Test
+    public void testUrl() {
+        assertEquals("http://localhost:" + server.port()
+                        + "/a/changes/?q=limit%3A1&o=CURRENT_REVISION&o=CURRENT_FILES&S=5",
+                handler.getUrl("limit:1", false, true, true, false, false, 5));
+    }
+}
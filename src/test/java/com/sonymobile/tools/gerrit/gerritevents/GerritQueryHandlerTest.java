@@ -23,15 +23,30 @@
  */
 package com.sonymobile.tools.gerrit.gerritevents;
 
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnectionFactory;
+import net.sf.json.JSONObject;
 import org.junit.Test;
-
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 /**
@@ -182,4 +197,166 @@ public class GerritQueryHandlerTest extends GerritQueryHandlerTestBase {
         verifyStatic(SshConnectionFactory.class, times(2));
         SshConnectionFactory.getConnection(anyString(), anyInt(), anyString(), any(Authentication.class), anyInt());
     }
+
+    /**
+     * Test {@Link GerritQueryHandler.queryEach} hands over rows until the visitor stops,
+     * and then closes the reader which stops the command.
+     *
+     * @throws Exception when something wrong.
+     */
+    @Test
+    public void testQueryEachStops() throws Exception {
+        final boolean[] closed = new boolean[1];
+        when(sshConnectionMock.executeCommandReader(anyString())).thenReturn(
+                new StringReader("{\"number\":\"1\"}\n{\"number\":\"2\"}\n{\"type\":\"stats\"}\n") {
+                    @Override
+                    public void close() {
+                        closed[0] = true;
+                        super.close();
+                    }
+                });
+        final List<String> numbers = new ArrayList<String>();
+        queryHandler.queryEach("X", false, false, false, false, false, new QueryVisitor() {
+            @Override
+            public boolean visit(JSONObject row) {
+                numbers.add(row.getString("number"));
+                return false;
+            }
+        });
+        assertEquals(1, numbers.size());
+        assertEquals("1", numbers.get(0));
+        assertTrue(closed[0]);
+    }
+
+    //CS IGNORE MagicNumber FOR NEXT 34 LINES. REASON: TestData
+
+    /**
+     * Test {@Link GerritQueryHandler.queryAll} follows moreChanges with --start and leaves out the stats rows.
+     *
+     * @throws Exception when something wrong.
+     */
+    @Test
+    public void testQueryAllPages() throws Exception {
+        when(sshConnectionMock.executeCommandReader(anyString())).thenAnswer(new Answer<Reader>() {
+            @Override
+            public Reader answer(InvocationOnMock invocation) {
+                String command = invocation.getArgument(0);
+                if (command.contains("--start 2")) {
+                    return new StringReader("{\"number\":\"3\"}\n{\"type\":\"stats\",\"rowCount\":1}\n");
+                }
+                return new StringReader("{\"number\":\"1\"}\n{\"number\":\"2\"}\n"
+                        + "{\"type\":\"stats\",\"rowCount\":2,\"moreChanges\":true}\n");
+            }
+        });
+        final List<String> numbers = new ArrayList<String>();
+        long count = queryHandler.queryAll("X", false, false, false, false, false, new QueryVisitor() {
+            @Override
+            public boolean visit(JSONObject row) {
+                numbers.add(row.getString("number"));
+                return true;
+            }
+        });
+        assertEquals(3, count);
+        assertEquals(Arrays.asList("1", "2", "3"), numbers);
+        verify(sshConnectionMock).executeCommandReader("gerrit query --format=JSON \"X\"");
+        verify(sshConnectionMock).executeCommandReader("gerrit query --format=JSON --start 2 \"X\"");
+    }
+
+    /**
+     * Test {@Link GerritQueryHandler.queryJava} takes a repeated query from the result cache.
+     *
+     * @throws Exception when something wrong.
+     */
+    @Test
+    public void testResultCache() throws Exception {
+        when(sshConnectionMock.executeCommandReader(anyString())).thenAnswer(new Answer<Reader>() {
+            @Override
+            public Reader answer(InvocationOnMock invocation) {
+                return new StringReader("{\"project\":\"test\",\"id\":\"I1\"}\n"
+                        + "{\"type\":\"stats\",\"rowCount\":1,\"runTimeMilliseconds\":3}\n");
+            }
+        });
+        QueryResultCache cache = new QueryResultCache();
+        queryHandler.setResultCache(cache);
+        queryHandler.queryJava("X");
+        List<JSONObject> rows = queryHandler.queryJava(" X ");
+
+        verify(sshConnectionMock, times(1))
+                .executeCommandReader("gerrit query --format=JSON --patch-sets --current-patch-set \"X\"");
+        assertEquals(1, cache.getHits());
+        assertEquals(2, rows.size());
+        assertEquals("stats", rows.get(1).getString("type"));
+    }
+
+    /**
+     * Test {@Link GerritQueryHandler.queryJava} doesn't hand one user the results cached for another.
+     *
+     * @throws Exception when something wrong.
+     */
+    @Test
+    public void testResultCachePerUser() throws Exception {
+        when(sshConnectionMock.executeCommandReader(anyString())).thenAnswer(new Answer<Reader>() {
+            @Override
+            public Reader answer(InvocationOnMock invocation) {
+                return new StringReader("{\"project\":\"test\",\"id\":\"I1\"}\n"
+                        + "{\"type\":\"stats\",\"rowCount\":1}\n");
+            }
+        });
+        QueryResultCache cache = new QueryResultCache();
+        GerritQueryHandler alice = new GerritQueryHandler("", 0, "", new Authentication(null, "alice"), 0);
+        GerritQueryHandler bob = new GerritQueryHandler("", 0, "", new Authentication(null, "bob"), 0);
+        alice.setResultCache(cache);
+        bob.setResultCache(cache);
+        alice.queryJava("X");
+        bob.queryJava("X");
+        alice.queryJava("X");
+
+        verify(sshConnectionMock, times(2))
+                .executeCommandReader("gerrit query --format=JSON --patch-sets --current-patch-set \"X\"");
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    //CS IGNORE MagicNumber FOR NEXT 14 LINES. REASON: TestData
+
+    /**
+     * Test {@Link GerritQueryHandler.queryFilesAsync} runs the query in the background.
+     *
+     * @throws Exception when something wrong.
+     */
+    @Test
+    public void testQueryFilesAsync() throws Exception {
+        List<JSONObject> rows = queryHandler.queryFilesAsync("X").get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, rows.size());
+        assertEquals("test", rows.get(0).getString("project"));
+        verify(sshConnectionMock, times(1))
+                .executeCommandReader("gerrit query --format=JSON --current-patch-set --files \"X\"");
+    }
+
+    /**
+     * Test that {@link GerritQueryHandler#queryChanges(String, QueryProjection)} asks for the parts of the
+     * projection and decodes only those.
+     *
+     * @throws Exception when something wrong.
+     */
+    @Test
+    public void testQueryChanges() throws Exception {
+        when(sshConnectionMock.executeCommandReader(anyString())).thenReturn(new StringReader(
+                "{\"number\":\"1\",\"commitMessage\":\"m\",\"currentPatchSet\":{\"number\":\"2\","
+                + "\"approvals\":[{\"type\":\"Verified\",\"value\":\"1\"}],\"files\":[{\"file\":\"a\"}]}}\n"
+                + "{\"type\":\"stats\",\"rowCount\":1}\n"));
+
+        List<Change> changes = queryHandler.queryChanges("X", QueryProjection.CHANGE.withCurrentPatchSet());
+
+        assertEquals(1, changes.size());
+        Change change = changes.get(0);
+        assertEquals("1", change.getNumber());
+        assertNull(change.getCommitMessage());
+        assertEquals("2", change.getCurrentPatchSet().getNumber());
+        assertNull(change.getCurrentPatchSet().getApprovals());
+        assertNull(change.getCurrentPatchSet().getFiles());
+        verify(sshConnectionMock, times(1))
+                .executeCommandReader("gerrit query --format=JSON --current-patch-set \"X\"");
+    }
 }
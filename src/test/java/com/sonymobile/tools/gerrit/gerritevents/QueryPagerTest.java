@@ -0,0 +1,145 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+//CS IGNORE MagicNumber FOR NEXT 130 LINES. REASON: TestData
+
+/**
+ * Tests for {@link QueryPager}.
+ */
+public class QueryPagerTest {
+
+    /**
+     * A result of a number of changes, served in pages of a size, that records the offsets asked for.
+     */
+    private static class Pages implements QueryPager.PageFetcher {
+        private final int total;
+        private final int pageSize;
+        private final List<Integer> starts = Collections.synchronizedList(new ArrayList<Integer>());
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        /**
+         * Constructor.
+         *
+         * @param total    the number of changes.
+         * @param pageSize the size of a page.
+         */
+        Pages(int total, int pageSize) {
+            this.total = total;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public QueryPager.Page fetch(int start, QueryVisitor visitor) throws GerritQueryException {
+            starts.add(start);
+            int now = running.incrementAndGet();
+            maxRunning.set(Math.max(maxRunning.get(), now));
+            try {
+                int end = Math.min(total, start + pageSize);
+                for (int i = start; i < end; i++) {
+                    JSONObject row = new JSONObject();
+                    row.put("number", i);
+                    if (!visitor.visit(row)) {
+                        break;
+                    }
+                }
+                return new QueryPager.Page(Math.max(0, end - start), end < total);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Collects the change numbers and stops after a number of them.
+     */
+    private static class Collector implements QueryVisitor {
+        private final List<Integer> numbers = new ArrayList<Integer>();
+        private final int stopAfter;
+
+        /**
+         * Constructor.
+         *
+         * @param stopAfter the number of changes to take.
+         */
+        Collector(int stopAfter) {
+            this.stopAfter = stopAfter;
+        }
+
+        @Override
+        public boolean visit(JSONObject row) {
+            numbers.add(row.getInt("number"));
+            return numbers.size() < stopAfter;
+        }
+    }
+
+    /**
+     * Tests that all pages are fetched, in parallel, and handed over in order.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testAllPagesInOrder() throws Exception {
+        Pages pages = new Pages(10, 3);
+        Collector collector = new Collector(Integer.MAX_VALUE);
+        assertEquals(10, QueryPager.fetchAll(new AsyncQueryExecutor(3, 0), "s", pages, 3, collector));
+        assertEquals(10, collector.numbers.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, collector.numbers.get(i).intValue());
+        }
+        assertEquals(0, pages.starts.get(0).intValue());
+    }
+
+    /**
+     * Tests that a result of one page is fetched once.
+     *
+     * @throws IOException if so.
+     * @throws GerritQueryException if so.
+     */
+    @Test
+    public void testSinglePage() throws IOException, GerritQueryException {
+        Pages pages = new Pages(2, 3);
+        assertEquals(2, QueryPager.fetchAll(new AsyncQueryExecutor(3, 0), "s", pages, 3,
+                new Collector(Integer.MAX_VALUE)));
+        assertEquals(1, pages.starts.size());
+    }
+
+    /**
+     * Tests that the paging stops with the visitor.
+     *
+     * @throws IOException if so.
+     * @throws GerritQueryException if so.
+     */
+    @Test
+    public void testStop() throws IOException, GerritQueryException {
+        Collector collector = new Collector(5);
+        assertEquals(5, QueryPager.fetchAll(new AsyncQueryExecutor(3, 0), "s", new Pages(100, 3), 1, collector));
+        assertEquals(5, collector.numbers.size());
+        assertEquals(4, collector.numbers.get(4).intValue());
+    }
+
+    /**
+     * Tests that the pages fetched ahead count against the limit of the server in the executor.
+     *
+     * @throws IOException if so.
+     * @throws GerritQueryException if so.
+     */
+    @Test
+    public void testPagesLimitedPerServer() throws IOException, GerritQueryException {
+        Pages pages = new Pages(30, 3);
+        Collector collector = new Collector(Integer.MAX_VALUE);
+        assertEquals(30, QueryPager.fetchAll(new AsyncQueryExecutor(1, 0), "s", pages, 4, collector));
+        assertEquals(30, collector.numbers.size());
+        assertEquals(1, pages.maxRunning.get());
+    }
+}
@@ -0,0 +1,176 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.ChangeMerged;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests for {@link QueryResultCache}.
+ */
+public class QueryResultCacheTest {
+
+    /**
+     * Creates a row of a change.
+     *
+     * @param number the change number.
+     * @return the row.
+     */
+    private static JSONObject row(String number) {
+        JSONObject row = new JSONObject();
+        row.put("number", number);
+        row.put("id", "I" + number);
+        return row;
+    }
+
+    /**
+     * Tests that the key doesn't depend on whitespace but on the options and server.
+     */
+    @Test
+    public void testKey() {
+        assertEquals(QueryResultCache.key("a", " status:open  project:x", true, false),
+                QueryResultCache.key("a", "status:open project:x ", true, false));
+        assertFalse(QueryResultCache.key("a", "q", true).equals(QueryResultCache.key("a", "q", false)));
+        assertFalse(QueryResultCache.key("a", "q", true).equals(QueryResultCache.key("b", "q", true)));
+    }
+
+    /**
+     * Tests that an event about a change forgets the results holding it, and only those.
+     */
+    @Test
+    public void testInvalidatedByEvent() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        cache.put("a", Arrays.asList(row("1"), row("2")), cache.getGeneration());
+        cache.put("b", Collections.singletonList(row("3")), cache.getGeneration());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("c"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        ChangeMerged event = new ChangeMerged();
+        Change change = new Change();
+        change.setNumber("2");
+        change.setId("I2");
+        event.setChange(change);
+        cache.gerritEvent(event);
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    /**
+     * Tests that a result ending with the statistics row is stored with it, and forgotten by an event.
+     */
+    @Test
+    public void testStoredWithStats() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        JSONObject stats = new JSONObject();
+        stats.put("type", "stats");
+        stats.put("rowCount", 1);
+        cache.put("a", Arrays.asList(row("1"), stats), cache.getGeneration());
+        List<JSONObject> rows = cache.get("a");
+        assertNotNull(rows);
+        assertEquals(2, rows.size());
+        assertEquals("stats", rows.get(1).getString("type"));
+
+        cache.invalidateChange("I1");
+        assertNull(cache.get("a"));
+    }
+
+    /**
+     * Tests that a result of a query started before an event about one of its changes is not stored,
+     * and that events about other changes don't keep it from being stored.
+     */
+    @Test
+    public void testNotStoredAfterEvent() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        long generation = cache.getGeneration();
+        cache.invalidateChange("I5");
+        cache.put("a", Collections.singletonList(row("1")), generation);
+        assertEquals(1, cache.size());
+        cache.invalidateChange("I1");
+        cache.put("a", Collections.singletonList(row("1")), generation);
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that rows without a Change-Id are not stored, as no event could forget them.
+     */
+    @Test
+    public void testNotStoredWithoutChangeId() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        JSONObject row = new JSONObject();
+        row.put("number", "1");
+        cache.put("a", Collections.singletonList(row), cache.getGeneration());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that the stored rows are copies, and that every hit hands out the same rows in a list that can't be
+     * modified.
+     */
+    @Test
+    public void testRowsCopiedWhenStored() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        JSONObject row = row("1");
+        row.put("owner", new JSONObject().element("name", "Alice"));
+        cache.put("a", Collections.singletonList(row), cache.getGeneration());
+        row.getJSONObject("owner").put("name", "Bob");
+        List<JSONObject> rows = cache.get("a");
+        assertEquals("Alice", rows.get(0).getJSONObject("owner").getString("name"));
+        assertSame(rows.get(0), cache.get("a").get(0));
+        try {
+            rows.clear();
+            fail("The rows of a cached result could be removed");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(1, cache.get("a").size());
+        }
+    }
+
+    /**
+     * Tests that the least recently used results are evicted to stay within the limits.
+     */
+    @Test
+    public void testEviction() {
+        QueryResultCache cache = new QueryResultCache(2, 3, 60000);
+        cache.put("a", Collections.singletonList(row("1")), cache.getGeneration());
+        cache.put("b", Collections.singletonList(row("2")), cache.getGeneration());
+        cache.get("a");
+        cache.put("c", Collections.singletonList(row("3")), cache.getGeneration());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        cache.put("d", Arrays.asList(row("4"), row("5")), cache.getGeneration());
+        assertNull(cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getEvictions());
+        //Evicted results leave nothing behind in the change index.
+        cache.invalidateChange("I3");
+        assertEquals(0, cache.getInvalidations());
+    }
+
+    /**
+     * Tests that a result that isn't fresh is forgotten when looked up.
+     */
+    @Test
+    public void testStale() {
+        QueryResultCache cache = new QueryResultCache(10, 100, -1);
+        cache.put("a", Collections.singletonList(row("1")), cache.getGeneration());
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,123 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshConnection;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+//CS IGNORE MagicNumber FOR NEXT 150 LINES. REASON: TestData
+
+/**
+ * Tests for {@link ServerCapabilitiesCache} and {@link ServerCapabilities}.
+ */
+public class ServerCapabilitiesCacheTest {
+
+    /**
+     * Tests that a fresh answer is reused without asking the server.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testFreshAnswerReused() throws Exception {
+        SshConnection connection = connection();
+        when(connection.executeCommand("gerrit version")).thenReturn("gerrit version 2.16.7\n");
+        ServerCapabilitiesCache cache = new ServerCapabilitiesCache(60000);
+        assertEquals("2.16.7", cache.get("jenkins", "gerrit", 29418, connection).getVersion());
+        assertEquals("2.16.7", cache.get("jenkins", "gerrit", 29418, connection).getVersion());
+        verify(connection, times(1)).executeCommand("gerrit version");
+        cache.invalidate("jenkins", "gerrit", 29418);
+        assertNull(cache.peek("jenkins", "gerrit", 29418));
+    }
+
+    /**
+     * Tests that a stale answer is used while the server is asked again in the background.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testStaleAnswerRevalidated() throws Exception {
+        SshConnection connection = connection();
+        when(connection.executeCommand("gerrit version")).thenReturn("gerrit version 2.9", "gerrit version 3.1");
+        ServerCapabilitiesCache cache = new ServerCapabilitiesCache(0);
+        assertEquals("2.9", cache.get("jenkins", "gerrit", 29418, connection).getVersion());
+        assertEquals("2.9", cache.get("jenkins", "gerrit", 29418, connection).getVersion());
+        verify(connection, timeout(5000).times(2)).executeCommand("gerrit version");
+        while (!"3.1".equals(cache.peek("jenkins", "gerrit", 29418).getVersion())) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Tests that an empty answer isn't remembered.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testEmptyAnswerNotCached() throws Exception {
+        SshConnection connection = connection();
+        when(connection.executeCommand("gerrit version")).thenReturn("");
+        ServerCapabilitiesCache cache = new ServerCapabilitiesCache(60000);
+        cache.get("jenkins", "gerrit", 29418, connection);
+        assertNull(cache.peek("jenkins", "gerrit", 29418));
+    }
+
+    /**
+     * Tests that users are remembered apart and that a remembered answer isn't handed out on a dead session.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testPerUserAndSanityCheck() throws Exception {
+        SshConnection connection = connection();
+        when(connection.executeCommand("gerrit version")).thenReturn("gerrit version 3.1");
+        ServerCapabilitiesCache cache = new ServerCapabilitiesCache(60000);
+        cache.get("jenkins", "gerrit", 29418, connection);
+        assertNull(cache.peek("other", "gerrit", 29418));
+        cache.get("other", "gerrit", 29418, connection);
+        verify(connection, times(2)).executeCommand("gerrit version");
+
+        SshConnection dead = mock(SshConnection.class);
+        try {
+            cache.get("jenkins", "gerrit", 29418, dead);
+            fail("A dead session should not be accepted");
+        } catch (IOException expected) {
+            verify(dead, never()).executeCommand("gerrit version");
+        }
+    }
+
+    /**
+     * Tests the capabilities worked out from the version.
+     */
+    @Test
+    public void testCapabilities() {
+        assertTrue(new ServerCapabilities("2.11.3", 0).isStreamEventsSubscribeSupported());
+        assertTrue(new ServerCapabilities("3.0.0-rc1", 0).isStreamEventsSubscribeSupported());
+        assertFalse(new ServerCapabilities("2.10", 0).isStreamEventsSubscribeSupported());
+        assertFalse(new ServerCapabilities(null, 0).isStreamEventsSubscribeSupported());
+        assertTrue(new ServerCapabilities("2.16", 0).isAtLeast(2, 16));
+    }
+
+    /**
+     * A connection mock that is up.
+     *
+     * @return the mock.
+     */
+    private static SshConnection connection() {
+        SshConnection connection = mock(SshConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        when(connection.isAuthenticated()).thenReturn(true);
+        return connection;
+    }
+}
@@ -0,0 +1,162 @@
+package com.sonymobile.tools.gerrit.gerritevents;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//CS IGNORE MagicNumber FOR NEXT 130 LINES. REASON: TestData
+
+/**
+ * Tests for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    /**
+     * A query that runs until released.
+     */
+    private static class BlockingCall implements SingleFlight.Call {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final Exception failure;
+
+        /**
+         * Constructor.
+         *
+         * @param failure what to fail with, or null to return a row.
+         */
+        BlockingCall(Exception failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public List<JSONObject> call() throws IOException, GerritQueryException {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failure instanceof IOException) {
+                throw (IOException)failure;
+            } else if (failure instanceof GerritQueryException) {
+                throw (GerritQueryException)failure;
+            }
+            JSONObject row = new JSONObject();
+            row.put("number", "1");
+            return Collections.singletonList(row);
+        }
+    }
+
+    /**
+     * Starts a call of the single flight in the background.
+     *
+     * @param executor the executor.
+     * @param flight   the single flight.
+     * @param key      the key.
+     * @param call     the query.
+     * @return the result.
+     */
+    private static Future<List<JSONObject>> start(ExecutorService executor, final SingleFlight flight,
+                                                  final String key, final SingleFlight.Call call) {
+        return executor.submit(new Callable<List<JSONObject>>() {
+            @Override
+            public List<JSONObject> call() throws Exception {
+                return flight.execute(key, call);
+            }
+        });
+    }
+
+    /**
+     * Waits for a condition checked by the caller.
+     *
+     * @param flight    the single flight.
+     * @param coalesced the number of coalesced calls to wait for.
+     * @throws InterruptedException if so.
+     */
+    private static void awaitCoalesced(SingleFlight flight, long coalesced) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (flight.getCoalesced() < coalesced && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(coalesced, flight.getCoalesced());
+    }
+
+    /**
+     * Tests that identical calls at the same time run one query and all get copies of its rows.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testCoalesced() throws Exception {
+        SingleFlight flight = new SingleFlight();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            BlockingCall call = new BlockingCall(null);
+            Future<List<JSONObject>> first = start(executor, flight, "q", call);
+            Future<List<JSONObject>> second = start(executor, flight, "q", call);
+            Future<List<JSONObject>> third = start(executor, flight, "q", call);
+            awaitCoalesced(flight, 2);
+            call.release.countDown();
+            assertEquals(1, first.get().size());
+            assertEquals(first.get(), second.get());
+            assertEquals(first.get(), third.get());
+            assertNotSame(second.get(), third.get());
+            assertNotSame(first.get().get(0), second.get().get(0));
+            assertNotSame(second.get().get(0), third.get().get(0));
+            assertEquals(1, flight.getExecutions());
+            assertEquals(0, flight.getInFlight());
+
+            BlockingCall other = new BlockingCall(null);
+            other.release.countDown();
+            flight.execute("q", other);
+            assertEquals(2, flight.getExecutions());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that the callers waiting for a failed query get the same exception.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testFailureShared() throws Exception {
+        SingleFlight flight = new SingleFlight();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            GerritQueryException failure = new GerritQueryException("bad query");
+            BlockingCall call = new BlockingCall(failure);
+            Future<List<JSONObject>> first = start(executor, flight, "q", call);
+            Future<List<JSONObject>> second = start(executor, flight, "q", call);
+            awaitCoalesced(flight, 1);
+            call.release.countDown();
+            for (Future<List<JSONObject>> result : new Future[]{first, second}) {
+                try {
+                    result.get();
+                    fail("Expected the failure of the query");
+                } catch (ExecutionException e) {
+                    assertSame(failure, e.getCause());
+                }
+            }
+            assertEquals(1, flight.getExecutions());
+            assertTrue(flight.getInFlight() == 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
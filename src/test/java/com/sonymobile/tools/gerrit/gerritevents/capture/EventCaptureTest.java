@@ -0,0 +1,307 @@
+package com.sonymobile.tools.gerrit.gerritevents.capture;
+
+import com.sonymobile.tools.gerrit.gerritevents.GerritHandler;
+import com.sonymobile.tools.gerrit.gerritevents.Handler;
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritEvent;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Provider;
+import com.sonymobile.tools.gerrit.gerritevents.GerritEventListener;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EventCaptureWriter}, {@link EventCaptureReader} and {@link EventReplayer}.
+ */
+public class EventCaptureTest {
+
+    //CS IGNORE MagicNumber FOR NEXT 4 LINES. REASON: TestData
+    private static final long START = 1500000000000L;
+    private static final int EVENTS = 100;
+    private static final int INDEX_INTERVAL = 8;
+    private static final long SPACING = 10;
+
+    private final Provider alpha = new Provider("alpha", "alpha.example.com", "29418", "ssh",
+            "http://alpha.example.com/", "2.16");
+    private final Provider beta = new Provider("beta", "beta.example.com", "29418", "ssh",
+            "http://beta.example.com/", null);
+    private File segment;
+
+    /**
+     * Records a capture with alternating providers.
+     *
+     * @throws IOException if so.
+     */
+    @Before
+    public void setUp() throws IOException {
+        segment = File.createTempFile("capture", ".gec");
+        EventCaptureWriter writer = new EventCaptureWriter(segment, INDEX_INTERVAL);
+        try {
+            for (int i = 0; i < EVENTS; i++) {
+                Provider provider;
+                if (i % 2 == 0) {
+                    provider = alpha;
+                } else {
+                    provider = beta;
+                }
+                writer.append(line(i), provider, START + i * SPACING);
+            }
+            assertEquals(EVENTS, writer.getEventCount());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Removes the capture.
+     */
+    @After
+    public void tearDown() {
+        CaptureFormat.indexFile(segment).delete();
+        segment.delete();
+    }
+
+    /**
+     * Tests that the events are read back in order with their providers and times.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testReadBack() throws IOException {
+        EventCaptureReader reader = new EventCaptureReader(segment);
+        try {
+            for (int i = 0; i < EVENTS; i++) {
+                CapturedEvent event = reader.next();
+                assertArrayEquals(line(i), event.getLine());
+                assertEquals(START + i * SPACING, event.getReceivedTime());
+                if (i % 2 == 0) {
+                    assertEquals(alpha, event.getProvider());
+                } else {
+                    assertEquals(beta, event.getProvider());
+                }
+            }
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Tests seeking forwards and backwards by time.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testSeek() throws IOException {
+        EventCaptureReader reader = new EventCaptureReader(segment);
+        try {
+            //CS IGNORE MagicNumber FOR NEXT 12 LINES. REASON: TestData
+            CapturedEvent event = reader.seek(START + 57 * SPACING);
+            assertArrayEquals(line(57), event.getLine());
+            assertEquals(beta, event.getProvider());
+            event = reader.seek(START + 20 * SPACING - 1);
+            assertArrayEquals(line(20), event.getLine());
+            assertEquals(alpha, event.getProvider());
+            event = reader.next();
+            assertArrayEquals(line(21), event.getLine());
+            event = reader.seek(START + 99 * SPACING);
+            assertArrayEquals(line(99), event.getLine());
+            assertNull(reader.seek(START + EVENTS * SPACING));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Tests a replay as fast as possible into a {@link GerritHandler}.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testReplayMaxSpeed() throws Exception {
+        GerritHandler handler = new GerritHandler();
+        final List<GerritEvent> received = new ArrayList<GerritEvent>();
+        handler.addListener(new GerritEventListener() {
+            @Override
+            public void gerritEvent(GerritEvent event) {
+                synchronized (received) {
+                    received.add(event);
+                }
+            }
+        });
+        try {
+            EventReplayer replayer = new EventReplayer(segment);
+            replayer.setSpeed(EventReplayer.MAX_SPEED);
+            ReplayStats stats = replayer.replay(handler);
+            assertEquals(EVENTS, stats.getEvents());
+            assertEquals(EVENTS, stats.getHandled());
+            assertTrue(stats.getEventsPerSecond() > 0);
+            assertTrue(stats.getMaxLatencyMillis() >= stats.getAverageLatencyMillis());
+            assertEquals(0, handler.getPendingWorkCount());
+            synchronized (received) {
+                assertEquals(EVENTS, received.size());
+            }
+        } finally {
+            handler.shutdown(true);
+        }
+    }
+
+    /**
+     * Tests that the latency of an event covers the wait in the queue of the handler and the listeners.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testReplayLatency() throws Exception {
+        GerritHandler handler = new GerritHandler(1);
+        handler.addListener(new GerritEventListener() {
+            @Override
+            public void gerritEvent(GerritEvent event) {
+                try {
+                    Thread.sleep(SPACING);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            EventReplayer replayer = new EventReplayer(segment);
+            replayer.setSpeed(EventReplayer.MAX_SPEED);
+            //CS IGNORE MagicNumber FOR NEXT 2 LINES. REASON: TestData
+            replayer.setTimeRange(START, START + 10 * SPACING);
+            ReplayStats stats = replayer.replay(handler);
+            assertEquals(10, stats.getHandled());
+            assertTrue(stats.getAverageLatencyMillis() >= SPACING);
+            assertTrue(stats.getMaxLatencyMillis() >= 10 * SPACING);
+        } finally {
+            handler.shutdown(true);
+        }
+    }
+
+    /**
+     * Tests that the lines that don't fit in the queue to the writer thread are dropped and counted,
+     * and that the ones recorded can be read back after a flush.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testQueueFull() throws IOException {
+        File other = File.createTempFile("capture", ".gec");
+        EventCaptureWriter writer = new EventCaptureWriter(other, INDEX_INTERVAL, 1);
+        try {
+            //CS IGNORE MagicNumber FOR NEXT 20 LINES. REASON: TestData
+            for (int i = 0; i < 10000; i++) {
+                writer.append(line(i), alpha, START + i);
+            }
+            assertEquals(10000, writer.getEventCount() + writer.getDroppedCount());
+            writer.flush();
+            EventCaptureReader reader = new EventCaptureReader(other);
+            try {
+                long read = 0;
+                while (reader.next() != null) {
+                    read++;
+                }
+                assertEquals(writer.getEventCount(), read);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            writer.close();
+            CaptureFormat.indexFile(other).delete();
+            other.delete();
+        }
+    }
+
+    /**
+     * Tests a time range replay at a multiple of the original pace into a plain {@link Handler}.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testReplayRangeAtSpeed() throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        final List<Provider> providers = new ArrayList<Provider>();
+        Handler handler = new RecordingHandler(lines, providers);
+        EventReplayer replayer = new EventReplayer(segment);
+        //CS IGNORE MagicNumber FOR NEXT 6 LINES. REASON: TestData
+        replayer.setSpeed(2);
+        replayer.setTimeRange(START + 40 * SPACING, START + 60 * SPACING);
+        ReplayStats stats = replayer.replay(handler);
+        assertEquals(20, stats.getEvents());
+        assertEquals(new String(line(40), StandardCharsets.UTF_8), lines.get(0));
+        assertTrue(stats.getDurationMillis() >= 19 * SPACING / 2);
+        assertEquals(alpha, providers.get(0));
+    }
+
+    /**
+     * A stream-events line.
+     *
+     * @param i the number of the event.
+     * @return the line.
+     */
+    private static byte[] line(int i) {
+        return ("{\"type\":\"ref-updated\",\"refUpdate\":{\"project\":\"p" + i + "\"},\"eventCreatedOn\":" + i + "}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Handler that records the lines posted to it.
+     */
+    private static final class RecordingHandler implements Handler {
+        private final List<String> lines;
+        private final List<Provider> providers;
+
+        /**
+         * Constructor.
+         *
+         * @param lines     where to put the lines.
+         * @param providers where to put the providers.
+         */
+        private RecordingHandler(List<String> lines, List<Provider> providers) {
+            this.lines = lines;
+            this.providers = providers;
+        }
+
+        @Override
+        public void post(String data) {
+            post(data, null);
+        }
+
+        @Override
+        public void post(String data, Provider provider) {
+            lines.add(data);
+            providers.add(provider);
+        }
+
+        @Override
+        public void post(JSONObject json) {
+        }
+
+        @Override
+        public void post(JSONObject json, Provider provider) {
+        }
+
+        @Override
+        public void post(GerritEvent event) {
+        }
+
+        @Override
+        public void addListener(GerritEventListener listener) {
+        }
+
+        @Override
+        public void removeListener(GerritEventListener listener) {
+        }
+    }
+}
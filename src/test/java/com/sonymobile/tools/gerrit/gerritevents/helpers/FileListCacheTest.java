@@ -0,0 +1,141 @@
+package com.sonymobile.tools.gerrit.gerritevents.helpers;
+
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandler;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandlerHttp;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Change;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.PatchSet;
+import com.sonymobile.tools.gerrit.gerritevents.dto.events.PatchsetCreated;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+//CS IGNORE MagicNumber FOR NEXT 150 LINES. REASON: TestData
+
+/**
+ * Tests for {@link FileListCache} and the query building of {@link FileHelper}.
+ */
+public class FileListCacheTest {
+
+    /**
+     * Tests that a file list is found by server and revision, in the order it was put.
+     */
+    @Test
+    public void testGet() {
+        FileListCache cache = new FileListCache(10);
+        List<String> files = Arrays.asList("/COMMIT_MSG", "src/main/A.java", "src/main/B.java", "README");
+        cache.put("host:29418", "abc", files);
+        assertEquals(files, cache.get("host:29418", "abc"));
+        assertNull(cache.get("other:29418", "abc"));
+        assertNull(cache.get("host:29418", "def"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    /**
+     * Tests that the least recently used file list is forgotten when full.
+     */
+    @Test
+    public void testEviction() {
+        FileListCache cache = new FileListCache(2);
+        cache.put("s", "1", Arrays.asList("a"));
+        cache.put("s", "2", Arrays.asList("b"));
+        assertNotNull(cache.get("s", "1"));
+        cache.put("s", "3", Arrays.asList("c"));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("s", "1"));
+        assertNull(cache.get("s", "2"));
+        assertNotNull(cache.get("s", "3"));
+    }
+
+    /**
+     * Tests that a remembered list can't be changed.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnmodifiable() {
+        FileListCache cache = new FileListCache(2);
+        cache.put("s", "1", Arrays.asList("a"));
+        cache.get("s", "1").add("b");
+    }
+
+    /**
+     * Tests that a path in many lists is kept once.
+     */
+    @Test
+    public void testPathsShared() {
+        FileListCache cache = new FileListCache(10);
+        cache.put("s", "1", Arrays.asList(new String("src/A.java"), "README"));
+        cache.put("s", "2", Arrays.asList(new String("src/A.java")));
+        assertSame(cache.get("s", "1").get(0), cache.get("s", "2").get(0));
+        assertSame(cache.get("s", "1"), cache.get("s", "1"));
+    }
+
+    /**
+     * Tests that the files of an event's patch set are looked up by change number and revision,
+     * without falling back to the files of the current patch set of the change.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testEventFilesByRevision() throws Exception {
+        GerritQueryHandler handler = mock(GerritQueryHandler.class);
+        when(handler.getServerKey()).thenReturn("FileListCacheTest");
+        when(handler.queryJava(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyBoolean()))
+                .thenReturn(Collections.<JSONObject>emptyList());
+        Change change = new Change();
+        change.setId("I0123456789abcdef");
+        change.setNumber("42");
+        PatchSet patchSet = new PatchSet();
+        patchSet.setRevision("FileListCacheTest-unknown");
+        PatchsetCreated event = new PatchsetCreated();
+        event.setChange(change);
+        event.setPatchset(patchSet);
+        assertTrue(event.getFiles(handler).isEmpty());
+        verify(handler).queryJava("change:42", true, false, true, false);
+        verify(handler, never()).queryFiles(anyString());
+    }
+
+    /**
+     * Tests that the files of a patch set that is not the current one are fetched over REST from the files of the
+     * revision, and remembered.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRestFilesOfOldRevision() throws Exception {
+        GerritQueryHandlerHttp handler = mock(GerritQueryHandlerHttp.class);
+        when(handler.getServerKey()).thenReturn("FileListCacheTest-rest");
+        when(handler.queryRevisionFiles("42", "old")).thenReturn(Arrays.asList("/COMMIT_MSG", "a.txt"));
+
+        assertEquals(Arrays.asList("/COMMIT_MSG", "a.txt"), FileHelper.getFilesByRevision(handler, "42", "old"));
+        assertEquals(Arrays.asList("/COMMIT_MSG", "a.txt"), FileHelper.getFilesByRevision(handler, "42", "old"));
+        verify(handler, times(1)).queryRevisionFiles("42", "old");
+        verify(handler, never()).queryFiles(anyString());
+    }
+
+    /**
+     * Tests that the change ids are joined into as few queries as the length allows.
+     */
+    @Test
+    public void testOrQueries() {
+        List<String> queries = FileHelper.orQueries(Arrays.asList("1", "2", "3", "4444444444"), 32);
+        assertEquals(Arrays.asList("change:1 OR change:2 OR change:3", "change:4444444444"), queries);
+        assertEquals(0, FileHelper.orQueries(Arrays.<String>asList(), 30).size());
+    }
+}
@@ -45,6 +45,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
 import com.jcraft.jsch.KeyPair;
 
 import java.security.PublicKey;
@@ -257,7 +258,8 @@ public class SshdServerMock implements CommandFactory {
     public static SshServer startServer(int port, SshdServerMock server) throws IOException {
         SshServer sshd = SshServer.setUpDefaultServer();
         sshd.setPort(port);
-        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider("hostkey.ser", "RSA"));
+        File hostKey = new File(System.getProperty("java.io.tmpdir"), "gerrit-events-hostkey.ser");
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(hostKey.getAbsolutePath(), "RSA"));
         sshd.setPublickeyAuthenticator(new PublickeyAuthenticator() {
             @Override
             public boolean authenticate(String s, PublicKey publicKey, ServerSession serverSession) {
@@ -496,6 +498,28 @@ public class SshdServerMock implements CommandFactory {
         }
     }
 
+    /**
+     * A command that prints two lines and exits.
+     */
+    public static class EchoCommand extends SshdServerMock.CommandMock {
+
+        /**
+         * Standard constructor.
+         *
+         * @param command the command.
+         */
+        public EchoCommand(String command) {
+            super(command);
+        }
+
+        @Override
+        public void start(Environment environment) throws IOException {
+            getOutputStream().write("{\"line\":1}\n{\"line\":2}\n".getBytes(StandardCharsets.UTF_8));
+            getOutputStream().flush();
+            stop(0);
+        }
+    }
+
     /**
      * A command that immediately returns 0. There can be some timing issues with this command.
      */
@@ -0,0 +1,55 @@
+package com.sonymobile.tools.gerrit.gerritevents.rest;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link JsonArrayReader}.
+ */
+public class JsonArrayReaderTest {
+
+    /**
+     * Tests that the elements are read one by one after the XSSI line, with brackets and quotes inside strings.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testElements() throws IOException {
+        JsonArrayReader reader = new JsonArrayReader(new StringReader(
+                ")]}'\n[{\"id\":\"a\",\"subject\":\"Fix ] and } in \\\"x\\\"\",\"labels\":{\"v\":[1,2]}},\n"
+                        + " {\"id\":\"b\"} ]\n"));
+        JSONObject first = JSONObject.fromObject(reader.next());
+        assertEquals("a", first.getString("id"));
+        assertEquals("Fix ] and } in \"x\"", first.getString("subject"));
+        assertEquals(2, first.getJSONObject("labels").getJSONArray("v").size());
+        assertEquals("b", JSONObject.fromObject(reader.next()).getString("id"));
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    /**
+     * Tests an empty array.
+     *
+     * @throws IOException if so.
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        assertNull(new JsonArrayReader(new StringReader(")]}'\n []")).next());
+    }
+
+    /**
+     * Tests that a response that is not an array fails.
+     *
+     * @throws IOException as expected.
+     */
+    @Test(expected = IOException.class)
+    public void testNotAnArray() throws IOException {
+        new JsonArrayReader(new StringReader("Not found")).next();
+    }
+}
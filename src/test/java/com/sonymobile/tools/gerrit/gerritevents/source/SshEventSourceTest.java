@@ -0,0 +1,75 @@
+package com.sonymobile.tools.gerrit.gerritevents.source;
+
+import com.sonymobile.tools.gerrit.gerritevents.mock.SshdServerMock;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 100 LINES. REASON: TestData
+
+/**
+ * Tests {@link SshEventSource}.
+ */
+public class SshEventSourceTest {
+
+    /**
+     * Tests that closing does not wait for an open that hangs connecting, and that the open fails instead.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testCloseWhileConnecting() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final CountDownLatch accepted = new CountDownLatch(1);
+        Thread silent = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    accepted.countDown();
+                    socket.getInputStream().read();
+                    socket.close();
+                } catch (IOException e) {
+                    //Closed.
+                }
+            }
+        });
+        silent.setDaemon(true);
+        silent.start();
+        final SshEventSource source = new SshEventSource("gerrit", "localhost", server.getLocalPort(), "", "",
+                new Authentication(SshdServerMock.generateKeyPair().getPrivateKey(), "jenkins"));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread opener = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    source.open();
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        try {
+            opener.start();
+            assertTrue(accepted.await(10, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            source.close();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+            opener.join(10000);
+            assertFalse(opener.isAlive());
+            assertTrue(failure.get() instanceof IOException);
+            assertFalse(source.isOpen());
+        } finally {
+            server.close();
+        }
+    }
+}
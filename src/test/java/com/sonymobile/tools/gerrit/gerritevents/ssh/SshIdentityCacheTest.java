@@ -0,0 +1,109 @@
+package com.sonymobile.tools.gerrit.gerritevents.ssh;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 150 LINES. REASON: TestData
+
+/**
+ * Tests {@link SshIdentityCache}.
+ */
+public class SshIdentityCacheTest {
+
+    private File keyFile;
+
+    /**
+     * Writes an encrypted private key.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        SshIdentityCache.clear();
+        keyFile = File.createTempFile("id_rsa", null);
+        KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 1024);
+        keyPair.writePrivateKey(keyFile.getAbsolutePath(), "secret".getBytes(StandardCharsets.UTF_8));
+        keyPair.dispose();
+    }
+
+    /**
+     * Empties the cache and removes the key.
+     */
+    @After
+    public void tearDown() {
+        SshIdentityCache.clear();
+        keyFile.delete();
+    }
+
+    /**
+     * Tests that the key is only parsed once for several connects.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testCachedAcrossConnects() throws Exception {
+        Authentication auth = new Authentication(keyFile, "user", "secret");
+        Identity first = SshIdentityCache.getIdentity(new JSch(), auth);
+        assertNotNull(first);
+        assertEquals("ssh-rsa", first.getAlgName());
+        assertFalse(first.isEncrypted());
+        assertNotNull(first.getSignature("data".getBytes(StandardCharsets.UTF_8)));
+        assertSame(first, SshIdentityCache.getIdentity(new JSch(), auth));
+        assertSame(first, SshIdentityCache.getIdentity(new JSch(), new Authentication(keyFile, "other", "secret")));
+    }
+
+    /**
+     * Tests that the key is parsed again when the file has changed.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testReparsedWhenFileChanges() throws Exception {
+        Authentication auth = new Authentication(keyFile, "user", "secret");
+        Identity first = SshIdentityCache.getIdentity(new JSch(), auth);
+        assertTrue(keyFile.setLastModified(keyFile.lastModified() + 10000));
+        Identity second = SshIdentityCache.getIdentity(new JSch(), auth);
+        assertNotNull(second);
+        assertNotSame(first, second);
+    }
+
+    /**
+     * Tests that a key that can't be decrypted isn't cached.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testWrongPassphrase() throws Exception {
+        assertNull(SshIdentityCache.getIdentity(new JSch(), new Authentication(keyFile, "user", "wrong")));
+        assertNull(SshIdentityCache.getIdentity(new JSch(), new Authentication(keyFile, "user")));
+        assertNotNull(SshIdentityCache.getIdentity(new JSch(), new Authentication(keyFile, "user", "secret")));
+    }
+
+    /**
+     * Tests that an invalidated key is parsed again.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+        Authentication auth = new Authentication(keyFile, "user", "secret");
+        Identity first = SshIdentityCache.getIdentity(new JSch(), auth);
+        SshIdentityCache.invalidate(auth);
+        assertNotSame(first, SshIdentityCache.getIdentity(new JSch(), auth));
+    }
+}
@@ -0,0 +1,211 @@
+package com.sonymobile.tools.gerrit.gerritevents.ssh;
+
+import com.sonymobile.tools.gerrit.gerritevents.mock.SshdServerMock;
+import org.apache.sshd.SshServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests the probe of idle {@link SshSessionPool} sessions against {@link SshdServerMock},
+ * reached through a relay that can stop answering.
+ */
+public class SshSessionPoolProbeTest {
+
+    private SshServer sshd;
+    private Relay relay;
+    private SshSessionPool pool;
+    private Authentication authentication;
+
+    /**
+     * Starts the server and the relay in front of it.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+        SshdServerMock server = new SshdServerMock();
+        sshd = SshdServerMock.startServer(port, server);
+        server.returnCommandFor("gerrit version", SshdServerMock.EchoCommand.class);
+        authentication = new Authentication(SshdServerMock.generateKeyPair().getPrivateKey(), "jenkins");
+        relay = new Relay(port);
+    }
+
+    /**
+     * Closes the pool and stops the relay and the server.
+     *
+     * @throws Exception if so.
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null) {
+            pool.close();
+        }
+        relay.close();
+        sshd.stop(true);
+    }
+
+    /**
+     * Tests that a pooled session whose server has stopped answering, while the connection still looks open,
+     * is dropped when borrowed after being idle, and the command runs on a new session instead of hanging.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testServerStopsAnswering() throws Exception {
+        pool = new SshSessionPool(1, 2, 60000, 0, 500);
+        SshConnection connection = pool.getConnection("localhost", relay.getPort(), "", authentication, 10000);
+        assertEquals("{\"line\":1}\n{\"line\":2}\n", connection.executeCommand("gerrit version"));
+        connection.disconnect();
+
+        relay.stopAnswering();
+        connection = pool.getConnection("localhost", relay.getPort(), "", authentication, 10000);
+        assertEquals("{\"line\":1}\n{\"line\":2}\n", connection.executeCommand("gerrit version"));
+        assertEquals(2, relay.getConnectionCount());
+        assertEquals(1, pool.getSessionCount());
+        connection.disconnect();
+    }
+
+    /**
+     * A TCP relay to the server. The connections it has relayed so far can be made to stop answering:
+     * what the client sends is swallowed and nothing more comes back, but the sockets stay open.
+     */
+    private static final class Relay extends Thread {
+        private final ServerSocket serverSocket;
+        private final int target;
+        private final List<Pipe> pipes = new ArrayList<Pipe>();
+        private final List<Socket> sockets = new ArrayList<Socket>();
+        private int connectionCount = 0;
+
+        /**
+         * Constructor, starts relaying.
+         *
+         * @param target the port of the server.
+         * @throws IOException if so.
+         */
+        Relay(int target) throws IOException {
+            super("SshSessionPoolProbeTest-relay");
+            this.target = target;
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+            start();
+        }
+
+        /**
+         * The port to connect to.
+         *
+         * @return the port.
+         */
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        /**
+         * The number of connections relayed.
+         *
+         * @return the count.
+         */
+        synchronized int getConnectionCount() {
+            return connectionCount;
+        }
+
+        /**
+         * Makes the connections relayed so far stop answering.
+         */
+        synchronized void stopAnswering() {
+            for (Pipe pipe : pipes) {
+                pipe.stopped = true;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket client = serverSocket.accept();
+                    Socket server = new Socket("localhost", target);
+                    synchronized (this) {
+                        connectionCount++;
+                        sockets.add(client);
+                        sockets.add(server);
+                        pipes.add(new Pipe(client.getInputStream(), server.getOutputStream()));
+                        pipes.add(new Pipe(server.getInputStream(), client.getOutputStream()));
+                    }
+                }
+            } catch (IOException e) {
+                //Closed.
+            }
+        }
+
+        /**
+         * Stops relaying and closes all connections.
+         *
+         * @throws IOException if so.
+         */
+        synchronized void close() throws IOException {
+            serverSocket.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Copies one direction of a relayed connection.
+     */
+    private static final class Pipe extends Thread {
+        private final InputStream in;
+        private final OutputStream out;
+        private volatile boolean stopped = false;
+
+        /**
+         * Constructor, starts copying.
+         *
+         * @param in  where to read from.
+         * @param out where to write to.
+         */
+        Pipe(InputStream in, OutputStream out) {
+            super("SshSessionPoolProbeTest-pipe");
+            this.in = in;
+            this.out = out;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[8192];
+            try {
+                int read = in.read(buffer);
+                while (read >= 0) {
+                    if (!stopped) {
+                        out.write(buffer, 0, read);
+                        out.flush();
+                    }
+                    read = in.read(buffer);
+                }
+            } catch (IOException e) {
+                //Closed.
+            }
+        }
+    }
+}
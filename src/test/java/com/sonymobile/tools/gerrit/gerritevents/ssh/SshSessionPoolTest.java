@@ -0,0 +1,234 @@
+package com.sonymobile.tools.gerrit.gerritevents.ssh;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+//CS IGNORE MagicNumber FOR NEXT 260 LINES. REASON: TestData
+
+/**
+ * Tests {@link SshSessionPool}.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SshConnectionFactory.class)
+@PowerMockIgnore("org.slf4j.*")
+public class SshSessionPoolTest {
+
+    private final Authentication authentication = new Authentication(new File("key"), "user");
+    private List<SshConnection> sessions;
+    private SshSessionPool pool;
+
+    /**
+     * Makes the factory hand out a new connected session mock for every connect.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        sessions = new ArrayList<SshConnection>();
+        PowerMockito.mockStatic(SshConnectionFactory.class);
+        when(SshConnectionFactory.getConnection(anyString(), anyInt(), nullable(String.class),
+                any(Authentication.class), anyInt())).thenAnswer(new Answer<SshConnection>() {
+            @Override
+            public SshConnection answer(InvocationOnMock invocation) throws Throwable {
+                SshConnection session = mock(SshConnection.class);
+                when(session.isConnected()).thenReturn(true);
+                when(session.executeCommand(anyString())).thenReturn("ok");
+                when(session.executeCommandChannel(anyString(), anyBoolean())).thenReturn(mock(ChannelExec.class));
+                sessions.add(session);
+                return session;
+            }
+        });
+    }
+
+    /**
+     * Closes the pool.
+     */
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Tests that a session is reused by commands run one after another.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testSessionIsReused() throws Exception {
+        pool = new SshSessionPool(2, 4, 60000);
+        for (int i = 0; i < 3; i++) {
+            SshConnection connection = pool.getConnection("host", 29418, "", authentication, 0);
+            assertEquals("ok", connection.executeCommand("gerrit version"));
+            connection.disconnect();
+            assertFalse(connection.isConnected());
+        }
+        assertEquals(1, sessions.size());
+        assertEquals(1, pool.getSessionCount());
+        verify(sessions.get(0), times(3)).executeCommand("gerrit version");
+        verify(sessions.get(0), never()).disconnect();
+    }
+
+    /**
+     * Tests that a second session is connected when the first has reached the channel cap.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testChannelCap() throws Exception {
+        pool = new SshSessionPool(2, 2, 60000);
+        SshConnection first = pool.getConnection("host", 29418, "", authentication, 0);
+        SshConnection second = pool.getConnection("host", 29418, "", authentication, 0);
+        assertEquals(1, sessions.size());
+        SshConnection third = pool.getConnection("host", 29418, "", authentication, 0);
+        assertEquals(2, sessions.size());
+        first.disconnect();
+        second.disconnect();
+        third.disconnect();
+        assertEquals(2, pool.getSessionCount());
+    }
+
+    /**
+     * Tests that different users get different sessions.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testSessionsPerUser() throws Exception {
+        pool = new SshSessionPool(2, 2, 60000);
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        pool.getConnection("host", 29418, "", new Authentication(new File("key"), "other"), 0).disconnect();
+        assertEquals(2, sessions.size());
+        assertNotSame(sessions.get(0), sessions.get(1));
+    }
+
+    /**
+     * Tests that the same user with another key or passphrase doesn't get the session of the first.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testSessionsPerCredentials() throws Exception {
+        pool = new SshSessionPool(2, 2, 60000);
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        pool.getConnection("host", 29418, "", new Authentication(new File("other"), "user"), 0).disconnect();
+        pool.getConnection("host", 29418, "", new Authentication(new File("key"), "user", "secret"), 0)
+                .disconnect();
+        pool.getConnection("host", 29418, null, new Authentication(new File("key"), "user"), 0).disconnect();
+        assertEquals(3, sessions.size());
+    }
+
+    /**
+     * Tests that a session that has died is replaced by a new one.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDeadSessionIsReplaced() throws Exception {
+        pool = new SshSessionPool(1, 2, 60000);
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        when(sessions.get(0).isConnected()).thenReturn(false);
+        SshConnection connection = pool.getConnection("host", 29418, "", authentication, 0);
+        assertEquals(2, sessions.size());
+        verify(sessions.get(0)).disconnect();
+        assertTrue(connection.isConnected());
+        connection.disconnect();
+    }
+
+    /**
+     * Tests that sessions without open channels are disconnected after the idle timeout.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testEvictIdle() throws Exception {
+        pool = new SshSessionPool(2, 1, 0);
+        SshConnection busy = pool.getConnection("host", 29418, "", authentication, 0);
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        assertEquals(2, pool.getSessionCount());
+        pool.evictIdle();
+        assertEquals(1, pool.getSessionCount());
+        verify(sessions.get(0), never()).disconnect();
+        verify(sessions.get(1)).disconnect();
+        busy.disconnect();
+    }
+
+    /**
+     * Tests that a session idle for longer than the probe threshold is probed and kept when it answers,
+     * while a session used just now is handed out as is.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testIdleSessionIsProbed() throws Exception {
+        pool = new SshSessionPool(1, 2, 60000, 60000, 500);
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        verify(sessions.get(0), never()).executeCommandChannel(anyString(), anyBoolean());
+        pool.close();
+
+        sessions.clear();
+        pool = new SshSessionPool(1, 2, 60000, 0, 500);
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        ChannelExec channel = mock(ChannelExec.class);
+        when(sessions.get(0).executeCommandChannel("gerrit version", false)).thenReturn(channel);
+        SshConnection connection = pool.getConnection("host", 29418, "", authentication, 0);
+        assertEquals(1, sessions.size());
+        verify(channel).connect(500);
+        verify(channel).disconnect();
+        verify(sessions.get(0), never()).disconnect();
+        connection.disconnect();
+    }
+
+    /**
+     * Tests that an idle session that doesn't answer the probe is dropped and replaced.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testUnansweredProbeDropsSession() throws Exception {
+        pool = new SshSessionPool(1, 2, 60000, 0, 500);
+        pool.getConnection("host", 29418, "", authentication, 0).disconnect();
+        ChannelExec channel = mock(ChannelExec.class);
+        doThrow(new JSchException("channel is not opened.")).when(channel).connect(anyInt());
+        when(sessions.get(0).executeCommandChannel("gerrit version", false)).thenReturn(channel);
+        SshConnection connection = pool.getConnection("host", 29418, "", authentication, 0);
+        assertEquals(2, sessions.size());
+        assertEquals(1, pool.getSessionCount());
+        verify(sessions.get(0)).disconnect();
+        verify(channel).disconnect();
+        assertEquals("ok", connection.executeCommand("gerrit version"));
+        connection.disconnect();
+    }
+}
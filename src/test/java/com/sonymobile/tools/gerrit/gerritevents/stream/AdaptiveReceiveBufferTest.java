@@ -0,0 +1,49 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+//CS IGNORE MagicNumber FOR NEXT 100 LINES. REASON: TestData
+
+/**
+ * Tests for {@link AdaptiveReceiveBuffer} and {@link ReceiveBufferPool}.
+ */
+public class AdaptiveReceiveBufferTest {
+
+    /**
+     * Tests that the buffer grows while reads fill it, shrinks after small traffic and reuses pooled buffers.
+     */
+    @Test
+    public void testGrowAndShrink() {
+        ReceiveBufferPool pool = new ReceiveBufferPool(2);
+        AdaptiveReceiveBuffer rx = new AdaptiveReceiveBuffer(pool, 20000);
+        assertEquals(AdaptiveReceiveBuffer.MIN_SIZE, rx.array().length);
+        rx.filled(100);
+        assertEquals(AdaptiveReceiveBuffer.MIN_SIZE, rx.array().length);
+        for (int i = 0; i < 5; i++) {
+            rx.filled(rx.array().length);
+        }
+        assertEquals(20000, rx.array().length);
+        assertEquals(3, pool.getRetained());
+
+        for (int i = 0; i < AdaptiveReceiveBuffer.SHRINK_AFTER_READS - 1; i++) {
+            rx.filled(10);
+        }
+        assertEquals(20000, rx.array().length);
+        rx.filled(10);
+        assertEquals(10000, rx.array().length);
+        for (int i = 0; i < AdaptiveReceiveBuffer.SHRINK_AFTER_READS * 3; i++) {
+            rx.filled(10);
+        }
+        assertEquals(AdaptiveReceiveBuffer.MIN_SIZE, rx.array().length);
+        byte[] small = rx.array();
+        rx.release();
+
+        long allocated = pool.getAllocated();
+        AdaptiveReceiveBuffer next = new AdaptiveReceiveBuffer(pool, 20000);
+        assertSame(small, next.array());
+        assertEquals(allocated, pool.getAllocated());
+    }
+}
@@ -0,0 +1,77 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 100 LINES. REASON: TestData
+
+/**
+ * Tests {@link EventDeduplicator}.
+ */
+public class EventDeduplicatorTest {
+
+    /**
+     * Tests that a line delivered by both streams is only accepted once.
+     */
+    @Test
+    public void testDuplicateDropped() {
+        EventDeduplicator deduplicator = new EventDeduplicator(2);
+        assertTrue(deduplicator.accept(0, bytes("{\"a\":1}")));
+        assertTrue(deduplicator.accept(0, bytes("{\"a\":2}")));
+        assertFalse(deduplicator.accept(1, bytes("{\"a\":1}")));
+        assertFalse(deduplicator.accept(1, bytes("{\"a\":2}")));
+        assertTrue(deduplicator.accept(1, bytes("{\"a\":3}")));
+        assertFalse(deduplicator.accept(0, bytes("{\"a\":3}")));
+        assertEquals(3, deduplicator.getDuplicateCount());
+    }
+
+    /**
+     * Tests that identical lines on the same stream are all accepted, and only their copies are dropped.
+     */
+    @Test
+    public void testRepeatOnSameStream() {
+        EventDeduplicator deduplicator = new EventDeduplicator(2);
+        assertTrue(deduplicator.accept(0, bytes("same")));
+        assertTrue(deduplicator.accept(0, bytes("same")));
+        assertFalse(deduplicator.accept(1, bytes("same")));
+        assertFalse(deduplicator.accept(1, bytes("same")));
+        assertTrue(deduplicator.accept(1, bytes("same")));
+    }
+
+    /**
+     * Tests that fingerprints pushed out of the window are forgotten.
+     */
+    @Test
+    public void testWindowIsBounded() {
+        EventDeduplicator deduplicator = new EventDeduplicator(2, 2);
+        assertTrue(deduplicator.accept(0, bytes("one")));
+        assertTrue(deduplicator.accept(0, bytes("two")));
+        assertTrue(deduplicator.accept(0, bytes("three")));
+        assertTrue(deduplicator.accept(1, bytes("one")));
+        assertFalse(deduplicator.accept(1, bytes("three")));
+    }
+
+    /**
+     * Tests that the fingerprint is FNV-1a over the unsigned values of the bytes.
+     */
+    @Test
+    public void testFingerprintOfNonAsciiBytes() {
+        assertEquals(0xaf63dc4c8601ec8cL, EventDeduplicator.fingerprint(bytes("a")));
+        assertEquals(0x0ac21707b7181e01L, EventDeduplicator.fingerprint(bytes("\u00e9")));
+    }
+
+    /**
+     * UTF-8 bytes of the string.
+     *
+     * @param line the string.
+     * @return the bytes.
+     */
+    private static byte[] bytes(String line) {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+}
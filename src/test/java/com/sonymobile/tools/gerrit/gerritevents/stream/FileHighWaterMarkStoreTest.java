@@ -0,0 +1,73 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+//CS IGNORE MagicNumber FOR NEXT 100 LINES. REASON: TestData
+
+/**
+ * Tests {@link FileHighWaterMarkStore} and {@link EventLines}.
+ */
+public class FileHighWaterMarkStoreTest {
+
+    /**
+     * Tests that the marks only move forward and survive a restart.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testPersisted() throws Exception {
+        File file = File.createTempFile("marks", ".properties");
+        try {
+            FileHighWaterMarkStore store = new FileHighWaterMarkStore(file);
+            assertEquals(0, store.get("gerrit"));
+            store.update("gerrit", 1000);
+            store.update("gerrit", 999);
+            store.update("other", 5);
+            store.flush();
+            assertEquals(1000, store.get("gerrit"));
+
+            FileHighWaterMarkStore restarted = new FileHighWaterMarkStore(file);
+            assertEquals(1000, restarted.get("gerrit"));
+            assertEquals(5, restarted.get("other"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that a moved mark is written in the background without a flush.
+     *
+     * @throws Exception if so.
+     */
+    @Test(timeout = 30000)
+    public void testWrittenInBackground() throws Exception {
+        File file = File.createTempFile("marks", ".properties");
+        try {
+            FileHighWaterMarkStore store = new FileHighWaterMarkStore(file);
+            store.update("gerrit", 1000);
+            while (new FileHighWaterMarkStore(file).get("gerrit") != 1000) {
+                Thread.sleep(50);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests {@link EventLines#eventCreatedOn(byte[])}.
+     */
+    @Test
+    public void testEventCreatedOn() {
+        assertEquals(1234567890L, EventLines.eventCreatedOn(
+                "{\"type\":\"ref-updated\",\"eventCreatedOn\":1234567890}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(42L, EventLines.eventCreatedOn(
+                "{\"eventCreatedOn\" : 42, \"type\":\"x\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0L, EventLines.eventCreatedOn("{\"type\":\"x\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0L, EventLines.eventCreatedOn("{\"eventCreatedOn\":null}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
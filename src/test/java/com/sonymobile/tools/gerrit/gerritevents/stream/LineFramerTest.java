@@ -0,0 +1,182 @@
+package com.sonymobile.tools.gerrit.gerritevents.stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests {@link LineFramer}.
+ */
+public class LineFramerTest {
+
+    private LineFramer framer;
+    private List<String> lines;
+    private LineFramer.LineSink sink;
+
+    /**
+     * Creates a fresh framer and a sink collecting the decoded lines.
+     */
+    @Before
+    public void setUp() {
+        framer = new LineFramer();
+        lines = new ArrayList<String>();
+        sink = new LineFramer.LineSink() {
+            @Override
+            public void onLine(byte[] line) {
+                lines.add(new String(line, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Feeds the string as UTF-8 to the framer.
+     *
+     * @param s the string.
+     * @return the number of lines delivered.
+     */
+    private int feed(String s) {
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        return framer.feed(data, 0, data.length, sink);
+    }
+
+    /**
+     * Tests that complete lines in one chunk are delivered and empty lines skipped.
+     */
+    @Test
+    public void testCompleteLines() {
+        assertEquals(2, feed("one\n\ntwo\n"));
+        assertEquals(2, lines.size());
+        assertEquals("one", lines.get(0));
+        assertEquals("two", lines.get(1));
+        assertEquals(0, framer.getPendingLength());
+    }
+
+    /**
+     * Tests that a line spanning several chunks is joined.
+     */
+    @Test
+    public void testLineSpanningChunks() {
+        assertEquals(0, feed("{\"say\":"));
+        assertEquals(7, framer.getPendingLength());
+        assertEquals(0, feed("\"hello\""));
+        assertEquals(1, feed("}\nnext"));
+        assertEquals("{\"say\":\"hello\"}", lines.get(0));
+        assertEquals(4, framer.getPendingLength());
+        assertEquals(1, feed("\n"));
+        assertEquals("next", lines.get(1));
+    }
+
+    /**
+     * Tests that a multi byte character split between two chunks is decoded correctly.
+     */
+    @Test
+    public void testSplitMultiByteCharacter() {
+        byte[] data = "räksmörgås\n".getBytes(StandardCharsets.UTF_8);
+        framer.feed(data, 0, 2, sink);
+        framer.feed(data, 2, data.length - 2, sink);
+        assertEquals(1, lines.size());
+        assertEquals("räksmörgås", lines.get(0));
+    }
+
+    /**
+     * Tests a line much bigger than the initial pending buffer.
+     */
+    @Test
+    public void testHugeLine() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < LineFramer.INITIAL_PENDING_SIZE * 10; i++) {
+            String part = String.valueOf(i % 10);
+            expected.append(part);
+            feed(part);
+        }
+        feed("\n");
+        assertEquals(1, lines.size());
+        assertEquals(expected.toString(), lines.get(0));
+        assertEquals(0, framer.getPendingLength());
+    }
+
+    /**
+     * Tests that reset throws away a partial line.
+     */
+    @Test
+    public void testReset() {
+        feed("partial");
+        framer.reset();
+        assertEquals(0, framer.getPendingLength());
+        feed("whole\n");
+        assertEquals("whole", lines.get(0));
+    }
+
+    /**
+     * Tests that a line over the streaming threshold gets its long values cut,
+     * in chunks and without cutting a character or escape sequence, while short lines are left as they are.
+     */
+    @Test
+    public void testCappedLine() {
+        LineLimits limits = new LineLimits(64, 20, 0);
+        framer = new LineFramer(limits);
+        feed("{\"type\":\"short\"}\n");
+        StringBuilder message = new StringBuilder("1234567890123456789\u00e9\\n");
+        for (int i = 0; i < 100; i++) {
+            message.append("more text ");
+        }
+        String line = "{\"type\":\"patchset-created\",\"message\":\"" + message + "\",\"quote\":\"a\\\"b\"}\n";
+        for (int i = 0; i < line.length(); i += 7) {
+            feed(line.substring(i, Math.min(line.length(), i + 7)));
+        }
+        assertEquals(2, lines.size());
+        assertEquals("{\"type\":\"short\"}", lines.get(0));
+        int skipped = message.toString().getBytes(StandardCharsets.UTF_8).length - 21;
+        assertEquals("{\"type\":\"patchset-created\",\"message\":\"1234567890123456789\u00e9"
+                + FieldCapper.MARKER_START + skipped + FieldCapper.MARKER_END + "\",\"quote\":\"a\\\"b\"}",
+                lines.get(1));
+        assertEquals(1, limits.getTruncatedLines());
+        assertEquals(1, limits.getTruncatedFields());
+        assertEquals(0, limits.getDroppedLines());
+        assertEquals(line.getBytes(StandardCharsets.UTF_8).length - 1, limits.getLargestLine());
+    }
+
+    /**
+     * Tests that the default limits cap a value that makes the line longer than the default threshold.
+     */
+    @Test
+    public void testDefaultCapsHugeLine() {
+        StringBuilder message = new StringBuilder();
+        while (message.length() <= LineLimits.DEFAULT_STREAMING_THRESHOLD) {
+            message.append("more text ");
+        }
+        feed("{\"type\":\"patchset-created\",\"message\":\"" + message + "\"}\n");
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).length() < LineLimits.DEFAULT_MAX_FIELD_BYTES + 100);
+        assertTrue(lines.get(0).contains(FieldCapper.MARKER_START));
+    }
+
+    /**
+     * Tests that a line over the hard limit is dropped without being kept, and the next line is delivered.
+     */
+    @Test
+    public void testDroppedLine() {
+        LineLimits limits = new LineLimits(0, 10, 100);
+        framer = new LineFramer(limits);
+        for (int i = 0; i < 50; i++) {
+            feed("0123456789");
+            assertTrue(framer.getPendingLength() <= 100);
+        }
+        assertEquals(1, feed("end\nnext\n"));
+        assertEquals(1, lines.size());
+        assertEquals("next", lines.get(0));
+        assertEquals(1, limits.getDroppedLines());
+        assertEquals(503, limits.getLargestLine());
+        feed(new String(new char[101]).replace('\0', 'x') + "\n");
+        assertEquals(2, limits.getDroppedLines());
+        assertEquals(1, lines.size());
+    }
+}
@@ -0,0 +1,47 @@
+package com.sonymobile.tools.gerrit.gerritevents.watchdog;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//CS IGNORE MagicNumber FOR NEXT 100 LINES. REASON: TestData
+
+/**
+ * Tests for {@link LivenessModel}.
+ */
+public class LivenessModelTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long FLOOR = TimeUnit.SECONDS.toMillis(30);
+    private static final long CAP = TimeUnit.HOURS.toMillis(2);
+
+    /**
+     * Tests that the timeout follows the gaps of each hour and stays within the bounds.
+     */
+    @Test
+    public void testTimeoutPerHour() {
+        LivenessModel model = new LivenessModel(TimeZone.getTimeZone("UTC"));
+        long night = 3 * HOUR;
+        long day = 10 * HOUR;
+        assertEquals(FLOOR, model.getTimeoutMillis(night, FLOOR, CAP));
+        for (int i = 0; i < 20; i++) {
+            model.record(night + i, TimeUnit.MINUTES.toMillis(10));
+            model.record(day + i, TimeUnit.SECONDS.toMillis(2));
+        }
+        //Parts of a burst are ignored.
+        model.record(day, 10);
+        assertEquals(20, model.getSamples(day));
+
+        long nightTimeout = model.getTimeoutMillis(night + HOUR / 2, FLOOR, CAP);
+        assertTrue(nightTimeout >= TimeUnit.MINUTES.toMillis(10));
+        assertTrue(nightTimeout < CAP);
+        assertEquals(FLOOR, model.getTimeoutMillis(day, FLOOR, CAP));
+        //An hour with too few samples uses the floor.
+        assertEquals(FLOOR, model.getTimeoutMillis(night + HOUR, FLOOR, CAP));
+        assertEquals(TimeUnit.MINUTES.toMillis(5), model.getTimeoutMillis(night, FLOOR, TimeUnit.MINUTES.toMillis(5)));
+    }
+}
@@ -26,6 +26,7 @@ package com.sonymobile.tools.gerrit.gerritevents.watchdog;
 
 import com.jcraft.jsch.JSchException;
 import com.sonymobile.tools.gerrit.gerritevents.ConnectionListener;
+import com.sonymobile.tools.gerrit.gerritevents.Connector;
 import com.sonymobile.tools.gerrit.gerritevents.GerritConnection;
 import com.sonymobile.tools.gerrit.gerritevents.GerritHandler;
 import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
@@ -36,11 +37,16 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import static com.sonymobile.tools.gerrit.gerritevents.mock.SshdServerMock.GERRIT_STREAM_EVENTS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 //CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
@@ -221,4 +227,132 @@ public class StreamWatchdogTest {
             stop(0);
         }
     }
+
+    /**
+     * Tests that many watchdogs share one thread and that each still reconnects its connector.
+     *
+     * @throws InterruptedException if so.
+     */
+    @Test(timeout = 30000)
+    public void testSharedScheduler() throws InterruptedException {
+        //CS IGNORE MagicNumber FOR NEXT 30 LINES. REASON: TestData
+        int before = StreamWatchdog.getActiveCount();
+        final AtomicInteger reconnects = new AtomicInteger();
+        Connector connector = new Connector() {
+            @Override
+            public void reconnect() {
+                reconnects.incrementAndGet();
+            }
+        };
+        WatchTimeExceptionData noExceptions = new WatchTimeExceptionData(new int[0],
+                Collections.<WatchTimeExceptionData.TimeSpan>emptyList());
+        List<StreamWatchdog> watchdogs = new ArrayList<StreamWatchdog>();
+        for (int i = 0; i < 100; i++) {
+            watchdogs.add(new StreamWatchdog(connector, 0, noExceptions, 10, 50));
+        }
+        assertEquals(before + 100, StreamWatchdog.getActiveCount());
+        while (reconnects.get() < 100) {
+            Thread.sleep(10);
+        }
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().matches(Pattern.quote(StreamWatchdog.class.getName()) + "-\\d+")) {
+                threads++;
+            }
+        }
+        assertEquals(1, threads);
+        for (StreamWatchdog watchdog : watchdogs) {
+            watchdog.shutdown();
+        }
+        assertEquals(before, StreamWatchdog.getActiveCount());
+    }
+
+    /**
+     * Tests that a quiet connection is probed first and only reconnected when the probe fails or hangs.
+     *
+     * @throws InterruptedException if so.
+     */
+    //CS IGNORE MagicNumber FOR NEXT 45 LINES. REASON: TestData
+    @Test(timeout = 30000)
+    public void testProbeBeforeReconnect() throws InterruptedException {
+        final AtomicInteger reconnects = new AtomicInteger();
+        final AtomicInteger probes = new AtomicInteger();
+        final AtomicInteger answer = new AtomicInteger(1);
+        Connector connector = new Connector() {
+            @Override
+            public void reconnect() {
+                reconnects.incrementAndGet();
+            }
+        };
+        LivenessProbe probe = new LivenessProbe() {
+            @Override
+            public boolean probe() {
+                probes.incrementAndGet();
+                if (answer.get() < 0) {
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        return true;
+                    }
+                }
+                return answer.get() > 0;
+            }
+        };
+        StreamWatchdog watchdog = new StreamWatchdog(connector, 0,
+                new WatchTimeExceptionData(new int[0], Collections.<WatchTimeExceptionData.TimeSpan>emptyList()),
+                10, 20);
+        watchdog.setProbe(probe, 200);
+        try {
+            while (probes.get() < 3) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, reconnects.get());
+            answer.set(0);
+            while (reconnects.get() == 0) {
+                Thread.sleep(10);
+            }
+            answer.set(-1);
+            int before = reconnects.get();
+            while (reconnects.get() == before) {
+                Thread.sleep(10);
+            }
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a paused watchdog does not reconnect, and that a reset one starts over and reconnects again.
+     *
+     * @throws InterruptedException if so.
+     */
+    //CS IGNORE MagicNumber FOR NEXT 30 LINES. REASON: TestData
+    @Test(timeout = 30000)
+    public void testPauseAndReset() throws InterruptedException {
+        final AtomicInteger reconnects = new AtomicInteger();
+        Connector connector = new Connector() {
+            @Override
+            public void reconnect() {
+                reconnects.incrementAndGet();
+            }
+        };
+        StreamWatchdog watchdog = new StreamWatchdog(connector, 1,
+                new WatchTimeExceptionData(new int[0], Collections.<WatchTimeExceptionData.TimeSpan>emptyList()),
+                10, 20);
+        try {
+            watchdog.pause();
+            assertTrue(watchdog.isPaused());
+            Thread.sleep(1500);
+            assertEquals(0, reconnects.get());
+            long reset = System.currentTimeMillis();
+            watchdog.reset();
+            assertFalse(watchdog.isPaused());
+            while (reconnects.get() == 0) {
+                Thread.sleep(10);
+            }
+            assertTrue(System.currentTimeMillis() - reset >= 1000);
+        } finally {
+            watchdog.shutdown();
+        }
+    }
 }
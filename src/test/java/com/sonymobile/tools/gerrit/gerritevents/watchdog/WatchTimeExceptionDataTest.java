@@ -138,4 +138,34 @@ public class WatchTimeExceptionDataTest {
                 Collections.<WatchTimeExceptionData.TimeSpan>emptyList());
         assertTrue(data.isExceptionToday());
     }
+
+    /**
+     * Tests {@link WatchTimeExceptionData#isExceptionAt(long)} around the bounds of a time span and a day,
+     * in and out of order.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testIsExceptionAt() throws Exception {
+        List<WatchTimeExceptionData.TimeSpan> spans = new LinkedList<WatchTimeExceptionData.TimeSpan>();
+        spans.add(new WatchTimeExceptionData.TimeSpan(new WatchTimeExceptionData.Time(10, 0),
+                new WatchTimeExceptionData.Time(11, 30)));
+        WatchTimeExceptionData data = new WatchTimeExceptionData(new int[]{Calendar.SUNDAY}, spans);
+        //A Saturday.
+        Calendar saturday = Calendar.getInstance();
+        saturday.clear();
+        saturday.set(2024, Calendar.JUNE, 1, 9, 59, 59);
+        long nineFiftyNine = saturday.getTimeInMillis();
+        assertFalse(data.isExceptionAt(nineFiftyNine));
+        assertTrue(data.isExceptionAt(nineFiftyNine + 1000));
+        long elevenThirty = nineFiftyNine + 1000 + 90 * 60 * 1000;
+        assertTrue(data.isExceptionAt(elevenThirty + 59 * 1000));
+        assertFalse(data.isExceptionAt(elevenThirty + 60 * 1000));
+        assertTrue(data.isExceptionAt(nineFiftyNine + 1000));
+        saturday.set(Calendar.HOUR_OF_DAY, 23);
+        saturday.set(Calendar.MINUTE, 59);
+        assertFalse(data.isExceptionAt(saturday.getTimeInMillis()));
+        assertTrue(data.isExceptionAt(saturday.getTimeInMillis() + 1000));
+        assertFalse(data.isExceptionAt(nineFiftyNine));
+    }
 }